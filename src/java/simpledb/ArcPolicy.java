@@ -0,0 +1,91 @@
+package simpledb;
+
+/**
+ * ArcPolicy implements the Adaptive Replacement Cache of Megiddo and Modha.
+ * Resident pages are split between T1, pages seen once recently, and T2,
+ * pages seen at least twice. Ghost lists B1 and B2 remember the ids of pages
+ * recently evicted from each. A miss that hits a ghost list shifts the target
+ * size of T1 towards the list that would have kept the page, so the cache
+ * adapts between recency and frequency and is not flushed by a single scan.
+ * <p>
+ * The pool asks for a victim before it knows which page it is about to read,
+ * so the tie-break of the original REPLACE routine that depends on the
+ * incoming page is not applied.
+ */
+public class ArcPolicy extends ReplacementPolicy {
+
+    private final PageQueue t1 = new PageQueue();
+    private final PageQueue t2 = new PageQueue();
+    private final PageQueue b1 = new PageQueue();
+    private final PageQueue b2 = new PageQueue();
+
+    /** the pool size */
+    private final int c;
+    /** target size of T1 */
+    private int p = 0;
+
+    /**
+     * Creates an ARC policy for a pool of numPages pages.
+     */
+    public ArcPolicy(int numPages) {
+        this.c = Math.max(1, numPages);
+    }
+
+    @Override
+    protected void accessed(PageId pid) {
+        if (t1.remove(pid)) {
+            t2.addLast(pid);
+        }
+        else {
+            t2.moveToLast(pid);
+        }
+    }
+
+    @Override
+    protected void added(PageId pid) {
+        if (t1.contains(pid) || t2.contains(pid)) {
+            accessed(pid);
+        }
+        else if (b1.contains(pid)) {
+            p = Math.min(c, p + Math.max(b2.size() / b1.size(), 1));
+            b1.remove(pid);
+            t2.addLast(pid);
+        }
+        else if (b2.contains(pid)) {
+            p = Math.max(0, p - Math.max(b1.size() / b2.size(), 1));
+            b2.remove(pid);
+            t2.addLast(pid);
+        }
+        else {
+            // keep |T1| + |B1| <= c and the whole directory within 2c
+            if (t1.size() + b1.size() >= c) {
+                b1.removeFirst();
+            }
+            else if (t1.size() + t2.size() + b1.size() + b2.size() >= 2 * c) {
+                b2.removeFirst();
+            }
+            t1.addLast(pid);
+        }
+    }
+
+    @Override
+    public void pageRemoved(PageId pid) {
+        if (!t1.remove(pid)) {
+            t2.remove(pid);
+        }
+    }
+
+    @Override
+    public PageId evict() {
+        if (!t1.isEmpty() && (t1.size() > p || t2.isEmpty())) {
+            PageId victim = t1.removeFirst();
+            b1.addLast(victim);
+            return victim;
+        }
+        PageId victim = t2.removeFirst();
+        if (victim != null) {
+            b2.addLast(victim);
+        }
+        return victim;
+    }
+}
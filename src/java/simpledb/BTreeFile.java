@@ -0,0 +1,774 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * BTreeFile is a B+ tree index on one field of a table stored in a HeapFile.
+ * Each tuple of the table has an entry in the index holding the tuple's key,
+ * its page number and its slot on the page, so an {@link IndexScan} finds
+ * the tuples with a given key, or in a given range, by reading one path from
+ * the root and then only the leaves and heap pages that hold matches.
+ * <p>
+ * Entries are ordered by key, and entries with equal keys by page and slot,
+ * so every entry is distinct and an entry can be deleted by descending to
+ * it. Page 0 of the file is a BTreeRootPtrPage; the other pages are
+ * BTreeInternalPages, BTreeLeafPages and BTreeHeaderPages, and the kind of
+ * each is recorded in the BTreePageIds pointing at it. Pages emptied by
+ * deletes are freed in the header pages and reused by later splits; pages
+ * are never merged, so a tree shrinks only as its leaves empty.
+ * <p>
+ * The file is maintained by {@link BufferPool#insertTuple} and
+ * {@link BufferPool#deleteTuple} along with its table; see
+ * {@link Catalog#createIndex}.
+ *
+ * @see BTreePage
+ */
+public class BTreeFile implements IndexFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private final int id;
+    private final int tableId;
+    private final int keyField;
+    private FileChannel channel;
+
+    /**
+     * Constructs an index backed by the specified file.
+     *
+     * @param f
+     *            the file that stores this index.
+     * @param tableId
+     *            the id of the indexed table
+     * @param tableTd
+     *            the TupleDesc of the indexed table
+     * @param keyField
+     *            the index of the indexed field in tableTd
+     */
+    public BTreeFile(File f, int tableId, TupleDesc tableTd, int keyField) {
+        this.file = f;
+        this.tableId = tableId;
+        this.keyField = keyField;
+        this.td = entryDesc(tableTd.getFieldType(keyField), tableTd.getFieldName(keyField));
+        this.id = f.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * @return the TupleDesc of the entries of an index on a field of the
+     *   specified type: the key, then the page number and slot of its tuple
+     */
+    public static TupleDesc entryDesc(Type keyType, String keyName) {
+        return new TupleDesc(new Type[] { keyType, Type.INT_TYPE, Type.INT_TYPE },
+                new String[] { keyName, "page", "slot" });
+    }
+
+    /**
+     * Returns the File backing this BTreeFile on disk.
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    // see IndexFile.java for javadocs
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    // see IndexFile.java for javadocs
+    public int getKeyField() {
+        return this.keyField;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * @return the TupleDesc of the entries of this index
+     */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    // see IndexFile.java for javadocs
+    public Tuple entryFor(Tuple t) {
+        RecordId rid = t.getRecordId();
+        Tuple e = new Tuple(this.td);
+        e.setField(0, t.getField(this.keyField));
+        e.setField(1, new IntField(rid.getPageId().getPageNumber()));
+        e.setField(2, new IntField(rid.getTupleNumber()));
+        return e;
+    }
+
+    /**
+     * A B+ tree finds the entries in a range of keys, but not those that
+     * differ from a key or match a pattern.
+     */
+    public boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (this.channel == null || !this.channel.isOpen()){
+            this.channel = new RandomAccessFile(this.file,"rw").getChannel();
+        }
+        return this.channel;
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void close() throws IOException {
+        if (this.channel != null){
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != this.getId() || !(pid instanceof BTreePageId)){
+            throw new IllegalArgumentException();
+        }
+        BTreePageId bpid = (BTreePageId)pid;
+        try{
+            byte[] data = readPageData(bpid.getPageNumber());
+            if (bpid.getPageNumber() == 0){
+                return new BTreeRootPtrPage(bpid, data);
+            }
+            switch (bpid.getCategory()){
+            case BTreePageId.INTERNAL:
+                return new BTreeInternalPage(bpid, data);
+            case BTreePageId.LEAF:
+                return new BTreeLeafPage(bpid, data);
+            case BTreePageId.HEADER:
+                return new BTreeHeaderPage(bpid, data);
+            default:
+                throw new IllegalArgumentException("page " + bpid.getPageNumber() + " has no kind");
+            }
+        }
+        catch (IOException ex){
+            return null;
+        }
+    }
+
+    /**
+     * Reads the specified page from disk; pages past the end of the file
+     * read as zeros.
+     */
+    private byte[] readPageData(int pageNo) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(BufferPool.getPageSize());
+        if (this.file.exists()){
+            long offset = (long)pageNo * BufferPool.getPageSize();
+            FileChannel fileChannel = getChannel();
+            while (data.hasRemaining()){
+                if (fileChannel.read(data, offset + data.position()) < 0){
+                    break;
+                }
+            }
+        }
+        return data.array();
+    }
+
+    private void writePageData(int pageNo, byte[] data) throws IOException {
+        ByteBuffer pageData = ByteBuffer.wrap(data);
+        long offset = (long)pageNo * BufferPool.getPageSize();
+        FileChannel fileChannel = getChannel();
+        while (pageData.hasRemaining()){
+            fileChannel.write(pageData, offset + pageData.position());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().getPageNumber(), page.getPageData());
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages){
+            writePage(p);
+        }
+        getChannel().force(false);
+    }
+
+    /**
+     * Returns the number of pages in this BTreeFile, including the root
+     * pointer and header pages.
+     */
+    public int numPages() {
+        return (int)((this.file.length() + BufferPool.getPageSize() - 1) / BufferPool.getPageSize());
+    }
+
+    /**
+     * Writes an empty page after the last page of the file.
+     *
+     * @return the number of the new page
+     */
+    private synchronized int appendEmptyPage() throws IOException {
+        int pageNo = Math.max(numPages(), 1);
+        writePageData(pageNo, new byte[BufferPool.getPageSize()]);
+        return pageNo;
+    }
+
+    private BTreePageId rootPtrId() {
+        return new BTreePageId(this.id, 0, BTreePageId.ROOT_PTR);
+    }
+
+    /**
+     * Fetches a page for a modification of the tree, which sees the pages it
+     * has already modified as they are.
+     */
+    private BTreePage getPage(TransactionId tid, Map<PageId, Page> dirtied, BTreePageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        Page p = dirtied.get(pid);
+        if (p != null){
+            return (BTreePage)p;
+        }
+        return (BTreePage)Database.getBufferPool().getPage(tid, pid, perm);
+    }
+
+    /**
+     * Makes a page the modification is about to change writable, upgrading
+     * its lock if it was read for the descent. The page is marked dirty right
+     * away so the buffer pool cannot evict it and lose the change before the
+     * modification returns it.
+     */
+    private void writable(TransactionId tid, Map<PageId, Page> dirtied, BTreePage page)
+            throws DbException, TransactionAbortedException {
+        if (!dirtied.containsKey(page.getId())){
+            Database.getBufferPool().upgradeLock(tid, page.getId());
+            page.markDirty(true, tid);
+            dirtied.put(page.getId(), page);
+        }
+    }
+
+    /**
+     * Descends from the specified page to the leaf the specified entry
+     * belongs on, recording the internal pages on the way.
+     */
+    private BTreeLeafPage findLeaf(TransactionId tid, Map<PageId, Page> dirtied, BTreePageId pid, Tuple e,
+            ArrayList<BTreeInternalPage> path) throws DbException, TransactionAbortedException {
+        while (pid.getCategory() == BTreePageId.INTERNAL){
+            BTreeInternalPage node = (BTreeInternalPage)getPage(tid, dirtied, pid, Permissions.READ_ONLY);
+            path.add(node);
+            pid = node.getChildId(node.childFor(e));
+        }
+        return (BTreeLeafPage)getPage(tid, dirtied, pid, Permissions.READ_WRITE);
+    }
+
+    /**
+     * Descends from the specified page to the leaf holding the first entry
+     * with a key at least the specified key, or greater than it if strict,
+     * or to the leftmost leaf if the key is null.
+     */
+    private BTreeLeafPage findLeaf(TransactionId tid, BTreePageId pid, Field key, boolean strict)
+            throws DbException, TransactionAbortedException {
+        while (pid.getCategory() == BTreePageId.INTERNAL){
+            BTreeInternalPage node = (BTreeInternalPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            pid = node.getChildId(key == null ? 0 : node.childForKey(key, strict));
+        }
+        return (BTreeLeafPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+    }
+
+    /**
+     * Adds the specified entry to this index.
+     *
+     * @param tid
+     *            the transaction performing the update
+     * @param e
+     *            the entry to add, of this file's TupleDesc
+     * @return the pages modified, including any pages split off
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple e)
+            throws DbException, IOException, TransactionAbortedException {
+        return insertTuples(tid, Collections.singletonList(e));
+    }
+
+    /**
+     * Adds the specified entries to this index one after another. The pages
+     * they modify are shared between them, so a page that several entries
+     * go to is upgraded and returned once.
+     *
+     * @param tid
+     *            the transaction performing the update
+     * @param entries
+     *            the entries to add, of this file's TupleDesc
+     * @return the pages modified, including any pages split off
+     */
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterable<Tuple> entries)
+            throws DbException, IOException, TransactionAbortedException {
+        LinkedHashMap<PageId, Page> dirtied = new LinkedHashMap<PageId, Page>();
+        for (Tuple e : entries){
+            if (!e.getTupleDesc().equals(this.td)){
+                throw new DbException("entry does not match the index's TupleDesc");
+            }
+            insertEntry(tid, dirtied, e);
+        }
+        return new ArrayList<Page>(dirtied.values());
+    }
+
+    private void insertEntry(TransactionId tid, Map<PageId, Page> dirtied, Tuple e)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage)getPage(tid, dirtied, rootPtrId(), Permissions.READ_ONLY);
+        if (rootPtr.getRootId() == null){
+            writable(tid, dirtied, rootPtr);
+            rootPtr.setRootId(newPage(tid, dirtied, rootPtr, BTreePageId.LEAF).getId());
+        }
+        ArrayList<BTreeInternalPage> path = new ArrayList<BTreeInternalPage>();
+        BTreeLeafPage leaf = findLeaf(tid, dirtied, rootPtr.getRootId(), e, path);
+        writable(tid, dirtied, leaf);
+        leaf.insertEntry(e);
+        if (leaf.getNumEntries() > BTreeLeafPage.maxEntries(this.td)){
+            splitLeaf(tid, dirtied, rootPtr, path, leaf);
+        }
+    }
+
+    /**
+     * Moves the upper half of an overfull leaf to a new leaf to its right.
+     */
+    private void splitLeaf(TransactionId tid, Map<PageId, Page> dirtied, BTreeRootPtrPage rootPtr,
+            ArrayList<BTreeInternalPage> path, BTreeLeafPage leaf)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeLeafPage right = (BTreeLeafPage)newPage(tid, dirtied, rootPtr, BTreePageId.LEAF);
+        Tuple separator = leaf.moveUpperHalfTo(right);
+        BTreePageId next = leaf.getRightSiblingId();
+        if (next != null){
+            BTreeLeafPage nextLeaf = (BTreeLeafPage)getPage(tid, dirtied, next, Permissions.READ_WRITE);
+            writable(tid, dirtied, nextLeaf);
+            nextLeaf.setLeftSiblingId(right.getId());
+        }
+        right.setRightSiblingId(next);
+        right.setLeftSiblingId(leaf.getId());
+        leaf.setRightSiblingId(right.getId());
+        insertIntoParent(tid, dirtied, rootPtr, path, leaf.getId(), separator, right.getId());
+    }
+
+    /**
+     * Adds a page split off to the right of another to the parent at the end
+     * of the path, splitting the parent in turn if it overflows, or makes a
+     * new root of the two pages if the path is empty.
+     */
+    private void insertIntoParent(TransactionId tid, Map<PageId, Page> dirtied, BTreeRootPtrPage rootPtr,
+            ArrayList<BTreeInternalPage> path, BTreePageId left, Tuple separator, BTreePageId right)
+            throws DbException, IOException, TransactionAbortedException {
+        if (path.isEmpty()){
+            BTreeInternalPage root = (BTreeInternalPage)newPage(tid, dirtied, rootPtr, BTreePageId.INTERNAL);
+            root.setChildren(left, separator, right);
+            writable(tid, dirtied, rootPtr);
+            rootPtr.setRootId(root.getId());
+            return;
+        }
+        BTreeInternalPage parent = path.remove(path.size() - 1);
+        writable(tid, dirtied, parent);
+        parent.insertChild(left, separator, right);
+        if (parent.getNumKeys() > BTreeInternalPage.maxKeys(this.td)){
+            BTreeInternalPage sibling = (BTreeInternalPage)newPage(tid, dirtied, rootPtr, BTreePageId.INTERNAL);
+            Tuple up = parent.moveUpperHalfTo(sibling);
+            insertIntoParent(tid, dirtied, rootPtr, path, parent.getId(), up, sibling.getId());
+        }
+    }
+
+    /**
+     * Removes the specified entry from this index.
+     *
+     * @param tid
+     *            the transaction performing the update
+     * @param e
+     *            the entry to remove, of this file's TupleDesc
+     * @return the pages modified
+     * @throws DbException if the index holds no such entry
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple e)
+            throws DbException, IOException, TransactionAbortedException {
+        LinkedHashMap<PageId, Page> dirtied = new LinkedHashMap<PageId, Page>();
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage)getPage(tid, dirtied, rootPtrId(), Permissions.READ_ONLY);
+        if (rootPtr.getRootId() == null){
+            throw new DbException("entry not present in index");
+        }
+        ArrayList<BTreeInternalPage> path = new ArrayList<BTreeInternalPage>();
+        BTreeLeafPage leaf = findLeaf(tid, dirtied, rootPtr.getRootId(), e, path);
+        if (!leaf.deleteEntry(e)){
+            throw new DbException("entry not present in index");
+        }
+        writable(tid, dirtied, leaf);
+        if (leaf.getNumEntries() == 0 && !path.isEmpty()){
+            BTreePageId left = leaf.getLeftSiblingId();
+            BTreePageId right = leaf.getRightSiblingId();
+            if (left != null){
+                BTreeLeafPage leftLeaf = (BTreeLeafPage)getPage(tid, dirtied, left, Permissions.READ_WRITE);
+                writable(tid, dirtied, leftLeaf);
+                leftLeaf.setRightSiblingId(right);
+            }
+            if (right != null){
+                BTreeLeafPage rightLeaf = (BTreeLeafPage)getPage(tid, dirtied, right, Permissions.READ_WRITE);
+                writable(tid, dirtied, rightLeaf);
+                rightLeaf.setLeftSiblingId(left);
+            }
+            removeFromParent(tid, dirtied, rootPtr, path, leaf);
+        }
+        return new ArrayList<Page>(dirtied.values());
+    }
+
+    /**
+     * Removes an empty page from the parent at the end of the path and frees
+     * it, removing the parent in turn if that leaves it with no children. A
+     * root left with a single child is replaced by the child.
+     */
+    private void removeFromParent(TransactionId tid, Map<PageId, Page> dirtied, BTreeRootPtrPage rootPtr,
+            ArrayList<BTreeInternalPage> path, BTreePage child)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreeInternalPage parent = path.remove(path.size() - 1);
+        writable(tid, dirtied, parent);
+        parent.removeChild(child.getId());
+        freePage(tid, dirtied, rootPtr, child);
+        if (parent.getNumChildren() == 0){
+            if (path.isEmpty()){
+                writable(tid, dirtied, rootPtr);
+                rootPtr.setRootId(null);
+                freePage(tid, dirtied, rootPtr, parent);
+            }
+            else{
+                removeFromParent(tid, dirtied, rootPtr, path, parent);
+            }
+        }
+        else if (path.isEmpty() && parent.getNumChildren() == 1){
+            writable(tid, dirtied, rootPtr);
+            rootPtr.setRootId(parent.getChildId(0));
+            freePage(tid, dirtied, rootPtr, parent);
+        }
+    }
+
+    /**
+     * Takes a page for the specified kind of page from the free pages, or
+     * appends one if none is free.
+     *
+     * @return the new page, empty and writable
+     */
+    private BTreePage newPage(TransactionId tid, Map<PageId, Page> dirtied, BTreeRootPtrPage rootPtr, int category)
+            throws DbException, IOException, TransactionAbortedException {
+        int pageNo = takeFreePage(tid, dirtied, rootPtr);
+        if (pageNo < 0){
+            pageNo = appendEmptyPage();
+        }
+        // a freed page may still hold any kind of page on disk, and any bytes
+        // read as a header page, so the page is locked through a header id
+        // and its new contents are built in memory; the disk copy is left
+        // alone until the page is flushed so an abort can restore it
+        BTreePageId pid = new BTreePageId(this.id, pageNo, BTreePageId.HEADER);
+        Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        Database.getBufferPool().discardPage(pid);
+        BTreePage page = emptyPage(new BTreePageId(this.id, pageNo, category));
+        writable(tid, dirtied, page);
+        return page;
+    }
+
+    private BTreePage emptyPage(BTreePageId pid) {
+        byte[] empty = new byte[BufferPool.getPageSize()];
+        switch (pid.getCategory()){
+        case BTreePageId.INTERNAL:
+            return new BTreeInternalPage(pid, empty);
+        case BTreePageId.LEAF:
+            return new BTreeLeafPage(pid, empty);
+        default:
+            return new BTreeHeaderPage(pid, empty);
+        }
+    }
+
+    /**
+     * Marks the first free page in use.
+     *
+     * @return the number of the page, or -1 if no page is free
+     */
+    private int takeFreePage(TransactionId tid, Map<PageId, Page> dirtied, BTreeRootPtrPage rootPtr)
+            throws DbException, TransactionAbortedException {
+        int first = 0;
+        for (BTreePageId hid = rootPtr.getHeaderId(); hid != null; first += BTreeHeaderPage.pagesPerHeader()){
+            BTreeHeaderPage header = (BTreeHeaderPage)getPage(tid, dirtied, hid, Permissions.READ_ONLY);
+            int i = header.firstFree();
+            if (i >= 0){
+                writable(tid, dirtied, header);
+                header.markFree(i, false);
+                return first + i;
+            }
+            hid = header.getNextId();
+        }
+        return -1;
+    }
+
+    /**
+     * Drops a page no longer in the tree and marks it free, extending the
+     * header chain as far as the page if needed.
+     */
+    private void freePage(TransactionId tid, Map<PageId, Page> dirtied, BTreeRootPtrPage rootPtr, BTreePage page)
+            throws DbException, IOException, TransactionAbortedException {
+        dirtied.remove(page.getId());
+        Database.getBufferPool().discardPage(page.getId());
+        int pageNo = page.getId().getPageNumber();
+        BTreeHeaderPage header;
+        BTreePageId hid = rootPtr.getHeaderId();
+        if (hid == null){
+            header = newHeaderPage(tid, dirtied);
+            writable(tid, dirtied, rootPtr);
+            rootPtr.setHeaderId(header.getId());
+        }
+        else{
+            header = (BTreeHeaderPage)getPage(tid, dirtied, hid, Permissions.READ_ONLY);
+        }
+        for (int n = pageNo / BTreeHeaderPage.pagesPerHeader(); n > 0; n--){
+            BTreePageId next = header.getNextId();
+            if (next == null){
+                BTreeHeaderPage appended = newHeaderPage(tid, dirtied);
+                writable(tid, dirtied, header);
+                header.setNextId(appended.getId());
+                header = appended;
+            }
+            else{
+                header = (BTreeHeaderPage)getPage(tid, dirtied, next, Permissions.READ_ONLY);
+            }
+        }
+        writable(tid, dirtied, header);
+        header.markFree(pageNo % BTreeHeaderPage.pagesPerHeader(), true);
+    }
+
+    private BTreeHeaderPage newHeaderPage(TransactionId tid, Map<PageId, Page> dirtied)
+            throws DbException, IOException, TransactionAbortedException {
+        BTreePageId hid = new BTreePageId(this.id, appendEmptyPage(), BTreePageId.HEADER);
+        BTreeHeaderPage header = (BTreeHeaderPage)Database.getBufferPool().getPage(tid, hid, Permissions.READ_WRITE);
+        writable(tid, dirtied, header);
+        return header;
+    }
+
+    /**
+     * Replaces the contents of this file with a tree of the specified
+     * entries, writing full leaves and the internal levels above them
+     * directly to disk. The file must not be in use by any transaction.
+     *
+     * @param entries the entries of the tree, in ascending order
+     */
+    public synchronized void bulkLoad(List<Tuple> entries) throws IOException {
+        getChannel().truncate(0);
+        byte[] empty = new byte[BufferPool.getPageSize()];
+        int perLeaf = BTreeLeafPage.maxEntries(this.td);
+        int nextPageNo = 1;
+        ArrayList<Tuple> separators = new ArrayList<Tuple>();
+        ArrayList<BTreePageId> level = new ArrayList<BTreePageId>();
+        BTreeLeafPage prev = null;
+        for (int start = 0; start < entries.size(); start += perLeaf){
+            BTreeLeafPage leaf = new BTreeLeafPage(new BTreePageId(this.id, nextPageNo++, BTreePageId.LEAF), empty);
+            leaf.appendEntries(entries.subList(start, Math.min(start + perLeaf, entries.size())));
+            if (prev != null){
+                prev.setRightSiblingId(leaf.getId());
+                leaf.setLeftSiblingId(prev.getId());
+                writePage(prev);
+            }
+            separators.add(entries.get(start));
+            level.add(leaf.getId());
+            prev = leaf;
+        }
+        if (prev != null){
+            writePage(prev);
+        }
+        int perNode = BTreeInternalPage.maxKeys(this.td) + 1;
+        while (level.size() > 1){
+            ArrayList<Tuple> upperSeparators = new ArrayList<Tuple>();
+            ArrayList<BTreePageId> upper = new ArrayList<BTreePageId>();
+            for (int start = 0; start < level.size(); start += perNode){
+                BTreeInternalPage node = new BTreeInternalPage(new BTreePageId(this.id, nextPageNo++, BTreePageId.INTERNAL), empty);
+                for (int i = start; i < Math.min(start + perNode, level.size()); i++){
+                    node.appendChild(separators.get(i), level.get(i));
+                }
+                writePage(node);
+                upperSeparators.add(separators.get(start));
+                upper.add(node.getId());
+            }
+            separators = upperSeparators;
+            level = upper;
+        }
+        BTreeRootPtrPage rootPtr = new BTreeRootPtrPage(rootPtrId(), empty);
+        rootPtr.setRootId(level.isEmpty() ? null : level.get(0));
+        writePage(rootPtr);
+        getChannel().force(false);
+    }
+
+    /**
+     * Returns an iterator over all the entries of this index, in order.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return indexIterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the entries of this index whose keys satisfy
+     * the specified predicate, in order. The iterator starts at the first
+     * match for EQUALS, GREATER_THAN and GREATER_THAN_OR_EQ and stops after
+     * the last for EQUALS, LESS_THAN and LESS_THAN_OR_EQ; for other
+     * operations it reads every entry.
+     *
+     * @param ipred the predicate the keys are tested with, or null for all
+     */
+    public DbFileIterator indexIterator(final TransactionId tid, final IndexPredicate ipred) {
+        return new AbstractDbFileIterator() {
+
+            private BTreeLeafPage leaf;
+            private int pos;
+
+            public void open() throws DbException, TransactionAbortedException {
+                BTreeRootPtrPage rootPtr = (BTreeRootPtrPage)Database.getBufferPool().getPage(tid, rootPtrId(), Permissions.READ_ONLY);
+                BTreePageId root = rootPtr.getRootId();
+                if (root == null){
+                    this.leaf = null;
+                    return;
+                }
+                Field key = null;
+                boolean strict = false;
+                if (ipred != null){
+                    switch (ipred.getOp()){
+                    case GREATER_THAN:
+                    case EQUALS:
+                    case GREATER_THAN_OR_EQ:
+                        key = ipred.getOperand();
+                        break;
+                    default:
+                        break;
+                    }
+                    if (ipred.getOp() == Predicate.Op.GREATER_THAN){
+                        strict = true;
+                    }
+                }
+                this.leaf = findLeaf(tid, root, key, strict);
+                this.pos = key == null ? 0 : this.leaf.firstWithKey(key, strict);
+            }
+
+            /**
+             * @return true if no entry after one whose key fails the
+             *   predicate can satisfy it
+             */
+            private boolean pastRange() {
+                switch (ipred.getOp()){
+                case EQUALS:
+                case LESS_THAN:
+                case LESS_THAN_OR_EQ:
+                    return true;
+                default:
+                    return false;
+                }
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (this.leaf != null){
+                    if (this.pos < this.leaf.getNumEntries()){
+                        Tuple e = this.leaf.getEntry(this.pos++);
+                        if (ipred == null || ipred.matches(e.getField(0))){
+                            return e;
+                        }
+                        if (pastRange()){
+                            this.leaf = null;
+                        }
+                        continue;
+                    }
+                    BTreePageId next = this.leaf.getRightSiblingId();
+                    this.leaf = next == null ? null
+                            : (BTreeLeafPage)Database.getBufferPool().getPage(tid, next, Permissions.READ_ONLY);
+                    this.pos = 0;
+                }
+                return null;
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                open();
+            }
+
+            public void close() {
+                super.close();
+                this.leaf = null;
+            }
+        };
+    }
+
+    /**
+     * Reads an entry of the specified format at an offset of a page.
+     */
+    static Tuple readEntry(TupleDesc td, ByteBuffer buf, int offset) {
+        Tuple e = new Tuple(td);
+        try{
+            for (int j = 0; j < td.numFields(); j++){
+                e.setField(j, td.getFieldType(j).parse(buf, offset));
+                offset += td.getFieldType(j).getLen();
+            }
+        }
+        catch (java.text.ParseException ex){
+            throw new IllegalStateException("corrupt index entry", ex);
+        }
+        return e;
+    }
+
+    /**
+     * Writes an entry in its TupleDesc's fixed-width format.
+     */
+    static void writeEntry(DataOutputStream dos, Tuple e) throws IOException {
+        for (int j = 0; j < e.getTupleDesc().numFields(); j++){
+            e.getField(j).serialize(dos);
+        }
+    }
+
+    static int compareKeys(Field a, Field b) {
+        if (a.compare(Predicate.Op.LESS_THAN, b)){
+            return -1;
+        }
+        return a.compare(Predicate.Op.GREATER_THAN, b) ? 1 : 0;
+    }
+
+    /**
+     * Compares two entries by key, then page number, then slot.
+     */
+    static int compareEntries(Tuple a, Tuple b) {
+        int c = compareKeys(a.getField(0), b.getField(0));
+        for (int j = 1; c == 0 && j < 3; j++){
+            c = compareKeys(a.getField(j), b.getField(j));
+        }
+        return c;
+    }
+
+    /**
+     * @return the position of the first of the sorted entries that is at
+     *   least the specified entry, or greater than it if upper
+     */
+    static int entryBound(List<Tuple> entries, Tuple e, boolean upper) {
+        int lo = 0;
+        int hi = entries.size();
+        while (lo < hi){
+            int mid = (lo + hi) >>> 1;
+            int c = compareEntries(entries.get(mid), e);
+            if (c < 0 || (upper && c == 0)){
+                lo = mid + 1;
+            }
+            else{
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * @return the position of the first of the sorted entries whose key is
+     *   at least the specified key, or greater than it if strict
+     */
+    static int keyBound(List<Tuple> entries, Field key, boolean strict) {
+        int lo = 0;
+        int hi = entries.size();
+        while (lo < hi){
+            int mid = (lo + hi) >>> 1;
+            int c = compareKeys(entries.get(mid).getField(0), key);
+            if (c < 0 || (strict && c == 0)){
+                lo = mid + 1;
+            }
+            else{
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+}
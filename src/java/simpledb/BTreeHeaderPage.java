@@ -0,0 +1,85 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * BTreeHeaderPage is one page of the bitmap of free pages of a BTreeFile.
+ * The header pages form a chain starting at the root pointer page, and the
+ * n-th page of the chain has a bit for each page number from
+ * n * {@link #pagesPerHeader()} on, which is set while the page is free.
+ * Pages appended to the file are in use, so the chain is only created once
+ * a page is first freed.
+ *
+ * @see BTreeFile
+ */
+public class BTreeHeaderPage extends BTreePage {
+
+    private static final int HEADER_SIZE = 4;
+
+    private int next;
+    private final BitSet free;
+
+    /**
+     * Create a BTreeHeaderPage from a set of bytes of data read from disk.
+     */
+    public BTreeHeaderPage(BTreePageId id, byte[] data) {
+        super(id, data);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        this.next = buf.getInt();
+        byte[] bits = new byte[data.length - HEADER_SIZE];
+        buf.get(bits);
+        this.free = BitSet.valueOf(bits);
+    }
+
+    /**
+     * @return the number of page numbers each header page covers
+     */
+    public static int pagesPerHeader() {
+        return (BufferPool.getPageSize() - HEADER_SIZE) * 8;
+    }
+
+    /**
+     * @return the id of the next header page, or null if this is the last
+     */
+    public BTreePageId getNextId() {
+        if (this.next == 0) {
+            return null;
+        }
+        return new BTreePageId(this.pid.getTableId(), this.next, BTreePageId.HEADER);
+    }
+
+    /**
+     * Sets the next header page of the chain.
+     */
+    public void setNextId(BTreePageId id) {
+        this.next = id.getPageNumber();
+    }
+
+    /**
+     * @return the position of the first free page this page covers, or -1
+     *   if none is free
+     */
+    public int firstFree() {
+        return this.free.nextSetBit(0);
+    }
+
+    /**
+     * Marks the page at the specified position of this header page's range
+     * free or in use.
+     */
+    public void markFree(int i, boolean isFree) {
+        this.free.set(i, isFree);
+    }
+
+    public BTreeHeaderPage getBeforeImage() {
+        return new BTreeHeaderPage(this.pid, getBeforeImageData());
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        buf.putInt(this.next);
+        buf.put(this.free.toByteArray());
+        return buf.array();
+    }
+}
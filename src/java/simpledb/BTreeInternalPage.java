@@ -0,0 +1,185 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Each instance of BTreeInternalPage stores one internal node of a
+ * BTreeFile: n child page numbers and the n - 1 entries separating them.
+ * Every entry under the child left of a separator is less than the
+ * separator, and every entry under the child right of it is at least the
+ * separator. The children are all leaves or all internal pages.
+ * <p>
+ * The page starts with the number of children and the kind of page they
+ * are, each an int, followed by the child page numbers and then the
+ * separators, each in the entry TupleDesc's fixed-width format.
+ *
+ * @see BTreeFile
+ */
+public class BTreeInternalPage extends BTreePage {
+
+    private static final int HEADER_SIZE = 8;
+
+    private final TupleDesc td;
+    private int childCategory;
+    private final ArrayList<Integer> children;
+    private final ArrayList<Tuple> keys;
+
+    /**
+     * Create a BTreeInternalPage from a set of bytes of data read from disk.
+     * The format of the separators is looked up in the catalog.
+     */
+    public BTreeInternalPage(BTreePageId id, byte[] data) {
+        super(id, data);
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int n = buf.getInt();
+        this.childCategory = buf.getInt();
+        this.children = new ArrayList<Integer>(n);
+        for (int i = 0; i < n; i++) {
+            this.children.add(buf.getInt());
+        }
+        this.keys = new ArrayList<Tuple>(Math.max(0, n - 1));
+        int offset = HEADER_SIZE + n * 4;
+        for (int i = 0; i < n - 1; i++) {
+            this.keys.add(BTreeFile.readEntry(this.td, buf, offset + i * this.td.getSize()));
+        }
+    }
+
+    /**
+     * @return the number of separators of the specified format that fit on
+     *   an internal page, one fewer than the number of children
+     */
+    public static int maxKeys(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE - 4) / (td.getSize() + 4);
+    }
+
+    /**
+     * @return the number of children of this page
+     */
+    public int getNumChildren() {
+        return this.children.size();
+    }
+
+    /**
+     * @return the number of separators on this page
+     */
+    public int getNumKeys() {
+        return this.keys.size();
+    }
+
+    /**
+     * @return the id of the child at the specified position
+     */
+    public BTreePageId getChildId(int i) {
+        return new BTreePageId(this.pid.getTableId(), this.children.get(i), this.childCategory);
+    }
+
+    /**
+     * @return the position of the child that holds the specified entry
+     */
+    public int childFor(Tuple e) {
+        return BTreeFile.entryBound(this.keys, e, true);
+    }
+
+    /**
+     * @return the position of the child holding the first entry with a key
+     *   at least the specified key, or greater than it if strict
+     */
+    public int childForKey(Field key, boolean strict) {
+        return BTreeFile.keyBound(this.keys, key, strict);
+    }
+
+    /**
+     * Makes this empty page the parent of two pages split apart at the
+     * specified separator.
+     */
+    public void setChildren(BTreePageId left, Tuple separator, BTreePageId right) {
+        this.childCategory = left.getCategory();
+        this.children.add(left.getPageNumber());
+        this.children.add(right.getPageNumber());
+        this.keys.add(separator);
+    }
+
+    /**
+     * Adds a child to the right of an existing child that was split. The
+     * page may hold more children than fit on disk until it is split.
+     *
+     * @param left the child that was split
+     * @param separator the first entry of the new child
+     * @param right the new child
+     */
+    public void insertChild(BTreePageId left, Tuple separator, BTreePageId right) {
+        int i = this.children.indexOf(left.getPageNumber());
+        this.keys.add(i, separator);
+        this.children.add(i + 1, right.getPageNumber());
+    }
+
+    /**
+     * Removes a child, and a separator next to it, from this page.
+     */
+    public void removeChild(BTreePageId child) {
+        int i = this.children.indexOf(child.getPageNumber());
+        this.children.remove(i);
+        if (!this.keys.isEmpty()) {
+            this.keys.remove(Math.max(i - 1, 0));
+        }
+    }
+
+    /**
+     * Adds a child to the right of the existing children, separated from
+     * them by the specified entry, which is ignored for the first child.
+     */
+    public void appendChild(Tuple separator, BTreePageId child) {
+        if (!this.children.isEmpty()) {
+            this.keys.add(separator);
+        }
+        this.childCategory = child.getCategory();
+        this.children.add(child.getPageNumber());
+    }
+
+    /**
+     * Moves the upper half of this page's children to the specified empty
+     * page.
+     *
+     * @return the separator between the two pages, which is on neither
+     */
+    public Tuple moveUpperHalfTo(BTreeInternalPage page) {
+        int mid = this.keys.size() / 2;
+        Tuple separator = this.keys.get(mid);
+        page.childCategory = this.childCategory;
+        List<Integer> movedChildren = this.children.subList(mid + 1, this.children.size());
+        page.children.addAll(movedChildren);
+        movedChildren.clear();
+        List<Tuple> movedKeys = this.keys.subList(mid, this.keys.size());
+        page.keys.addAll(movedKeys.subList(1, movedKeys.size()));
+        movedKeys.clear();
+        return separator;
+    }
+
+    public BTreeInternalPage getBeforeImage() {
+        return new BTreeInternalPage(this.pid, getBeforeImageData());
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(this.children.size());
+            dos.writeInt(this.childCategory);
+            for (int child : this.children) {
+                dos.writeInt(child);
+            }
+            for (Tuple k : this.keys) {
+                BTreeFile.writeEntry(dos, k);
+            }
+            dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // writing to memory cannot fail
+            throw new IllegalStateException(e);
+        }
+        return baos.toByteArray();
+    }
+}
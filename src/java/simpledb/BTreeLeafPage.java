@@ -0,0 +1,167 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Each instance of BTreeLeafPage stores one leaf of a BTreeFile: a run of
+ * index entries in ascending order, and the page numbers of the leaves to
+ * its left and right, which link all the leaves in entry order.
+ * <p>
+ * The page starts with the number of entries and the two sibling page
+ * numbers, each an int and 0 where there is no sibling, followed by the
+ * entries in order, each in its TupleDesc's fixed-width format.
+ *
+ * @see BTreeFile
+ */
+public class BTreeLeafPage extends BTreePage {
+
+    private static final int HEADER_SIZE = 12;
+
+    private final TupleDesc td;
+    private int left;
+    private int right;
+    private final ArrayList<Tuple> entries;
+
+    /**
+     * Create a BTreeLeafPage from a set of bytes of data read from disk. The
+     * format of the entries is looked up in the catalog.
+     */
+    public BTreeLeafPage(BTreePageId id, byte[] data) {
+        super(id, data);
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int n = buf.getInt();
+        this.left = buf.getInt();
+        this.right = buf.getInt();
+        this.entries = new ArrayList<Tuple>(n);
+        for (int i = 0; i < n; i++) {
+            this.entries.add(BTreeFile.readEntry(this.td, buf, HEADER_SIZE + i * this.td.getSize()));
+        }
+    }
+
+    /**
+     * @return the number of entries of the specified format that fit on a
+     *   leaf page
+     */
+    public static int maxEntries(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / td.getSize();
+    }
+
+    /**
+     * @return the number of entries on this page
+     */
+    public int getNumEntries() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return a copy of the entry at the specified position of this page,
+     *   with a RecordId pointing at this page
+     */
+    public Tuple getEntry(int i) {
+        Tuple stored = this.entries.get(i);
+        Tuple e = new Tuple(this.td);
+        for (int j = 0; j < this.td.numFields(); j++) {
+            e.setField(j, stored.getField(j));
+        }
+        e.setRecordId(new RecordId(this.pid, i));
+        return e;
+    }
+
+    /**
+     * @return the position of the first entry with a key at least the
+     *   specified key, or greater than it if strict
+     */
+    public int firstWithKey(Field key, boolean strict) {
+        return BTreeFile.keyBound(this.entries, key, strict);
+    }
+
+    /**
+     * Adds an entry at its place in the order. The page may hold more
+     * entries than fit on disk until it is split.
+     */
+    public void insertEntry(Tuple e) {
+        this.entries.add(BTreeFile.entryBound(this.entries, e, false), e);
+    }
+
+    /**
+     * Removes the specified entry from this page.
+     *
+     * @return false if the page holds no such entry
+     */
+    public boolean deleteEntry(Tuple e) {
+        int i = BTreeFile.entryBound(this.entries, e, false);
+        if (i < this.entries.size() && BTreeFile.compareEntries(this.entries.get(i), e) == 0) {
+            this.entries.remove(i);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Adds entries that are all greater than those on this page.
+     */
+    public void appendEntries(List<Tuple> more) {
+        this.entries.addAll(more);
+    }
+
+    /**
+     * Moves the upper half of this page's entries to the specified empty
+     * page.
+     *
+     * @return the first entry moved, which separates the two pages
+     */
+    public Tuple moveUpperHalfTo(BTreeLeafPage page) {
+        List<Tuple> upper = this.entries.subList(this.entries.size() / 2, this.entries.size());
+        page.appendEntries(upper);
+        upper.clear();
+        return page.entries.get(0);
+    }
+
+    /**
+     * @return the id of the leaf to the left of this one, or null
+     */
+    public BTreePageId getLeftSiblingId() {
+        return this.left == 0 ? null : new BTreePageId(this.pid.getTableId(), this.left, BTreePageId.LEAF);
+    }
+
+    /**
+     * @return the id of the leaf to the right of this one, or null
+     */
+    public BTreePageId getRightSiblingId() {
+        return this.right == 0 ? null : new BTreePageId(this.pid.getTableId(), this.right, BTreePageId.LEAF);
+    }
+
+    public void setLeftSiblingId(BTreePageId id) {
+        this.left = id == null ? 0 : id.getPageNumber();
+    }
+
+    public void setRightSiblingId(BTreePageId id) {
+        this.right = id == null ? 0 : id.getPageNumber();
+    }
+
+    public BTreeLeafPage getBeforeImage() {
+        return new BTreeLeafPage(this.pid, getBeforeImageData());
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(this.entries.size());
+            dos.writeInt(this.left);
+            dos.writeInt(this.right);
+            for (Tuple e : this.entries) {
+                BTreeFile.writeEntry(dos, e);
+            }
+            dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // writing to memory cannot fail
+            throw new IllegalStateException(e);
+        }
+        return baos.toByteArray();
+    }
+}
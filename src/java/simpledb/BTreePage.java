@@ -0,0 +1,74 @@
+package simpledb;
+
+/**
+ * BTreePage holds what the pages of a BTreeFile have in common: their id,
+ * their dirty state and the before image used by recovery. Each kind of
+ * page decodes its bytes when it is constructed and encodes them again in
+ * getPageData.
+ *
+ * @see BTreeFile
+ */
+public abstract class BTreePage implements Page {
+
+    protected final BTreePageId pid;
+
+    private boolean dirty;
+    private TransactionId tid;
+
+    private byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * @param id the id of the page
+     * @param data the bytes of the page as read from disk
+     */
+    protected BTreePage(BTreePageId id, byte[] data) {
+        this.pid = id;
+        synchronized(oldDataLock)
+        {
+        oldData = data.clone();
+        }
+    }
+
+    /**
+     * @return the bytes of this page before it was modified -- used by
+     *   getBeforeImage
+     */
+    protected byte[] getBeforeImageData() {
+        synchronized(oldDataLock)
+        {
+            return oldData;
+        }
+    }
+
+    public void setBeforeImage() {
+        byte[] newData = getPageData();
+        synchronized(oldDataLock)
+        {
+        oldData = newData;
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public BTreePageId getId() {
+        return this.pid;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return this.dirty ? this.tid : null;
+    }
+}
@@ -0,0 +1,78 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * BTreeRootPtrPage is page 0 of every BTreeFile. It holds the page number
+ * and kind of the tree's root, which change as the root splits or
+ * collapses, and the page number of the first header page. A page number of
+ * 0 means there is no such page, so an all-zero page is an empty tree.
+ *
+ * @see BTreeFile
+ */
+public class BTreeRootPtrPage extends BTreePage {
+
+    private int root;
+    private int rootCategory;
+    private int header;
+
+    /**
+     * Create a BTreeRootPtrPage from a set of bytes of data read from disk.
+     */
+    public BTreeRootPtrPage(BTreePageId id, byte[] data) {
+        super(id, data);
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        this.root = buf.getInt();
+        this.rootCategory = buf.getInt();
+        this.header = buf.getInt();
+    }
+
+    /**
+     * @return the id of the root page, or null if the tree is empty
+     */
+    public BTreePageId getRootId() {
+        if (this.root == 0) {
+            return null;
+        }
+        return new BTreePageId(this.pid.getTableId(), this.root, this.rootCategory);
+    }
+
+    /**
+     * Sets the root page of the tree.
+     *
+     * @param id the id of the new root, or null to empty the tree
+     */
+    public void setRootId(BTreePageId id) {
+        this.root = id == null ? 0 : id.getPageNumber();
+        this.rootCategory = id == null ? 0 : id.getCategory();
+    }
+
+    /**
+     * @return the id of the first header page, or null if there is none
+     */
+    public BTreePageId getHeaderId() {
+        if (this.header == 0) {
+            return null;
+        }
+        return new BTreePageId(this.pid.getTableId(), this.header, BTreePageId.HEADER);
+    }
+
+    /**
+     * Sets the first header page of the file.
+     */
+    public void setHeaderId(BTreePageId id) {
+        this.header = id.getPageNumber();
+    }
+
+    public BTreeRootPtrPage getBeforeImage() {
+        return new BTreeRootPtrPage(this.pid, getBeforeImageData());
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        buf.putInt(this.root);
+        buf.putInt(this.rootCategory);
+        buf.putInt(this.header);
+        return buf.array();
+    }
+}
@@ -2,7 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from disk.
@@ -28,17 +28,32 @@ public class BufferPool {
 	 */
 	public static final int DEFAULT_PAGES = 50;
 
+	/* Cached pages keyed by PageId.getKey(), guarded by this */
+	private final LongHashMap<Page> cached_pages;
+	/* Chooses the pages to evict, guarded by this */
+	private final ReplacementPolicy policy;
+	/* Ring owning each cached page that was read through a BufferRing, guarded by this */
+	private final LongHashMap<BufferRing> ringPages;
+	/* Off-heap frames holding HeapFile pages, or null to keep pages on the heap; guarded by this */
+	private final FrameArena arena;
+	/* Pages written back by the PageWriter and not dirtied since, guarded by this */
+	private final LongHashMap<PageId> cleanedPages;
+	/* Committed transactions whose dirty pages may still be cached, guarded by this */
+	private final Set<TransactionId> committedWriters;
+	/* Pages being read from disk outside the monitor, guarded by this */
+	private final LongHashMap<PageLoad> loading;
+	final int numPages;
+	private final LockManager lockManager;
 
-	/*Lock type enumeration*/
-	public static final int NO_LOCK = 0;
-	public static final int SHARED_LOCK = 1;
-	public static final int EXCL_LOCK = 2;
+	/* Background writer, or null if none is running; guarded by this */
+	private PageWriter writer;
+	/* Evictions that found a page cleaned by the writer, guarded by this */
+	private long stallsAvoided = 0;
+	/* Evictions that had to write their victim, guarded by this */
+	private long dirtyEvictions = 0;
 
-	/* Cached pages */
-	private static ConcurrentHashMap<PageId, Page> cached_pages;
-	private Queue<PageId> lruStore;
-	final int numPages;
-	private static ConcurrentHashMap<TransactionId, ConcurrentHashMap<PageId, Integer>> pageLocks;
+	/** Replacement policy used when none is specified */
+	public static final ReplacementPolicy.Kind DEFAULT_POLICY = ReplacementPolicy.Kind.CLOCK;
 
 	/**
 	 * Creates a BufferPool that caches up to numPages pages.
@@ -47,10 +62,45 @@ public class BufferPool {
 	 *            maximum number of pages in this buffer pool.
 	 */
 	public BufferPool(int numPages) {
-		this.cached_pages = new ConcurrentHashMap<PageId, Page>();
-		this.lruStore = new LinkedList<PageId>();
+		this(numPages, DEFAULT_POLICY);
+	}
+
+	/**
+	 * Creates a BufferPool that caches up to numPages pages and evicts pages
+	 * using the specified replacement policy.
+	 *
+	 * @param numPages
+	 *            maximum number of pages in this buffer pool.
+	 * @param policy
+	 *            the replacement policy to use
+	 */
+	public BufferPool(int numPages, ReplacementPolicy.Kind policy) {
+		this(numPages, policy, false);
+	}
+
+	/**
+	 * Creates a BufferPool that caches up to numPages pages and evicts pages
+	 * using the specified replacement policy, optionally keeping the bytes of
+	 * cached HeapFile pages off the Java heap.
+	 *
+	 * @param numPages
+	 *            maximum number of pages in this buffer pool.
+	 * @param policy
+	 *            the replacement policy to use
+	 * @param offHeap
+	 *            true to preallocate a {@link FrameArena} of numPages frames
+	 *            and read HeapFile pages into it
+	 */
+	public BufferPool(int numPages, ReplacementPolicy.Kind policy, boolean offHeap) {
+		this.arena = offHeap ? new FrameArena(numPages, getPageSize()) : null;
+		this.cached_pages = new LongHashMap<Page>(numPages);
+		this.policy = policy.create(numPages);
+		this.ringPages = new LongHashMap<BufferRing>();
+		this.cleanedPages = new LongHashMap<PageId>();
+		this.committedWriters = new HashSet<TransactionId>();
+		this.loading = new LongHashMap<PageLoad>();
 		this.numPages = numPages;
-		this.pageLocks = new ConcurrentHashMap<TransactionId,ConcurrentHashMap<PageId, Integer>>();
+		this.lockManager = new LockManager();
 	}
 
 	public static int getPageSize() {
@@ -82,70 +132,421 @@ public class BufferPool {
 	 *            the ID of the requested page
 	 * @param perm
 	 *            the requested permissions on the page
+	 * @throws TransactionAbortedException
+	 *             if waiting for the lock would deadlock and this transaction
+	 *             was chosen as the victim
 	 */
 	public Page getPage(TransactionId tid, PageId pid, Permissions perm)
-			throws TransactionAbortedException, DbException, InterruptedException {
-
-		Page p = this.cached_pages.get(pid);
-		if (p == null) {
-			if (this.cached_pages.size() >= numPages) {
-				evictPage();
-			}
-			DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
-			boolean canAccess = false;
-			int newLock = NO_LOCK;
-			int lock = NO_LOCK;
-			Iterator<ConcurrentHashMap<PageId, Integer>> transIter = this.pageLocks.values().iterator();
-
-			int count = 0;
-			while(!canAccess){
-				if (count > 0){
-					System.out.print("     LOCKING UP      ");
-					wait();
-				}
-				//check each transaction to see if it holds a lock for page
-				while (transIter.hasNext() || lock != NO_LOCK){
-					ConcurrentHashMap<PageId, Integer> transLocks = transIter.next();
+			throws TransactionAbortedException, DbException {
+		return getPage(tid, pid, perm, null);
+	}
 
-					if (transLocks.get(pid) != null){
-						lock = transLocks.get(pid);
+	/**
+	 * Retrieve the specified page like {@link #getPage(TransactionId, PageId, Permissions)},
+	 * but if it is not cached, read it into the specified ring instead of the
+	 * main cache.
+	 *
+	 * @param ring
+	 *            the ring to read the page into, or null to use the main cache
+	 * @see BufferRing
+	 */
+	public Page getPage(TransactionId tid, PageId pid, Permissions perm, BufferRing ring)
+			throws TransactionAbortedException, DbException {
+
+		// block on the page's lock before touching the cache, so that hits are
+		// checked as well and no pool monitor is held while waiting
+		lockManager.acquireLock(tid, pid, perm == Permissions.READ_WRITE);
+
+		while (true) {
+			PageLoad load;
+			boolean reader = false;
+			synchronized (this) {
+				Page p = this.cached_pages.get(pid.getKey());
+				if (p != null) {
+					if (ring == null && this.ringPages.containsKey(pid.getKey())) {
+						// a page read by a scan is wanted elsewhere; hand it to the main cache
+						this.ringPages.remove(pid.getKey()).remove(pid);
+						policy.pageAdded(pid);
+						policy.pageHit(pid);
+					} else if (!this.ringPages.containsKey(pid.getKey())) {
+						policy.pageHit(pid);
 					}
+					return p;
 				}
-
-				if (perm == Permissions.READ_ONLY){
-					if (lock != EXCL_LOCK){
-						canAccess = true;
-						newLock = SHARED_LOCK;
-					}
+				load = this.loading.get(pid.getKey());
+				if (load == null) {
+					load = startLoad(pid, ring, false);
+					reader = true;
 				}
-				else if (perm == Permissions.READ_WRITE){
-					System.out.print(" CHECKING-2 ");
-					if (lock == NO_LOCK){
-						canAccess = true;
-						newLock = EXCL_LOCK;
-					}
+			}
+			if (reader) {
+				Page p = finishLoad(load);
+				if (!load.cancelled) {
+					return p;
 				}
-				count += 1;
+			} else {
+				awaitLoad(load);
 			}
+			// look the page up again: another request read it, or it was
+			// discarded while it was read
+		}
+	}
 
-			ConcurrentHashMap<PageId, Integer> myLocks = this.pageLocks.get(tid);
-			if (myLocks == null){
-				System.out.print(newLock);
-				myLocks = new ConcurrentHashMap<PageId, Integer>();
+	/**
+	 * A page being read from disk without the pool's monitor held. The slot
+	 * the page takes in the pool is made when the read starts, and requests
+	 * for the same page wait for that read instead of issuing their own.
+	 */
+	private static class PageLoad {
+		final PageId pid;
+		/* ring the page is read into, or null for the main cache */
+		final BufferRing ring;
+		/* true if nobody asked for the page yet */
+		final boolean prefetch;
+		/* arena frame the page is read into, or -1 */
+		int frame = -1;
+		/* set by discardPage: the copy being read may be stale */
+		volatile boolean cancelled = false;
+		final CountDownLatch done = new CountDownLatch(1);
+
+		PageLoad(PageId pid, BufferRing ring, boolean prefetch) {
+			this.pid = pid;
+			this.ring = ring;
+			this.prefetch = prefetch;
+		}
+	}
+
+	/**
+	 * Makes room for a page that is not cached and registers its load. If a
+	 * ring is given, the page replaces the ring's oldest page, or takes a
+	 * slot of the main cache while the ring is still filling up.
+	 *
+	 * @param ring
+	 *            the ring to read the page into, or null for the main cache
+	 */
+	private synchronized PageLoad startLoad(PageId pid, BufferRing ring, boolean prefetch) throws DbException {
+		if (ring != null && ring.isReleased()) {
+			ring = null;
+		}
+		PageLoad load = new PageLoad(pid, ring, prefetch);
+		PageId recycled = ring == null ? null : ring.add(pid);
+		if (recycled != null && this.cached_pages.containsKey(recycled.getKey())) {
+			try {
+				flushPage(recycled);
+			} catch (IOException e) {
+				ring.remove(pid);
+				throw new DbException("could not write page " + recycled.getPageNumber() + " recycled by a scan");
 			}
-			myLocks.put(pid,newLock);
-			this.pageLocks.put(tid,myLocks);
+			pageDropped(this.cached_pages.remove(recycled.getKey()));
+			this.ringPages.remove(recycled.getKey());
+		} else if (this.cached_pages.size() > 0
+				&& this.cached_pages.size() + this.loading.size() >= numPages) {
+			evictPage();
+		}
+		DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+		if (this.arena != null && file instanceof HeapFile) {
+			load.frame = this.arena.allocate();
+		}
+		this.loading.put(pid.getKey(), load);
+		return load;
+	}
 
-			p = file.readPage(pid);
-			this.cached_pages.put(pid, p);
+	/**
+	 * Reads the page of a load without holding the pool's monitor, and adds
+	 * it to the cache.
+	 *
+	 * @return the cached page, or null if it could not be read
+	 */
+	private Page finishLoad(PageLoad load) {
+		Page p = null;
+		try {
+			p = readPage(load.pid, load.frame);
+		} finally {
+			synchronized (this) {
+				p = install(load, p);
+			}
+			load.done.countDown();
+		}
+		return p;
+	}
 
-		}else {
-			lruStore.remove(pid);
+	/**
+	 * Adds the page a load read to the cache, unless the read failed, the
+	 * page was discarded while it was read, or a modified version of it was
+	 * added by an insert or delete in the meantime.
+	 *
+	 * @return the cached version of the page, or null if there is none
+	 */
+	private synchronized Page install(PageLoad load, Page p) {
+		long key = load.pid.getKey();
+		if (this.loading.get(key) == load) {
+			this.loading.remove(key);
+		}
+		Page cached = this.cached_pages.get(key);
+		if (p == null || load.cancelled || cached != null) {
+			if (p != null) {
+				pageDropped(p);
+			} else if (load.frame >= 0) {
+				this.arena.release(load.frame);
+			}
+			if (load.ring != null && !this.ringPages.containsKey(key)) {
+				load.ring.remove(load.pid);
+			}
+			return cached;
+		}
+		this.cached_pages.put(key, p);
+		if (load.ring != null && !load.ring.isReleased() && load.ring.contains(load.pid)) {
+			this.ringPages.put(key, load.ring);
+		} else if (load.prefetch) {
+			policy.pageAdded(load.pid);
+		} else {
+			policy.pageMissed(load.pid);
 		}
-		
-		lruStore.add(pid);
 		return p;
+	}
+
+	/**
+	 * Waits for another request's read of a page to finish.
+	 */
+	private void awaitLoad(PageLoad load) throws DbException {
+		try {
+			load.done.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DbException("interrupted while waiting for page " + load.pid.getPageNumber());
+		}
+	}
+
+	/**
+	 * Reads a page from its file, into the specified arena frame if there is
+	 * one. Called without the pool's monitor.
+	 */
+	private Page readPage(PageId pid, int frame) {
+		DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+		if (frame >= 0) {
+			return ((HeapFile)file).readPage(pid, this.arena.frame(frame), frame);
+		}
+		return file.readPage(pid);
+	}
+
+	/**
+	 * Returns the arena frame of a page that has left the cache, once the
+	 * page no longer reads from it.
+	 */
+	private synchronized void pageDropped(Page p) {
+		if (p instanceof HeapPage) {
+			HeapPage hp = (HeapPage)p;
+			int frame = hp.getFrame();
+			if (frame >= 0) {
+				hp.releaseFrame();
+				this.arena.release(frame);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of arena frames not holding a cached page, or -1 if
+	 *         the pool keeps its pages on the heap
+	 */
+	public synchronized int getFreeFrames() {
+		return this.arena == null ? -1 : this.arena.getFreeFrames();
+	}
+
+	/**
+	 * Creates a ring of frames for a sequential scan over a table of the
+	 * specified size. The ring must be returned with {@link #releaseRing}.
+	 *
+	 * @param tablePages
+	 *            the number of pages of the table to scan
+	 * @return a ring, or null if the table fits in the pool and should be
+	 *         cached normally
+	 * @see BufferRing#sizeFor
+	 */
+	public BufferRing newRing(int tablePages) {
+		int size = BufferRing.sizeFor(tablePages, numPages);
+		return size == 0 ? null : new BufferRing(size);
+	}
+
+	/**
+	 * Returns a ring to the pool. Clean pages still in the ring are dropped
+	 * from the cache; dirty ones join the main cache.
+	 */
+	public synchronized void releaseRing(BufferRing ring) {
+		for (PageId pid : ring.release()) {
+			if (this.ringPages.remove(pid.getKey()) == null) {
+				continue;
+			}
+			Page p = this.cached_pages.get(pid.getKey());
+			if (p == null) {
+				continue;
+			}
+			if (p.isDirty() != null) {
+				policy.pageAdded(pid);
+			} else {
+				pageDropped(this.cached_pages.remove(pid.getKey()));
+			}
+		}
+	}
+
+	/**
+	 * Reads the specified page into the pool ahead of an expected getPage call.
+	 * No lock is acquired: the page is only loaded if it is neither cached nor
+	 * already being read, so the copy on disk is current. The read happens
+	 * outside the pool's monitor, like a getPage miss. Transactions still lock
+	 * the page when they request it through getPage.
+	 *
+	 * @param pid
+	 *            the ID of the page to load
+	 * @return true if the page was read from disk, false if it was already
+	 *         cached or does not exist
+	 * @see ReadAhead
+	 */
+	public boolean prefetchPage(PageId pid) throws DbException {
+		return prefetchPage(pid, null);
+	}
+
+	/**
+	 * Reads the specified page ahead of an expected getPage call like
+	 * {@link #prefetchPage(PageId)}, loading it into the specified ring.
+	 *
+	 * @param ring
+	 *            the ring to read the page into, or null to use the main cache;
+	 *            nothing is read once the ring has been released
+	 */
+	public boolean prefetchPage(PageId pid, BufferRing ring) throws DbException {
+		PageLoad load;
+		synchronized (this) {
+			if (this.cached_pages.containsKey(pid.getKey()) || this.loading.containsKey(pid.getKey())) {
+				return false;
+			}
+			if (ring != null && ring.isReleased()) {
+				// the scan is over
+				return false;
+			}
+			load = startLoad(pid, ring, true);
+		}
+		return finishLoad(load) != null && !load.cancelled;
+	}
+
+	/**
+	 * Starts a background writer that keeps the fraction of dirty pages in
+	 * the pool between the specified watermarks, so that evictions rarely
+	 * have to write a page. Does nothing if a writer is already running.
+	 *
+	 * @param lowWatermark
+	 *            fraction of the pool left dirty once the writer stops cleaning
+	 * @param highWatermark
+	 *            fraction of the pool that may be dirty before the writer
+	 *            starts cleaning
+	 * @return the running writer
+	 * @see PageWriter
+	 */
+	public synchronized PageWriter startPageWriter(double lowWatermark, double highWatermark) {
+		if (this.writer == null) {
+			this.writer = new PageWriter(this, lowWatermark, highWatermark, PageWriter.DEFAULT_INTERVAL);
+			this.writer.start();
+		}
+		return this.writer;
+	}
+
+	/**
+	 * Stops the background writer, if one is running.
+	 */
+	public void stopPageWriter() {
+		PageWriter w;
+		synchronized (this) {
+			w = this.writer;
+			this.writer = null;
+		}
+		// the writer needs the pool's monitor to finish its current batch
+		if (w != null) {
+			w.shutdown();
+		}
+	}
+
+	/**
+	 * @return the number of dirty pages in the pool
+	 */
+	synchronized int getDirtyPageCount() {
+		int dirty = 0;
+		Iterator<Page> pagesIter = this.cached_pages.values();
+		while (pagesIter.hasNext()) {
+			if (pagesIter.next().isDirty() != null) {
+				dirty++;
+			}
+		}
+		return dirty;
+	}
+
+	/**
+	 * Writes back up to max dirty pages whose last update was made by a
+	 * transaction that has committed, so no uncommitted change reaches disk.
+	 * Following the write-ahead rule, an update record is logged for each
+	 * page and the log is forced before any of the pages is written.
+	 *
+	 * @return the number of pages written
+	 */
+	synchronized int cleanPages(int max) throws IOException {
+		ArrayList<Page> batch = new ArrayList<Page>();
+		Iterator<Page> pagesIter = this.cached_pages.values();
+		while (batch.size() < max && pagesIter.hasNext()) {
+			Page p = pagesIter.next();
+			if (p.isDirty() != null && this.committedWriters.contains(p.isDirty())) {
+				batch.add(p);
+			}
+		}
+		if (batch.isEmpty()) {
+			return 0;
+		}
+		LogFile log = Database.getLogFile();
+		for (Page p : batch) {
+			log.logWrite(p.isDirty(), p.getBeforeImage(), p);
+		}
+		log.force();
+		writePages(batch);
+		for (Page p : batch) {
+			p.setBeforeImage();
+			this.cleanedPages.put(p.getId().getKey(), p.getId());
+		}
+		return batch.size();
+	}
 
+	/**
+	 * @return the number of evictions that found a clean victim because the
+	 *         background writer had already written it
+	 */
+	public synchronized long getStallsAvoided() {
+		return stallsAvoided;
+	}
+
+	/**
+	 * @return the number of evictions that had to write a dirty victim
+	 */
+	public synchronized long getDirtyEvictions() {
+		return dirtyEvictions;
+	}
+
+	/**
+	 * Upgrades the shared lock held by the transaction on the specified page to
+	 * an exclusive one in place. Unlike releasing the page and requesting it
+	 * again with READ_WRITE, no other writer can lock the page in between. May
+	 * block until the other readers of the page have released it.
+	 *
+	 * @param tid
+	 *            the ID of the transaction requesting the upgrade
+	 * @param pid
+	 *            the ID of the page to upgrade the lock on
+	 * @throws DbException
+	 *             if the transaction holds no lock on the page
+	 * @throws TransactionAbortedException
+	 *             if the upgrade would deadlock and this transaction was chosen
+	 *             as the victim
+	 */
+	public void upgradeLock(TransactionId tid, PageId pid) throws DbException, TransactionAbortedException {
+		if (!lockManager.holdsLock(tid, pid)) {
+			throw new DbException("transaction holds no lock to upgrade on page " + pid.getPageNumber());
+		}
+		lockManager.acquireLock(tid, pid, true);
 	}
 
 	/**
@@ -159,9 +560,7 @@ public class BufferPool {
 	 *            the ID of the page to unlock
 	 */
 	public void releasePage(TransactionId tid, PageId pid) {
-		ConcurrentHashMap<PageId, Integer> locks = this.pageLocks.get(tid);
-		locks.remove(pid);
-		this.pageLocks.put(tid,locks);
+		lockManager.releaseLock(tid, pid);
 	}
 
 	/**
@@ -171,19 +570,27 @@ public class BufferPool {
 	 *            the ID of the transaction requesting the unlock
 	 */
 	public void transactionComplete(TransactionId tid) throws IOException {
-		this.pageLocks.remove(tid);
+		transactionComplete(tid, true);
 	}
 
 	/** Return true if the specified transaction has a lock on the specified page */
 	public boolean holdsLock(TransactionId tid, PageId p) {
-		ConcurrentHashMap<PageId, Integer> locks = this.pageLocks.get(tid);
-		Integer tLock = locks.get(p);
-		if (tLock != null){
-			return true;
-		}
-		else{
-			return false;
-		}
+		return lockManager.holdsLock(tid, p);
+	}
+
+	/**
+	 * Returns the number of deadlocks broken so far. Each one aborted the
+	 * youngest transaction of a waits-for cycle in getPage.
+	 */
+	public long getDeadlockCount() {
+		return lockManager.getDeadlockCount();
+	}
+
+	/**
+	 * @return the fraction of getPage requests that found their page cached
+	 */
+	public synchronized double getHitRate() {
+		return policy.getHitRate();
 	}
 
 	/**
@@ -196,8 +603,60 @@ public class BufferPool {
 	 *            a flag indicating whether we should commit or abort
 	 */
 	public void transactionComplete(TransactionId tid, boolean commit) throws IOException {
-		// some code goes here
-		// not necessary for lab1|lab2
+		if (!commit) {
+			Set<PageId> touched = new HashSet<PageId>(lockManager.getLockedPages(tid));
+			// drop the pages this transaction dirtied so they are re-read from disk,
+			// including any it no longer holds a lock on
+			synchronized (this) {
+				ArrayList<PageId> dirtied = new ArrayList<PageId>();
+				Iterator<Page> pagesIter = this.cached_pages.values();
+				while (pagesIter.hasNext()) {
+					Page p = pagesIter.next();
+					if (tid.equals(p.isDirty())) {
+						dirtied.add(p.getId());
+					}
+				}
+				for (PageId pid : dirtied) {
+					discardPage(pid);
+					touched.add(pid);
+				}
+			}
+			// pages the transaction filled have their old free slots back
+			for (PageId pid : touched) {
+				DbFile file;
+				try {
+					file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+				} catch (NoSuchElementException e) {
+					continue;
+				}
+				if (file instanceof PageFile) {
+					((PageFile) file).pageRolledBack(pid.getPageNumber());
+				}
+			}
+		} else {
+			transactionCommitted(tid);
+		}
+		lockManager.releaseAllLocks(tid);
+	}
+
+	/**
+	 * Records that a transaction committed, so that the background writer may
+	 * write the pages it dirtied, and forgets committed transactions that no
+	 * cached page is dirty from any more.
+	 */
+	private synchronized void transactionCommitted(TransactionId tid) {
+		HashSet<TransactionId> dirtiers = new HashSet<TransactionId>();
+		Iterator<Page> pagesIter = this.cached_pages.values();
+		while (pagesIter.hasNext()) {
+			TransactionId dirtier = pagesIter.next().isDirty();
+			if (dirtier != null) {
+				dirtiers.add(dirtier);
+			}
+		}
+		this.committedWriters.retainAll(dirtiers);
+		if (dirtiers.contains(tid)) {
+			this.committedWriters.add(tid);
+		}
 	}
 
 	/**
@@ -223,15 +682,43 @@ public class BufferPool {
 
 		// grab file and insert tuple into file
 		DbFile table = Database.getCatalog().getDatabaseFile(tableId);
-		ArrayList<Page> updatedPages = table.insertTuple(tid, t);
+		pagesDirtied(tid, table.insertTuple(tid, t));
 
-		// mark any old versions of this page in cache as dirty, and replace them with
-		// the updated page
-		for (int i = 0; i < updatedPages.size(); i++) {
-			PageId pid = updatedPages.get(i).getId();
-			Page newPage = updatedPages.get(i);
-			newPage.markDirty(true,tid);
-			this.cached_pages.put(pid, newPage);
+		// add the tuple to the table's indexes
+		for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+			pagesDirtied(tid, index.insertTuple(tid, index.entryFor(t)));
+		}
+	}
+
+	/**
+	 * Add the specified tuples to the specified table on behalf of transaction
+	 * tid, as insertTuple does for each of them. The table and each of its
+	 * indexes take the whole batch through {@link DbFile#insertTuples}, which
+	 * fills a page before moving on, so each page the batch modifies is locked
+	 * and marked dirty once.
+	 *
+	 * @param tid
+	 *            the transaction adding the tuples
+	 * @param tableId
+	 *            the table to add the tuples to
+	 * @param tuples
+	 *            the tuples to add, iterated once for the table and once for
+	 *            each of its indexes
+	 */
+	public void insertTuples(TransactionId tid, int tableId, Iterable<Tuple> tuples)
+			throws DbException, IOException, TransactionAbortedException {
+
+		// grab file and insert tuples into file
+		DbFile table = Database.getCatalog().getDatabaseFile(tableId);
+		pagesDirtied(tid, table.insertTuples(tid, tuples));
+
+		// add the tuples to the table's indexes, now that they have RecordIds
+		for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+			ArrayList<Tuple> entries = new ArrayList<Tuple>();
+			for (Tuple t : tuples) {
+				entries.add(index.entryFor(t));
+			}
+			pagesDirtied(tid, index.insertTuples(tid, entries));
 		}
 	}
 
@@ -253,16 +740,36 @@ public class BufferPool {
 	public void deleteTuple(TransactionId tid, Tuple t) throws DbException, IOException, TransactionAbortedException {
 
 		// grab file and insert tuple into file
-		DbFile table = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
-		ArrayList<Page> updatedPages = table.deleteTuple(tid, t);
-
-		// mark any old versions of this page in cache as dirty, and replace them with
-		// the updated page
-		for (int i = 0; i < updatedPages.size(); i++) {
-			PageId pid = updatedPages.get(i).getId();
-			Page newPage = updatedPages.get(i);
+		int tableId = t.getRecordId().getPageId().getTableId();
+		DbFile table = Database.getCatalog().getDatabaseFile(tableId);
+		// the index entries point at the tuple's slot, so build them before
+		// the delete clears its RecordId
+		List<IndexFile> indexes = Database.getCatalog().getIndexes(tableId);
+		ArrayList<Tuple> entries = new ArrayList<Tuple>(indexes.size());
+		for (IndexFile index : indexes) {
+			entries.add(index.entryFor(t));
+		}
+		pagesDirtied(tid, table.deleteTuple(tid, t));
+
+		for (int i = 0; i < indexes.size(); i++) {
+			pagesDirtied(tid, indexes.get(i).deleteTuple(tid, entries.get(i)));
+		}
+	}
+
+	/**
+	 * Marks the pages an insert or delete modified dirty, and replaces any old
+	 * versions of them in the cache with the modified ones.
+	 */
+	private synchronized void pagesDirtied(TransactionId tid, List<Page> updatedPages) {
+		for (Page newPage : updatedPages) {
+			PageId pid = newPage.getId();
 			newPage.markDirty(true,tid);
-			this.cached_pages.put(pid, newPage);
+			Page old = this.cached_pages.put(pid.getKey(), newPage);
+			if (old == null) {
+				policy.pageAdded(pid);
+			} else if (old != newPage) {
+				pageDropped(old);
+			}
 		}
 	}
 
@@ -271,10 +778,15 @@ public class BufferPool {
 	 * dirty data to disk so will break simpledb if running in NO STEAL mode.
 	 */
 	public synchronized void flushAllPages() throws IOException {
-		Iterator<PageId> pagesIter = this.cached_pages.keySet().iterator();
+		ArrayList<Page> dirty = new ArrayList<Page>();
+		Iterator<Page> pagesIter = this.cached_pages.values();
 		while (pagesIter.hasNext()) {
-			flushPage(pagesIter.next());
+			Page curr = pagesIter.next();
+			if (curr.isDirty() != null) {
+				dirty.add(curr);
+			}
 		}
+		writePages(dirty);
 	}
 
 	/**
@@ -286,8 +798,19 @@ public class BufferPool {
 	 * cache so they can be reused safely
 	 */
 	public synchronized void discardPage(PageId pid) {
-		this.cached_pages.remove(pid);
-		lruStore.remove(pid);
+		PageLoad load = this.loading.remove(pid.getKey());
+		if (load != null) {
+			// the copy being read may predate whatever made the page stale
+			load.cancelled = true;
+		}
+		pageDropped(this.cached_pages.remove(pid.getKey()));
+		this.cleanedPages.remove(pid.getKey());
+		BufferRing ring = this.ringPages.remove(pid.getKey());
+		if (ring != null) {
+			ring.remove(pid);
+		} else {
+			policy.pageRemoved(pid);
+		}
 	}
 
 	/**
@@ -297,7 +820,7 @@ public class BufferPool {
 	 *            an ID indicating the page to flush
 	 */
 	private synchronized void flushPage(PageId pid) throws IOException {
-		Page page = this.cached_pages.get(pid);
+		Page page = this.cached_pages.get(pid.getKey());
 		if (page.isDirty() != null) {
 			DbFile table = Database.getCatalog().getDatabaseFile(pid.getTableId());
 			table.writePage(page);
@@ -309,29 +832,87 @@ public class BufferPool {
 	 * Write all pages of the specified transaction to disk.
 	 */
 	public synchronized void flushPages(TransactionId tid) throws IOException {
-		Iterator<PageId> pagesIter = this.cached_pages.keySet().iterator();
+		ArrayList<Page> dirty = new ArrayList<Page>();
+		Iterator<Page> pagesIter = this.cached_pages.values();
 		while (pagesIter.hasNext()) {
-			PageId curr = pagesIter.next();
-			TransactionId currTid = this.cached_pages.get(curr).isDirty();
-			if (currTid != null && currTid == tid) {
-				flushPage(pagesIter.next());
-			}	
+			Page curr = pagesIter.next();
+			if (tid.equals(curr.isDirty())) {
+				dirty.add(curr);
+			}
+		}
+		writePages(dirty);
+	}
+
+	/**
+	 * Writes the specified dirty pages to disk and marks them clean. Pages are
+	 * grouped by table so that each file writes its share in page order with
+	 * one {@link DbFile#writePages} call.
+	 */
+	private synchronized void writePages(List<Page> pages) throws IOException {
+		HashMap<Integer, List<Page>> byTable = new HashMap<Integer, List<Page>>();
+		for (Page p : pages) {
+			int tableId = p.getId().getTableId();
+			List<Page> tablePages = byTable.get(tableId);
+			if (tablePages == null) {
+				tablePages = new ArrayList<Page>();
+				byTable.put(tableId, tablePages);
+			}
+			tablePages.add(p);
+		}
+		for (Map.Entry<Integer, List<Page>> entry : byTable.entrySet()) {
+			Database.getCatalog().getDatabaseFile(entry.getKey()).writePages(entry.getValue());
+		}
+		for (Page p : pages) {
+			p.markDirty(false, null);
 		}
 	}
 
 	/**
 	 * Discards a page from the buffer pool. Flushes the page to disk to ensure
-	 * dirty pages are updated on disk.
+	 * dirty pages are updated on disk. If the flush fails, the page stays
+	 * cached and is handed back to the replacement policy, so that it can be
+	 * evicted once its file is writable again.
+	 *
+	 * @throws DbException if no page can be evicted, or the chosen page
+	 *             could not be written
 	 */
 	private synchronized void evictPage() throws DbException {
+		PageId eviction = policy.evict();
+		if (eviction == null) {
+			// only ring pages are left, e.g. from scans that were never closed
+			Iterator<Page> pagesIter = this.cached_pages.values();
+			while (eviction == null && pagesIter.hasNext()) {
+				PageId pid = pagesIter.next().getId();
+				if (this.ringPages.containsKey(pid.getKey())) {
+					eviction = pid;
+				}
+			}
+		}
+		if (eviction == null) {
+			throw new DbException("no page to evict");
+		}
+		boolean cleaned = this.cleanedPages.remove(eviction.getKey()) != null;
+		if (this.cached_pages.get(eviction.getKey()).isDirty() != null) {
+			dirtyEvictions++;
+			if (writer != null) {
+				writer.wakeUp();
+			}
+		} else if (cleaned) {
+			stallsAvoided++;
+		}
 		try {
-			PageId eviction = lruStore.peek();
 			flushPage(eviction);
-			discardPage(eviction);
-		}catch (IOException e) {
-			
+		} catch (IOException e) {
+			if (cleaned) {
+				this.cleanedPages.put(eviction.getKey(), eviction);
+			}
+			if (!this.ringPages.containsKey(eviction.getKey())) {
+				policy.pageAdded(eviction);
+			}
+			throw new DbException("could not write page " + eviction.getPageNumber() + " of table "
+					+ eviction.getTableId() + " to evict it: " + e.getMessage());
 		}
-		
+		discardPage(eviction);
 	}
 
 }
@@ -0,0 +1,121 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A BufferRing is a small, private set of BufferPool frames used by a large
+ * sequential scan. Pages the scan reads through the ring replace the ring's
+ * oldest page instead of being handed to the pool's replacement policy, so a
+ * scan over a table larger than the pool cannot push the pages that other
+ * queries depend on out of the cache.
+ * <p>
+ * Pages that were already cached when the scan reached them are used in
+ * place and stay in the main cache. A ring page requested by anyone without
+ * the ring joins the main cache.
+ * <p>
+ * Rings are created by {@link BufferPool#newRing} and must be returned with
+ * {@link BufferPool#releaseRing}. All methods are called under the monitor
+ * of the BufferPool that owns the ring.
+ */
+public class BufferRing {
+
+    /** Smallest ring handed out, so read-ahead still has room to work */
+    public static final int MIN_PAGES = 4;
+
+    private final PageId[] slots;
+    private int next = 0;
+    private boolean released = false;
+
+    BufferRing(int capacity) {
+        this.slots = new PageId[Math.max(1, capacity)];
+    }
+
+    /**
+     * Chooses the ring size for a scan over a table.
+     *
+     * @param tablePages the number of pages of the table, typically taken
+     *   from its TableStats
+     * @param poolPages the number of pages of the buffer pool
+     * @return the number of pages of the ring, or 0 if the table fits in
+     *   the pool and should be cached normally
+     */
+    public static int sizeFor(int tablePages, int poolPages) {
+        if (tablePages <= poolPages) {
+            return 0;
+        }
+        return Math.min(poolPages, Math.max(MIN_PAGES, poolPages / 8));
+    }
+
+    /**
+     * @return the maximum number of pages in the ring
+     */
+    public int capacity() {
+        return slots.length;
+    }
+
+    /**
+     * @return true once the ring has been returned to the pool; pages read
+     *   with a released ring go to the main cache
+     */
+    public boolean isReleased() {
+        return released;
+    }
+
+    /**
+     * Puts pid in the ring in place of its oldest page.
+     *
+     * @return the page pid replaces, which the caller must drop from the
+     *   cache, or null if the ring had room
+     */
+    PageId add(PageId pid) {
+        PageId victim = slots[next];
+        slots[next] = pid;
+        next = (next + 1) % slots.length;
+        return victim;
+    }
+
+    /**
+     * Removes pid from the ring, leaving its slot free.
+     *
+     * @return true if pid was in the ring
+     */
+    boolean remove(PageId pid) {
+        for (int i = 0; i < slots.length; i++) {
+            if (pid.equals(slots[i])) {
+                slots[i] = null;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true if pid is in the ring
+     */
+    boolean contains(PageId pid) {
+        for (int i = 0; i < slots.length; i++) {
+            if (pid.equals(slots[i])) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Marks the ring as released and empties it.
+     *
+     * @return the pages that were in the ring
+     */
+    List<PageId> release() {
+        released = true;
+        List<PageId> pages = new ArrayList<PageId>();
+        for (int i = 0; i < slots.length; i++) {
+            if (slots[i] != null) {
+                pages.add(slots[i]);
+                slots[i] = null;
+            }
+        }
+        return pages;
+    }
+}
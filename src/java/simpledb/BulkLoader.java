@@ -0,0 +1,375 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * BulkLoader converts a delimited text file into a heap file in the format
+ * read by HeapPage and HeapFile, using several threads.
+ * <p>
+ * The input is cut into chunks of about {@link #DEFAULT_CHUNK_BYTES} that end
+ * on line boundaries. Each chunk is read with a positional read and parsed
+ * by a worker thread straight into page buffers, which are recycled once
+ * written. The calling thread writes the pages of the chunks in input order,
+ * so the output is the same whatever the number of threads; at most two
+ * chunks per thread are parsed ahead of the writer, which bounds memory use.
+ * <p>
+ * Every chunk starts on a new page, so the last page of each chunk may be
+ * partly full. HeapFile and the scans skip the empty slots as they do after
+ * deletes.
+ * <p>
+ * Each line holds one tuple, its fields separated by the field separator.
+ * Blank lines and carriage returns before a line break are ignored, and the
+ * last line does not need a line break. Fields are trimmed; string fields
+ * longer than {@link Type#STRING_LEN} are truncated, and integer fields that
+ * don't parse are reported as a "BAD LINE" and stored as 0.
+ *
+ * @see HeapFileEncoder
+ */
+public class BulkLoader {
+
+    /** Default size of the chunks the input is parsed in */
+    public static final int DEFAULT_CHUNK_BYTES = 4 * 1024 * 1024;
+
+    /** Chunks parsed ahead of the writer, per thread */
+    private static final int CHUNKS_PER_THREAD = 2;
+
+    /** Bytes read at a time while looking for the end of a line */
+    private static final int SCAN_BYTES = 4096;
+
+    private final Type[] typeAr;
+    private final char fieldSeparator;
+    private final int npagebytes;
+    private final int threads;
+    private final int chunkBytes;
+
+    private final int nrecbytes;
+    private final int nrecords;
+    private final int nheaderbytes;
+
+    /** written pages, reused for the following chunks */
+    private final ConcurrentLinkedQueue<ByteBuffer> freePages = new ConcurrentLinkedQueue<ByteBuffer>();
+
+    /** each worker's input buffer, grown to the largest chunk it has read */
+    private final ThreadLocal<byte[]> inputs = new ThreadLocal<byte[]>();
+
+    /**
+     * Creates a loader that parses with one thread per processor.
+     *
+     * @param typeAr the types of the fields of each line
+     * @param fieldSeparator the character separating the fields of a line
+     * @param npagebytes the number of bytes per page in the output file
+     */
+    public BulkLoader(Type[] typeAr, char fieldSeparator, int npagebytes) {
+        this(typeAr, fieldSeparator, npagebytes,
+                Runtime.getRuntime().availableProcessors(), DEFAULT_CHUNK_BYTES);
+    }
+
+    /**
+     * Creates a loader.
+     *
+     * @param typeAr the types of the fields of each line
+     * @param fieldSeparator the character separating the fields of a line
+     * @param npagebytes the number of bytes per page in the output file
+     * @param threads the number of threads parsing the input
+     * @param chunkBytes the approximate size of the chunks of input each
+     *   thread parses at a time
+     * @throws IllegalArgumentException if there are no fields, threads or
+     *   chunk bytes, or a tuple does not fit on a page
+     */
+    public BulkLoader(Type[] typeAr, char fieldSeparator, int npagebytes, int threads, int chunkBytes) {
+        if (typeAr.length == 0 || threads < 1 || chunkBytes < 1) {
+            throw new IllegalArgumentException("a load needs fields, threads and chunk bytes");
+        }
+        this.typeAr = typeAr.clone();
+        this.fieldSeparator = fieldSeparator;
+        this.npagebytes = npagebytes;
+        this.threads = threads;
+        this.chunkBytes = chunkBytes;
+
+        int recbytes = 0;
+        for (Type t : typeAr) {
+            recbytes += t.getLen();
+        }
+        this.nrecbytes = recbytes;
+        // one header bit per record, as in HeapPage
+        this.nrecords = (npagebytes * 8) / (recbytes * 8 + 1);
+        this.nheaderbytes = (this.nrecords + 7) / 8;
+        if (this.nrecords == 0) {
+            throw new IllegalArgumentException("a tuple of " + recbytes + " bytes does not fit on a page");
+        }
+    }
+
+    /** The pages parsed from one chunk of input */
+    private static class Chunk {
+        final List<ByteBuffer> pages = new ArrayList<ByteBuffer>();
+        long tuples = 0;
+    }
+
+    /**
+     * Converts the specified text file into a heap file. An empty input
+     * produces a file of one empty page.
+     *
+     * @param inFile the text file to read
+     * @param outFile the heap file to write, replacing its contents
+     * @return the number of tuples written
+     * @throws IOException if the files can't be read or written, or a line
+     *   does not have one field per type
+     */
+    public long load(File inFile, File outFile) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-bulkloader");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+        RandomAccessFile in = new RandomAccessFile(inFile, "r");
+        FileOutputStream out = new FileOutputStream(outFile);
+        try {
+            final FileChannel inChannel = in.getChannel();
+            FileChannel outChannel = out.getChannel();
+            List<Long> starts = chunkStarts(inChannel);
+            long size = inChannel.size();
+
+            ArrayDeque<Future<Chunk>> inFlight = new ArrayDeque<Future<Chunk>>();
+            int submitted = 0;
+            long tuples = 0;
+            long pages = 0;
+            while (submitted < starts.size() || !inFlight.isEmpty()) {
+                while (submitted < starts.size() && inFlight.size() < threads * CHUNKS_PER_THREAD) {
+                    final long start = starts.get(submitted);
+                    final long end = submitted + 1 < starts.size() ? starts.get(submitted + 1) : size;
+                    inFlight.add(workers.submit(new Callable<Chunk>() {
+                        public Chunk call() throws IOException {
+                            return parseChunk(inChannel, start, end);
+                        }
+                    }));
+                    submitted++;
+                }
+                Chunk chunk = await(inFlight.remove());
+                write(outChannel, chunk.pages);
+                tuples += chunk.tuples;
+                pages += chunk.pages.size();
+            }
+            if (pages == 0) {
+                ArrayList<ByteBuffer> empty = new ArrayList<ByteBuffer>();
+                empty.add(newPage());
+                write(outChannel, empty);
+            }
+            return tuples;
+        } finally {
+            workers.shutdownNow();
+            in.close();
+            out.close();
+        }
+    }
+
+    private static Chunk await(Future<Chunk> chunk) throws IOException {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while loading", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException)e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    /**
+     * Returns the offsets the chunks of the input start at: the first line
+     * break at or after each multiple of the chunk size ends a chunk.
+     */
+    private List<Long> chunkStarts(FileChannel in) throws IOException {
+        long size = in.size();
+        ArrayList<Long> starts = new ArrayList<Long>();
+        starts.add(0L);
+        ByteBuffer scan = ByteBuffer.allocate(SCAN_BYTES);
+        long pos = chunkBytes;
+        while (pos < size) {
+            // look for the line break from the last byte of the chunk on
+            long next = -1;
+            for (long at = pos - 1; next < 0 && at < size; at += scan.limit()) {
+                scan.clear();
+                readFully(in, scan, at, (int)Math.min(SCAN_BYTES, size - at));
+                for (int i = 0; i < scan.limit(); i++) {
+                    if (scan.get(i) == '\n') {
+                        next = at + i + 1;
+                        break;
+                    }
+                }
+            }
+            if (next < 0 || next >= size) {
+                break;
+            }
+            starts.add(next);
+            pos = next + chunkBytes;
+        }
+        return starts;
+    }
+
+    private static void readFully(FileChannel in, ByteBuffer buf, long pos, int len) throws IOException {
+        buf.limit(len);
+        while (buf.hasRemaining()) {
+            if (in.read(buf, pos + buf.position()) < 0) {
+                throw new EOFException("input ended while being read");
+            }
+        }
+        buf.flip();
+    }
+
+    private void write(FileChannel out, List<ByteBuffer> pages) throws IOException {
+        ByteBuffer[] bufs = pages.toArray(new ByteBuffer[pages.size()]);
+        for (ByteBuffer b : bufs) {
+            b.clear();
+        }
+        long remaining = (long)bufs.length * npagebytes;
+        while (remaining > 0) {
+            remaining -= out.write(bufs);
+        }
+        freePages.addAll(pages);
+    }
+
+    /** @return a zeroed page buffer, reusing a written one if there is one */
+    private ByteBuffer newPage() {
+        ByteBuffer page = freePages.poll();
+        if (page == null) {
+            return ByteBuffer.allocate(npagebytes);
+        }
+        Arrays.fill(page.array(), (byte)0);
+        return page;
+    }
+
+    /**
+     * Parses the lines of input in [start, end) into pages.
+     */
+    private Chunk parseChunk(FileChannel in, long start, long end) throws IOException {
+        int len = (int)(end - start);
+        byte[] input = inputs.get();
+        if (input == null || input.length < len) {
+            input = new byte[len];
+            inputs.set(input);
+        }
+        readFully(in, ByteBuffer.wrap(input), start, len);
+
+        Chunk chunk = new Chunk();
+        ByteBuffer page = null;
+        int slot = 0;
+        int lineStart = 0;
+        while (lineStart < len) {
+            int lineEnd = lineStart;
+            while (lineEnd < len && input[lineEnd] != '\n') {
+                lineEnd++;
+            }
+            int next = lineEnd + 1;
+            while (lineEnd > lineStart && input[lineEnd - 1] == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > lineStart) {
+                if (page == null) {
+                    page = newPage();
+                    chunk.pages.add(page);
+                    slot = 0;
+                }
+                writeTuple(input, lineStart, lineEnd, page, nheaderbytes + slot * nrecbytes);
+                page.put(slot / 8, (byte)(page.get(slot / 8) | (1 << (slot % 8))));
+                chunk.tuples++;
+                if (++slot == nrecords) {
+                    page = null;
+                }
+            }
+            lineStart = next;
+        }
+        return chunk;
+    }
+
+    /**
+     * Writes the fields of the line in input[from, to) at the specified
+     * offset of the page.
+     */
+    private void writeTuple(byte[] input, int from, int to, ByteBuffer page, int offset) throws IOException {
+        int fieldStart = from;
+        for (int i = 0; i < typeAr.length; i++) {
+            int fieldEnd = fieldStart;
+            while (fieldEnd < to && input[fieldEnd] != fieldSeparator) {
+                fieldEnd++;
+            }
+            if ((fieldEnd == to) != (i == typeAr.length - 1)) {
+                throw new IOException("expected " + typeAr.length + " fields in line: "
+                        + new String(input, from, to - from));
+            }
+            if (typeAr[i] == Type.INT_TYPE) {
+                long value = parseInt(input, fieldStart, fieldEnd);
+                if (value == Long.MIN_VALUE) {
+                    System.out.println("BAD LINE : " + new String(input, fieldStart, fieldEnd - fieldStart));
+                    value = 0;
+                }
+                page.putInt(offset, (int)value);
+            } else if (typeAr[i] == Type.STRING_TYPE) {
+                String s = new String(input, fieldStart, fieldEnd - fieldStart).trim();
+                if (s.length() > Type.STRING_LEN) {
+                    s = s.substring(0, Type.STRING_LEN);
+                }
+                page.putInt(offset, s.length());
+                // one byte per character, as DataOutputStream.writeBytes
+                for (int c = 0; c < s.length(); c++) {
+                    page.put(offset + 4 + c, (byte)s.charAt(c));
+                }
+            }
+            offset += typeAr[i].getLen();
+            fieldStart = fieldEnd + 1;
+        }
+    }
+
+    /**
+     * Parses the decimal integer in b[from, to), ignoring surrounding white
+     * space.
+     *
+     * @return the value, or Long.MIN_VALUE if the bytes are not an int
+     */
+    static long parseInt(byte[] b, int from, int to) {
+        while (from < to && (b[from] & 0xff) <= ' ') {
+            from++;
+        }
+        while (to > from && (b[to - 1] & 0xff) <= ' ') {
+            to--;
+        }
+        boolean negative = false;
+        if (from < to && (b[from] == '-' || b[from] == '+')) {
+            negative = b[from] == '-';
+            from++;
+        }
+        // more than 10 digits can't be an int
+        if (from == to || to - from > 10) {
+            return Long.MIN_VALUE;
+        }
+        long value = 0;
+        for (int i = from; i < to; i++) {
+            int digit = b[i] - '0';
+            if (digit < 0 || digit > 9) {
+                return Long.MIN_VALUE;
+            }
+            value = value * 10 + digit;
+        }
+        value = negative ? -value : value;
+        if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+            return Long.MIN_VALUE;
+        }
+        return value;
+    }
+}
@@ -5,7 +5,6 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -18,15 +17,48 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class Catalog {
 
-    private ConcurrentHashMap<String,DbFile> table_list;
-    private ConcurrentHashMap<Integer,String> pKeyList;
+    /** A table registered in the catalog. */
+    private static class Table {
+        final DbFile file;
+        final String name;
+        final String pkeyField;
+        /** the indexes maintained along with the table; never modified */
+        final List<IndexFile> indexes;
+
+        Table(DbFile file, String name, String pkeyField, List<IndexFile> indexes) {
+            this.file = file;
+            this.name = name;
+            this.pkeyField = pkeyField;
+            this.indexes = indexes;
+        }
+    }
+
+    /**
+     * An immutable view of the catalog, indexed by table id and by name.
+     * Readers use whichever snapshot is current without locking; writers
+     * copy it, apply their change and publish the copy.
+     */
+    private static class Snapshot {
+        final Map<Integer,Table> byId;
+        final Map<String,Table> byName;
+
+        Snapshot(Map<Integer,Table> byId, Map<String,Table> byName) {
+            this.byId = byId;
+            this.byName = byName;
+        }
+    }
+
+    private static final Snapshot EMPTY =
+        new Snapshot(new HashMap<Integer,Table>(), new HashMap<String,Table>());
+
+    private volatile Snapshot tables;
+
     /**
      * Constructor.
      * Creates a new, empty catalog.
      */
     public Catalog() {
-        this.table_list = new ConcurrentHashMap<String,DbFile>();
-        this.pKeyList = new ConcurrentHashMap<Integer,String>();
+        this.tables = EMPTY;
     }
 
     /**
@@ -38,16 +70,26 @@ public class Catalog {
      * conflict exists, use the last table to be added as the table for a given name.
      * @param pkeyField the name of the primary key field
      */
-    public void addTable(DbFile file, String name, String pkeyField) {
-        String prev_name = this.getTableName(file.getId());
+    public synchronized void addTable(DbFile file, String name, String pkeyField) {
+        Snapshot current = this.tables;
+        Map<Integer,Table> byId = new HashMap<Integer,Table>(current.byId);
+        Map<String,Table> byName = new HashMap<String,Table>(current.byName);
 
         //if this table already exists in map, remove previous entry
-        if (prev_name != null){
-            this.table_list.remove(prev_name);
+        Table prev = byId.remove(file.getId());
+        if (prev != null){
+            byName.remove(prev.name);
         }
-        
-        this.table_list.put(name,file);
-        this.pKeyList.put(file.getId(),pkeyField);
+        //a table previously registered under this name is replaced
+        Table displaced = byName.remove(name);
+        if (displaced != null){
+            byId.remove(displaced.file.getId());
+        }
+
+        Table table = new Table(file, name, pkeyField, Collections.<IndexFile>emptyList());
+        byId.put(file.getId(), table);
+        byName.put(name, table);
+        this.tables = new Snapshot(byId, byName);
     }
 
     public void addTable(DbFile file, String name) {
@@ -75,10 +117,10 @@ public class Catalog {
             throw new NoSuchElementException();
         }
 
-        DbFile file = this.table_list.get(name);
+        Table table = this.tables.byName.get(name);
 
-        if (file != null){
-            return file.getId();
+        if (table != null){
+            return table.file.getId();
         }
         else{
             throw new NoSuchElementException();
@@ -92,14 +134,7 @@ public class Catalog {
      * @throws NoSuchElementException if the table doesn't exist
      */
     public TupleDesc getTupleDesc(int tableid) throws NoSuchElementException {
-        DbFile file = this.getDatabaseFile(tableid);
-
-        if (file != null){
-            return file.getTupleDesc();
-        }
-        else{
-            throw new NoSuchElementException();
-        }
+        return this.getDatabaseFile(tableid).getTupleDesc();
     }
 
     /**
@@ -109,41 +144,195 @@ public class Catalog {
      *     function passed to addTable
      */
     public DbFile getDatabaseFile(int tableid) throws NoSuchElementException {
-        for (DbFile file : this.table_list.values()){
-            if (file.getId() == tableid){
-                return file;
+        Table table = this.tables.byId.get(tableid);
+        if (table == null){
+            throw new NoSuchElementException();
+        }
+        return table.file;
+    }
+
+    /**
+     * @return the indexes of the specified table, which BufferPool updates
+     *   as tuples are inserted and deleted; empty for unknown tables
+     */
+    public List<IndexFile> getIndexes(int tableid) {
+        Table table = this.tables.byId.get(tableid);
+        return table == null ? Collections.<IndexFile>emptyList() : table.indexes;
+    }
+
+    /**
+     * Creates a B+ tree index on a field of a table stored in a HeapFile, or
+     * opens it if its file already exists. The index is stored next to the
+     * table's file, in a file named after the table file and the field, and
+     * is registered as a table named <code>table_field_btree</code>. A new
+     * index is filled from the table's current tuples; after that, inserts
+     * and deletes through the BufferPool keep it up to date.
+     *
+     * @param tableName the name of the indexed table
+     * @param fieldName the name of the indexed field
+     * @return the index
+     * @throws NoSuchElementException if the table or field doesn't exist
+     * @throws IllegalArgumentException if the table is not stored in a HeapFile
+     */
+    public synchronized BTreeFile createIndex(String tableName, String fieldName)
+            throws IOException, DbException, TransactionAbortedException {
+        Table table = indexedTable(tableName);
+        HeapFile heapFile = (HeapFile)table.file;
+        TupleDesc td = heapFile.getTupleDesc();
+        int keyField = td.fieldNameToIndex(fieldName);
+        for (IndexFile index : table.indexes){
+            if (index instanceof BTreeFile && index.getKeyField() == keyField){
+                return (BTreeFile)index;
             }
         }
-        throw new NoSuchElementException();
+
+        File indexFile = new File(heapFile.getFile().getPath() + "." + fieldName + ".btree");
+        boolean exists = indexFile.exists();
+        BTreeFile index = new BTreeFile(indexFile, heapFile.getId(), td, keyField);
+        addTable(index, tableName + "_" + fieldName + "_btree");
+        if (!exists){
+            index.bulkLoad(entries(heapFile, index));
+        }
+        attachIndex(table, index);
+        return index;
+    }
+
+    /**
+     * Creates an extendible hash index on the primary key of a table stored
+     * in a HeapFile, or opens it if its file already exists. The index is
+     * stored and registered like those of {@link #createIndex}, with
+     * <code>hash</code> in place of <code>btree</code>, and answers
+     * equality filters on the key.
+     *
+     * @param tableName the name of the indexed table
+     * @return the index
+     * @throws NoSuchElementException if the table doesn't exist
+     * @throws IllegalArgumentException if the table is not stored in a
+     *   HeapFile or has no primary key
+     */
+    public synchronized HashIndexFile createHashIndex(String tableName)
+            throws IOException, DbException, TransactionAbortedException {
+        Table table = indexedTable(tableName);
+        if (table.pkeyField == null || table.pkeyField.equals("")){
+            throw new IllegalArgumentException("table " + tableName + " has no primary key");
+        }
+        HeapFile heapFile = (HeapFile)table.file;
+        TupleDesc td = heapFile.getTupleDesc();
+        int keyField = td.fieldNameToIndex(table.pkeyField);
+        for (IndexFile index : table.indexes){
+            if (index instanceof HashIndexFile){
+                return (HashIndexFile)index;
+            }
+        }
+
+        File indexFile = new File(heapFile.getFile().getPath() + "." + table.pkeyField + ".hash");
+        boolean exists = indexFile.exists();
+        HashIndexFile index = new HashIndexFile(indexFile, heapFile.getId(), td, keyField);
+        addTable(index, tableName + "_" + table.pkeyField + "_hash");
+        if (!exists){
+            index.bulkLoad(entries(heapFile, index));
+        }
+        attachIndex(table, index);
+        return index;
+    }
+
+    private Table indexedTable(String tableName) {
+        Table table = this.tables.byName.get(tableName);
+        if (table == null){
+            throw new NoSuchElementException("no table " + tableName);
+        }
+        if (!(table.file instanceof HeapFile)){
+            throw new IllegalArgumentException("only tables stored in a HeapFile can be indexed");
+        }
+        return table;
+    }
+
+    /**
+     * @return the entries of the specified index for the current tuples of
+     *   its table, in order
+     */
+    private static ArrayList<Tuple> entries(HeapFile heapFile, IndexFile index)
+            throws DbException, TransactionAbortedException, IOException {
+        ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = heapFile.iterator(tid);
+        it.open();
+        while (it.hasNext()){
+            entries.add(index.entryFor(it.next()));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Collections.sort(entries, new Comparator<Tuple>() {
+            public int compare(Tuple a, Tuple b) {
+                return BTreeFile.compareEntries(a, b);
+            }
+        });
+        return entries;
+    }
+
+    private void attachIndex(Table table, IndexFile index) {
+        Snapshot current = this.tables;
+        Map<Integer,Table> byId = new HashMap<Integer,Table>(current.byId);
+        Map<String,Table> byName = new HashMap<String,Table>(current.byName);
+        ArrayList<IndexFile> indexes = new ArrayList<IndexFile>(table.indexes);
+        indexes.add(index);
+        Table indexed = new Table(table.file, table.name, table.pkeyField, Collections.unmodifiableList(indexes));
+        byId.put(table.file.getId(), indexed);
+        byName.put(table.name, indexed);
+        this.tables = new Snapshot(byId, byName);
     }
 
     public String getPrimaryKey(int tableid) {
-        return this.pKeyList.get(tableid);
+        Table table = this.tables.byId.get(tableid);
+        return table == null ? null : table.pkeyField;
     }
 
+    /**
+     * @return an iterator over the ids of the tables in the catalog at the
+     *   time of the call; later changes to the catalog are not reflected
+     */
     public Iterator<Integer> tableIdIterator() {
-        // some code goes here
-        return null;
+        return Collections.unmodifiableSet(this.tables.byId.keySet()).iterator();
     }
 
     public String getTableName(int id) {
-        for (Map.Entry<String, DbFile> table_pair : this.table_list.entrySet()) {
-            String table_name = table_pair.getKey();
-            DbFile file = table_pair.getValue();
-            if (file.getId() == id){
-                return table_name;
+        Table table = this.tables.byId.get(id);
+        return table == null ? null : table.name;
+    }
+    
+    /**
+     * Closes the open file handles of all tables in the catalog. The tables
+     * stay registered and reopen their files on next access.
+     */
+    public void closeFiles() {
+        for (Table table : this.tables.byId.values()){
+            try{
+                table.file.close();
+            }
+            catch (IOException e){
+                e.printStackTrace();
             }
         }
-        return null;   
     }
-    
+
     /** Delete all tables from the catalog */
-    public void clear() {
-        this.table_list = new ConcurrentHashMap<String,DbFile>();
+    public synchronized void clear() {
+        this.tables = EMPTY;
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line has the form <code>name (field type [pk|hash|index], ...) [storage]</code>,
+     * where a field annotated <code>hash</code> is the primary key and gets a
+     * hash index (see {@link #createHashIndex}), a field annotated
+     * <code>index</code> gets a B+ tree index (see {@link #createIndex}), and
+     * storage is omitted for a HeapFile, is <code>zonemap</code> for a
+     * HeapFile that keeps a ZoneMap, is <code>slotted</code> for a
+     * SlottedHeapFile, is <code>dictionary</code> for a DictionaryHeapFile,
+     * is <code>columnar</code> for a ColumnFile, or is
+     * <code>compressed</code> for a CompressedHeapFile,
+     * optionally followed by the algorithm and level, e.g.
+     * <code>compressed(huffman, 1)</code>.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -156,10 +345,13 @@ public class Catalog {
                 //assume line is of the format name (field type, field type, ...)
                 String name = line.substring(0, line.indexOf("(")).trim();
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String storage = line.substring(line.indexOf(")") + 1).trim().toLowerCase();
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
                 String primaryKey = "";
+                ArrayList<String> indexed = new ArrayList<String>();
+                boolean hashed = false;
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
@@ -174,6 +366,12 @@ public class Catalog {
                     if (els2.length == 3) {
                         if (els2[2].trim().equals("pk"))
                             primaryKey = els2[0].trim();
+                        else if (els2[2].trim().equals("hash")) {
+                            primaryKey = els2[0].trim();
+                            hashed = true;
+                        }
+                        else if (els2[2].trim().equals("index"))
+                            indexed.add(els2[0].trim());
                         else {
                             System.out.println("Unknown annotation " + els2[2]);
                             System.exit(0);
@@ -183,17 +381,76 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File tableFile = new File(baseFolder+"/"+name + ".dat");
+                DbFile tabHf;
+                if (storage.equals(""))
+                    tabHf = new HeapFile(tableFile, t);
+                else if (storage.equals("zonemap")) {
+                    HeapFile hf = new HeapFile(tableFile, t);
+                    hf.enableZoneMap();
+                    tabHf = hf;
+                }
+                else if (storage.equals("slotted"))
+                    tabHf = new SlottedHeapFile(tableFile, t);
+                else if (storage.equals("dictionary"))
+                    tabHf = new DictionaryHeapFile(tableFile, t);
+                else if (storage.equals("columnar"))
+                    tabHf = new ColumnFile(tableFile, t);
+                else if (storage.startsWith("compressed"))
+                    tabHf = compressedFile(tableFile, t, storage.substring("compressed".length()).trim());
+                else {
+                    System.out.println("Unknown storage " + storage);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
+                if (hashed) {
+                    createHashIndex(name);
+                    System.out.println("Added hash index on " + name + "." + primaryKey);
+                }
+                for (String field : indexed) {
+                    createIndex(name, field);
+                    System.out.println("Added index on " + name + "." + field);
+                }
             }
         } catch (IOException e) {
             e.printStackTrace();
             System.exit(0);
+        } catch (DbException e) {
+            e.printStackTrace();
+            System.exit(0);
+        } catch (TransactionAbortedException e) {
+            e.printStackTrace();
+            System.exit(0);
         } catch (IndexOutOfBoundsException e) {
             System.out.println ("Invalid catalog entry : " + line);
             System.exit(0);
         }
     }
+
+    /**
+     * Creates a CompressedHeapFile from the options of a <code>compressed</code>
+     * storage clause, which are empty or of the form <code>(algorithm[, level])</code>.
+     */
+    private static CompressedHeapFile compressedFile(File tableFile, TupleDesc t, String options) {
+        CompressedHeapFile.Algorithm algorithm = CompressedHeapFile.Algorithm.DEFLATE;
+        int level = CompressedHeapFile.DEFAULT_LEVEL;
+        try {
+            if (!options.equals("")) {
+                if (!options.startsWith("(") || !options.endsWith(")"))
+                    throw new IllegalArgumentException();
+                String[] opts = options.substring(1, options.length() - 1).split(",");
+                algorithm = CompressedHeapFile.Algorithm.valueOf(opts[0].trim().toUpperCase());
+                if (opts.length > 1)
+                    level = Integer.parseInt(opts[1].trim());
+            }
+            return new CompressedHeapFile(tableFile, t, algorithm, level);
+        } catch (IllegalArgumentException e) {
+            System.out.println("Unknown storage compressed" + options);
+            System.exit(0);
+            return null;
+        }
+    }
 }
 
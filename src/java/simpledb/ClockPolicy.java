@@ -0,0 +1,97 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+/**
+ * ClockPolicy approximates LRU with a single reference bit per page. Pages
+ * sit in a circular list of frames; a hit sets the page's bit, and the clock
+ * hand looking for a victim clears set bits as it passes them and evicts the
+ * first page whose bit is already clear.
+ */
+public class ClockPolicy extends ReplacementPolicy {
+
+    private static class Frame {
+        final PageId pid;
+        final int slot;
+        boolean referenced;
+
+        Frame(PageId pid, int slot) {
+            this.pid = pid;
+            this.slot = slot;
+            this.referenced = true;
+        }
+    }
+
+    private final LongHashMap<Frame> frames = new LongHashMap<Frame>();
+    private final ArrayList<Frame> ring = new ArrayList<Frame>();
+    /** slots of the ring left empty by removed pages */
+    private int[] freeSlots = new int[16];
+    private int numFree = 0;
+    private int hand = 0;
+
+    @Override
+    protected void accessed(PageId pid) {
+        Frame f = frames.get(pid.getKey());
+        if (f != null) {
+            f.referenced = true;
+        }
+    }
+
+    @Override
+    protected void added(PageId pid) {
+        if (frames.containsKey(pid.getKey())) {
+            accessed(pid);
+            return;
+        }
+        int slot;
+        if (numFree > 0) {
+            slot = freeSlots[--numFree];
+            ring.set(slot, new Frame(pid, slot));
+        }
+        else {
+            slot = ring.size();
+            ring.add(new Frame(pid, slot));
+        }
+        frames.put(pid.getKey(), ring.get(slot));
+    }
+
+    @Override
+    public void pageRemoved(PageId pid) {
+        Frame f = frames.remove(pid.getKey());
+        if (f != null) {
+            free(f);
+        }
+    }
+
+    @Override
+    public PageId evict() {
+        if (frames.size() == 0) {
+            return null;
+        }
+        // two sweeps are enough: the first clears every bit it passes
+        while (true) {
+            if (hand >= ring.size()) {
+                hand = 0;
+            }
+            Frame f = ring.get(hand++);
+            if (f == null) {
+                continue;
+            }
+            if (f.referenced) {
+                f.referenced = false;
+                continue;
+            }
+            frames.remove(f.pid.getKey());
+            free(f);
+            return f.pid;
+        }
+    }
+
+    private void free(Frame f) {
+        ring.set(f.slot, null);
+        if (numFree == freeSlots.length) {
+            freeSlots = java.util.Arrays.copyOf(freeSlots, numFree * 2);
+        }
+        freeSlots[numFree++] = f.slot;
+    }
+}
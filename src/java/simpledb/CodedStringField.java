@@ -0,0 +1,75 @@
+package simpledb;
+
+/**
+ * A StringField decoded from a DictionaryPage. It shares its value with the
+ * page's dictionary rather than allocating a new String, and remembers the
+ * value's code so that equality with another field from the same
+ * dictionary is a comparison of two ints.
+ *
+ * @see StringDictionary
+ */
+public class CodedStringField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    /* not serialized: a deserialized field compares by value */
+    private final transient StringDictionary dictionary;
+    private final int code;
+
+    /**
+     * Constructor.
+     *
+     * @param dictionary
+     *            the dictionary the value was decoded with
+     * @param code
+     *            the value's code in the dictionary
+     */
+    public CodedStringField(StringDictionary dictionary, int code) {
+        super(dictionary.getValue(code), Type.STRING_LEN);
+        this.dictionary = dictionary;
+        this.code = code;
+    }
+
+    /**
+     * @return the dictionary this field's code refers to
+     */
+    public StringDictionary getDictionary() {
+        return this.dictionary;
+    }
+
+    /**
+     * @return the code of this field's value in its dictionary
+     */
+    public int getCode() {
+        return this.code;
+    }
+
+    /**
+     * @return true if the specified field has a code in the same dictionary
+     */
+    private boolean sameDictionary(Object field) {
+        return this.dictionary != null && field instanceof CodedStringField
+            && ((CodedStringField) field).dictionary == this.dictionary;
+    }
+
+    public boolean equals(Object field) {
+        if (sameDictionary(field)) {
+            return ((CodedStringField) field).code == this.code;
+        }
+        return super.equals(field);
+    }
+
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    public boolean compare(Predicate.Op op, Field val) {
+        if (sameDictionary(val)) {
+            if (op == Predicate.Op.EQUALS)
+                return ((CodedStringField) val).code == this.code;
+            if (op == Predicate.Op.NOT_EQUALS)
+                return ((CodedStringField) val).code != this.code;
+        }
+        return super.compare(op, val);
+    }
+}
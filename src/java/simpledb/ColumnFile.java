@@ -0,0 +1,347 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ColumnFile is a DbFile that stores each column of its table in a separate
+ * chain of ColumnPages, so a scan that needs only some of the columns reads
+ * only their pages. A wide-table aggregate over one INT column reads 4 bytes
+ * per row instead of the full tuple.
+ * <p>
+ * Every row has a fixed row number, and the value of column c for row r is
+ * at slot r % n of page r / n of column c's chain, where n is the number of
+ * values of the column's type that fit on a page. A further chain, the row
+ * bitmap, has one bit per row that is set while the row exists. The row
+ * bitmap is stored in the file given to the constructor, and the chain of
+ * column c in a file of the same name with ".c" appended.
+ * <p>
+ * New rows are appended after the last row; the row numbers of deleted rows
+ * are not reused. Pages past the end of a chain's file read as empty pages,
+ * so appending a row never has to extend the files itself.
+ *
+ * @see ColumnPage
+ * @see SeqScan#setNeededColumns
+ */
+public class ColumnFile implements DbFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private final int id;
+    /* the channel of each chain, the row bitmap's last; guarded by this */
+    private final FileChannel[] channels;
+
+    /** one past the last row number in use, or -1 until it is first read from the row bitmap */
+    private final AtomicInteger rowCount = new AtomicInteger(-1);
+
+    /**
+     * Constructs a column file backed by the specified file and the column
+     * files next to it.
+     *
+     * @param f
+     *            the file that stores the row bitmap of this file.
+     * @throws IllegalArgumentException if the table has too many columns
+     */
+    public ColumnFile(File f, TupleDesc td) {
+        if (td.numFields() > ColumnPageId.MAX_COLUMNS) {
+            throw new IllegalArgumentException("a ColumnFile holds at most " + ColumnPageId.MAX_COLUMNS + " columns");
+        }
+        this.file = f;
+        this.td = td;
+        this.id = f.getAbsoluteFile().hashCode();
+        this.channels = new FileChannel[td.numFields() + 1];
+    }
+
+    /**
+     * Returns the File holding the row bitmap of this ColumnFile.
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Returns the File holding the page chain of the specified column, or
+     * the row bitmap for ColumnPageId.ROWS.
+     */
+    public File getColumnFile(int column) {
+        if (column == ColumnPageId.ROWS) {
+            return this.file;
+        }
+        return new File(this.file.getPath() + "." + column);
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return this.id;
+    }
+
+    // see DbFile.java for javadocs
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /**
+     * Returns the channel of the specified column's page chain, opening it
+     * on first use.
+     */
+    private synchronized FileChannel getChannel(int column) throws IOException {
+        int i = column == ColumnPageId.ROWS ? this.td.numFields() : column;
+        if (this.channels[i] == null || !this.channels[i].isOpen()){
+            this.channels[i] = new RandomAccessFile(getColumnFile(column),"rw").getChannel();
+        }
+        return this.channels[i];
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void close() throws IOException {
+        for (int i = 0; i < this.channels.length; i++){
+            if (this.channels[i] != null){
+                this.channels[i].close();
+                this.channels[i] = null;
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != this.getId() || !(pid instanceof ColumnPageId)){
+            throw new IllegalArgumentException();
+        }
+        ColumnPageId cpid = (ColumnPageId)pid;
+        try{
+            return new ColumnPage(cpid, readPageData(cpid));
+        }
+        catch (IOException ex){
+            return null;
+        }
+    }
+
+    /**
+     * Reads the bytes of the specified page, which are all zero past the end
+     * of the chain's file.
+     */
+    private byte[] readPageData(ColumnPageId pid) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(BufferPool.getPageSize());
+        if (getColumnFile(pid.getColumn()).exists()){
+            long offset = (long)pid.getPageNumber() * BufferPool.getPageSize();
+            FileChannel fileChannel = getChannel(pid.getColumn());
+            while (data.hasRemaining()){
+                if (fileChannel.read(data, offset + data.position()) < 0){
+                    break;
+                }
+            }
+        }
+        return data.array();
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        ColumnPageId pid = (ColumnPageId)page.getId();
+        ByteBuffer pageData = ByteBuffer.wrap(page.getPageData());
+        long offset = (long)pid.getPageNumber() * BufferPool.getPageSize();
+        FileChannel fileChannel = getChannel(pid.getColumn());
+        while (pageData.hasRemaining()){
+            fileChannel.write(pageData, offset + pageData.position());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        HashSet<Integer> columns = new HashSet<Integer>();
+        for (Page p : pages){
+            writePage(p);
+            columns.add(((ColumnPageId)p.getId()).getColumn());
+        }
+        for (int column : columns){
+            getChannel(column).force(false);
+        }
+    }
+
+    /**
+     * Returns the number of pages in all of this file's chains, so that a
+     * full scan is costed as reading every column.
+     */
+    public int numPages() {
+        int pages = 0;
+        for (int column = ColumnPageId.ROWS; column < this.td.numFields(); column++){
+            pages += numPages(column);
+        }
+        return pages;
+    }
+
+    /**
+     * @return the number of pages of the specified column's chain on disk
+     */
+    public int numPages(int column) {
+        long length = getColumnFile(column).length();
+        return (int)((length + BufferPool.getPageSize() - 1) / BufferPool.getPageSize());
+    }
+
+    /**
+     * Returns one past the last row number in use. The count is read from
+     * the last page of the row bitmap on first use and then kept up to date
+     * by insertTuple.
+     */
+    int cachedRowCount() {
+        int count = this.rowCount.get();
+        if (count < 0){
+            int rows = 0;
+            int bitmapPages = numPages(ColumnPageId.ROWS);
+            try{
+                for (int pageNo = bitmapPages - 1; pageNo >= 0 && rows == 0; pageNo--){
+                    ColumnPageId pid = new ColumnPageId(this.getId(), ColumnPageId.ROWS, pageNo);
+                    int limit = new ColumnPage(pid, readPageData(pid)).getRowLimit();
+                    if (limit > 0){
+                        rows = pageNo * ColumnPage.rowsPerPage(null) + limit;
+                    }
+                }
+            }
+            catch (IOException e){
+                rows = bitmapPages * ColumnPage.rowsPerPage(null);
+            }
+            this.rowCount.compareAndSet(-1, rows);
+            count = this.rowCount.get();
+        }
+        return count;
+    }
+
+    /**
+     * @return the page holding the specified row of the specified column, or
+     *   of the row bitmap for ColumnPageId.ROWS
+     */
+    private ColumnPageId pageOf(int column, int row) {
+        Type type = column == ColumnPageId.ROWS ? null : this.td.getFieldType(column);
+        return new ColumnPageId(this.getId(), column, row / ColumnPage.rowsPerPage(type));
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!t.getTupleDesc().equals(this.td)){
+            throw new DbException("Can't insert tuple because its tupledesc does not match the file");
+        }
+        cachedRowCount();
+        int row = this.rowCount.getAndIncrement();
+
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        for (int column = 0; column < this.td.numFields(); column++){
+            ColumnPageId pid = pageOf(column, row);
+            if (pid.getPageNumber() >= ColumnPageId.MAX_PAGES){
+                throw new DbException("file is full");
+            }
+            ColumnPage page = (ColumnPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+            page.setField(row % ColumnPage.rowsPerPage(this.td.getFieldType(column)), t.getField(column));
+            dirtied.add(page);
+        }
+        ColumnPageId rowsPid = pageOf(ColumnPageId.ROWS, row);
+        ColumnPage rows = (ColumnPage)Database.getBufferPool().getPage(tid, rowsPid, Permissions.READ_WRITE);
+        int slot = row % ColumnPage.rowsPerPage(null);
+        rows.markRowUsed(slot, true);
+        dirtied.add(rows);
+        t.setRecordId(new RecordId(rowsPid, slot));
+        return dirtied;
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException, IOException {
+        PageId pid = t.getRecordId().getPageId();
+        if (pid.getTableId() != this.getId() || !(pid instanceof ColumnPageId)
+                || ((ColumnPageId)pid).getColumn() != ColumnPageId.ROWS){
+            throw new DbException("Tuple not present in file");
+        }
+        ColumnPage rows = (ColumnPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        int slot = t.getRecordId().getTupleNumber();
+        if (!rows.isRowUsed(slot)){
+            throw new DbException("Tuple not present in file");
+        }
+        rows.markRowUsed(slot, false);
+        return new ArrayList<Page>(Arrays.asList(rows));
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator that decodes only the specified columns of each
+     * row, reading no pages of the others; the remaining fields of the
+     * returned tuples are null.
+     *
+     * @param columns the columns to read, or null to read them all
+     */
+    public DbFileIterator iterator(final TransactionId tid, int[] columns) {
+        final int[] needed;
+        if (columns == null){
+            needed = new int[this.td.numFields()];
+            for (int i = 0; i < needed.length; i++){
+                needed[i] = i;
+            }
+        }
+        else{
+            needed = columns.clone();
+        }
+        final int rowsPerBitmapPage = ColumnPage.rowsPerPage(null);
+        final int[] rowsPerPage = new int[needed.length];
+        for (int i = 0; i < needed.length; i++){
+            rowsPerPage[i] = ColumnPage.rowsPerPage(this.td.getFieldType(needed[i]));
+        }
+
+        return new AbstractDbFileIterator(){
+            private int row = -1;
+            private ColumnPage rows = null;
+            private ColumnPage[] pages = null;
+
+            public void open() throws DbException, TransactionAbortedException {
+                row = -1;
+                rows = null;
+                pages = new ColumnPage[needed.length];
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                open();
+            }
+
+            private ColumnPage fetch(ColumnPage current, int column, int pageNo)
+                    throws DbException, TransactionAbortedException {
+                if (current != null && current.getId().getPageNumber() == pageNo){
+                    return current;
+                }
+                ColumnPageId pid = new ColumnPageId(getId(), column, pageNo);
+                return (ColumnPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (pages == null){
+                    return null;
+                }
+                while (++row < cachedRowCount()){
+                    rows = fetch(rows, ColumnPageId.ROWS, row / rowsPerBitmapPage);
+                    int slot = row % rowsPerBitmapPage;
+                    if (!rows.isRowUsed(slot)){
+                        continue;
+                    }
+                    Tuple t = new Tuple(td);
+                    for (int i = 0; i < needed.length; i++){
+                        pages[i] = fetch(pages[i], needed[i], row / rowsPerPage[i]);
+                        t.setField(needed[i], pages[i].getField(row % rowsPerPage[i]));
+                    }
+                    t.setRecordId(new RecordId(rows.getId(), slot));
+                    return t;
+                }
+                return null;
+            }
+
+            public void close() {
+                super.close();
+                pages = null;
+                rows = null;
+            }
+        };
+    }
+}
@@ -0,0 +1,168 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.text.ParseException;
+
+/**
+ * Each instance of ColumnPage stores one page of a ColumnFile's page chain
+ * for a single column: the values of that column for a run of consecutive
+ * rows, each in its Type's fixed-width format, with no header. A page of
+ * the row bitmap instead holds one bit per row, set if the row exists.
+ * <p>
+ * Rows that were never written read as 0 or the empty string, so an
+ * all-zero page is a valid empty page in either role.
+ *
+ * @see ColumnFile
+ */
+public class ColumnPage implements Page {
+
+    final ColumnPageId pid;
+    /* the type of the column's values, or null for a page of the row bitmap */
+    final Type type;
+    final byte[] data;
+
+    private boolean dirty;
+    private TransactionId tid;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a ColumnPage from a set of bytes of data read from disk. The
+     * type of the column's values is looked up in the catalog.
+     */
+    public ColumnPage(ColumnPageId id, byte[] data) {
+        this.pid = id;
+        this.type = id.getColumn() == ColumnPageId.ROWS ? null
+            : Database.getCatalog().getTupleDesc(id.getTableId()).getFieldType(id.getColumn());
+        this.data = data.clone();
+        synchronized(oldDataLock)
+        {
+        oldData = data.clone();
+        }
+    }
+
+    /**
+     * @return the number of rows each page of a column of the specified type
+     *   covers, or of the row bitmap if type is null
+     */
+    public static int rowsPerPage(Type type) {
+        if (type == null) {
+            return BufferPool.getPageSize() * 8;
+        }
+        return BufferPool.getPageSize() / type.getLen();
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public ColumnPage getBeforeImage(){
+        byte[] oldDataRef = null;
+        synchronized(oldDataLock)
+        {
+            oldDataRef = oldData;
+        }
+        return new ColumnPage(pid, oldDataRef);
+    }
+
+    public void setBeforeImage() {
+        byte[] newData = getPageData();
+        synchronized(oldDataLock)
+        {
+        oldData = newData;
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public ColumnPageId getId() {
+        return this.pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * @return the value of the row in the specified slot of this page
+     */
+    public Field getField(int slot) {
+        try {
+            return type.parse(ByteBuffer.wrap(data), slot * type.getLen());
+        } catch (ParseException e) {
+            throw new IllegalStateException("page " + pid.getPageNumber() + " of column "
+                + pid.getColumn() + " is corrupt");
+        }
+    }
+
+    /**
+     * Sets the value of the row in the specified slot of this page.
+     */
+    public void setField(int slot, Field f) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(type.getLen());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            f.serialize(dos);
+            dos.flush();
+        } catch (IOException e) {
+            // writing to memory cannot fail
+            throw new IllegalStateException(e);
+        }
+        System.arraycopy(baos.toByteArray(), 0, data, slot * type.getLen(), type.getLen());
+    }
+
+    /**
+     * @return true if the row in the specified slot of this row bitmap page
+     *   exists
+     */
+    public boolean isRowUsed(int slot) {
+        return (data[slot / 8] & (1 << (slot % 8))) != 0;
+    }
+
+    /**
+     * Marks the row in the specified slot of this row bitmap page as
+     * existing or deleted.
+     */
+    public void markRowUsed(int slot, boolean used) {
+        if (used) {
+            data[slot / 8] |= (1 << (slot % 8));
+        }
+        else {
+            data[slot / 8] &= ~(1 << (slot % 8));
+        }
+    }
+
+    /**
+     * @return one past the last used slot of this row bitmap page, or 0 if
+     *   no row on it exists
+     */
+    public int getRowLimit() {
+        for (int i = data.length - 1; i >= 0; i--) {
+            if (data[i] != 0) {
+                return i * 8 + 32 - Integer.numberOfLeadingZeros(data[i] & 0xff);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return this.dirty ? this.tid : null;
+    }
+}
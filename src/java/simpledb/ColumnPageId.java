@@ -0,0 +1,80 @@
+package simpledb;
+
+/** Unique identifier for ColumnPage objects. */
+public class ColumnPageId implements PageId {
+
+    /** The column number of the pages of the row bitmap */
+    public static final int ROWS = -1;
+
+    /** Columns are limited so that the column and page number share 32 bits of the key */
+    static final int MAX_COLUMNS = 254;
+    static final int MAX_PAGES = 1 << 24;
+
+    private final int table_id;
+    private final int column;
+    private final int page_number;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific column of a specific table.
+     *
+     * @param tableId The table that is being referenced
+     * @param column The column of the table, or ROWS for the row bitmap
+     * @param pgNo The page number in that column's page chain
+     */
+    public ColumnPageId(int tableId, int column, int pgNo) {
+        this.table_id = tableId;
+        this.column = column;
+        this.page_number = pgNo;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return this.table_id;
+    }
+
+    /**
+     * @return the column of the table this page holds values of, or ROWS
+     *   for a page of the row bitmap
+     */
+    public int getColumn() {
+        return this.column;
+    }
+
+    /**
+     * @return the page number in the column's page chain
+     */
+    public int getPageNumber() {
+        return this.page_number;
+    }
+
+    /**
+     * @return the table id in the high half and the column and page number
+     *   in the low half, used as the key of the BufferPool's page and lock
+     *   tables
+     */
+    public long getKey() {
+        return HeapPageId.packKey(this.table_id, ((this.column + 1) << 24) | this.page_number);
+    }
+
+    public int hashCode() {
+        return (this.table_id * 31 + this.column) * 31 + this.page_number;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof ColumnPageId)) {
+            return false;
+        }
+        ColumnPageId obj = (ColumnPageId)o;
+        return obj.table_id == this.table_id && obj.column == this.column
+            && obj.page_number == this.page_number;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.
+     */
+    public int[] serialize() {
+        return new int[] { this.table_id, this.column, this.page_number };
+    }
+}
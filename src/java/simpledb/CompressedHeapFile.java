@@ -0,0 +1,396 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * CompressedHeapFile is a HeapFile whose pages are stored zlib-compressed on
+ * disk. Pages are ordinary HeapPages once read, so the buffer pool, scans
+ * and inserts work exactly as for a HeapFile; only page I/O differs. It is
+ * meant for cold tables, trading CPU on every read and write for smaller
+ * files and less disk I/O.
+ * <p>
+ * Because compressed pages vary in size, the file is a sequence of extents,
+ * each holding one page: a 4-byte page number, the 4-byte capacity of the
+ * extent, the 4-byte length of the compressed page, and then the compressed
+ * bytes, padded to the capacity. A page is rewritten in place while it fits
+ * its extent, and otherwise moved to the smallest free extent it fits, or to
+ * a new extent at the end of the file. The extent it leaves is marked free
+ * by writing -1 as its page number, so it can be reused. The offset map from
+ * page number to extent and the list of free extents are kept in memory and
+ * rebuilt by reading the extent headers when the file is first used; where a
+ * page has several extents, e.g. after a crash before its old extent was
+ * marked free, the last one in the file is current and recovery rewrites
+ * the page.
+ *
+ * @see HeapFile
+ * @see Catalog#loadSchema
+ */
+public class CompressedHeapFile extends HeapFile {
+
+    /** The compression algorithms available for a table. */
+    public enum Algorithm {
+        /** zlib DEFLATE: LZ77 matching plus Huffman coding */
+        DEFLATE(Deflater.DEFAULT_STRATEGY),
+        /** Huffman coding only, cheaper to compress but larger */
+        HUFFMAN(Deflater.HUFFMAN_ONLY);
+
+        private final int strategy;
+
+        Algorithm(int strategy) {
+            this.strategy = strategy;
+        }
+    }
+
+    /** Compression level used when none is specified */
+    public static final int DEFAULT_LEVEL = 6;
+
+    /** Bytes of extent header before the compressed page */
+    private static final int EXTENT_HEADER = 12;
+
+    /** Page number in the header of an extent that holds no page */
+    private static final int FREE_EXTENT = -1;
+
+    /** Extent capacities are multiples of this many bytes */
+    private static final int EXTENT_ALIGN = 64;
+
+    /** Location of the current copy of a page, guarded by the file */
+    private static class Extent {
+        final long offset;
+        final int capacity;
+        int length;
+
+        Extent(long offset, int capacity, int length) {
+            this.offset = offset;
+            this.capacity = capacity;
+            this.length = length;
+        }
+    }
+
+    private final Algorithm algorithm;
+    private final int level;
+
+    /* extents indexed by page number, or null until the file is first read; guarded by this */
+    private ArrayList<Extent> extents;
+    /* extents no page uses any more, guarded by this */
+    private ArrayList<Extent> freeExtents;
+    /* offset at which the next new extent is written, guarded by this */
+    private long end;
+
+    /**
+     * Constructs a compressed heap file backed by the specified file, using
+     * DEFLATE at the default level.
+     */
+    public CompressedHeapFile(File f, TupleDesc td) {
+        this(f, td, Algorithm.DEFLATE, DEFAULT_LEVEL);
+    }
+
+    /**
+     * Constructs a compressed heap file backed by the specified file.
+     *
+     * @param algorithm the algorithm pages are compressed with
+     * @param level the compression level, from 0 (fastest) to 9 (smallest)
+     * @throws IllegalArgumentException if the level is out of range
+     */
+    public CompressedHeapFile(File f, TupleDesc td, Algorithm algorithm, int level) {
+        super(f, td);
+        if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("compression level must be between 0 and 9");
+        }
+        this.algorithm = algorithm;
+        this.level = level;
+    }
+
+    /**
+     * @return the algorithm pages are compressed with
+     */
+    public Algorithm getAlgorithm() {
+        return this.algorithm;
+    }
+
+    /**
+     * @return the compression level
+     */
+    public int getLevel() {
+        return this.level;
+    }
+
+    /**
+     * Reads the extent headers of the file to build the offset map, on
+     * first use. A truncated extent at the end of the file is ignored.
+     */
+    private synchronized ArrayList<Extent> getExtents() throws IOException {
+        if (this.extents != null) {
+            return this.extents;
+        }
+        ArrayList<Extent> map = new ArrayList<Extent>();
+        ArrayList<Extent> free = new ArrayList<Extent>();
+        long offset = 0;
+        long size = 0;
+        if (getFile().exists()) {
+            FileChannel fileChannel = getChannel();
+            size = fileChannel.size();
+            ByteBuffer header = ByteBuffer.allocate(EXTENT_HEADER);
+            while (offset + EXTENT_HEADER <= size) {
+                header.clear();
+                readFully(fileChannel, header, offset);
+                int pageNo = header.getInt(0);
+                int capacity = header.getInt(4);
+                int length = header.getInt(8);
+                if (pageNo < FREE_EXTENT || length > capacity || offset + EXTENT_HEADER + length > size) {
+                    break;
+                }
+                Extent e = new Extent(offset, capacity, length);
+                if (pageNo == FREE_EXTENT) {
+                    free.add(e);
+                }
+                else {
+                    while (map.size() <= pageNo) {
+                        map.add(null);
+                    }
+                    if (map.get(pageNo) != null) {
+                        // superseded by this later copy of the page
+                        free.add(map.get(pageNo));
+                    }
+                    map.set(pageNo, e);
+                }
+                offset += EXTENT_HEADER + capacity;
+            }
+        }
+        this.extents = map;
+        this.freeExtents = free;
+        this.end = offset;
+        return map;
+    }
+
+    private synchronized Extent getExtent(int pageNo) throws IOException {
+        ArrayList<Extent> map = getExtents();
+        return pageNo < map.size() ? map.get(pageNo) : null;
+    }
+
+    private static void readFully(FileChannel fileChannel, ByteBuffer dst, long offset) throws IOException {
+        int start = dst.position();
+        while (dst.hasRemaining()) {
+            if (fileChannel.read(dst, offset + dst.position() - start) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    /**
+     * Reads and decompresses the specified page.
+     *
+     * @return the page bytes, or null if the page does not exist
+     */
+    private byte[] readUncompressed(int pageNo) throws IOException {
+        Extent e;
+        int length;
+        synchronized (this) {
+            e = getExtent(pageNo);
+            if (e == null) {
+                return null;
+            }
+            length = e.length;
+        }
+        ByteBuffer extent = ByteBuffer.allocate(EXTENT_HEADER + length);
+        readFully(getChannel(), extent, e.offset);
+        if (extent.getInt(0) != pageNo) {
+            throw new IOException("page " + pageNo + " moved while it was read");
+        }
+
+        byte[] data = new byte[BufferPool.getPageSize()];
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(extent.array(), EXTENT_HEADER, length);
+            int n = 0;
+            while (n < data.length && !inflater.finished()) {
+                int read = inflater.inflate(data, n, data.length - n);
+                if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                n += read;
+            }
+            if (n != data.length) {
+                throw new IOException("page " + pageNo + " is truncated");
+            }
+        } catch (DataFormatException ex) {
+            throw new IOException("page " + pageNo + " is corrupt");
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
+
+    private byte[] compress(byte[] data) {
+        Deflater deflater = new Deflater(this.level);
+        try {
+            deflater.setStrategy(this.algorithm.strategy);
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4);
+            byte[] buf = new byte[4096];
+            while (!deflater.finished()) {
+                int n = deflater.deflate(buf);
+                out.write(buf, 0, n);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != this.getId()){
+            throw new IllegalArgumentException();
+        }
+        try {
+            byte[] data = readUncompressed(pid.getPageNumber());
+            if (data == null) {
+                return null;
+            }
+            return new HeapPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), data);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Decompresses the specified page into a frame of the BufferPool's arena.
+     */
+    HeapPage readPage(PageId pid, ByteBuffer frameData, int frame) {
+        if (pid.getTableId() != this.getId()){
+            throw new IllegalArgumentException();
+        }
+        try {
+            byte[] data = readUncompressed(pid.getPageNumber());
+            if (data == null) {
+                return null;
+            }
+            frameData.duplicate().put(data);
+            return new HeapPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), frameData, frame);
+        } catch (IOException ex) {
+            return null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writeCompressed(page.getId().getPageNumber(), compress(page.getPageData()));
+        pagesWritten(Arrays.asList(page));
+    }
+
+    /**
+     * Writes a compressed page into its extent, or into another one if it
+     * has none or the page no longer fits. The offset map only changes once
+     * the page has been written, so a failed write leaves the page where it
+     * was.
+     */
+    private synchronized void writeCompressed(int pageNo, byte[] compressed) throws IOException {
+        ArrayList<Extent> map = getExtents();
+        Extent current = pageNo < map.size() ? map.get(pageNo) : null;
+        if (current != null && current.capacity >= compressed.length) {
+            writeExtent(current, pageNo, compressed);
+            current.length = compressed.length;
+            return;
+        }
+
+        Extent e = takeFreeExtent(compressed.length);
+        boolean appended = e == null;
+        if (appended) {
+            // leave some slack so the page can grow a little in place
+            int capacity = compressed.length + compressed.length / 8;
+            capacity = (capacity + EXTENT_ALIGN - 1) / EXTENT_ALIGN * EXTENT_ALIGN;
+            e = new Extent(this.end, capacity, compressed.length);
+        }
+        try {
+            writeExtent(e, pageNo, compressed);
+        } catch (IOException ex) {
+            if (!appended) {
+                this.freeExtents.add(e);
+            }
+            throw ex;
+        }
+        e.length = compressed.length;
+        if (appended) {
+            this.end += EXTENT_HEADER + e.capacity;
+        }
+        while (map.size() <= pageNo) {
+            map.add(null);
+        }
+        map.set(pageNo, e);
+
+        if (current != null) {
+            writeExtent(current, FREE_EXTENT, new byte[0]);
+            current.length = 0;
+            this.freeExtents.add(current);
+        }
+    }
+
+    /**
+     * Removes and returns the smallest free extent that can hold the
+     * specified number of bytes, or null if there is none.
+     */
+    private Extent takeFreeExtent(int length) {
+        int best = -1;
+        for (int i = 0; i < this.freeExtents.size(); i++) {
+            int capacity = this.freeExtents.get(i).capacity;
+            if (capacity >= length && (best < 0 || capacity < this.freeExtents.get(best).capacity)) {
+                best = i;
+            }
+        }
+        return best < 0 ? null : this.freeExtents.remove(best);
+    }
+
+    /**
+     * Writes the header and bytes of an extent.
+     */
+    private void writeExtent(Extent e, int pageNo, byte[] compressed) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(EXTENT_HEADER + compressed.length);
+        buf.putInt(pageNo).putInt(e.capacity).putInt(compressed.length).put(compressed);
+        buf.flip();
+        FileChannel fileChannel = getChannel();
+        while (buf.hasRemaining()) {
+            fileChannel.write(buf, e.offset + buf.position());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        if (pages.isEmpty()) {
+            return;
+        }
+        for (Page p : pages) {
+            writePage(p);
+        }
+        getChannel().force(false);
+    }
+
+    /**
+     * Returns the number of pages in this file, from the offset map.
+     */
+    public int numPages() {
+        return cachedNumPages();
+    }
+
+    int cachedNumPages() {
+        try {
+            return getExtents().size();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void close() throws IOException {
+        super.close();
+        // reread the extent headers when the file is next used
+        this.extents = null;
+        this.freeExtents = null;
+    }
+}
@@ -55,11 +55,29 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(pages, BufferPool.DEFAULT_POLICY);
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * that evicts pages using the specified replacement policy and return it
+     */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy.Kind policy) {
+        return resetBufferPool(pages, policy, false);
+    }
+
+    /**
+     * Method used for testing -- create a new instance of the buffer pool
+     * with the specified replacement policy, optionally keeping its pages
+     * off the Java heap, and return it
+     */
+    public static BufferPool resetBufferPool(int pages, ReplacementPolicy.Kind policy, boolean offHeap) {
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            _instance.get()._bufferpool.stopPageWriter();
+            bufferPoolF.set(_instance.get(), new BufferPool(pages, policy, offHeap));
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -75,7 +93,15 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        Database old = _instance.getAndSet(new Database());
+        old._bufferpool.stopPageWriter();
+        old._catalog.closeFiles();
+    }
+
+    /** Close the files of all tables before the process exits */
+    public static void shutdown() {
+        _instance.get()._bufferpool.stopPageWriter();
+        _instance.get()._catalog.closeFiles();
     }
 
 }
@@ -28,6 +28,30 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push the specified pages to disk and force them to stable storage.
+     * Implementations should write adjacent pages together, so that flushing
+     * many pages of a table costs mostly sequential I/O.
+     *
+     * @param pages The pages to write, in any order. All of them belong to
+     *   this file.
+     * @throws IOException if the write fails
+     */
+    public void writePages(List<Page> pages) throws IOException;
+
+    /**
+     * Returns the number of pages in this file.
+     */
+    public int numPages();
+
+    /**
+     * Releases any open handles on the underlying storage. The file stays
+     * usable and reopens its storage on next access.
+     *
+     * @throws IOException if the underlying storage cannot be closed
+     */
+    public void close() throws IOException;
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -43,6 +67,31 @@ public interface DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts the specified tuples to the file on behalf of transaction, as
+     * {@link #insertTuple} would one after another. Implementations should
+     * fill a page before moving on to the next, and lock each page once for
+     * the whole batch. This default inserts the tuples one at a time, which
+     * suits files whose pages are all read through the buffer pool.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples The tuples to add.  Each tuple should be updated to
+     *          reflect that it is now stored in this file.
+     * @return An ArrayList containing each page that was modified once
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    public default ArrayList<Page> insertTuples(TransactionId tid, Iterable<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        LinkedHashMap<PageId, Page> dirtied = new LinkedHashMap<PageId, Page>();
+        for (Tuple t : tuples) {
+            for (Page p : insertTuple(tid, t)) {
+                dirtied.put(p.getId(), p);
+            }
+        }
+        return new ArrayList<Page>(dirtied.values());
+    }
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
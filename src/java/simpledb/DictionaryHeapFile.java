@@ -0,0 +1,34 @@
+package simpledb;
+
+import java.io.*;
+
+/**
+ * DictionaryHeapFile is a SlottedHeapFile that stores its tuples on
+ * DictionaryPages, which replace each STRING field with a code into a
+ * per-page dictionary. Tables whose string columns have few distinct values
+ * take far fewer pages than as a HeapFile, and scans decode no Strings.
+ *
+ * @see DictionaryPage
+ * @see SlottedHeapFile
+ */
+public class DictionaryHeapFile extends SlottedHeapFile {
+
+    /**
+     * Constructs a dictionary-encoded heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     */
+    public DictionaryHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    protected TuplePage createPage(HeapPageId id, byte[] data) throws IOException {
+        return new DictionaryPage(id, data);
+    }
+
+    protected boolean fitsOnEmptyPage(Tuple t) {
+        return DictionaryPage.fitsOnEmptyPage(t);
+    }
+}
@@ -0,0 +1,605 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Each instance of DictionaryPage stores data for one page of a
+ * DictionaryHeapFile. Instead of a full Type.STRING_LEN image, each STRING
+ * field is stored as a 2-byte code into a dictionary of the distinct strings
+ * on the page, so low-cardinality string columns take a fraction of the
+ * room they take on a HeapPage. Decoded tuples hold CodedStringFields that
+ * share the dictionary's Strings and can be compared by code.
+ * <p>
+ * The format of a DictionaryPage is:
+ * <ul>
+ * <li>a 2-byte count of record slots, a 2-byte count of dictionary entries,
+ * and the 2-byte offset of the first dictionary byte (0 on an empty page,
+ * meaning the page size)
+ * <li>the records: for each slot, a 1-byte flag that is 1 if the slot is
+ * used, followed by the fields, with INT fields taking 4 bytes and STRING
+ * fields a 2-byte code
+ * <li>free space
+ * <li>the dictionary, packed against the end of the page: entry 0 is last
+ * on the page, and each entry is the string's bytes followed by their
+ * 2-byte length
+ * </ul>
+ * All counts and offsets are unsigned big-endian, so an all-zero page is a
+ * valid empty page. Entries no longer used by any record stay in the
+ * dictionary, keeping the codes of the others stable, until an insert needs
+ * their room; the dictionary is then rebuilt without them.
+ *
+ * @see DictionaryHeapFile
+ * @see StringDictionary
+ */
+public class DictionaryPage implements TuplePage {
+
+    /** Bytes used by the slot count, entry count and dictionary start offset */
+    static final int HEADER_SIZE = 6;
+
+    /** Bytes used by each code */
+    static final int CODE_SIZE = 2;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    /* the page image, kept up to date by every change */
+    final byte[] data;
+    /* offset of each field within a record, after the used flag */
+    private final int[] fieldOffsets;
+    private final int recordSize;
+
+    private int numSlots;
+    private int numEmptySlots;
+    private int dictStart;
+    private StringDictionary dictionary;
+    /* for each code, the number of fields using it and the bytes its entry takes */
+    private int[] refCounts;
+    private int[] entrySizes;
+    /* bytes taken by entries no record uses */
+    private int unusedEntryBytes;
+
+    private boolean dirty;
+    private TransactionId tid;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a DictionaryPage from a set of bytes of data read from disk.
+     *
+     * @throws IOException if the data is not a well-formed page
+     */
+    public DictionaryPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        if (data.length != BufferPool.getPageSize() || data.length > (1 << 16)) {
+            throw new IOException("page " + id.getPageNumber() + " has an invalid size");
+        }
+        this.data = data.clone();
+
+        this.fieldOffsets = new int[td.numFields()];
+        int size = 1;
+        for (int i = 0; i < td.numFields(); i++) {
+            fieldOffsets[i] = size;
+            size += td.getFieldType(i) == Type.INT_TYPE ? Type.INT_TYPE.getLen() : CODE_SIZE;
+        }
+        this.recordSize = size;
+
+        this.numSlots = readShort(0);
+        int numEntries = readShort(2);
+        this.dictStart = readShort(4);
+        if (this.dictStart == 0) {
+            this.dictStart = data.length;
+        }
+
+        String[] values = new String[numEntries];
+        this.refCounts = new int[numEntries];
+        this.entrySizes = new int[numEntries];
+        int pos = data.length;
+        for (int code = 0; code < numEntries; code++) {
+            if (pos - 2 < HEADER_SIZE) {
+                throw new IOException("page " + id.getPageNumber() + " is corrupt");
+            }
+            int len = readShort(pos - 2);
+            pos -= 2 + len;
+            if (pos < HEADER_SIZE) {
+                throw new IOException("page " + id.getPageNumber() + " is corrupt");
+            }
+            values[code] = new String(this.data, pos, len);
+            entrySizes[code] = 2 + len;
+        }
+        if (pos != dictStart || HEADER_SIZE + numSlots * recordSize > dictStart) {
+            throw new IOException("page " + id.getPageNumber() + " is corrupt");
+        }
+        this.dictionary = values.length == 0 ? StringDictionary.EMPTY : new StringDictionary(values);
+
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                numEmptySlots++;
+                continue;
+            }
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.STRING_TYPE) {
+                    int code = readCode(i, j);
+                    if (code >= numEntries) {
+                        throw new IOException("page " + id.getPageNumber() + " is corrupt");
+                    }
+                    refCounts[code]++;
+                }
+            }
+        }
+        for (int code = 0; code < numEntries; code++) {
+            if (refCounts[code] == 0) {
+                unusedEntryBytes += entrySizes[code];
+            }
+        }
+
+        synchronized(oldDataLock)
+        {
+        oldData = data.clone();
+        }
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public DictionaryPage getBeforeImage(){
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new DictionaryPage(pid,oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        byte[] newData = getPageData();
+        synchronized(oldDataLock)
+        {
+        oldData = newData;
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return this.pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     *
+     * @see #DictionaryPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * DictionaryPage.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; //all 0
+    }
+
+    /**
+     * @return the dictionary of the strings currently on this page
+     */
+    public StringDictionary getDictionary() {
+        return this.dictionary;
+    }
+
+    /**
+     * @return true if the specified tuple fits on an empty page
+     */
+    public static boolean fitsOnEmptyPage(Tuple t) {
+        TupleDesc desc = t.getTupleDesc();
+        int size = HEADER_SIZE + 1;
+        HashSet<String> seen = new HashSet<String>();
+        for (int i = 0; i < desc.numFields(); i++) {
+            if (desc.getFieldType(i) == Type.INT_TYPE) {
+                size += Type.INT_TYPE.getLen();
+            }
+            else {
+                size += CODE_SIZE;
+                String value = ((StringField)t.getField(i)).getValue();
+                if (seen.add(value)) {
+                    size += 2 + stringBytes(value).length;
+                }
+            }
+        }
+        return size <= BufferPool.getPageSize();
+    }
+
+    private static byte[] stringBytes(String value) {
+        byte[] bytes = value.getBytes();
+        if (bytes.length > Type.STRING_LEN) {
+            bytes = Arrays.copyOf(bytes, Type.STRING_LEN);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of contiguous free bytes between the records and
+     *   the dictionary
+     */
+    public int getFreeSpace() {
+        return dictStart - HEADER_SIZE - numSlots * recordSize;
+    }
+
+    /**
+     * @return the number of bytes the dictionary entries for the specified
+     *   tuple's strings would add to this page
+     */
+    private int newEntryBytes(Tuple t) {
+        int size = 0;
+        ArrayList<String> added = null;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) != Type.STRING_TYPE) {
+                continue;
+            }
+            String value = ((StringField)t.getField(i)).getValue();
+            if (dictionary.codeOf(value) >= 0) {
+                continue;
+            }
+            if (added == null) {
+                added = new ArrayList<String>();
+            }
+            else if (added.contains(value)) {
+                continue;
+            }
+            added.add(value);
+            size += 2 + stringBytes(value).length;
+        }
+        return size;
+    }
+
+    /**
+     * @return the codes of the unused dictionary entries the specified
+     *   tuple's strings would use again
+     */
+    private ArrayList<Integer> reusedCodes(Tuple t) {
+        ArrayList<Integer> codes = new ArrayList<Integer>();
+        if (unusedEntryBytes == 0) {
+            return codes;
+        }
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                int code = dictionary.codeOf(((StringField)t.getField(i)).getValue());
+                if (code >= 0 && refCounts[code] == 0 && !codes.contains(code)) {
+                    codes.add(code);
+                }
+            }
+        }
+        return codes;
+    }
+
+    /**
+     * @return true if the specified tuple fits on this page, possibly after
+     *   dropping unused dictionary entries
+     */
+    public boolean canHold(Tuple t) {
+        int needed = newEntryBytes(t);
+        if (numEmptySlots == 0) {
+            needed += recordSize;
+        }
+        if (needed <= getFreeSpace()) {
+            return true;
+        }
+        int reclaimable = unusedEntryBytes;
+        for (int code : reusedCodes(t)) {
+            reclaimable -= entrySizes[code];
+        }
+        return needed <= getFreeSpace() + reclaimable;
+    }
+
+    /**
+     * @return true if no tuple fits on this page any more, not even one
+     *   whose strings are all in the dictionary already
+     */
+    public boolean isFull() {
+        return numEmptySlots == 0 && recordSize > getFreeSpace() + unusedEntryBytes;
+    }
+
+    /**
+     * Returns the number of empty record slots. An insert can still add a
+     * new slot when this is 0, as long as the page has room.
+     */
+    public int getNumEmptySlots() {
+        return this.numEmptySlots;
+    }
+
+    /**
+     * @return the number of tuples stored on this page
+     */
+    public int getNumTuples() {
+        return numSlots - numEmptySlots;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots && data[HEADER_SIZE + i * recordSize] != 0;
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first empty slot or else
+     * in a new slot; the tuple is updated to reflect that it is now stored
+     * on this page.
+     * @throws DbException if the tuple does not fit on the page or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(this.td)) {
+            throw new DbException("Can't insert tuple because its tupledesc does not match the page");
+        }
+        if (!canHold(t)) {
+            throw new DbException("Can't insert tuple because page is full");
+        }
+        int needed = newEntryBytes(t) + (numEmptySlots == 0 ? recordSize : 0);
+        if (needed > getFreeSpace()) {
+            compact(reusedCodes(t));
+        }
+
+        int slotId = 0;
+        while (slotId < numSlots && isSlotUsed(slotId)) {
+            slotId++;
+        }
+        if (slotId == numSlots) {
+            numSlots++;
+            numEmptySlots++;
+        }
+
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int base = HEADER_SIZE + slotId * recordSize;
+        data[base] = 1;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                buf.putInt(base + fieldOffsets[j], ((IntField)t.getField(j)).getValue());
+            }
+            else {
+                int code = encode(((StringField)t.getField(j)).getValue());
+                if (refCounts[code]++ == 0) {
+                    unusedEntryBytes -= entrySizes[code];
+                }
+                writeShort(base + fieldOffsets[j], code);
+            }
+        }
+        numEmptySlots--;
+        writeHeader();
+        t.setRecordId(new RecordId(this.pid, slotId));
+    }
+
+    /**
+     * @return the code of the specified value, adding it to the dictionary
+     *   if it is not there yet
+     */
+    private int encode(String value) {
+        int code = dictionary.codeOf(value);
+        if (code >= 0) {
+            return code;
+        }
+        byte[] bytes = stringBytes(value);
+        code = dictionary.size();
+        dictStart -= 2 + bytes.length;
+        System.arraycopy(bytes, 0, data, dictStart, bytes.length);
+        writeShort(dictStart + bytes.length, bytes.length);
+        dictionary = dictionary.with(value);
+        if (code == refCounts.length) {
+            refCounts = Arrays.copyOf(refCounts, Math.max(4, code * 2));
+            entrySizes = Arrays.copyOf(entrySizes, refCounts.length);
+        }
+        entrySizes[code] = 2 + bytes.length;
+        // counted as used by the insert that added it
+        unusedEntryBytes += entrySizes[code];
+        return code;
+    }
+
+    /**
+     * Rebuilds the dictionary without the entries no record uses, and
+     * rewrites the codes in the records to match.
+     *
+     * @param keep codes of unused entries to keep anyway
+     */
+    private void compact(ArrayList<Integer> keep) {
+        int numEntries = dictionary.size();
+        int[] newCodes = new int[numEntries];
+        ArrayList<String> values = new ArrayList<String>();
+        ArrayList<byte[]> bytes = new ArrayList<byte[]>();
+        int pos = data.length;
+        for (int code = 0; code < numEntries; code++) {
+            int len = entrySizes[code] - 2;
+            pos -= entrySizes[code];
+            if (refCounts[code] == 0 && !keep.contains(code)) {
+                newCodes[code] = -1;
+                continue;
+            }
+            newCodes[code] = values.size();
+            values.add(dictionary.getValue(code));
+            bytes.add(Arrays.copyOfRange(data, pos, pos + len));
+        }
+
+        Arrays.fill(data, dictStart, data.length, (byte)0);
+        dictStart = data.length;
+        int[] counts = new int[refCounts.length];
+        int[] sizes = new int[entrySizes.length];
+        for (int code = 0; code < values.size(); code++) {
+            byte[] b = bytes.get(code);
+            dictStart -= 2 + b.length;
+            System.arraycopy(b, 0, data, dictStart, b.length);
+            writeShort(dictStart + b.length, b.length);
+            sizes[code] = 2 + b.length;
+        }
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                continue;
+            }
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.STRING_TYPE) {
+                    int code = newCodes[readCode(i, j)];
+                    writeShort(HEADER_SIZE + i * recordSize + fieldOffsets[j], code);
+                    counts[code]++;
+                }
+            }
+        }
+        dictionary = new StringDictionary(values.toArray(new String[values.size()]));
+        refCounts = counts;
+        entrySizes = sizes;
+        unusedEntryBytes = 0;
+        for (int code = 0; code < values.size(); code++) {
+            if (counts[code] == 0) {
+                unusedEntryBytes += sizes[code];
+            }
+        }
+        writeHeader();
+    }
+
+    /**
+     * Delete the specified tuple from the page. Trailing empty slots are
+     * dropped, and a page left with no tuples is reset to an empty page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        if (!(t.getRecordId().getPageId().equals(this.getId()))){
+            throw new DbException("This tuple is not present on the page");
+        }
+        int slotId = t.getRecordId().getTupleNumber();
+        if (!isSlotUsed(slotId) || !readTuple(slotId).toString().equals(t.toString())) {
+            throw new DbException("This tuple is not present on the page");
+        }
+
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE) {
+                int code = readCode(slotId, j);
+                if (--refCounts[code] == 0) {
+                    unusedEntryBytes += entrySizes[code];
+                }
+            }
+        }
+        int base = HEADER_SIZE + slotId * recordSize;
+        Arrays.fill(data, base, base + recordSize, (byte)0);
+        numEmptySlots++;
+
+        while (numSlots > 0 && !isSlotUsed(numSlots - 1)) {
+            numSlots--;
+            numEmptySlots--;
+        }
+        if (numSlots == 0) {
+            Arrays.fill(data, (byte)0);
+            dictStart = data.length;
+            dictionary = StringDictionary.EMPTY;
+            refCounts = new int[0];
+            entrySizes = new int[0];
+            unusedEntryBytes = 0;
+        }
+        writeHeader();
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return this.dirty ? this.tid : null;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page, decoding each record
+     * as it is reached (calling remove on this iterator throws an
+     * UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>(){
+            private int currentIndex = nextUsed(0);
+
+            private int nextUsed(int from){
+                while (from < numSlots && !isSlotUsed(from)){
+                    from++;
+                }
+                return from;
+            }
+
+            public boolean hasNext(){
+                return currentIndex < numSlots;
+            }
+
+            public Tuple next(){
+                if (!hasNext()){
+                    throw new NoSuchElementException();
+                }
+                Tuple t = readTuple(currentIndex);
+                currentIndex = nextUsed(currentIndex + 1);
+                return t;
+            }
+
+            public void remove(){
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Decode the record stored in the specified slot. STRING fields share
+     * their value with the dictionary rather than allocating a new String.
+     */
+    private Tuple readTuple(int slotId) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int base = HEADER_SIZE + slotId * recordSize;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                t.setField(j, new IntField(buf.getInt(base + fieldOffsets[j])));
+            }
+            else {
+                t.setField(j, new CodedStringField(dictionary, readCode(slotId, j)));
+            }
+        }
+        return t;
+    }
+
+    private int readCode(int slotId, int field) {
+        return readShort(HEADER_SIZE + slotId * recordSize + fieldOffsets[field]);
+    }
+
+    private void writeHeader() {
+        writeShort(0, numSlots);
+        writeShort(2, dictionary.size());
+        // an empty page is stored as all zeroes
+        writeShort(4, dictStart == data.length ? 0 : dictStart);
+    }
+
+    private int readShort(int pos) {
+        return ((data[pos] & 0xff) << 8) | (data[pos + 1] & 0xff);
+    }
+
+    private void writeShort(int pos, int value) {
+        data[pos] = (byte)(value >> 8);
+        data[pos + 1] = (byte)value;
+    }
+}
@@ -0,0 +1,96 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * FrameArena is a fixed set of page-sized frames carved out of direct
+ * (off-heap) ByteBuffers that are allocated once, up front. A BufferPool
+ * created with an arena reads HeapFile pages straight into its frames, and
+ * the pages decode their header and tuples from the frame in place, so the
+ * cached page bytes are never copied onto the Java heap and the garbage
+ * collector does not have to trace them.
+ * <p>
+ * Frames are handed out and returned in constant time. The arena is not
+ * synchronized; the BufferPool allocates and releases frames while holding
+ * its own monitor, and reads pages into allocated frames without it.
+ *
+ * @see BufferPool#BufferPool(int, ReplacementPolicy.Kind, boolean)
+ */
+public class FrameArena {
+
+    /** Largest single direct buffer allocated, in bytes */
+    private static final int MAX_CHUNK_BYTES = 1 << 30;
+
+    private final int frameSize;
+    private final int framesPerChunk;
+    private final ByteBuffer[] chunks;
+    /** indexes of the free frames, used as a stack */
+    private final int[] free;
+    private int numFree;
+
+    /**
+     * Allocates an arena of numFrames frames of frameSize bytes each.
+     */
+    public FrameArena(int numFrames, int frameSize) {
+        this.frameSize = frameSize;
+        this.framesPerChunk = Math.max(1, MAX_CHUNK_BYTES / frameSize);
+        int numChunks = (numFrames + framesPerChunk - 1) / framesPerChunk;
+        this.chunks = new ByteBuffer[numChunks];
+        for (int i = 0; i < numChunks; i++) {
+            int frames = Math.min(framesPerChunk, numFrames - i * framesPerChunk);
+            this.chunks[i] = ByteBuffer.allocateDirect(frames * frameSize);
+        }
+        this.free = new int[numFrames];
+        for (int i = 0; i < numFrames; i++) {
+            // hand out the lowest frames first
+            this.free[i] = numFrames - 1 - i;
+        }
+        this.numFree = numFrames;
+    }
+
+    /**
+     * @return the number of bytes in each frame
+     */
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * @return the number of frames not currently handed out
+     */
+    public int getFreeFrames() {
+        return numFree;
+    }
+
+    /**
+     * Takes a frame out of the free list.
+     *
+     * @return the index of the frame, or -1 if every frame is in use
+     */
+    public int allocate() {
+        if (numFree == 0) {
+            return -1;
+        }
+        return free[--numFree];
+    }
+
+    /**
+     * Returns a frame to the free list. The caller must no longer read or
+     * write the frame's buffer.
+     */
+    public void release(int frame) {
+        free[numFree++] = frame;
+    }
+
+    /**
+     * @return a buffer covering exactly the specified frame, positioned at
+     *   its first byte
+     */
+    public ByteBuffer frame(int frame) {
+        ByteBuffer chunk = chunks[frame / framesPerChunk].duplicate();
+        int offset = (frame % framesPerChunk) * frameSize;
+        chunk.position(offset);
+        chunk.limit(offset + frameSize);
+        return chunk.slice();
+    }
+}
@@ -0,0 +1,79 @@
+package simpledb;
+
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap tracks which pages of a file may still have an empty slot, so
+ * that inserts can go straight to such a page instead of probing every page
+ * from the start of the file.
+ * <p>
+ * The map is not persisted and is only a hint: inserts still check a page
+ * before using it. Every page the map has not heard of yet, i.e. every page
+ * when it is first used and any page the file has grown by since, is assumed
+ * to have room. A page is dropped from the map when an insert finds it full,
+ * and added back whenever a tuple is deleted from it or a transaction that
+ * modified it aborts.
+ *
+ * @Threadsafe
+ */
+public class FreeSpaceMap {
+
+    private final BitSet pagesWithRoom;
+    /** pages from this number on have not been seen by the map yet */
+    private int knownPages;
+
+    /**
+     * Creates an empty free-space map.
+     */
+    public FreeSpaceMap() {
+        this.pagesWithRoom = new BitSet();
+        this.knownPages = 0;
+    }
+
+    /**
+     * Returns the first page at or after fromPage that may have an empty
+     * slot.
+     *
+     * @param fromPage the page number to start looking from
+     * @param numPages the current number of pages in the file; pages the
+     *   map has not seen yet are assumed to have room
+     * @return a page number, or -1 if no page before numPages may have room
+     */
+    public synchronized int nextPageWithRoom(int fromPage, int numPages) {
+        learn(numPages);
+        int pageNo = pagesWithRoom.nextSetBit(fromPage);
+        if (pageNo < 0 || pageNo >= numPages) {
+            return -1;
+        }
+        return pageNo;
+    }
+
+    /**
+     * Records that the specified page has no empty slots left.
+     */
+    public synchronized void setFull(int pageNo) {
+        learn(pageNo);
+        pagesWithRoom.clear(pageNo);
+        knownPages = Math.max(knownPages, pageNo + 1);
+    }
+
+    /**
+     * Records that the specified page has at least one empty slot.
+     */
+    public synchronized void setHasRoom(int pageNo) {
+        learn(pageNo);
+        pagesWithRoom.set(pageNo);
+        knownPages = Math.max(knownPages, pageNo + 1);
+    }
+
+    /**
+     * Assumes that the pages below numPages the map has not seen yet have
+     * room.
+     */
+    private void learn(int numPages) {
+        if (numPages > knownPages) {
+            pagesWithRoom.set(knownPages, numPages);
+            knownPages = numPages;
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package simpledb;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * GroupIndex maps the group-by values an Aggregator has seen to the index of
+ * their group. Values decoded from a DictionaryPage are looked up by code
+ * in a table kept for the dictionary of the page being aggregated, so each
+ * distinct code is hashed by value only once per page.
+ */
+public class GroupIndex implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final HashMap<Field, Integer> groups = new HashMap<Field, Integer>();
+
+    /* the dictionary of the last coded value seen, and the group of each of its codes (-1 if unknown) */
+    private transient StringDictionary dictionary;
+    private transient int[] groupOfCode;
+
+    /**
+     * @return the index of the group of the specified value, or -1 if it has
+     *   no group yet
+     */
+    public int find(Field value) {
+        if (!(value instanceof CodedStringField)) {
+            Integer group = groups.get(value);
+            return group == null ? -1 : group;
+        }
+        CodedStringField coded = (CodedStringField) value;
+        int[] table = codeTable(coded);
+        if (table == null) {
+            Integer group = groups.get(value);
+            return group == null ? -1 : group;
+        }
+        int group = table[coded.getCode()];
+        if (group < 0) {
+            Integer found = groups.get(value);
+            if (found != null) {
+                group = found;
+                table[coded.getCode()] = group;
+            }
+        }
+        return group;
+    }
+
+    /**
+     * Records the index of the group of the specified value.
+     */
+    public void add(Field value, int group) {
+        groups.put(value, group);
+        if (value instanceof CodedStringField) {
+            int[] table = codeTable((CodedStringField) value);
+            if (table != null) {
+                table[((CodedStringField) value).getCode()] = group;
+            }
+        }
+    }
+
+    /**
+     * @return the code table for the dictionary of the specified value,
+     *   replacing the current one if it was built for another dictionary, or
+     *   null if the value has no dictionary
+     */
+    private int[] codeTable(CodedStringField value) {
+        StringDictionary dict = value.getDictionary();
+        if (dict == null) {
+            return null;
+        }
+        if (dict != this.dictionary) {
+            this.dictionary = dict;
+            this.groupOfCode = new int[dict.size()];
+            Arrays.fill(this.groupOfCode, -1);
+        }
+        return this.groupOfCode;
+    }
+}
@@ -0,0 +1,160 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * Each instance of HashBucketPage stores one page of a bucket of a
+ * HashIndexFile: the bucket's entries in no particular order, and the page
+ * number of the next page of the bucket's overflow chain. Only buckets whose
+ * entries cannot be told apart by splitting them have overflow pages.
+ * <p>
+ * The page starts with the bucket's local depth, the number of entries and
+ * the next page number, each an int and the last 0 where there is no next
+ * page, followed by the entries, each in the entry TupleDesc's fixed-width
+ * format.
+ *
+ * @see HashIndexFile
+ */
+public class HashBucketPage extends HashPage {
+
+    private static final int HEADER_SIZE = 12;
+
+    private final TupleDesc td;
+    private int localDepth;
+    private int next;
+    private final ArrayList<Tuple> entries;
+
+    /**
+     * Create a HashBucketPage from a set of bytes of data read from disk. The
+     * format of the entries is looked up in the catalog.
+     */
+    public HashBucketPage(HashPageId id, byte[] data) {
+        super(id, data);
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        this.localDepth = buf.getInt();
+        int n = buf.getInt();
+        this.next = buf.getInt();
+        this.entries = new ArrayList<Tuple>(n);
+        for (int i = 0; i < n; i++) {
+            this.entries.add(BTreeFile.readEntry(this.td, buf, HEADER_SIZE + i * this.td.getSize()));
+        }
+    }
+
+    /**
+     * @return the number of entries of the specified format that fit on a
+     *   bucket page
+     */
+    public static int maxEntries(TupleDesc td) {
+        return (BufferPool.getPageSize() - HEADER_SIZE) / td.getSize();
+    }
+
+    /**
+     * @return the number of low bits of the hash shared by all keys of the
+     *   bucket; kept on the bucket's first page
+     */
+    public int getLocalDepth() {
+        return this.localDepth;
+    }
+
+    public void setLocalDepth(int depth) {
+        this.localDepth = depth;
+    }
+
+    /**
+     * @return the id of the next page of the overflow chain, or null
+     */
+    public HashPageId getNextId() {
+        return this.next == 0 ? null : new HashPageId(this.pid.getTableId(), this.next, HashPageId.BUCKET);
+    }
+
+    public void setNextId(HashPageId id) {
+        this.next = id == null ? 0 : id.getPageNumber();
+    }
+
+    /**
+     * @return the number of entries on this page
+     */
+    public int getNumEntries() {
+        return this.entries.size();
+    }
+
+    /**
+     * @return true if another entry fits on this page
+     */
+    public boolean hasRoom() {
+        return this.entries.size() < maxEntries(this.td);
+    }
+
+    /**
+     * @return a copy of the entry at the specified position of this page,
+     *   with a RecordId pointing at this page
+     */
+    public Tuple getEntry(int i) {
+        Tuple stored = this.entries.get(i);
+        Tuple e = new Tuple(this.td);
+        for (int j = 0; j < this.td.numFields(); j++) {
+            e.setField(j, stored.getField(j));
+        }
+        e.setRecordId(new RecordId(this.pid, i));
+        return e;
+    }
+
+    /**
+     * Adds an entry to this page, which must have room for it.
+     */
+    public void insertEntry(Tuple e) {
+        this.entries.add(e);
+    }
+
+    /**
+     * Removes the specified entry from this page.
+     *
+     * @return false if the page holds no such entry
+     */
+    public boolean deleteEntry(Tuple e) {
+        for (int i = 0; i < this.entries.size(); i++) {
+            if (BTreeFile.compareEntries(this.entries.get(i), e) == 0) {
+                this.entries.remove(i);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removes all the entries from this page.
+     *
+     * @return the removed entries
+     */
+    public List<Tuple> removeAll() {
+        ArrayList<Tuple> removed = new ArrayList<Tuple>(this.entries);
+        this.entries.clear();
+        return removed;
+    }
+
+    public HashBucketPage getBeforeImage() {
+        return new HashBucketPage(this.pid, getBeforeImageData());
+    }
+
+    public byte[] getPageData() {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(BufferPool.getPageSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            dos.writeInt(this.localDepth);
+            dos.writeInt(this.entries.size());
+            dos.writeInt(this.next);
+            for (Tuple e : this.entries) {
+                BTreeFile.writeEntry(dos, e);
+            }
+            dos.write(new byte[BufferPool.getPageSize() - dos.size()]);
+            dos.flush();
+        } catch (IOException e) {
+            // writing to memory cannot fail
+            throw new IllegalStateException(e);
+        }
+        return baos.toByteArray();
+    }
+}
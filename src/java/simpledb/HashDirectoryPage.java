@@ -0,0 +1,58 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * HashDirectoryPage is a page of ints making up the directory of a
+ * HashIndexFile. Page 0 of the file is the root of the directory: its first
+ * int is the global depth and the rest are the page numbers of the other
+ * directory pages, in order. Those hold the bucket page number of each
+ * directory slot, so slot i is int i % {@link #slotsPerPage()} of the
+ * i / slotsPerPage()-th of them.
+ *
+ * @see HashIndexFile
+ */
+public class HashDirectoryPage extends HashPage {
+
+    private final int[] values;
+
+    /**
+     * Create a HashDirectoryPage from a set of bytes of data read from disk.
+     */
+    public HashDirectoryPage(HashPageId id, byte[] data) {
+        super(id, data);
+        this.values = new int[slotsPerPage()];
+        ByteBuffer.wrap(data).asIntBuffer().get(this.values);
+    }
+
+    /**
+     * @return the number of ints on a directory page
+     */
+    public static int slotsPerPage() {
+        return BufferPool.getPageSize() / 4;
+    }
+
+    /**
+     * @return the int at the specified position of this page
+     */
+    public int get(int i) {
+        return this.values[i];
+    }
+
+    /**
+     * Sets the int at the specified position of this page.
+     */
+    public void set(int i, int value) {
+        this.values[i] = value;
+    }
+
+    public HashDirectoryPage getBeforeImage() {
+        return new HashDirectoryPage(this.pid, getBeforeImageData());
+    }
+
+    public byte[] getPageData() {
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize());
+        buf.asIntBuffer().put(this.values);
+        return buf.array();
+    }
+}
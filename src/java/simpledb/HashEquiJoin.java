@@ -92,6 +92,8 @@ public class HashEquiJoin extends Operator {
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        this.listIt = null;
+        loadMap();
     }
 
     transient Iterator<Tuple> listIt = null;
@@ -0,0 +1,651 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * HashIndexFile is an extendible hash index on one field of a table stored
+ * in a HeapFile, normally its primary key. An equality lookup reads the
+ * directory root, one directory page and the key's bucket, however large
+ * the table grows.
+ * <p>
+ * A key's bucket is found through the directory slot given by the low
+ * global-depth bits of the key's hash. A bucket with local depth d holds
+ * the keys whose hashes share their low d bits, and is the target of every
+ * slot ending in those bits. A full bucket is split in two by its next bit,
+ * which only redirects its own slots, once the directory has been doubled
+ * if the bucket had as many bits as the directory. Inserts are therefore
+ * O(1) amortized and never rebuild the index. A bucket whose keys all hash
+ * alike, or that can no longer be split because the directory is as large
+ * as the root can address, grows a chain of overflow pages instead. Buckets
+ * are not merged as entries are deleted.
+ * <p>
+ * Entries have the same format as those of a BTreeFile. The file is
+ * maintained by {@link BufferPool#insertTuple} and
+ * {@link BufferPool#deleteTuple} along with its table; see
+ * {@link Catalog#createHashIndex}.
+ *
+ * @see HashDirectoryPage
+ * @see HashBucketPage
+ */
+public class HashIndexFile implements IndexFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private final int id;
+    private final int tableId;
+    private final int keyField;
+    private FileChannel channel;
+
+    /**
+     * Constructs an index backed by the specified file.
+     *
+     * @param f
+     *            the file that stores this index.
+     * @param tableId
+     *            the id of the indexed table
+     * @param tableTd
+     *            the TupleDesc of the indexed table
+     * @param keyField
+     *            the index of the indexed field in tableTd
+     */
+    public HashIndexFile(File f, int tableId, TupleDesc tableTd, int keyField) {
+        this.file = f;
+        this.tableId = tableId;
+        this.keyField = keyField;
+        this.td = BTreeFile.entryDesc(tableTd.getFieldType(keyField), tableTd.getFieldName(keyField));
+        this.id = f.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Returns the File backing this HashIndexFile on disk.
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    // see IndexFile.java for javadocs
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    // see IndexFile.java for javadocs
+    public int getKeyField() {
+        return this.keyField;
+    }
+
+    // see DbFile.java for javadocs
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * @return the TupleDesc of the entries of this index
+     */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    // see IndexFile.java for javadocs
+    public Tuple entryFor(Tuple t) {
+        RecordId rid = t.getRecordId();
+        Tuple e = new Tuple(this.td);
+        e.setField(0, t.getField(this.keyField));
+        e.setField(1, new IntField(rid.getPageId().getPageNumber()));
+        e.setField(2, new IntField(rid.getTupleNumber()));
+        return e;
+    }
+
+    /**
+     * A hash index finds only the entries with a given key.
+     */
+    public boolean supports(Predicate.Op op) {
+        return op == Predicate.Op.EQUALS;
+    }
+
+    /**
+     * @return the hash of a key, with all of its bits mixed into the low
+     *   bits the directory is indexed by
+     */
+    static int hash(Field key) {
+        int h = key.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    /**
+     * @return the largest global depth whose directory the root can address
+     */
+    static int maxDepth() {
+        long slots = (long)(HashDirectoryPage.slotsPerPage() - 1) * HashDirectoryPage.slotsPerPage();
+        int depth = 0;
+        while ((2L << depth) <= slots && depth < 30) {
+            depth++;
+        }
+        return depth;
+    }
+
+    private synchronized FileChannel getChannel() throws IOException {
+        if (this.channel == null || !this.channel.isOpen()){
+            this.channel = new RandomAccessFile(this.file,"rw").getChannel();
+        }
+        return this.channel;
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void close() throws IOException {
+        if (this.channel != null){
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != this.getId() || !(pid instanceof HashPageId)){
+            throw new IllegalArgumentException();
+        }
+        HashPageId hpid = (HashPageId)pid;
+        try{
+            byte[] data = readPageData(hpid.getPageNumber());
+            if (hpid.getPageNumber() == 0 || hpid.getCategory() == HashPageId.DIRECTORY){
+                return new HashDirectoryPage(hpid, data);
+            }
+            return new HashBucketPage(hpid, data);
+        }
+        catch (IOException ex){
+            return null;
+        }
+    }
+
+    /**
+     * Reads the specified page from disk; pages past the end of the file
+     * read as zeros.
+     */
+    private byte[] readPageData(int pageNo) throws IOException {
+        ByteBuffer data = ByteBuffer.allocate(BufferPool.getPageSize());
+        if (this.file.exists()){
+            long offset = (long)pageNo * BufferPool.getPageSize();
+            FileChannel fileChannel = getChannel();
+            while (data.hasRemaining()){
+                if (fileChannel.read(data, offset + data.position()) < 0){
+                    break;
+                }
+            }
+        }
+        return data.array();
+    }
+
+    private void writePageData(int pageNo, byte[] data) throws IOException {
+        ByteBuffer pageData = ByteBuffer.wrap(data);
+        long offset = (long)pageNo * BufferPool.getPageSize();
+        FileChannel fileChannel = getChannel();
+        while (pageData.hasRemaining()){
+            fileChannel.write(pageData, offset + pageData.position());
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        writePageData(page.getId().getPageNumber(), page.getPageData());
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages){
+            writePage(p);
+        }
+        getChannel().force(false);
+    }
+
+    /**
+     * Returns the number of pages in this HashIndexFile, including the
+     * directory pages.
+     */
+    public int numPages() {
+        return (int)((this.file.length() + BufferPool.getPageSize() - 1) / BufferPool.getPageSize());
+    }
+
+    /**
+     * Writes an empty page after the last page of the file.
+     *
+     * @return the number of the new page
+     */
+    private synchronized int appendEmptyPage() throws IOException {
+        int pageNo = Math.max(numPages(), 1);
+        writePageData(pageNo, new byte[BufferPool.getPageSize()]);
+        return pageNo;
+    }
+
+    private HashPageId rootId() {
+        return new HashPageId(this.id, 0, HashPageId.DIRECTORY);
+    }
+
+    /**
+     * Fetches a page for a modification of the index, which sees the pages
+     * it has already modified as they are.
+     */
+    private HashPage getPage(TransactionId tid, Map<PageId, Page> dirtied, HashPageId pid, Permissions perm)
+            throws DbException, TransactionAbortedException {
+        Page p = dirtied.get(pid);
+        if (p != null){
+            return (HashPage)p;
+        }
+        return (HashPage)Database.getBufferPool().getPage(tid, pid, perm);
+    }
+
+    /**
+     * Makes a page the modification is about to change writable, upgrading
+     * its lock if it was read to find the bucket, and marks it dirty so the
+     * buffer pool cannot evict it and lose the change.
+     */
+    private void writable(TransactionId tid, Map<PageId, Page> dirtied, HashPage page)
+            throws DbException, TransactionAbortedException {
+        if (!dirtied.containsKey(page.getId())){
+            Database.getBufferPool().upgradeLock(tid, page.getId());
+            page.markDirty(true, tid);
+            dirtied.put(page.getId(), page);
+        }
+    }
+
+    /**
+     * Appends an empty page of the specified kind.
+     *
+     * @return the new page, writable
+     */
+    private HashPage newPage(TransactionId tid, Map<PageId, Page> dirtied, int category)
+            throws DbException, IOException, TransactionAbortedException {
+        HashPageId pid = new HashPageId(this.id, appendEmptyPage(), category);
+        HashPage page = (HashPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_WRITE);
+        writable(tid, dirtied, page);
+        return page;
+    }
+
+    /**
+     * @return the directory page holding the specified slot
+     */
+    private HashDirectoryPage directoryPage(TransactionId tid, Map<PageId, Page> dirtied, HashDirectoryPage root,
+            int slot, Permissions perm) throws DbException, TransactionAbortedException {
+        int pageNo = root.get(1 + slot / HashDirectoryPage.slotsPerPage());
+        return (HashDirectoryPage)getPage(tid, dirtied, new HashPageId(this.id, pageNo, HashPageId.DIRECTORY), perm);
+    }
+
+    /**
+     * @return the id of the first page of the bucket the specified slot
+     *   points at
+     */
+    private HashPageId bucketId(HashDirectoryPage dir, int slot) {
+        return new HashPageId(this.id, dir.get(slot % HashDirectoryPage.slotsPerPage()), HashPageId.BUCKET);
+    }
+
+    /**
+     * Reads the pages of the bucket the specified slot points at, the
+     * bucket's first page first.
+     */
+    private ArrayList<HashBucketPage> chain(TransactionId tid, Map<PageId, Page> dirtied, HashDirectoryPage root,
+            int slot) throws DbException, TransactionAbortedException {
+        HashDirectoryPage dir = directoryPage(tid, dirtied, root, slot, Permissions.READ_ONLY);
+        ArrayList<HashBucketPage> chain = new ArrayList<HashBucketPage>();
+        for (HashPageId pid = bucketId(dir, slot); pid != null; pid = chain.get(chain.size() - 1).getNextId()){
+            chain.add((HashBucketPage)getPage(tid, dirtied, pid, Permissions.READ_WRITE));
+        }
+        return chain;
+    }
+
+    /**
+     * Adds the specified entry to this index.
+     *
+     * @param tid
+     *            the transaction performing the update
+     * @param e
+     *            the entry to add, of this file's TupleDesc
+     * @return the pages modified, including any pages added
+     */
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple e)
+            throws DbException, IOException, TransactionAbortedException {
+        return insertTuples(tid, Collections.singletonList(e));
+    }
+
+    /**
+     * Adds the specified entries to this index one after another. The pages
+     * they modify are shared between them, so a page that several entries
+     * go to is upgraded and returned once.
+     *
+     * @param tid
+     *            the transaction performing the update
+     * @param entries
+     *            the entries to add, of this file's TupleDesc
+     * @return the pages modified, including any pages added
+     */
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterable<Tuple> entries)
+            throws DbException, IOException, TransactionAbortedException {
+        LinkedHashMap<PageId, Page> dirtied = new LinkedHashMap<PageId, Page>();
+        for (Tuple e : entries){
+            if (!e.getTupleDesc().equals(this.td)){
+                throw new DbException("entry does not match the index's TupleDesc");
+            }
+            insertEntry(tid, dirtied, e);
+        }
+        return new ArrayList<Page>(dirtied.values());
+    }
+
+    private void insertEntry(TransactionId tid, Map<PageId, Page> dirtied, Tuple e)
+            throws DbException, IOException, TransactionAbortedException {
+        HashDirectoryPage root = (HashDirectoryPage)getPage(tid, dirtied, rootId(), Permissions.READ_ONLY);
+        if (root.get(1) == 0){
+            // an empty file gets a directory of one slot
+            writable(tid, dirtied, root);
+            HashDirectoryPage dir = (HashDirectoryPage)newPage(tid, dirtied, HashPageId.DIRECTORY);
+            HashPage bucket = newPage(tid, dirtied, HashPageId.BUCKET);
+            root.set(0, 0);
+            root.set(1, dir.getId().getPageNumber());
+            dir.set(0, bucket.getId().getPageNumber());
+        }
+        int h = hash(e.getField(0));
+        while (true){
+            int slot = h & ((1 << root.get(0)) - 1);
+            ArrayList<HashBucketPage> chain = chain(tid, dirtied, root, slot);
+            if (place(tid, dirtied, chain, e, false)){
+                break;
+            }
+            if (!splittable(chain, h)){
+                place(tid, dirtied, chain, e, true);
+                break;
+            }
+            split(tid, dirtied, root, slot, chain);
+        }
+    }
+
+    /**
+     * Adds an entry to the first page of a bucket with room for it.
+     *
+     * @param grow whether to add an overflow page if no page has room
+     * @return false if no page had room and grow was false
+     */
+    private boolean place(TransactionId tid, Map<PageId, Page> dirtied, ArrayList<HashBucketPage> chain,
+            Tuple e, boolean grow) throws DbException, IOException, TransactionAbortedException {
+        for (HashBucketPage page : chain){
+            if (page.hasRoom()){
+                writable(tid, dirtied, page);
+                page.insertEntry(e);
+                return true;
+            }
+        }
+        if (!grow){
+            return false;
+        }
+        HashBucketPage last = chain.get(chain.size() - 1);
+        HashBucketPage overflow = (HashBucketPage)newPage(tid, dirtied, HashPageId.BUCKET);
+        writable(tid, dirtied, last);
+        last.setNextId(overflow.getId());
+        overflow.insertEntry(e);
+        chain.add(overflow);
+        return true;
+    }
+
+    /**
+     * @return true if splitting a full bucket can separate its keys and a
+     *   new key with the specified hash
+     */
+    private boolean splittable(ArrayList<HashBucketPage> chain, int h) {
+        int depth = chain.get(0).getLocalDepth();
+        if (depth >= maxDepth()){
+            return false;
+        }
+        int mask = (1 << maxDepth()) - 1;
+        for (HashBucketPage page : chain){
+            for (int i = 0; i < page.getNumEntries(); i++){
+                if (((hash(page.getEntry(i).getField(0)) ^ h) & mask) != 0){
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Splits the bucket the specified slot points at by the next bit of its
+     * keys' hashes, doubling the directory first if the bucket already uses
+     * all of the directory's bits.
+     */
+    private void split(TransactionId tid, Map<PageId, Page> dirtied, HashDirectoryPage root, int slot,
+            ArrayList<HashBucketPage> chain) throws DbException, IOException, TransactionAbortedException {
+        HashBucketPage bucket = chain.get(0);
+        int depth = bucket.getLocalDepth();
+        if (depth == root.get(0)){
+            doubleDirectory(tid, dirtied, root);
+        }
+        HashBucketPage sibling = (HashBucketPage)newPage(tid, dirtied, HashPageId.BUCKET);
+        writable(tid, dirtied, bucket);
+        bucket.setLocalDepth(depth + 1);
+        sibling.setLocalDepth(depth + 1);
+
+        // the entries stay on the bucket's pages or move to the sibling's,
+        // which grows overflow pages only if the bucket had them
+        ArrayList<Tuple> entries = new ArrayList<Tuple>();
+        for (HashBucketPage page : chain){
+            writable(tid, dirtied, page);
+            entries.addAll(page.removeAll());
+        }
+        ArrayList<HashBucketPage> siblingChain = new ArrayList<HashBucketPage>();
+        siblingChain.add(sibling);
+        for (Tuple e : entries){
+            boolean moves = ((hash(e.getField(0)) >>> depth) & 1) != 0;
+            place(tid, dirtied, moves ? siblingChain : chain, e, true);
+        }
+
+        // the slots ending in the bucket's bits and a set next bit move too
+        int low = slot & ((1 << depth) - 1);
+        int slots = 1 << root.get(0);
+        for (int s = low | (1 << depth); s < slots; s += 2 << depth){
+            HashDirectoryPage dir = directoryPage(tid, dirtied, root, s, Permissions.READ_ONLY);
+            writable(tid, dirtied, dir);
+            dir.set(s % HashDirectoryPage.slotsPerPage(), sibling.getId().getPageNumber());
+        }
+    }
+
+    /**
+     * Doubles the directory, pointing each new slot at the bucket of the
+     * slot it extends.
+     */
+    private void doubleDirectory(TransactionId tid, Map<PageId, Page> dirtied, HashDirectoryPage root)
+            throws DbException, IOException, TransactionAbortedException {
+        int per = HashDirectoryPage.slotsPerPage();
+        int size = 1 << root.get(0);
+        writable(tid, dirtied, root);
+        for (int s = 0; s < size; s++){
+            int t = s + size;
+            HashDirectoryPage src = directoryPage(tid, dirtied, root, s, Permissions.READ_ONLY);
+            if (root.get(1 + t / per) == 0){
+                HashPage added = newPage(tid, dirtied, HashPageId.DIRECTORY);
+                root.set(1 + t / per, added.getId().getPageNumber());
+            }
+            HashDirectoryPage dst = directoryPage(tid, dirtied, root, t, Permissions.READ_ONLY);
+            writable(tid, dirtied, dst);
+            dst.set(t % per, src.get(s % per));
+        }
+        root.set(0, root.get(0) + 1);
+    }
+
+    /**
+     * Removes the specified entry from this index.
+     *
+     * @param tid
+     *            the transaction performing the update
+     * @param e
+     *            the entry to remove, of this file's TupleDesc
+     * @return the pages modified
+     * @throws DbException if the index holds no such entry
+     */
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple e)
+            throws DbException, IOException, TransactionAbortedException {
+        LinkedHashMap<PageId, Page> dirtied = new LinkedHashMap<PageId, Page>();
+        HashDirectoryPage root = (HashDirectoryPage)getPage(tid, dirtied, rootId(), Permissions.READ_ONLY);
+        if (root.get(1) != 0){
+            int slot = hash(e.getField(0)) & ((1 << root.get(0)) - 1);
+            for (HashBucketPage page : chain(tid, dirtied, root, slot)){
+                if (page.deleteEntry(e)){
+                    writable(tid, dirtied, page);
+                    return new ArrayList<Page>(dirtied.values());
+                }
+            }
+        }
+        throw new DbException("entry not present in index");
+    }
+
+    /**
+     * Replaces the contents of this file with an index of the specified
+     * entries, written directly to disk with a directory deep enough that
+     * the buckets start out three quarters full. The file must not be in use
+     * by any transaction.
+     */
+    public synchronized void bulkLoad(List<Tuple> entries) throws IOException {
+        getChannel().truncate(0);
+        byte[] empty = new byte[BufferPool.getPageSize()];
+        int perBucket = HashBucketPage.maxEntries(this.td);
+        int depth = 0;
+        while (depth < maxDepth() && (long)entries.size() * 4 > (long)perBucket * 3 << depth){
+            depth++;
+        }
+        int slots = 1 << depth;
+        ArrayList<ArrayList<Tuple>> buckets = new ArrayList<ArrayList<Tuple>>(slots);
+        for (int s = 0; s < slots; s++){
+            buckets.add(new ArrayList<Tuple>());
+        }
+        for (Tuple e : entries){
+            buckets.get(hash(e.getField(0)) & (slots - 1)).add(e);
+        }
+
+        int per = HashDirectoryPage.slotsPerPage();
+        HashDirectoryPage root = new HashDirectoryPage(rootId(), empty);
+        root.set(0, depth);
+        HashDirectoryPage[] dirs = new HashDirectoryPage[(slots + per - 1) / per];
+        int nextPageNo = 1;
+        for (int k = 0; k < dirs.length; k++){
+            dirs[k] = new HashDirectoryPage(new HashPageId(this.id, nextPageNo, HashPageId.DIRECTORY), empty);
+            root.set(1 + k, nextPageNo++);
+        }
+        for (int s = 0; s < slots; s++){
+            dirs[s / per].set(s % per, nextPageNo);
+            HashBucketPage page = new HashBucketPage(new HashPageId(this.id, nextPageNo++, HashPageId.BUCKET), empty);
+            page.setLocalDepth(depth);
+            Iterator<Tuple> it = buckets.get(s).iterator();
+            while (true){
+                while (it.hasNext() && page.hasRoom()){
+                    page.insertEntry(it.next());
+                }
+                if (!it.hasNext()){
+                    break;
+                }
+                HashBucketPage overflow = new HashBucketPage(new HashPageId(this.id, nextPageNo++, HashPageId.BUCKET), empty);
+                page.setNextId(overflow.getId());
+                writePage(page);
+                page = overflow;
+            }
+            writePage(page);
+        }
+        for (HashDirectoryPage dir : dirs){
+            writePage(dir);
+        }
+        writePage(root);
+        getChannel().force(false);
+    }
+
+    /**
+     * Returns an iterator over all the entries of this index, bucket by
+     * bucket.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return indexIterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the entries of this index whose keys satisfy
+     * the specified predicate. For EQUALS it reads only the key's bucket;
+     * for other operations it reads every bucket.
+     *
+     * @param ipred the predicate the keys are tested with, or null for all
+     */
+    public DbFileIterator indexIterator(final TransactionId tid, final IndexPredicate ipred) {
+        final boolean lookup = ipred != null && ipred.getOp() == Predicate.Op.EQUALS;
+        final Map<PageId, Page> none = Collections.<PageId, Page>emptyMap();
+
+        return new AbstractDbFileIterator() {
+
+            private HashDirectoryPage root;
+            /* the next slot whose bucket is read, and one past the last */
+            private int slot;
+            private int lastSlot;
+            private HashBucketPage page;
+            private int pos;
+
+            public void open() throws DbException, TransactionAbortedException {
+                this.root = (HashDirectoryPage)Database.getBufferPool().getPage(tid, rootId(), Permissions.READ_ONLY);
+                this.page = null;
+                if (this.root.get(1) == 0){
+                    this.slot = this.lastSlot = 0;
+                }
+                else if (lookup){
+                    this.slot = hash(ipred.getOperand()) & ((1 << this.root.get(0)) - 1);
+                    this.lastSlot = this.slot + 1;
+                }
+                else{
+                    this.slot = 0;
+                    this.lastSlot = 1 << this.root.get(0);
+                }
+            }
+
+            private HashBucketPage fetch(HashPageId pid) throws DbException, TransactionAbortedException {
+                return (HashBucketPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (true){
+                    if (this.page != null && this.pos < this.page.getNumEntries()){
+                        Tuple e = this.page.getEntry(this.pos++);
+                        if (ipred == null || ipred.matches(e.getField(0))){
+                            return e;
+                        }
+                        continue;
+                    }
+                    if (this.page != null && this.page.getNextId() != null){
+                        this.page = fetch(this.page.getNextId());
+                        this.pos = 0;
+                        continue;
+                    }
+                    // the next bucket, visiting each through its lowest slot
+                    this.page = null;
+                    while (this.page == null && this.slot < this.lastSlot){
+                        HashDirectoryPage dir = directoryPage(tid, none, this.root, this.slot, Permissions.READ_ONLY);
+                        HashBucketPage bucket = fetch(bucketId(dir, this.slot));
+                        if (lookup || this.slot < (1 << bucket.getLocalDepth())){
+                            this.page = bucket;
+                        }
+                        this.slot++;
+                    }
+                    if (this.page == null){
+                        return null;
+                    }
+                    this.pos = 0;
+                }
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                open();
+            }
+
+            public void close() {
+                super.close();
+                this.root = null;
+                this.page = null;
+            }
+        };
+    }
+}
@@ -0,0 +1,79 @@
+package simpledb;
+
+/**
+ * Unique identifier for the pages of a HashIndexFile. Besides the page
+ * number, the id records which kind of page it refers to, so that the file
+ * can decode the page when it is read.
+ */
+public class HashPageId implements PageId {
+
+    /** A page of the directory, including the root at the start of the file */
+    public final static int DIRECTORY = 0;
+    /** A bucket page, or a page of a bucket's overflow chain */
+    public final static int BUCKET = 1;
+
+    private final int table_id;
+    private final int page_number;
+    private final int category;
+
+    /**
+     * Constructor. Create a page id structure for a specific page of a
+     * specific index file.
+     *
+     * @param tableId The index file that is being referenced
+     * @param pgNo The page number in that file
+     * @param category The kind of page, e.g. HashPageId.BUCKET
+     */
+    public HashPageId(int tableId, int pgNo, int category) {
+        this.table_id = tableId;
+        this.page_number = pgNo;
+        this.category = category;
+    }
+
+    /** @return the table associated with this PageId */
+    public int getTableId() {
+        return this.table_id;
+    }
+
+    /**
+     * @return the page number in the file associated with this PageId
+     */
+    public int getPageNumber() {
+        return this.page_number;
+    }
+
+    /**
+     * @return the kind of page, DIRECTORY or BUCKET
+     */
+    public int getCategory() {
+        return this.category;
+    }
+
+    /**
+     * @return the table id and page number of this page packed into one
+     *   long, used as the key of the BufferPool's page and lock tables
+     */
+    public long getKey() {
+        return HeapPageId.packKey(this.table_id, this.page_number);
+    }
+
+    public int hashCode() {
+        return this.table_id * 31 + this.page_number;
+    }
+
+    public boolean equals(Object o) {
+        if (!(o instanceof HashPageId)) {
+            return false;
+        }
+        HashPageId obj = (HashPageId)o;
+        return obj.table_id == this.table_id && obj.page_number == this.page_number;
+    }
+
+    /**
+     *  Return a representation of this object as an array of
+     *  integers, for writing to disk.
+     */
+    public int[] serialize() {
+        return new int[] { this.table_id, this.page_number, this.category };
+    }
+}
@@ -1,6 +1,9 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.*;
 
 /**
@@ -9,15 +12,29 @@ import java.util.*;
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
  * constructor.
+ * <p>
+ * A HeapFile can be opened in memory-mapped mode, intended for read-mostly
+ * tables. Pages are then read from read-only mappings of the file, each
+ * covering a fixed number of pages, and decoded straight from the mapping.
+ * Writes still go through the file channel.
+ * <p>
+ * A HeapFile can also keep a {@link ZoneMap} of its pages, which lets scans
+ * with range predicates on INT columns skip the pages that cannot match.
  * 
  * @see simpledb.HeapPage#HeapPage
+ * @see PageFile
  * @author Sam Madden
  */
-public class HeapFile implements DbFile {
+public class HeapFile extends PageFile {
 
-    private final File file;
-    private final TupleDesc td;
-    private final int id;
+    private final boolean memoryMapped;
+
+    /** Number of pages covered by each mapped segment in memory-mapped mode */
+    private static final int PAGES_PER_SEGMENT = 1024;
+    private MappedByteBuffer[] segments = new MappedByteBuffer[0];
+
+    /** summaries of the INT columns of each page, or null if not kept */
+    private volatile ZoneMap zoneMap;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -27,40 +44,102 @@ public class HeapFile implements DbFile {
      *            file.
      */
     public HeapFile(File f, TupleDesc td) {
-        this.file = f;
-        this.td = td;
-        this.id = f.getAbsoluteFile().hashCode();
+        this(f, td, false);
     }
 
     /**
-     * Returns the File backing this HeapFile on disk.
+     * Constructs a heap file backed by the specified file, optionally reading
+     * its pages through memory mappings of the file.
      * 
-     * @return the File backing this HeapFile on disk.
+     * @param f
+     *            the file that stores the on-disk backing store for this heap
+     *            file.
+     * @param memoryMapped
+     *            true to read pages from memory mappings of the file
      */
-    public File getFile() {
-        return this.file;
+    public HeapFile(File f, TupleDesc td, boolean memoryMapped) {
+        super(f, td);
+        this.memoryMapped = memoryMapped;
     }
 
     /**
-     * Returns an ID uniquely identifying this HeapFile. Implementation note:
-     * you will need to generate this tableid somewhere to ensure that each
-     * HeapFile has a "unique id," and that you always return the same value for
-     * a particular HeapFile. We suggest hashing the absolute file name of the
-     * file underlying the heapfile, i.e. f.getAbsoluteFile().hashCode().
-     * 
-     * @return an ID uniquely identifying this HeapFile.
+     * @return true if this file reads its pages through memory mappings
      */
-    public int getId() {
-        return this.id;
+    public boolean isMemoryMapped() {
+        return this.memoryMapped;
     }
 
     /**
-     * Returns the TupleDesc of the table stored in this DbFile.
-     * 
-     * @return TupleDesc of this DbFile.
+     * Makes this file keep a zone map of its pages, persisted in a file of
+     * the same name with ".zones" appended. It must be enabled before the
+     * file is first modified, since only later changes are tracked.
+     */
+    public synchronized void enableZoneMap() {
+        if (this.zoneMap == null){
+            this.zoneMap = new ZoneMap(new File(getFile().getPath() + ".zones"), getFile(), getTupleDesc());
+        }
+    }
+
+    /**
+     * @return the zone map of this file, or null if it keeps none
+     */
+    public ZoneMap getZoneMap() {
+        return this.zoneMap;
+    }
+
+    protected Page createPage(HeapPageId id, byte[] data) throws IOException {
+        return new HeapPage(id, data);
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void close() throws IOException {
+        this.segments = new MappedByteBuffer[0];
+        super.close();
+        if (this.zoneMap != null){
+            this.zoneMap.close();
+        }
+    }
+
+    /**
+     * Returns a read-only view of the specified page within its mapped
+     * segment, mapping the segment first if it is not mapped yet or does not
+     * reach the page (e.g. because the file has grown since).
+     */
+    private synchronized ByteBuffer mappedPage(int pageNo) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int segNo = pageNo / PAGES_PER_SEGMENT;
+        int offset = (pageNo % PAGES_PER_SEGMENT) * pageSize;
+
+        if (segNo >= this.segments.length){
+            this.segments = Arrays.copyOf(this.segments, segNo + 1);
+        }
+        MappedByteBuffer segment = this.segments[segNo];
+        if (segment == null || segment.capacity() < offset + pageSize){
+            FileChannel fileChannel = getChannel();
+            long start = (long)segNo * PAGES_PER_SEGMENT * pageSize;
+            long length = Math.min((long)PAGES_PER_SEGMENT * pageSize, fileChannel.size() - start);
+            if (length < offset + pageSize){
+                throw new EOFException();
+            }
+            segment = fileChannel.map(FileChannel.MapMode.READ_ONLY, start, length);
+            this.segments[segNo] = segment;
+        }
+
+        ByteBuffer page = segment.duplicate();
+        page.position(offset);
+        page.limit(offset + pageSize);
+        return page.slice();
+    }
+
+    /**
+     * Drops the mapping of the segment holding the specified page, so that
+     * it is remapped to the new end of the file on next access.
      */
-    public TupleDesc getTupleDesc() {
-        return this.td;
+    private synchronized void unmapSegment(int pageNo) {
+        int segNo = pageNo / PAGES_PER_SEGMENT;
+        if (segNo < this.segments.length){
+            this.segments[segNo] = null;
+        }
     }
 
     // see DbFile.java for javadocs
@@ -72,101 +151,179 @@ public class HeapFile implements DbFile {
 
         //create new Heap Page ID for construction new Heap Page
         HeapPageId heapPageID = new HeapPageId(pid.getTableId(), pid.getPageNumber());
-        RandomAccessFile randAccessFile;
 
+        if (!getFile().exists()){
+            return null;
+        }
         try{
-            //open random access connection to our file
-            randAccessFile = new RandomAccessFile(this.file,"r");
+            if (this.memoryMapped){
+                return new HeapPage(heapPageID, mappedPage(pid.getPageNumber()));
+            }
+
+            ByteBuffer data = ByteBuffer.allocate(BufferPool.getPageSize());
+            readInto(pid.getPageNumber(), data);
+            return new HeapPage(heapPageID, data.array());
         }
-        catch (FileNotFoundException ex){
+        catch (IOException ex){
+            return null; 
+        }
+    }
+
+    /**
+     * Reads the specified page into a frame of the BufferPool's arena and
+     * returns a page that decodes its tuples from the frame in place.
+     *
+     * @param pid the page to read
+     * @param frameData the frame's buffer, exactly one page long
+     * @param frame the index of the frame in the arena
+     * @return the page, or null if it could not be read
+     * @see FrameArena
+     */
+    HeapPage readPage(PageId pid, ByteBuffer frameData, int frame) {
+        if (pid.getTableId() != this.getId()){
+            throw new IllegalArgumentException();
+        }
+        if (!getFile().exists()){
             return null;
         }
         try{
-            //create array of page size to store data and read page starting at correct offset
-            int offset = pid.getPageNumber() * BufferPool.getPageSize();
-            int pageSize = BufferPool.getPageSize();
-            // if (((int)this.file.length() - offset) < pageSize){
-            //     pageSize = (int)this.file.length() - offset;
-            // }
-            byte[] data = new byte[pageSize];
-            randAccessFile.seek(offset);
-            randAccessFile.readFully(data);
-            randAccessFile.close();
-            return new HeapPage(heapPageID, data);
+            if (this.memoryMapped){
+                frameData.duplicate().put(mappedPage(pid.getPageNumber()));
+            }
+            else{
+                readInto(pid.getPageNumber(), frameData.duplicate());
+            }
+            return new HeapPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), frameData, frame);
         }
         catch (IOException ex){
-            System.out.print(" exception  ");
-            return null; 
+            return null;
         }
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
-        RandomAccessFile randAccessFile;
-        try{
-            //open random access connection to our file
-            randAccessFile = new RandomAccessFile(this.file,"rw");
+        if (this.memoryMapped){
+            keepBeforeImages(Arrays.asList(page));
+        }
+        super.writePage(page);
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        if (this.memoryMapped){
+            keepBeforeImages(pages);
+        }
+        super.writePages(pages);
+    }
+
+    /**
+     * Makes pages read from the mappings take their before images, since
+     * writing them back changes the mapped bytes they were created from.
+     */
+    private void keepBeforeImages(List<Page> pages) {
+        for (Page p : pages){
+            if (p instanceof HeapPage){
+                ((HeapPage)p).keepBeforeImage();
+            }
         }
-        catch (FileNotFoundException ex){
-            throw new IOException();
+    }
+
+    /**
+     * Brings the zone map, if any, up to date with pages just written to
+     * disk.
+     */
+    void pagesWritten(List<Page> pages) throws IOException {
+        ZoneMap zones = this.zoneMap;
+        if (zones != null){
+            zones.pagesWritten(pages);
         }
-        //find offset corresponding to page number, and write page accordingly
-        byte[] pageData = page.getPageData();
-        int offset = page.getId().getPageNumber() * BufferPool.getPageSize();
-        randAccessFile.seek(offset);
-        randAccessFile.write(pageData);
-        randAccessFile.close();
     }
 
     /**
-     * Returns the number of pages in this HeapFile.
+     * Appends an empty page like {@link PageFile#appendEmptyPage}, and drops
+     * the mapping that does not reach the new page yet.
      */
-    public int numPages() {
-        return (int)Math.ceil(this.file.length()/BufferPool.getPageSize());
+    synchronized int appendEmptyPage() throws IOException {
+        int pageNo = super.appendEmptyPage();
+        if (this.memoryMapped){
+            unmapSegment(pageNo);
+        }
+        return pageNo;
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
-        int pageNo = 0;
+        return insertTuples(tid, Collections.singletonList(t));
+    }
 
-        //iterate over each page and insert tuple if an empty slot exists
-        while (pageNo < this.numPages()){
-            HeapPageId pageID = new HeapPageId(this.getId(),pageNo);
+    /**
+     * Inserts the tuples into the pages the free-space map says may have
+     * room, in page order, filling each page before moving on to the next.
+     * Once those pages are full, pages are appended. Each page is locked and
+     * returned once, however many of the tuples go to it.
+     */
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterable<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> dirtied = new ArrayList<Page>();
+        Iterator<Tuple> it = tuples.iterator();
+        if (!it.hasNext()){
+            return dirtied;
+        }
+        int pageNo = freeSpace.nextPageWithRoom(0, this.cachedNumPages());
+        while (it.hasNext()){
             HeapPage page;
-            try{
+            if (pageNo >= 0){
+                HeapPageId pageID = new HeapPageId(this.getId(),pageNo);
+                boolean alreadyLocked = Database.getBufferPool().holdsLock(tid,pageID);
                 page = (HeapPage)Database.getBufferPool().getPage(tid, pageID, Permissions.READ_ONLY);
+                if (page.getNumEmptySlots() == 0){
+                    //go to next page and release lock on page, unless it was held before
+                    freeSpace.setFull(pageNo);
+                    if (!alreadyLocked){
+                        Database.getBufferPool().releasePage(tid,pageID);
+                    }
+                    pageNo = freeSpace.nextPageWithRoom(pageNo + 1, this.cachedNumPages());
+                    continue;
+                }
+                //keep the shared lock while upgrading so no other writer can take the slots
+                Database.getBufferPool().upgradeLock(tid,pageID);
             }
-            catch (InterruptedException ex){
-                System.out.print(" INTERRUPTED ");
-                return null;
+            else {
+                //no page with empty slots is left, so append an empty page and
+                //fill it through the buffer pool so that it is locked like any other
+                HeapPageId pageID = new HeapPageId(this.getId(),appendEmptyPage());
+                page = (HeapPage)Database.getBufferPool().getPage(tid, pageID, Permissions.READ_WRITE);
             }
 
-            if (page.getNumEmptySlots() != 0){
-                Database.getBufferPool().releasePage(tid,pageID);
-                try{
-                    page = (HeapPage)Database.getBufferPool().getPage(tid, pageID, Permissions.READ_WRITE);
-                }
-                catch (InterruptedException ex){
-                    System.out.print(" INTERRUPTED ");
-                    return null;
-                }
+            int filling = page.getId().getPageNumber();
+            while (it.hasNext() && page.getNumEmptySlots() != 0){
+                Tuple t = it.next();
                 page.insertTuple(t);
-                return new ArrayList<Page>(Arrays.asList(page));
+                includeInZoneMap(filling, t);
+            }
+            if (page.getNumEmptySlots() == 0){
+                freeSpace.setFull(filling);
+            }
+            else {
+                freeSpace.setHasRoom(filling);
+            }
+            dirtied.add(page);
+            if (pageNo >= 0){
+                pageNo = freeSpace.nextPageWithRoom(pageNo + 1, this.cachedNumPages());
             }
-            //go to next page and release lock on page
-            Database.getBufferPool().releasePage(tid,pageID);
-
-            pageNo++;
         }
+        return dirtied;
+    }
 
-        //if no page with empty slots exist, create new empty page, insert tuple and return
-        byte[] emptyData = HeapPage.createEmptyPageData();
-        HeapPageId pageID = new HeapPageId(this.getId(),this.numPages());
-        HeapPage page = new HeapPage(pageID,emptyData);
-        page.insertTuple(t);
-        this.writePage(page);
-        return new ArrayList<Page>(Arrays.asList(page));
+    /**
+     * Widens the zone map summary, if any, of a page a tuple was inserted on.
+     */
+    private void includeInZoneMap(int pageNo, Tuple t) {
+        ZoneMap zones = this.zoneMap;
+        if (zones != null){
+            zones.include(pageNo, t);
+        }
     }
 
     // see DbFile.java for javadocs
@@ -177,26 +334,12 @@ public class HeapFile implements DbFile {
             throw new DbException("Tuple not present in file");
         }
 
-        HeapPage page;
-        try{
-            page = (HeapPage)Database.getBufferPool().getPage(tid, pageID, Permissions.READ_ONLY);
-        }
-        catch (InterruptedException ex){
-            System.out.print(" INTERRUPTED ");
-            return null;
-        }
+        HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, pageID, Permissions.READ_ONLY);
 
         if (page != null){
-            Database.getBufferPool().releasePage(tid,pageID);
-            try{
-                page = (HeapPage)Database.getBufferPool().getPage(tid, pageID, Permissions.READ_WRITE);
-            }
-            catch (InterruptedException ex){
-                System.out.print(" INTERRUPTED ");
-                return null;
-            }
+            Database.getBufferPool().upgradeLock(tid,pageID);
             page.deleteTuple(t);
-            this.writePage(page);
+            freeSpace.setHasRoom(pageID.getPageNumber());
             return new ArrayList<Page>(Arrays.asList(page));
         }
         throw new DbException("Tuple not present in file");
@@ -204,26 +347,71 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, 0);
+    }
+
+    /**
+     * Returns an iterator over all the tuples stored in this file, for a scan
+     * that expects to read the specified number of pages. If that is more
+     * than the buffer pool holds, the iterator reads pages through a
+     * {@link BufferRing} so that the scan does not flush the rest of the
+     * cache.
+     *
+     * @param tid the transaction scanning the file
+     * @param scanPages the expected number of pages of the file, e.g. from
+     *   its TableStats; 0 never uses a ring
+     */
+    public DbFileIterator iterator(TransactionId tid, int scanPages) {
+        return iterator(tid, scanPages, Collections.<Predicate>emptyList());
+    }
+
+    /**
+     * Returns an iterator like {@link #iterator(TransactionId, int)} that
+     * skips the pages which, by this file's zone map, hold no tuple that
+     * satisfies all of the specified predicates. Skipped pages are neither
+     * read nor locked. The other pages are returned whole, so the caller
+     * still has to filter their tuples. Without a zone map every page is
+     * read.
+     *
+     * @param predicates predicates on fields of this file's tuples
+     */
+    public DbFileIterator iterator(TransactionId tid, int scanPages, List<Predicate> predicates) {
         HeapFile heapFile = this;
+        final ZoneMap zones = predicates.isEmpty() ? null : this.zoneMap;
 
         return new DbFileIterator(){
             private int pageNumber = 0;
             private Iterator<Tuple> pageIterator;
             private boolean opened = false;
+            private ReadAhead readAhead;
+            private BufferRing ring;
             HeapPageId currPageID;
+            //pages this scan locked itself, as opposed to ones the transaction already held
+            private final Set<PageId> scanLocked = new HashSet<PageId>();
 
             private Iterator<Tuple> getPageIterator(int pageNo) throws TransactionAbortedException, DbException {
+                readAhead.pageAccessed(pageNo);
+                if (zones != null && !zones.mayMatch(pageNo, predicates)){
+                    currPageID = null;
+                    return Collections.<Tuple>emptyIterator();
+                }
+
                 //build new page ID for given page in this file
                 currPageID = new HeapPageId(heapFile.getId(),pageNo);
-                HeapPage fromBuffer;
 
-                //get page from buffer
-                try{
-                    fromBuffer = (HeapPage)Database.getBufferPool().getPage(tid, currPageID, Permissions.READ_ONLY);
+                //get page from buffer, noting whether the lock is new
+                boolean alreadyLocked = Database.getBufferPool().holdsLock(tid,currPageID);
+                HeapPage fromBuffer = (HeapPage)Database.getBufferPool().getPage(tid, currPageID, Permissions.READ_ONLY, ring);
+                if (!alreadyLocked){
+                    scanLocked.add(currPageID);
                 }
-                catch (InterruptedException ex){
-                    System.out.print(" INTERRUPTED ");
-                    return null;
+                if (zones != null && fromBuffer.isDirty() == null){
+                    try{
+                        zones.pageRead(fromBuffer);
+                    }
+                    catch (IOException e){
+                        //the summary is kept in memory even if it could not be persisted
+                    }
                 }
                 return fromBuffer.iterator();
             }
@@ -231,6 +419,13 @@ public class HeapFile implements DbFile {
             //open and grab first page iterator if file has any pages
             public void open() throws DbException, TransactionAbortedException {
                 opened = true;
+                if (ring == null && scanPages > 0){
+                    ring = Database.getBufferPool().newRing(scanPages);
+                }
+                readAhead = new ReadAhead(heapFile, ring);
+                if (zones != null){
+                    readAhead.skipPages(zones, predicates);
+                }
                 if (heapFile.numPages() > 0){
                     pageIterator = getPageIterator(0);
                 }
@@ -238,7 +433,8 @@ public class HeapFile implements DbFile {
 
             public boolean hasNext() throws DbException, TransactionAbortedException {
                
-               if (!opened){
+               //an empty file has no page iterator
+               if (!opened || pageIterator == null){
                     return false;
                }
 
@@ -247,11 +443,14 @@ public class HeapFile implements DbFile {
 
                //check if current page iterator has another tuple and return true if it does
                 while (!tempPageIter.hasNext()){
-                    //release lock on this page
-                    Database.getBufferPool().releasePage(tid,currPageID);
+                    //release lock on this page, unless it was skipped or the
+                    //transaction held it before the scan (e.g. to write the page)
+                    if (currPageID != null && scanLocked.remove(currPageID)){
+                        Database.getBufferPool().releasePage(tid,currPageID);
+                    }
 
                     //otherwise check if this file has other pages
-                    if (++tempPageNumber >= heapFile.numPages()){
+                    if (++tempPageNumber >= heapFile.cachedNumPages()){
                         return false;
                     }
                     else{
@@ -263,20 +462,27 @@ public class HeapFile implements DbFile {
             }
 
             public void close(){
+                if (readAhead != null){
+                    readAhead.close();
+                }
+                if (ring != null){
+                    Database.getBufferPool().releaseRing(ring);
+                    ring = null;
+                }
                 opened = false;
                 pageNumber = 0;
                 pageIterator = null;
             }
 
             public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-                if (!opened){
+                if (!opened || pageIterator == null){
                     throw new NoSuchElementException();
                 }
 
                 //check if current page has another tuple and return if so
                 while (!pageIterator.hasNext()){
                     //otherwise check if file has another page - if not, return exception
-                    if (++pageNumber >= heapFile.numPages()){
+                    if (++pageNumber >= heapFile.cachedNumPages()){
                         throw new NoSuchElementException();
                     }
                     else{
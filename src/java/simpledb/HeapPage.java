@@ -2,6 +2,8 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.StampedLock;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -17,13 +19,26 @@ public class HeapPage implements Page {
     final TupleDesc td;
     final byte header[];
     final Tuple tuples[];
+    /* the page bytes: the arena frame, then a heap copy once it is released */
+    volatile ByteBuffer data;
     final int numSlots;
+    private int numEmptySlots;
+    /* every slot below this one is in use, so inserts start looking here */
+    private int firstFree;
 
     private boolean dirty;
     private TransactionId tid;
 
+    /* arena frame holding data, or -1 if the page is not backed by a frame */
+    private final int frame;
+    /* true until the frame is released */
+    private volatile boolean inFrame;
+    /* write-locked while the frame is released; readers of the frame validate against it */
+    private final StampedLock frameLock = new StampedLock();
+
+    /* before image, or null while it is still the untouched bytes in data */
     byte[] oldData;
-    private final Byte oldDataLock=new Byte((byte)0);
+    private final Object oldDataLock = new Object();
 
     public static final int BITS_PER_BYTE = 8;
 
@@ -44,28 +59,120 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage from the bytes remaining in the specified buffer,
+     * which may be a slice of a memory-mapped file. Only the header is read
+     * up front; the page keeps a reference to the buffer and decodes a tuple
+     * the first time its slot is accessed. The buffer also serves as the
+     * before image until one is taken, so nothing is copied up front. The
+     * page never writes to the buffer, and the caller must not modify it
+     * while the page is in use.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) throws IOException {
+        this(id, data, -1);
+    }
+
+    /**
+     * Create a HeapPage over a frame of the BufferPool's {@link FrameArena}.
+     * Decoded tuples are not kept, so the page holds no tuple objects beyond
+     * the ones it is given by insertTuple, and the untouched frame doubles as
+     * the before image. The frame must stay unchanged until
+     * {@link #releaseFrame} has been called.
+     *
+     * @param frame the index of the frame in the arena, or -1 if data is
+     *   not an arena frame
+     */
+    HeapPage(HeapPageId id, ByteBuffer data, int frame) throws IOException {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = data.slice();
 
         // allocate and read the header slots of this page        
         header = new byte[getHeaderSize()];
-        
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
+        if (this.data.remaining() < header.length + td.getSize() * numSlots)
+            throw new IOException("page " + id.getPageNumber() + " is truncated");
+        this.data.duplicate().get(header);
+
+        numEmptySlots = 0;
+        for (int i=0; i<numSlots; i++) {
+            if (!isSlotUsed(i))
+                numEmptySlots++;
+        }
+
+        // tuples are decoded on demand by getTuple
         tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+
+        this.frame = frame;
+        this.inFrame = frame >= 0;
+    }
+
+    /**
+     * @return a heap copy of the page bytes the page was created from
+     */
+    private byte[] copyData() {
+        byte[] copy = new byte[BufferPool.getPageSize()];
+        this.data.duplicate().get(copy, 0, Math.min(copy.length, this.data.remaining()));
+        return copy;
+    }
+
+    /**
+     * Copies the bytes the page was created from onto the heap as its before
+     * image, unless it has one already. Needed before the page is written
+     * back to a file it is memory-mapped from, since the write changes those
+     * bytes.
+     */
+    void keepBeforeImage() {
+        long stamp = frameLock.readLock();
+        try {
+            synchronized(oldDataLock)
+            {
+            if (oldData == null) {
+                oldData = copyData();
+            }
+            }
+        } finally {
+            frameLock.unlockRead(stamp);
         }
-        dis.close();
+    }
+
+    /**
+     * @return the index of the arena frame backing this page, or -1 if it is
+     *   not backed by a frame or the frame has been released
+     */
+    int getFrame() {
+        return inFrame ? frame : -1;
+    }
 
-        setBeforeImage();
+    /**
+     * Stops using the arena frame backing this page, so that the frame can
+     * be reused. The page bytes are copied onto the heap in one go and
+     * tuples keep being decoded from the copy on demand, so the page stays
+     * usable by anyone still holding it.
+     */
+    void releaseFrame() {
+        long stamp = frameLock.writeLock();
+        try {
+            if (!inFrame) {
+                return;
+            }
+            byte[] copy = copyData();
+            synchronized(oldDataLock)
+            {
+            if (oldData == null) {
+                oldData = copy;
+            }
+            }
+            data = ByteBuffer.wrap(copy);
+            inFrame = false;
+        } finally {
+            frameLock.unlockWrite(stamp);
+        }
     }
 
     /** Retrieve the number of tuples on this page.
@@ -94,6 +201,10 @@ public class HeapPage implements Page {
             synchronized(oldDataLock)
             {
                 oldDataRef = oldData;
+                if (oldDataRef == null) {
+                    // nothing has overwritten the bytes the page was created from
+                    oldDataRef = copyData();
+                }
             }
             return new HeapPage(pid,oldDataRef);
         } catch (IOException e) {
@@ -105,9 +216,10 @@ public class HeapPage implements Page {
     }
     
     public void setBeforeImage() {
+        byte[] newData = getPageData();
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = newData;
         }
     }
 
@@ -119,30 +231,68 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in the specified slot, decoding it from the page
+     * bytes the first time it is accessed.
+     *
+     * @return the tuple, or null if the slot is empty
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
+    Tuple getTuple(int slotId) throws NoSuchElementException {
         if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
+            return null;
+        }
+        Tuple t = tuples[slotId];
+        if (t != null) {
+            return t;
+        }
+        if (inFrame) {
+            // decode without locking, and use the result only if the frame
+            // was not released (and possibly reused) in the meantime
+            long stamp = frameLock.tryOptimisticRead();
+            if (stamp != 0 && inFrame) {
+                RuntimeException error = null;
                 try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
+                    t = readTuple(data, slotId);
+                } catch (RuntimeException e) {
+                    error = e;
+                }
+                if (frameLock.validate(stamp)) {
+                    if (error != null) {
+                        throw error;
+                    }
+                    // decoded tuples of frame pages are not kept on the heap
+                    return t;
                 }
             }
-            return null;
+            // the frame is being released; wait until data is the heap copy
+            frameLock.unlockRead(frameLock.readLock());
         }
+        // concurrent readers may both decode the slot; either result is fine
+        t = readTuple(data, slotId);
+        tuples[slotId] = t;
+        return t;
+    }
+
+    /**
+     * Offset in the page bytes of the first byte of the specified slot.
+     */
+    private int slotOffset(int slotId) {
+        return header.length + slotId * td.getSize();
+    }
 
+    /**
+     * Decode the tuple stored in the specified slot of the page bytes.
+     */
+    private Tuple readTuple(ByteBuffer bytes, int slotId) throws NoSuchElementException {
         // read fields in the tuple
         Tuple t = new Tuple(td);
         RecordId rid = new RecordId(pid, slotId);
         t.setRecordId(rid);
+        int offset = slotOffset(slotId);
         try {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+                Type type = td.getFieldType(j);
+                t.setField(j, type.parse(bytes, offset));
+                offset += type.getLen();
             }
         } catch (java.text.ParseException e) {
             e.printStackTrace();
@@ -164,53 +314,63 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
+        // keep the frame from being released while undecoded slots are copied from it
+        long stamp = frameLock.readLock();
+        try {
+            return serialize();
+        } finally {
+            frameLock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Serializes the page for getPageData, which holds the frame's read lock.
+     */
+    private byte[] serialize() {
         int len = BufferPool.getPageSize();
         ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
         DataOutputStream dos = new DataOutputStream(baos);
+        ByteBuffer src = data.duplicate();
+        int tupleSize = td.getSize();
+        byte[] zeroes = new byte[tupleSize];
+        byte[] raw = new byte[tupleSize];
 
         // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
+        try {
+            dos.write(header);
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
         }
 
         // create the tuples
         for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
+            try {
+                if (!isSlotUsed(i)) {
+                    // empty slot
+                    dos.write(zeroes);
                 }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
+                else if (tuples[i] == null) {
+                    // never decoded, so the stored bytes are still current
+                    src.position(slotOffset(i));
+                    src.get(raw);
+                    dos.write(raw);
+                }
+                else {
+                    // non-empty slot
+                    for (int j=0; j<td.numFields(); j++) {
+                        tuples[i].getField(j).serialize(dos);
+                    }
                 }
+            } catch (IOException e) {
+                e.printStackTrace();
             }
         }
 
         // padding
         int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
         try {
-            dos.write(zeroes, 0, zerolen);
+            dos.write(new byte[zerolen], 0, zerolen);
         } catch (IOException e) {
             e.printStackTrace();
         }
@@ -256,7 +416,7 @@ public class HeapPage implements Page {
         int slotId = t.getRecordId().getTupleNumber();
 
         if (this.isSlotUsed(slotId)){
-            if (this.tuples[slotId].toString().equals(t.toString())){
+            if (this.getTuple(slotId).toString().equals(t.toString())){
                 this.markSlotUsed(slotId,false);
                 return;
              }
@@ -277,12 +437,13 @@ public class HeapPage implements Page {
             throw new DbException("Can't insert tuple because page is full");
         }
 
-        for (int slotId=0; slotId < this.tuples.length; slotId++){
+        for (int slotId=this.firstFree; slotId < this.tuples.length; slotId++){
             if (!this.isSlotUsed(slotId)){
                 RecordId rid = new RecordId(this.pid, slotId);
                 t.setRecordId(rid);
                 this.tuples[slotId] = t;
                 this.markSlotUsed(slotId,true);
+                this.firstFree = slotId + 1;
                 return;
             }
         }
@@ -310,16 +471,12 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Returns the number of empty slots on this page.
+     * Returns the number of empty slots on this page. The count is kept up
+     * to date as slots are filled and cleared, so this does not scan the
+     * header.
      */
     public int getNumEmptySlots() {
-        int count = 0;
-        for (int i = 0; i < header.length*BITS_PER_BYTE; i++){
-            if (!isSlotUsed(i)){
-                count += 1;
-            }
-        }
-        return count;
+        return this.numEmptySlots;
     }
 
     /**
@@ -341,15 +498,21 @@ public class HeapPage implements Page {
      * Abstraction to fill or clear a slot on this page.
      */
     private void markSlotUsed(int i, boolean value) {
+        if (isSlotUsed(i) == value){
+            return;
+        }
         int index = (int)Math.floor(i/BITS_PER_BYTE);
         int bit_pos = (i % BITS_PER_BYTE);
         byte bit_mask = (byte)(1 << bit_pos);
         if (value){
              this.header[index] = (byte)(this.header[index] | bit_mask);
+             this.numEmptySlots--;
         }
         else{
             bit_mask = (byte)(~bit_mask);
             this.header[index] = (byte)(this.header[index] & bit_mask);
+            this.numEmptySlots++;
+            this.firstFree = Math.min(this.firstFree, i);
         }
     }
 
@@ -382,7 +545,7 @@ public class HeapPage implements Page {
                         throw new NoSuchElementException();
                     }
                 }
-                return tuple_list[currentIndex++];
+                return getTuple(currentIndex++);
             }
 
             public void remove() {
@@ -32,15 +32,31 @@ public class HeapPageId implements PageId {
     }
 
     /**
-     * @return a hash code for this page, represented by the concatenation of
-     *   the table number and the page number (needed if a PageId is used as a
-     *   key in a hash table in the BufferPool, for example.)
+     * Packs a table id and a page number into a single 64-bit key, with the
+     * table id in the high half and the page number in the low half.
+     *
+     * @see #getKey()
+     */
+    public static long packKey(int tableId, int pgNo) {
+        return ((long)tableId << 32) | (pgNo & 0xffffffffL);
+    }
+
+    /**
+     * @return the table id and page number of this page packed into one
+     *   long, used as the key of the BufferPool's page and lock tables
+     */
+    public long getKey() {
+        return packKey(this.table_id, this.page_number);
+    }
+
+    /**
+     * @return a hash code for this page, combining the table number and the
+     *   page number (needed if a PageId is used as a key in a hash table in
+     *   the BufferPool, for example.)
      * @see BufferPool
      */
     public int hashCode() {
-        //TODO: Truncate id_string, check if that is fine
-        String id_string = Integer.toString(this.table_id) + Integer.toString(Math.abs(this.page_number));
-        return (int)Long.parseLong(id_string);
+        return this.table_id * 31 + this.page_number;
     }
 
     /**
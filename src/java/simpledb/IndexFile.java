@@ -0,0 +1,47 @@
+package simpledb;
+
+/**
+ * IndexFile is a DbFile that indexes one field of a table. Its tuples are
+ * entries holding a key and the page number and slot of the table's tuple
+ * with that key, so an {@link IndexScan} can find the tuples with given keys
+ * without reading the whole table.
+ * <p>
+ * The indexes of a table are registered in the {@link Catalog}, and
+ * {@link BufferPool#insertTuple} and {@link BufferPool#deleteTuple} insert
+ * and delete the entries of tuples as they insert and delete the tuples.
+ *
+ * @see BTreeFile
+ * @see HashIndexFile
+ */
+public interface IndexFile extends DbFile {
+
+    /**
+     * @return the id of the table this file indexes
+     */
+    public int getTableId();
+
+    /**
+     * @return the index of the indexed field in the table's TupleDesc
+     */
+    public int getKeyField();
+
+    /**
+     * @return the entry of this index for the specified tuple of the indexed
+     *   table, which must have a RecordId
+     */
+    public Tuple entryFor(Tuple t);
+
+    /**
+     * @return true if indexIterator finds the entries whose keys satisfy
+     *   the specified operation without reading every entry
+     */
+    public boolean supports(Predicate.Op op);
+
+    /**
+     * Returns an iterator over the entries of this index whose keys satisfy
+     * the specified predicate.
+     *
+     * @param ipred the predicate the keys are tested with, or null for all
+     */
+    public DbFileIterator indexIterator(TransactionId tid, IndexPredicate ipred);
+}
@@ -0,0 +1,47 @@
+package simpledb;
+
+import java.io.Serializable;
+
+/**
+ * IndexPredicate compares the key of an index entry to a constant, e.g. to
+ * select the entries of an {@link IndexScan}.
+ */
+public class IndexPredicate implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Predicate.Op op;
+    private final Field operand;
+
+    /**
+     * Constructor.
+     *
+     * @param op
+     *            the operation the key is compared to the operand with
+     * @param operand
+     *            the constant the key is compared to
+     */
+    public IndexPredicate(Predicate.Op op, Field operand) {
+        this.op = op;
+        this.operand = operand;
+    }
+
+    public Predicate.Op getOp() {
+        return this.op;
+    }
+
+    public Field getOperand() {
+        return this.operand;
+    }
+
+    /**
+     * @return true if the specified key satisfies this predicate
+     */
+    public boolean matches(Field key) {
+        return key.compare(this.op, this.operand);
+    }
+
+    public String toString() {
+        return "key " + this.op + " " + this.operand;
+    }
+}
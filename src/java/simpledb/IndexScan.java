@@ -0,0 +1,138 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * IndexScan is an access method that reads the tuples of a table whose
+ * indexed field satisfies a predicate, by finding their entries in an
+ * IndexFile and fetching only the heap pages they point at. Tuples from a
+ * BTreeFile are returned in key order.
+ *
+ * @see Catalog#createIndex
+ */
+public class IndexScan implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final TransactionId tid;
+
+    private final IndexFile index;
+
+    private final IndexPredicate ipred;
+
+    private final String alias;
+
+    private transient DbFileIterator entries;
+
+    private transient Tuple next;
+
+    /**
+     * Creates a scan of the tuples of an index's table whose keys satisfy
+     * the specified predicate, as a part of the specified transaction.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param index
+     *            the index to find the tuples with
+     * @param ipred
+     *            the predicate the keys of the tuples satisfy
+     * @param tableAlias
+     *            the alias of the table, which prefixes the field names of
+     *            the returned tuples as in SeqScan
+     */
+    public IndexScan(TransactionId tid, IndexFile index, IndexPredicate ipred, String tableAlias) {
+        this.tid = tid;
+        this.index = index;
+        this.ipred = ipred;
+        this.alias = tableAlias;
+    }
+
+    /**
+     * @return the name in the catalog of the table the operator scans
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(this.index.getTableId());
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return this.alias;
+    }
+
+    /**
+     * @return the predicate the keys of the returned tuples satisfy
+     */
+    public IndexPredicate getIndexPredicate() {
+        return this.ipred;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        this.entries = this.index.indexIterator(this.tid, this.ipred);
+        this.entries.open();
+        this.next = null;
+    }
+
+    /**
+     * Returns the TupleDesc of the indexed table with field names prefixed
+     * with the table alias, as SeqScan does.
+     */
+    public TupleDesc getTupleDesc() {
+        TupleDesc td = Database.getCatalog().getTupleDesc(this.index.getTableId());
+        Type[] types = new Type[td.numFields()];
+        String[] names = new String[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            types[i] = td.getFieldType(i);
+            names[i] = this.alias + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
+    }
+
+    /**
+     * Fetches the tuple the next entry points at, skipping entries whose
+     * slot has been emptied since.
+     */
+    private Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (this.entries.hasNext()) {
+            Tuple e = this.entries.next();
+            int pageNo = ((IntField)e.getField(1)).getValue();
+            int slot = ((IntField)e.getField(2)).getValue();
+            HeapPageId pid = new HeapPageId(this.index.getTableId(), pageNo);
+            HeapPage page = (HeapPage)Database.getBufferPool().getPage(this.tid, pid, Permissions.READ_ONLY);
+            Tuple t = page.getTuple(slot);
+            if (t != null) {
+                return t;
+            }
+        }
+        return null;
+    }
+
+    public boolean hasNext() throws TransactionAbortedException, DbException {
+        if (this.next == null) {
+            this.next = fetchNext();
+        }
+        return this.next != null;
+    }
+
+    public Tuple next() throws NoSuchElementException,
+            TransactionAbortedException, DbException {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Tuple t = this.next;
+        this.next = null;
+        return t;
+    }
+
+    public void close() {
+        this.entries.close();
+        this.next = null;
+    }
+
+    public void rewind() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        this.entries.rewind();
+        this.next = null;
+    }
+}
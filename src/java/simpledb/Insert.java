@@ -1,14 +1,19 @@
 package simpledb;
 import java.io.*;
+import java.util.ArrayList;
 
 /**
  * Inserts tuples read from the child operator into the tableId specified in the
- * constructor
+ * constructor. Tuples are passed to the BufferPool in batches, so that each
+ * page they fill is locked and dirtied once per batch.
  */
 public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Default number of tuples passed to the BufferPool at a time */
+    public static final int DEFAULT_BATCH_SIZE = 1024;
+
     private OpIterator child;
 
     private int tableId;
@@ -17,6 +22,8 @@ public class Insert extends Operator {
 
     private boolean inserted;
 
+    private final int batchSize;
+
     public static TupleDesc td = new TupleDesc(new Type[]{Type.INT_TYPE});
     /**
      * Constructor.
@@ -33,10 +40,37 @@ public class Insert extends Operator {
      */
     public Insert(TransactionId t, OpIterator child, int tableId)
             throws DbException {
+        this(t, child, tableId, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param t
+     *            The transaction running the insert.
+     * @param child
+     *            The child operator from which to read tuples to be inserted.
+     * @param tableId
+     *            The table in which to insert tuples.
+     * @param batchSize
+     *            The number of tuples read from the child before they are
+     *            inserted together.
+     * @throws DbException
+     *             if TupleDesc of child differs from table into which we are to
+     *             insert.
+     * @throws IllegalArgumentException
+     *             if the batch size is not positive
+     */
+    public Insert(TransactionId t, OpIterator child, int tableId, int batchSize)
+            throws DbException {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batch size must be positive");
+        }
         this.child = child;
         this.tableId = tableId;
         this.t = t;
         this.inserted = false;
+        this.batchSize = batchSize;
     }
 
     public TupleDesc getTupleDesc() {
@@ -68,7 +102,7 @@ public class Insert extends Operator {
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
      * @see Database#getBufferPool
-     * @see BufferPool#insertTuple
+     * @see BufferPool#insertTuples
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
         
@@ -78,15 +112,22 @@ public class Insert extends Operator {
 
         BufferPool buffer = Database.getBufferPool();
         int insertedCount = 0;
-        while (this.child.hasNext()){
-            Tuple next = this.child.next();
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        while (this.child.hasNext() || !batch.isEmpty()){
+            if (this.child.hasNext()){
+                batch.add(this.child.next());
+                if (batch.size() < this.batchSize){
+                    continue;
+                }
+            }
             try{
-                buffer.insertTuple(this.t,this.tableId,next);
-                insertedCount++;
+                buffer.insertTuples(this.t,this.tableId,batch);
+                insertedCount += batch.size();
             }
             catch(IOException ex){
                 return null;
             }
+            batch.clear();
         }
         this.inserted = true;
         Tuple numInserted = new Tuple(this.td);
@@ -14,6 +14,7 @@ public class IntegerAggregator implements Aggregator {
     private List<Tuple> aggFinal;
     private List<Integer> counts;
     private List<Integer> sums;
+    private GroupIndex groups;
     public TupleDesc newTD = null;
     
     /**
@@ -39,6 +40,7 @@ public class IntegerAggregator implements Aggregator {
         
             aggFinal = new ArrayList<Tuple>();
             counts = new ArrayList<Integer>();
+            groups = new GroupIndex();
         
             if (operator == Aggregator.Op.AVG) {
                 sums = new ArrayList<Integer>();
@@ -58,11 +60,10 @@ public class IntegerAggregator implements Aggregator {
         if (groupFieldNum != NO_GROUPING) {
                 Field matchAgg = tup.getField(groupFieldNum);
 
-                for (int i = 0; i<aggFinal.size(); i++) {
-                    if (aggFinal.get(i).getField(0).equals(matchAgg)) {
-                        aggFinal.set(i, updateAgg(aggFinal.get(i),tup, i, 1));
-                        return;
-                    }
+                int i = groups.find(matchAgg);
+                if (i >= 0) {
+                    aggFinal.set(i, updateAgg(aggFinal.get(i),tup, i, 1));
+                    return;
                 }
                 
                 if (newTD == null) {
@@ -83,6 +84,7 @@ public class IntegerAggregator implements Aggregator {
                     newTup.setField(1, tup.getField(aggregationFieldNum));
                 }
 
+                groups.add(matchAgg, aggFinal.size());
                 aggFinal.add(newTup);
                 counts.add(1);
                 
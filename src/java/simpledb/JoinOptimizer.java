@@ -68,7 +68,12 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        j = new Join(p,plan1,plan2);
+        if (lj.p == Predicate.Op.EQUALS) {
+            j = new HashEquiJoin(p,plan1,plan2);
+        }
+        else {
+            j = new Join(p,plan1,plan2);
+        }
 
         return j;
 
@@ -242,6 +247,9 @@ public class JoinOptimizer {
             HashMap<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
         //Not necessary for labs 1--3
+        if (joins.isEmpty()) {
+            return joins;
+        }
 
         PlanCache pc = new PlanCache();
         CostCard bestPlan = new CostCard();
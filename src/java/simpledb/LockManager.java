@@ -0,0 +1,422 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * LockManager keeps track of the page-level locks held by transactions on
+ * behalf of the BufferPool. Every locked page has its own lock record holding
+ * the set of shared holders, the exclusive holder (if any) and a FIFO queue of
+ * waiting requests, so acquiring or releasing a lock only touches the record
+ * of the page involved. The records live in a concurrent map, so looking one
+ * up takes no global lock, and a record stays in the map once its page is
+ * unlocked, so locking the page again reuses it. Idle records are only
+ * dropped once the map holds more than {@link #MAX_IDLE_LOCKS} of them.
+ * <p>
+ * Blocked transactions wait on the monitor of the page's lock record and are
+ * only woken when a lock on that same page is released or granted.
+ * <p>
+ * The queues double as a waits-for graph: whenever the holders or waiters of
+ * a page change, the edges of the transactions waiting on that page are
+ * recomputed and checked for cycles. When a deadlock is found the youngest
+ * transaction on the cycle is chosen as the victim and its blocked request
+ * fails with a TransactionAbortedException.
+ *
+ * @see BufferPool#getPage
+ * @Threadsafe
+ */
+public class LockManager {
+
+    /** A lock request waiting in the queue of a page. */
+    static class LockRequest {
+        final TransactionId tid;
+        final boolean exclusive;
+
+        LockRequest(TransactionId tid, boolean exclusive) {
+            this.tid = tid;
+            this.exclusive = exclusive;
+        }
+
+        /** @return true if this request cannot be granted while the other one is pending or held */
+        boolean conflictsWith(boolean otherExclusive) {
+            return exclusive || otherExclusive;
+        }
+    }
+
+    /**
+     * Lock state of a single page. All fields are guarded by the monitor of
+     * the PageLock itself.
+     */
+    static class PageLock {
+        final Set<TransactionId> sharers = new HashSet<TransactionId>();
+        TransactionId owner = null;
+        final LinkedList<LockRequest> waiters = new LinkedList<LockRequest>();
+
+        /** set once the record has been dropped from the lock table */
+        boolean retired = false;
+
+        /** @return true if tid already holds a lock at least as strong as requested */
+        boolean holds(TransactionId tid, boolean exclusive) {
+            if (tid.equals(owner)) {
+                return true;
+            }
+            return !exclusive && sharers.contains(tid);
+        }
+
+        /** @return true if the requested lock is compatible with the current holders */
+        boolean compatible(TransactionId tid, boolean exclusive) {
+            if (owner != null && !owner.equals(tid)) {
+                return false;
+            }
+            if (!exclusive) {
+                return true;
+            }
+            return sharers.isEmpty() || (sharers.size() == 1 && sharers.contains(tid));
+        }
+
+        void grant(TransactionId tid, boolean exclusive) {
+            if (exclusive) {
+                sharers.remove(tid);
+                owner = tid;
+            }
+            else {
+                sharers.add(tid);
+            }
+        }
+
+        boolean isFree() {
+            return owner == null && sharers.isEmpty() && waiters.isEmpty();
+        }
+    }
+
+    /** Number of lock records beyond which records are dropped once unlocked */
+    static final int MAX_IDLE_LOCKS = 4096;
+
+    /* Lock records of pages that are or were recently locked */
+    private final ConcurrentHashMap<PageId, PageLock> pageLocks;
+    private final ConcurrentHashMap<TransactionId, Set<PageId>> heldLocks;
+
+    /*
+     * Waits-for graph: blocked transaction -> transactions it waits on. The
+     * graph, the waiting threads and the chosen victims are all guarded by
+     * the monitor of waitsFor, which is only ever taken while holding at most
+     * one page monitor.
+     */
+    private final Map<TransactionId, Set<TransactionId>> waitsFor;
+    private final Map<TransactionId, Thread> waitingThreads;
+    private final Set<TransactionId> victims;
+    private final AtomicLong deadlocks;
+
+    /**
+     * Creates an empty lock table.
+     */
+    public LockManager() {
+        this.pageLocks = new ConcurrentHashMap<PageId, PageLock>();
+        this.heldLocks = new ConcurrentHashMap<TransactionId, Set<PageId>>();
+        this.waitsFor = new HashMap<TransactionId, Set<TransactionId>>();
+        this.waitingThreads = new HashMap<TransactionId, Thread>();
+        this.victims = new HashSet<TransactionId>();
+        this.deadlocks = new AtomicLong(0);
+    }
+
+    /**
+     * Acquires a lock on the specified page for the specified transaction,
+     * blocking until the lock can be granted. Requests are granted in FIFO
+     * order; a transaction upgrading a shared lock it already holds is placed
+     * at the head of the queue.
+     *
+     * @param tid the transaction requesting the lock
+     * @param pid the page to lock
+     * @param exclusive true for an exclusive (write) lock, false for a
+     *   shared (read) lock
+     * @throws TransactionAbortedException if the request would deadlock and
+     *   tid was chosen as the victim, or if the waiting thread is interrupted
+     */
+    public void acquireLock(TransactionId tid, PageId pid, boolean exclusive)
+            throws TransactionAbortedException {
+        while (true) {
+            PageLock lock = lockFor(pid);
+            synchronized (lock) {
+                if (lock.retired) {
+                    // lost a race with release(); look the page up again
+                    continue;
+                }
+                if (lock.holds(tid, exclusive)) {
+                    return;
+                }
+
+                boolean upgrade = lock.sharers.contains(tid);
+                if (lock.compatible(tid, exclusive) && (upgrade || lock.waiters.isEmpty())) {
+                    lock.grant(tid, exclusive);
+                    recordHeld(tid, pid);
+                    return;
+                }
+
+                LockRequest request = new LockRequest(tid, exclusive);
+                if (upgrade) {
+                    lock.waiters.addFirst(request);
+                }
+                else {
+                    lock.waiters.addLast(request);
+                }
+
+                synchronized (waitsFor) {
+                    waitingThreads.put(tid, Thread.currentThread());
+                }
+                // a victim is interrupted, so its next wait() fails right away
+                updateWaitsFor(lock);
+
+                try {
+                    while (lock.waiters.peekFirst() != request || !lock.compatible(tid, exclusive)) {
+                        lock.wait();
+                    }
+                }
+                catch (InterruptedException e) {
+                    stopWaiting(tid);
+                    abandon(lock, request);
+                    throw new TransactionAbortedException();
+                }
+
+                if (stopWaiting(tid)) {
+                    // chosen as a victim just before the lock became available
+                    Thread.interrupted();
+                    abandon(lock, request);
+                    throw new TransactionAbortedException();
+                }
+
+                lock.waiters.removeFirst();
+                lock.grant(tid, exclusive);
+                recordHeld(tid, pid);
+                // the next request in line may be compatible as well
+                lock.notifyAll();
+                updateWaitsFor(lock);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Releases whatever lock the transaction holds on the specified page and
+     * wakes up transactions waiting on that page.
+     */
+    public void releaseLock(TransactionId tid, PageId pid) {
+        Set<PageId> held = heldLocks.get(tid);
+        if (held != null) {
+            held.remove(pid);
+        }
+        unlock(tid, pid);
+    }
+
+    /**
+     * Releases all locks held by the specified transaction.
+     */
+    public void releaseAllLocks(TransactionId tid) {
+        Set<PageId> held = heldLocks.remove(tid);
+        if (held == null) {
+            return;
+        }
+        for (PageId pid : held) {
+            unlock(tid, pid);
+        }
+    }
+
+    /** Return true if the specified transaction has a lock on the specified page */
+    public boolean holdsLock(TransactionId tid, PageId pid) {
+        PageLock lock = pageLocks.get(pid);
+        if (lock == null) {
+            return false;
+        }
+        synchronized (lock) {
+            return lock.holds(tid, false);
+        }
+    }
+
+    /**
+     * @return the pages on which the specified transaction currently holds a
+     *   lock; the returned set is a snapshot.
+     */
+    public Set<PageId> getLockedPages(TransactionId tid) {
+        Set<PageId> held = heldLocks.get(tid);
+        if (held == null) {
+            return Collections.emptySet();
+        }
+        return new HashSet<PageId>(held);
+    }
+
+    /**
+     * @return the number of deadlocks that have been broken by aborting a
+     *   victim transaction
+     */
+    public long getDeadlockCount() {
+        return deadlocks.get();
+    }
+
+    private PageLock lockFor(PageId pid) {
+        PageLock lock = pageLocks.get(pid);
+        if (lock == null) {
+            PageLock created = new PageLock();
+            lock = pageLocks.putIfAbsent(pid, created);
+            if (lock == null) {
+                lock = created;
+            }
+        }
+        return lock;
+    }
+
+    private void recordHeld(TransactionId tid, PageId pid) {
+        Set<PageId> held = heldLocks.get(tid);
+        if (held == null) {
+            Set<PageId> created = Collections.newSetFromMap(new ConcurrentHashMap<PageId, Boolean>());
+            held = heldLocks.putIfAbsent(tid, created);
+            if (held == null) {
+                held = created;
+            }
+        }
+        held.add(pid);
+    }
+
+    private void unlock(TransactionId tid, PageId pid) {
+        PageLock lock = pageLocks.get(pid);
+        if (lock == null) {
+            return;
+        }
+        synchronized (lock) {
+            boolean released = lock.sharers.remove(tid);
+            if (tid.equals(lock.owner)) {
+                lock.owner = null;
+                released = true;
+            }
+            if (lock.isFree()) {
+                // keep the record for the next lock on this page, unless the table is large
+                if (pageLocks.size() > MAX_IDLE_LOCKS) {
+                    lock.retired = true;
+                    pageLocks.remove(pid, lock);
+                }
+            }
+            else if (released) {
+                lock.notifyAll();
+                updateWaitsFor(lock);
+            }
+        }
+    }
+
+    /** Removes a request that will not be granted from its queue. Caller holds the monitor of lock. */
+    private void abandon(PageLock lock, LockRequest request) {
+        lock.waiters.remove(request);
+        lock.notifyAll();
+        updateWaitsFor(lock);
+    }
+
+    /**
+     * Drops tid from the waits-for graph.
+     *
+     * @return true if tid had been chosen as a deadlock victim
+     */
+    private boolean stopWaiting(TransactionId tid) {
+        synchronized (waitsFor) {
+            waitsFor.remove(tid);
+            waitingThreads.remove(tid);
+            return victims.remove(tid);
+        }
+    }
+
+    /**
+     * Recomputes the waits-for edges of every transaction queued on the
+     * specified page and breaks any cycle they close. Edges of a waiter only
+     * depend on the state of the page it waits on, so this is called under
+     * the page's monitor whenever that state changes.
+     */
+    private void updateWaitsFor(PageLock lock) {
+        if (lock.waiters.isEmpty()) {
+            return;
+        }
+        synchronized (waitsFor) {
+            List<LockRequest> ahead = new ArrayList<LockRequest>();
+            for (LockRequest request : lock.waiters) {
+                if (victims.contains(request.tid)) {
+                    continue;
+                }
+                Set<TransactionId> blockers = new HashSet<TransactionId>();
+                if (lock.owner != null) {
+                    blockers.add(lock.owner);
+                }
+                if (request.exclusive) {
+                    blockers.addAll(lock.sharers);
+                }
+                for (LockRequest other : ahead) {
+                    if (request.conflictsWith(other.exclusive)) {
+                        blockers.add(other.tid);
+                    }
+                }
+                blockers.remove(request.tid);
+                waitsFor.put(request.tid, blockers);
+                ahead.add(request);
+            }
+
+            for (LockRequest request : lock.waiters) {
+                if (victims.contains(request.tid)) {
+                    continue;
+                }
+                List<TransactionId> cycle = findCycle(request.tid);
+                if (cycle != null) {
+                    abortYoungest(cycle);
+                }
+            }
+        }
+    }
+
+    /**
+     * Depth-first search of the waits-for graph for a cycle through start.
+     * Caller holds the monitor of waitsFor.
+     *
+     * @return the transactions on the cycle, or null if there is none
+     */
+    private List<TransactionId> findCycle(TransactionId start) {
+        LinkedList<TransactionId> path = new LinkedList<TransactionId>();
+        Set<TransactionId> visited = new HashSet<TransactionId>();
+        path.add(start);
+        if (findCycle(start, start, path, visited)) {
+            return path;
+        }
+        return null;
+    }
+
+    private boolean findCycle(TransactionId start, TransactionId current,
+            LinkedList<TransactionId> path, Set<TransactionId> visited) {
+        Set<TransactionId> next = waitsFor.get(current);
+        if (next == null) {
+            return false;
+        }
+        for (TransactionId t : next) {
+            if (t.equals(start)) {
+                return true;
+            }
+            if (visited.add(t) && !victims.contains(t)) {
+                path.addLast(t);
+                if (findCycle(start, t, path, visited)) {
+                    return true;
+                }
+                path.removeLast();
+            }
+        }
+        return false;
+    }
+
+    /** Picks the youngest transaction on the cycle as victim and wakes it up. */
+    private void abortYoungest(List<TransactionId> cycle) {
+        TransactionId victim = null;
+        for (TransactionId t : cycle) {
+            if (waitingThreads.containsKey(t) && (victim == null || t.getId() > victim.getId())) {
+                victim = t;
+            }
+        }
+        if (victim == null) {
+            return;
+        }
+        victims.add(victim);
+        waitsFor.remove(victim);
+        deadlocks.incrementAndGet();
+        waitingThreads.get(victim).interrupt();
+    }
+}
@@ -1,5 +1,7 @@
 package simpledb;
 import java.util.Map;
+import java.util.Set;
+import java.util.HashSet;
 import java.util.Vector;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -271,6 +273,89 @@ public class LogicalPlan {
         throw new ParsingException("Unknown predicate " + s);
     }
 
+    /** Find the fields the plan reads from each table: those in the select list, filters,
+     *  joins, aggregate and ORDER BY.
+     *  @return a map from each table alias to the pure names of the fields read from it,
+     *    with a null value for a table all of whose fields are read (e.g. for SELECT *)
+     */
+    private HashMap<String,Set<String>> neededFields() {
+        HashMap<String,Set<String>> needed = new HashMap<String,Set<String>>();
+        for (LogicalScanNode table : tables) {
+            needed.put(table.alias, new HashSet<String>());
+        }
+        ArrayList<String> fields = new ArrayList<String>();
+        for (LogicalFilterNode lf : filters) {
+            fields.add(lf.fieldQuantifiedName);
+        }
+        for (LogicalJoinNode lj : joins) {
+            fields.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                fields.add(lj.f2QuantifiedName);
+        }
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*")) {
+                for (String alias : needed.keySet())
+                    needed.put(alias, null);
+                return needed;
+            }
+            fields.add(si.fname);
+        }
+        if (hasAgg) {
+            fields.add(aggField);
+            if (groupByField != null)
+                fields.add(groupByField);
+        }
+        if (hasOrderBy)
+            fields.add(oByField);
+
+        for (String field : fields) {
+            String[] parts = field.split("[.]");
+            if (parts.length != 2 || !needed.containsKey(parts[0])) {
+                // cannot tell which table it belongs to, so read everything
+                for (String alias : needed.keySet())
+                    needed.put(alias, null);
+                return needed;
+            }
+            Set<String> names = needed.get(parts[0]);
+            if (names != null)
+                names.add(parts[1]);
+        }
+        return needed;
+    }
+
+    /**
+     * Returns a scan of a filter's table through an index on the filtered
+     * field, if the table has one that supports the filter's operation and
+     * the filter is selective enough that fetching the page of each match
+     * reads fewer pages than scanning the table. An equality on the primary
+     * key is thus answered by its hash index.
+     *
+     * @return the IndexScan, or null to scan the table
+     */
+    private IndexScan indexScan(TransactionId t, LogicalFilterNode lf, Map<String,TableStats> baseTableStats) {
+        Integer tableId = getTableId(lf.tableAlias);
+        if (tableId == null)
+            return null;
+        TableStats stats = baseTableStats.get(Database.getCatalog().getTableName(tableId));
+        if (stats == null)
+            return null;
+        TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        for (IndexFile index : Database.getCatalog().getIndexes(tableId)) {
+            int field = index.getKeyField();
+            if (!td.getFieldName(field).equals(lf.fieldPureName) || !index.supports(lf.p))
+                continue;
+            Field f;
+            if (td.getFieldType(field) == Type.INT_TYPE)
+                f = new IntField(Integer.parseInt(lf.c));
+            else
+                f = new StringField(lf.c, Type.STRING_LEN);
+            double sel = stats.estimateSelectivity(field, lf.p, f);
+            if (sel * stats.totalTuples() < stats.numPages())
+                return new IndexScan(t, index, new IndexPredicate(lf.p, f), lf.tableAlias);
+        }
+        return null;
+    }
+
     /** Convert this LogicalPlan into a physicalPlan represented by a {@link OpIterator}.  Attempts to
      *   find the optimal plan by using {@link JoinOptimizer#orderJoins} to order the joins in the plan.
      *  @param t The transaction that the returned OpIterator will run as a part of
@@ -289,6 +374,8 @@ public class LogicalPlan {
         HashMap<String,String> equivMap = new HashMap<String,String>();
         HashMap<String,Double> filterSelectivities = new HashMap<String, Double>();
         HashMap<String,TableStats> statsMap = new HashMap<String,TableStats>();
+        HashMap<String,Set<String>> neededFields = neededFields();
+        HashMap<String,SeqScan> scans = new HashMap<String,SeqScan>();
 
         while (tableIt.hasNext()) {
             LogicalScanNode table = tableIt.next();
@@ -298,14 +385,41 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown table " + table.t);
             }
+            Set<String> needed = neededFields.get(table.alias);
+            if (needed != null) {
+                // column-stored tables then decode only these fields
+                TupleDesc td = Database.getCatalog().getTupleDesc(table.t);
+                ArrayList<Integer> columns = new ArrayList<Integer>();
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (needed.contains(td.getFieldName(i)))
+                        columns.add(i);
+                }
+                int[] columnAr = new int[columns.size()];
+                for (int i = 0; i < columnAr.length; i++)
+                    columnAr[i] = columns.get(i);
+                ss.setNeededColumns(columnAr);
+            }
             
             subplanMap.put(table.alias,ss);
+            scans.put(table.alias,ss);
             String baseTableName = Database.getCatalog().getTableName(table.t);
             statsMap.put(baseTableName, baseTableStats.get(baseTableName));
             filterSelectivities.put(table.alias, 1.0);
 
         }
 
+        // a selective filter on an indexed field reads its table through the
+        // index instead; the filters are still applied above the IndexScan
+        for (LogicalFilterNode lf : filters) {
+            if (!scans.containsKey(lf.tableAlias))
+                continue;
+            IndexScan is = indexScan(t, lf, baseTableStats);
+            if (is != null) {
+                subplanMap.put(lf.tableAlias, is);
+                scans.remove(lf.tableAlias);
+            }
+        }
+
         Iterator<LogicalFilterNode> filterIt = filters.iterator();        
         while (filterIt.hasNext()) {
             LogicalFilterNode lf = filterIt.next();
@@ -335,6 +449,10 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
             subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // tables with a zone map then skip pages the filter rules out
+            SeqScan scan = scans.get(lf.tableAlias);
+            if (scan != null)
+                scan.addPredicate(p);
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
             
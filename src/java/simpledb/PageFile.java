@@ -0,0 +1,245 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * PageFile is the common base of the DbFiles that are simply a collection of
+ * fixed-size pages, numbered from the start of the file, such as HeapFile and
+ * SlottedHeapFile. It owns the file channel, the in-memory page count, the
+ * free-space map and the page writes; subclasses define the page format and
+ * how tuples are placed on pages.
+ * <p>
+ * An all-zero page must be a valid empty page of the subclass's format, since
+ * new pages are appended as zeroes.
+ *
+ * @see HeapFile
+ * @see SlottedHeapFile
+ */
+public abstract class PageFile implements DbFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private final int id;
+    private FileChannel channel;
+
+    /** pages that may have room for another tuple */
+    final FreeSpaceMap freeSpace = new FreeSpaceMap();
+
+    /** number of pages in the file, or -1 until it is first read from the file length */
+    private final AtomicInteger pageCount = new AtomicInteger(-1);
+
+    /** Most pages written by a single gathering write in writePages */
+    private static final int MAX_PAGES_PER_WRITE = 64;
+
+    /**
+     * Constructs a page file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     */
+    protected PageFile(File f, TupleDesc td) {
+        this.file = f;
+        this.td = td;
+        this.id = f.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Returns the File backing this file on disk.
+     *
+     * @return the File backing this file on disk.
+     */
+    public File getFile() {
+        return this.file;
+    }
+
+    /**
+     * Returns an ID uniquely identifying this file: the hash code of the
+     * absolute name of the file underlying it.
+     *
+     * @return an ID uniquely identifying this file.
+     */
+    public int getId() {
+        return this.id;
+    }
+
+    /**
+     * Returns the TupleDesc of the table stored in this DbFile.
+     *
+     * @return TupleDesc of this DbFile.
+     */
+    public TupleDesc getTupleDesc() {
+        return this.td;
+    }
+
+    /**
+     * Creates a page of this file's format from the specified bytes.
+     *
+     * @throws IOException if the data is not a well-formed page
+     */
+    protected abstract Page createPage(HeapPageId id, byte[] data) throws IOException;
+
+    /**
+     * Returns the channel used for all page I/O on this file, opening it on
+     * first use. Pages are read and written with positional calls, so
+     * concurrent readers never contend for a shared file pointer.
+     */
+    synchronized FileChannel getChannel() throws IOException {
+        if (this.channel == null || !this.channel.isOpen()){
+            this.channel = new RandomAccessFile(this.file,"rw").getChannel();
+        }
+        return this.channel;
+    }
+
+    // see DbFile.java for javadocs
+    public synchronized void close() throws IOException {
+        if (this.channel != null){
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+
+    /**
+     * Fills the specified buffer with the bytes of a page, reading at the
+     * page's offset without moving any shared file pointer.
+     */
+    void readInto(int pageNo, ByteBuffer data) throws IOException {
+        long offset = (long)pageNo * BufferPool.getPageSize();
+        int start = data.position();
+        FileChannel fileChannel = getChannel();
+        while (data.hasRemaining()){
+            if (fileChannel.read(data, offset + data.position() - start) < 0){
+                throw new EOFException();
+            }
+        }
+    }
+
+    // see DbFile.java for javadocs
+    public void writePage(Page page) throws IOException {
+        //find offset corresponding to page number, and write page accordingly
+        ByteBuffer pageData = ByteBuffer.wrap(page.getPageData());
+        long offset = (long)page.getId().getPageNumber() * BufferPool.getPageSize();
+        FileChannel fileChannel = getChannel();
+        while (pageData.hasRemaining()){
+            fileChannel.write(pageData, offset + pageData.position());
+        }
+        extendPageCount(page.getId().getPageNumber());
+        pagesWritten(Arrays.asList(page));
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        if (pages.isEmpty()){
+            return;
+        }
+        Page[] sorted = pages.toArray(new Page[pages.size()]);
+        Arrays.sort(sorted, new Comparator<Page>(){
+            public int compare(Page a, Page b){
+                return Integer.compare(a.getId().getPageNumber(), b.getId().getPageNumber());
+            }
+        });
+
+        //write each run of adjacent pages with one gathering write, then force once
+        int start = 0;
+        while (start < sorted.length){
+            int end = start + 1;
+            while (end < sorted.length && end - start < MAX_PAGES_PER_WRITE
+                    && sorted[end].getId().getPageNumber() == sorted[end - 1].getId().getPageNumber() + 1){
+                end++;
+            }
+            ByteBuffer[] run = new ByteBuffer[end - start];
+            for (int i = start; i < end; i++){
+                run[i - start] = ByteBuffer.wrap(sorted[i].getPageData());
+            }
+            writeRun(sorted[start].getId().getPageNumber(), run);
+            start = end;
+        }
+        getChannel().force(false);
+        extendPageCount(sorted[sorted.length - 1].getId().getPageNumber());
+        pagesWritten(pages);
+    }
+
+    /**
+     * Called after pages were written to disk. Does nothing by default.
+     */
+    void pagesWritten(List<Page> pages) throws IOException {
+    }
+
+    /**
+     * Writes a run of adjacent pages starting at the specified page. Gathering
+     * writes go through the channel's position, so runs are serialized; the
+     * positional reads and writes used elsewhere never touch the position.
+     */
+    private synchronized void writeRun(int firstPage, ByteBuffer[] run) throws IOException {
+        FileChannel fileChannel = getChannel();
+        fileChannel.position((long)firstPage * BufferPool.getPageSize());
+        ByteBuffer last = run[run.length - 1];
+        while (last.hasRemaining()){
+            fileChannel.write(run);
+        }
+    }
+
+    /**
+     * Raises the cached page count so that it covers the specified page.
+     */
+    private void extendPageCount(int pageNo) {
+        cachedNumPages();
+        int count = this.pageCount.get();
+        while (count <= pageNo && !this.pageCount.compareAndSet(count, pageNo + 1)){
+            count = this.pageCount.get();
+        }
+    }
+
+    /**
+     * Writes an empty page at the end of the file. Appends are serialized,
+     * so concurrent inserts never allocate the same page number, and the page
+     * is only counted by numPages() once it exists on disk.
+     *
+     * @return the page number of the new page
+     */
+    synchronized int appendEmptyPage() throws IOException {
+        int pageNo = cachedNumPages();
+        this.writePage(createPage(new HeapPageId(this.getId(),pageNo),new byte[BufferPool.getPageSize()]));
+        return pageNo;
+    }
+
+    /**
+     * Returns the number of pages in this file. This checks the length of
+     * the file, so pages appended to it by other writers are counted too.
+     */
+    public int numPages() {
+        int onDisk = (int)(this.file.length()/BufferPool.getPageSize());
+        if (onDisk > 0){
+            extendPageCount(onDisk - 1);
+        }
+        return cachedNumPages();
+    }
+
+    /**
+     * Returns the number of pages in this file without touching the file
+     * system. The count is read from the file length on first use and then
+     * kept up to date by writePage, so scans and inserts can consult it on
+     * every page.
+     */
+    int cachedNumPages() {
+        int count = this.pageCount.get();
+        if (count < 0){
+            this.pageCount.compareAndSet(-1, (int)(this.file.length()/BufferPool.getPageSize()));
+            count = this.pageCount.get();
+        }
+        return count;
+    }
+
+    /**
+     * Called by the buffer pool when a transaction that may have modified the
+     * specified page aborts. Inserts the transaction made may have filled the
+     * page, so the free-space map considers it again.
+     */
+    void pageRolledBack(int pageNo) {
+        freeSpace.setHasRoom(pageNo);
+    }
+}
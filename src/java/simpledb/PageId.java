@@ -14,6 +14,12 @@ public interface PageId {
     /** @return the unique tableid hashcode with this PageId */
     public int getTableId();
 
+    /**
+     * @return a 64-bit key that identifies this page among the pages of all
+     *   tables, so that page tables can be keyed by a primitive long
+     */
+    public long getKey();
+
     /**
      * @return a hash code for this page, represented by the concatenation of
      *   the table number and the page number (needed if a PageId is used as a
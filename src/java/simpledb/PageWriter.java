@@ -0,0 +1,151 @@
+package simpledb;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageWriter is a background thread that writes dirty pages of a BufferPool
+ * back to disk ahead of eviction, so that the pool's replacement policy
+ * almost always picks a clean victim and getPage does not wait on a write.
+ * <p>
+ * The writer wakes up periodically, and whenever an eviction had to write a
+ * dirty page. Once more than the high watermark of the pool is dirty, it
+ * cleans pages until no more than the low watermark is dirty. Only pages
+ * last updated by a committed transaction are written, and their update
+ * records are logged and forced to disk first; see
+ * {@link BufferPool#cleanPages}.
+ * <p>
+ * Writers are created by {@link BufferPool#startPageWriter}.
+ */
+public class PageWriter {
+
+    /** Default fraction of the pool that may be dirty before cleaning starts */
+    public static final double DEFAULT_HIGH_WATERMARK = 0.25;
+
+    /** Default fraction of the pool left dirty once cleaning stops */
+    public static final double DEFAULT_LOW_WATERMARK = 0.10;
+
+    /** Default time between checks of the pool, in milliseconds */
+    public static final long DEFAULT_INTERVAL = 50;
+
+    /** Pages written per visit to the pool, bounding how long getPage waits */
+    private static final int BATCH_PAGES = 8;
+
+    private final BufferPool bufferPool;
+    private final int lowPages;
+    private final int highPages;
+    private final long interval;
+    private final Thread thread;
+    private final AtomicLong pagesWritten = new AtomicLong(0);
+
+    private volatile boolean stopped = false;
+    /* set by wakeUp, guarded by this */
+    private boolean signalled = false;
+
+    /**
+     * Creates a writer for the specified pool. The writer does not run until
+     * {@link #start} is called.
+     *
+     * @param bufferPool the pool to clean
+     * @param lowWatermark fraction of the pool left dirty once cleaning stops
+     * @param highWatermark fraction of the pool that may be dirty before
+     *   cleaning starts
+     * @param interval time between checks of the pool, in milliseconds
+     * @throws IllegalArgumentException if the watermarks are not ordered
+     *   within [0, 1]
+     */
+    PageWriter(BufferPool bufferPool, double lowWatermark, double highWatermark, long interval) {
+        if (lowWatermark < 0 || lowWatermark > highWatermark || highWatermark > 1) {
+            throw new IllegalArgumentException("watermarks must satisfy 0 <= low <= high <= 1");
+        }
+        this.bufferPool = bufferPool;
+        this.lowPages = (int)(lowWatermark * bufferPool.numPages);
+        this.highPages = (int)(highWatermark * bufferPool.numPages);
+        this.interval = interval;
+        this.thread = new Thread(new Runnable() {
+            public void run() {
+                runWriter();
+            }
+        }, "simpledb-pagewriter");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops the writer and waits for the page it is writing, if any.
+     */
+    public void shutdown() {
+        stopped = true;
+        wakeUp();
+        if (Thread.currentThread() != thread) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * Asks the writer to check the pool now rather than at its next interval.
+     */
+    public synchronized void wakeUp() {
+        signalled = true;
+        notifyAll();
+    }
+
+    /**
+     * @return the number of pages written back by this writer
+     */
+    public long getPagesWritten() {
+        return pagesWritten.get();
+    }
+
+    /**
+     * Cleans the pool once if it is above the high watermark.
+     *
+     * @return the number of pages written
+     */
+    int clean() throws IOException {
+        int dirty = bufferPool.getDirtyPageCount();
+        if (dirty <= highPages) {
+            return 0;
+        }
+        int written = 0;
+        while (!stopped && dirty > lowPages) {
+            int n = bufferPool.cleanPages(Math.min(BATCH_PAGES, dirty - lowPages));
+            if (n == 0) {
+                // the remaining dirty pages are locked by running transactions
+                break;
+            }
+            pagesWritten.addAndGet(n);
+            written += n;
+            dirty -= n;
+        }
+        return written;
+    }
+
+    private void runWriter() {
+        while (!stopped) {
+            try {
+                clean();
+            } catch (IOException e) {
+                // the pages stay dirty and are written on eviction instead
+                e.printStackTrace();
+            }
+            synchronized (this) {
+                if (!signalled && !stopped) {
+                    try {
+                        wait(interval);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                signalled = false;
+            }
+        }
+    }
+}
@@ -15,6 +15,10 @@ public class Predicate implements Serializable {
 
     private Field operand;
 
+    /* the dictionary the operand was last looked up in, and its code there (-1 if absent) */
+    private transient StringDictionary operandDictionary;
+    private transient int operandCode;
+
     /** Constants used for return codes in Field.compare */
     public enum Op implements Serializable {
         EQUALS, GREATER_THAN, LESS_THAN, LESS_THAN_OR_EQ, GREATER_THAN_OR_EQ, LIKE, NOT_EQUALS;
@@ -101,7 +105,18 @@ public class Predicate implements Serializable {
      * @return true if the comparison is true, false otherwise.
      */
     public boolean filter(Tuple t) {
-        return t.getField(this.getField()).compare(this.getOp(),this.getOperand());
+        Field f = t.getField(this.getField());
+        if (f instanceof CodedStringField && ((CodedStringField) f).getDictionary() != null
+                && (this.operator == Op.EQUALS || this.operator == Op.NOT_EQUALS)) {
+            //compare codes, looking the operand up once per page dictionary
+            CodedStringField coded = (CodedStringField) f;
+            if (coded.getDictionary() != this.operandDictionary) {
+                this.operandDictionary = coded.getDictionary();
+                this.operandCode = this.operandDictionary.codeOf(((StringField) this.operand).getValue());
+            }
+            return (coded.getCode() == this.operandCode) == (this.operator == Op.EQUALS);
+        }
+        return f.compare(this.getOp(),this.getOperand());
     }
 
     /**
@@ -0,0 +1,180 @@
+package simpledb;
+
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * ReadAhead watches the pages a HeapFile iterator moves through and, once the
+ * access pattern looks sequential, loads the next pages of the file into the
+ * BufferPool on background threads so the scan finds them cached.
+ * <p>
+ * The number of pages kept in flight adapts to the scan: it is the ratio of
+ * the observed time to load a page to the observed time the scan spends on
+ * a page, so a fast consumer gets a deeper window than a slow one. The window
+ * never exceeds a quarter of the buffer pool.
+ * <p>
+ * Pages are loaded through {@link BufferPool#prefetchPage}, which takes no
+ * locks; the scan still locks each page when it requests it through
+ * {@link BufferPool#getPage}. A scan reading through a {@link BufferRing}
+ * prefetches into its ring, and keeps the window within half the ring so
+ * prefetched pages are not recycled before the scan reaches them.
+ */
+public class ReadAhead {
+
+    /** Consecutive pages that must be read before prefetching starts */
+    private static final int SEQUENTIAL_THRESHOLD = 2;
+
+    /** Window used until both consumption and load times have been observed */
+    private static final int INITIAL_WINDOW = 2;
+
+    private static final int READER_THREADS = 2;
+
+    private static final ExecutorService readers =
+        Executors.newFixedThreadPool(READER_THREADS, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "simpledb-readahead");
+                t.setDaemon(true);
+                return t;
+            }
+        });
+
+    private final HeapFile file;
+    private final BufferPool bufferPool;
+    private final BufferRing ring;
+    private final int maxWindow;
+
+    private int lastPage = -1;
+    private int runLength = 0;
+    private int issuedUpTo = -1;
+    private long lastAccessNanos = 0;
+    private long consumeNanos = 0;
+
+    private volatile long loadNanos = 0;
+    private volatile boolean closed = false;
+
+    /* pages the scan skips by their zone map summaries are not loaded */
+    private ZoneMap zones;
+    private List<Predicate> predicates;
+
+    /**
+     * Creates a read-ahead for a scan over the specified file, loading pages
+     * into the current buffer pool.
+     */
+    public ReadAhead(HeapFile file) {
+        this(file, null);
+    }
+
+    /**
+     * Creates a read-ahead for a scan over the specified file, loading pages
+     * into the specified ring of the current buffer pool.
+     *
+     * @param ring the scan's ring, or null to load into the main cache
+     */
+    public ReadAhead(HeapFile file, BufferRing ring) {
+        this.file = file;
+        this.bufferPool = Database.getBufferPool();
+        this.ring = ring;
+        int max = this.bufferPool.numPages / 4;
+        if (ring != null) {
+            max = Math.min(max, ring.capacity() / 2);
+        }
+        this.maxWindow = Math.max(1, max);
+    }
+
+    /**
+     * Makes the read-ahead leave out the pages that the specified zone map
+     * rules out for the specified predicates, which the scan skips.
+     */
+    public void skipPages(ZoneMap zones, List<Predicate> predicates) {
+        this.zones = zones;
+        this.predicates = predicates;
+    }
+
+    /**
+     * Called by the scan each time it moves to a page. Jumping to a page that
+     * does not follow the previous one resets sequential detection.
+     *
+     * @param pageNo the page the scan is about to read
+     */
+    public void pageAccessed(int pageNo) {
+        if (closed || pageNo == lastPage) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (pageNo == lastPage + 1) {
+            runLength++;
+            consumeNanos = average(consumeNanos, now - lastAccessNanos);
+        }
+        else {
+            runLength = 1;
+            issuedUpTo = pageNo;
+        }
+        lastPage = pageNo;
+        lastAccessNanos = now;
+
+        if (runLength < SEQUENTIAL_THRESHOLD) {
+            return;
+        }
+        int last = Math.min(file.cachedNumPages() - 1, pageNo + getWindow());
+        for (int p = Math.max(issuedUpTo, pageNo) + 1; p <= last; p++) {
+            if (zones == null || zones.mayMatch(p, predicates)) {
+                prefetch(new HeapPageId(file.getId(), p));
+            }
+        }
+        issuedUpTo = Math.max(issuedUpTo, last);
+    }
+
+    /**
+     * @return the number of pages currently read ahead of the scan
+     */
+    public int getWindow() {
+        long load = loadNanos;
+        if (consumeNanos == 0 || load == 0) {
+            return Math.min(INITIAL_WINDOW, maxWindow);
+        }
+        long window = load / consumeNanos + 1;
+        return (int)Math.min(window, maxWindow);
+    }
+
+    /**
+     * Stops issuing reads; reads that are already queued are skipped.
+     */
+    public void close() {
+        closed = true;
+    }
+
+    private void prefetch(final PageId pid) {
+        readers.execute(new Runnable() {
+            public void run() {
+                if (closed) {
+                    return;
+                }
+                long start = System.nanoTime();
+                try {
+                    if (bufferPool.prefetchPage(pid, ring)) {
+                        loadNanos = average(loadNanos, System.nanoTime() - start);
+                    }
+                }
+                catch (DbException e) {
+                    // the scan reads the page itself
+                    Debug.log("read-ahead of page %d failed: %s", pid.getPageNumber(), e.getMessage());
+                }
+                catch (NoSuchElementException e) {
+                    // the table was removed from the catalog
+                }
+            }
+        });
+    }
+
+    /** Exponential moving average giving the new sample a weight of 1/4 */
+    private static long average(long avg, long sample) {
+        if (avg == 0) {
+            return sample;
+        }
+        return avg + (sample - avg) / 4;
+    }
+}
@@ -0,0 +1,213 @@
+package simpledb;
+
+/**
+ * ReplacementPolicy decides which cached page the BufferPool evicts when it
+ * needs room for another one. The pool reports every hit, miss and removal
+ * to the policy, and asks it for a victim when it is full.
+ * <p>
+ * All operations run in constant time. Policies are not synchronized; the
+ * BufferPool only calls them while holding its own monitor.
+ *
+ * @see BufferPool
+ */
+public abstract class ReplacementPolicy {
+
+    /** The available policies, for selecting one when creating a BufferPool. */
+    public enum Kind {
+        /** Second-chance approximation of LRU */
+        CLOCK() {
+            @Override
+            public ReplacementPolicy create(int numPages) {
+                return new ClockPolicy();
+            }
+        },
+        /** 2Q: new pages must be referenced again before joining the main LRU queue */
+        TWO_Q() {
+            @Override
+            public ReplacementPolicy create(int numPages) {
+                return new TwoQueuePolicy(numPages);
+            }
+        },
+        /** Adaptive Replacement Cache, balancing recency against frequency */
+        ARC() {
+            @Override
+            public ReplacementPolicy create(int numPages) {
+                return new ArcPolicy(numPages);
+            }
+        };
+
+        /**
+         * @return a new policy of this kind for a pool of numPages pages
+         */
+        public abstract ReplacementPolicy create(int numPages);
+    }
+
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Records that a cached page was requested.
+     */
+    public final void pageHit(PageId pid) {
+        hits++;
+        accessed(pid);
+    }
+
+    /**
+     * Records that a requested page was not cached and has been read into
+     * the pool.
+     */
+    public final void pageMissed(PageId pid) {
+        misses++;
+        added(pid);
+    }
+
+    /**
+     * Records that a page was put into the pool without being requested,
+     * for example by read-ahead. Does not count towards the hit rate.
+     */
+    public final void pageAdded(PageId pid) {
+        added(pid);
+    }
+
+    /**
+     * Records that a page was dropped from the pool by something other than
+     * {@link #evict}. Does nothing if the page is not tracked.
+     */
+    public abstract void pageRemoved(PageId pid);
+
+    /**
+     * Chooses a page to evict and stops tracking it.
+     *
+     * @return the page to evict, or null if no page is tracked
+     */
+    public abstract PageId evict();
+
+    /** Called for every hit on a tracked page. */
+    protected abstract void accessed(PageId pid);
+
+    /** Called when a page starts being tracked. */
+    protected abstract void added(PageId pid);
+
+    /**
+     * @return the number of requests that found their page cached
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of requests that had to read their page
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the fraction of requests that found their page cached, or 0 if
+     *   there have been no requests
+     */
+    public double getHitRate() {
+        long total = hits + misses;
+        return total == 0 ? 0.0 : (double)hits / total;
+    }
+
+    /**
+     * A queue of pages ordered from least to most recently inserted, with
+     * constant-time membership tests, removal and move-to-back. Used for the
+     * resident and ghost lists of the 2Q and ARC policies.
+     */
+    static class PageQueue {
+        private static class Node {
+            final PageId pid;
+            Node prev;
+            Node next;
+
+            Node(PageId pid) {
+                this.pid = pid;
+            }
+        }
+
+        private final LongHashMap<Node> nodes = new LongHashMap<Node>();
+        private Node head = null;
+        private Node tail = null;
+
+        boolean contains(PageId pid) {
+            return nodes.containsKey(pid.getKey());
+        }
+
+        int size() {
+            return nodes.size();
+        }
+
+        boolean isEmpty() {
+            return nodes.size() == 0;
+        }
+
+        /** Appends pid at the back; the page must not be in the queue. */
+        void addLast(PageId pid) {
+            Node n = new Node(pid);
+            nodes.put(pid.getKey(), n);
+            link(n);
+        }
+
+        /** Moves pid to the back if it is in the queue. */
+        void moveToLast(PageId pid) {
+            Node n = nodes.get(pid.getKey());
+            if (n != null && n != tail) {
+                unlink(n);
+                link(n);
+            }
+        }
+
+        /** @return true if pid was in the queue */
+        boolean remove(PageId pid) {
+            Node n = nodes.remove(pid.getKey());
+            if (n == null) {
+                return false;
+            }
+            unlink(n);
+            return true;
+        }
+
+        /** @return the page at the front, or null if the queue is empty */
+        PageId removeFirst() {
+            if (head == null) {
+                return null;
+            }
+            Node n = head;
+            nodes.remove(n.pid.getKey());
+            unlink(n);
+            return n.pid;
+        }
+
+        private void link(Node n) {
+            n.prev = tail;
+            n.next = null;
+            if (tail == null) {
+                head = n;
+            }
+            else {
+                tail.next = n;
+            }
+            tail = n;
+        }
+
+        private void unlink(Node n) {
+            if (n.prev == null) {
+                head = n.next;
+            }
+            else {
+                n.prev.next = n.next;
+            }
+            if (n.next == null) {
+                tail = n.prev;
+            }
+            else {
+                n.next.prev = n.prev;
+            }
+            n.prev = null;
+            n.next = null;
+        }
+    }
+}
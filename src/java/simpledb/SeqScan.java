@@ -20,6 +20,13 @@ public class SeqScan implements OpIterator {
     private DbFileIterator tableIter;
 
     private TransactionId tid;
+
+    /* the columns the plan reads, or null for all of them */
+    private int[] neededColumns;
+
+    /* predicates the scan's output is filtered by, used to skip pages */
+    private final ArrayList<Predicate> predicates = new ArrayList<Predicate>();
+
     /**
      * Creates a sequential scan over the specified table as a part of the
      * specified transaction.
@@ -81,11 +88,59 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Tells the scan which columns the rest of the plan reads. A table
+     * stored by column then only reads those columns, and the other fields
+     * of the returned tuples are null; other tables return every field.
+     *
+     * @param columns
+     *            the indexes of the columns to read, or null for all columns
+     */
+    public void setNeededColumns(int[] columns) {
+        this.neededColumns = columns;
+    }
+
+    /**
+     * Tells the scan that the rest of the plan filters its tuples by the
+     * specified predicate. A HeapFile with a zone map then skips the pages
+     * on which no tuple satisfies it. The scan may still return tuples that
+     * do not satisfy it, so the plan must apply it too.
+     *
+     * @param p
+     *            a predicate on fields of this scan's tuples
+     * @see HeapFile#enableZoneMap
+     */
+    public void addPredicate(Predicate p) {
+        this.predicates.add(p);
+    }
+
     public void open() throws DbException, TransactionAbortedException {
-        this.tableIter = this.table.iterator(this.tid);
+        if (this.table instanceof ColumnFile) {
+            this.tableIter = ((ColumnFile)this.table).iterator(this.tid, this.neededColumns);
+        }
+        else if (this.table instanceof HeapFile) {
+            // large scans read through a ring so they do not flush the cache
+            this.tableIter = ((HeapFile)this.table).iterator(this.tid, expectedPages(), this.predicates);
+        }
+        else {
+            this.tableIter = this.table.iterator(this.tid);
+        }
         this.tableIter.open();
     }
 
+    /**
+     * @return the number of pages the scan is expected to read, from the
+     *   table's statistics if they have been computed
+     */
+    private int expectedPages() {
+        String name = getTableName();
+        TableStats stats = name == null ? null : TableStats.getTableStats(name);
+        if (stats != null) {
+            return stats.numPages();
+        }
+        return ((HeapFile)this.table).cachedNumPages();
+    }
+
     /**
      * Returns the TupleDesc with field names from the underlying HeapFile,
      * prefixed with the tableAlias string from the constructor. This prefix
@@ -97,7 +152,14 @@ public class SeqScan implements OpIterator {
      *         prefixed with the tableAlias string from the constructor.
      */
     public TupleDesc getTupleDesc() {
-        return this.table.getTupleDesc();
+        TupleDesc td = this.table.getTupleDesc();
+        Type[] types = new Type[td.numFields()];
+        String[] names = new String[td.numFields()];
+        for (int i = 0; i < td.numFields(); i++) {
+            types[i] = td.getFieldType(i);
+            names[i] = this.alias + "." + td.getFieldName(i);
+        }
+        return new TupleDesc(types, names);
     }
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
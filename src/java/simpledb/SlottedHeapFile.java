@@ -0,0 +1,165 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * SlottedHeapFile is a DbFile that stores a collection of tuples in no
+ * particular order on SlottedPages, which keep each tuple as a
+ * variable-length record. Tables with STRING columns whose values are much
+ * shorter than Type.STRING_LEN take a fraction of the pages a HeapFile
+ * needs, so scans read fewer bytes.
+ * <p>
+ * The file is simply a collection of fixed-size pages, like a HeapFile, and
+ * shares its plumbing through PageFile; only the page format differs. An all-zero page is an empty page in both
+ * formats. Subclasses may store another TuplePage format in the same way by
+ * overriding createPage and fitsOnEmptyPage.
+ *
+ * @see SlottedPage
+ * @see TuplePage
+ * @see HeapFile
+ * @see PageFile
+ */
+public class SlottedHeapFile extends PageFile {
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f
+     *            the file that stores the on-disk backing store for this
+     *            file.
+     */
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        if (pid.getTableId() != this.getId()){
+            throw new IllegalArgumentException();
+        }
+        if (!getFile().exists()){
+            return null;
+        }
+        try{
+            ByteBuffer data = ByteBuffer.allocate(BufferPool.getPageSize());
+            readInto(pid.getPageNumber(), data);
+            return createPage(new HeapPageId(pid.getTableId(), pid.getPageNumber()), data.array());
+        }
+        catch (IOException ex){
+            return null;
+        }
+    }
+
+    /**
+     * Creates a page of this file's format from the specified bytes.
+     *
+     * @throws IOException if the data is not a well-formed page
+     */
+    protected TuplePage createPage(HeapPageId id, byte[] data) throws IOException {
+        return new SlottedPage(id, data);
+    }
+
+    /**
+     * @return true if the specified tuple fits on an empty page of this
+     *   file's format
+     */
+    protected boolean fitsOnEmptyPage(Tuple t) {
+        return SlottedPage.getRecordSize(t) + SlottedPage.HEADER_SIZE + SlottedPage.SLOT_SIZE <= BufferPool.getPageSize();
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        if (!fitsOnEmptyPage(t)){
+            throw new DbException("tuple is larger than a page");
+        }
+
+        //a page a tuple does not fit on is only skipped for this insert, since
+        //a shorter tuple may still fit; it leaves the free-space map once full
+        int pageNo = freeSpace.nextPageWithRoom(0, this.cachedNumPages());
+        while (pageNo >= 0){
+            HeapPageId pageID = new HeapPageId(this.getId(),pageNo);
+            boolean alreadyLocked = Database.getBufferPool().holdsLock(tid,pageID);
+            TuplePage page = (TuplePage)Database.getBufferPool().getPage(tid, pageID, Permissions.READ_ONLY);
+
+            if (page.canHold(t)){
+                //keep the shared lock while upgrading so no other writer can take the space
+                Database.getBufferPool().upgradeLock(tid,pageID);
+                page.insertTuple(t);
+                return new ArrayList<Page>(Arrays.asList(page));
+            }
+            if (page.isFull()){
+                freeSpace.setFull(pageNo);
+            }
+            if (!alreadyLocked){
+                Database.getBufferPool().releasePage(tid,pageID);
+            }
+
+            pageNo = freeSpace.nextPageWithRoom(pageNo + 1, this.cachedNumPages());
+        }
+
+        HeapPageId pageID = new HeapPageId(this.getId(),appendEmptyPage());
+        TuplePage page = (TuplePage)Database.getBufferPool().getPage(tid, pageID, Permissions.READ_WRITE);
+        page.insertTuple(t);
+        freeSpace.setHasRoom(pageID.getPageNumber());
+        return new ArrayList<Page>(Arrays.asList(page));
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException, IOException {
+        PageId pageID = t.getRecordId().getPageId();
+        if (pageID.getTableId() != this.getId()){
+            throw new DbException("Tuple not present in file");
+        }
+
+        TuplePage page = (TuplePage)Database.getBufferPool().getPage(tid, pageID, Permissions.READ_ONLY);
+        if (page == null){
+            throw new DbException("Tuple not present in file");
+        }
+        Database.getBufferPool().upgradeLock(tid,pageID);
+        page.deleteTuple(t);
+        freeSpace.setHasRoom(pageID.getPageNumber());
+        return new ArrayList<Page>(Arrays.asList(page));
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(final TransactionId tid) {
+        return new AbstractDbFileIterator(){
+            private int pageNumber = -1;
+            private Iterator<Tuple> pageIterator = null;
+
+            public void open() throws DbException, TransactionAbortedException {
+                pageNumber = -1;
+                pageIterator = Collections.<Tuple>emptyList().iterator();
+            }
+
+            public void rewind() throws DbException, TransactionAbortedException {
+                close();
+                open();
+            }
+
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (pageIterator == null){
+                    return null;
+                }
+                while (!pageIterator.hasNext()){
+                    if (++pageNumber >= cachedNumPages()){
+                        return null;
+                    }
+                    HeapPageId pid = new HeapPageId(getId(), pageNumber);
+                    TuplePage page = (TuplePage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+                    pageIterator = page.iterator();
+                }
+                return pageIterator.next();
+            }
+
+            public void close() {
+                super.close();
+                pageIterator = null;
+            }
+        };
+    }
+}
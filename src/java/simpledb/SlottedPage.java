@@ -0,0 +1,414 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * Each instance of SlottedPage stores data for one page of a SlottedHeapFile.
+ * Unlike HeapPage, whose slots are all TupleDesc.getSize() bytes wide, a
+ * SlottedPage stores each tuple as a variable-length record, so a STRING
+ * field only takes as many bytes as its value.
+ * <p>
+ * The format of a SlottedPage is:
+ * <ul>
+ * <li>a 2-byte count of slots in the slot directory, and the 2-byte offset
+ * of the first record byte (0 on an empty page, meaning the page size)
+ * <li>the slot directory: for each slot, the 2-byte offset and 2-byte
+ * length of its record, or an offset of 0 if the slot is empty
+ * <li>free space
+ * <li>the records, packed against the end of the page
+ * </ul>
+ * All counts and offsets are unsigned big-endian, so an all-zero page is a
+ * valid empty page and pages may be up to 64KB. In a record, INT fields take
+ * 4 bytes and STRING fields a 2-byte length followed by the string's bytes.
+ * <p>
+ * Deleting a tuple compacts the records in place, so the free space is
+ * always contiguous. The slots of the remaining tuples do not move, so their
+ * RecordIds stay valid, and inserts reuse empty slots first.
+ *
+ * @see SlottedHeapFile
+ * @see BufferPool
+ */
+public class SlottedPage implements TuplePage {
+
+    /** Bytes used by the slot count and the record start offset */
+    static final int HEADER_SIZE = 4;
+
+    /** Bytes used by each slot directory entry */
+    static final int SLOT_SIZE = 4;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    /* the page image, kept up to date by every change */
+    final byte[] data;
+    private int numSlots;
+    private int dataStart;
+    private int numEmptySlots;
+
+    private boolean dirty;
+    private TransactionId tid;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk.
+     *
+     * @throws IOException if the data is not a well-formed page
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        if (data.length != BufferPool.getPageSize() || data.length > (1 << 16)) {
+            throw new IOException("page " + id.getPageNumber() + " has an invalid size");
+        }
+        this.data = data.clone();
+
+        this.numSlots = readShort(0);
+        this.dataStart = readShort(2);
+        if (this.dataStart == 0) {
+            this.dataStart = data.length;
+        }
+        if (HEADER_SIZE + numSlots * SLOT_SIZE > dataStart) {
+            throw new IOException("page " + id.getPageNumber() + " is corrupt");
+        }
+        this.numEmptySlots = 0;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i)) {
+                numEmptySlots++;
+            }
+        }
+
+        synchronized(oldDataLock)
+        {
+        oldData = data.clone();
+        }
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedPage getBeforeImage(){
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            return new SlottedPage(pid,oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        byte[] newData = getPageData();
+        synchronized(oldDataLock)
+        {
+        oldData = newData;
+        }
+    }
+
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return this.pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page.
+     * Used to serialize this page to disk.
+     *
+     * @see #SlottedPage
+     * @return A byte array correspond to the bytes of this page.
+     */
+    public byte[] getPageData() {
+        return data.clone();
+    }
+
+    /**
+     * Static method to generate a byte array corresponding to an empty
+     * SlottedPage.
+     *
+     * @return The returned ByteArray.
+     */
+    public static byte[] createEmptyPageData() {
+        return new byte[BufferPool.getPageSize()]; //all 0
+    }
+
+    /**
+     * @return the number of bytes the specified tuple takes as a record,
+     *   not counting its slot directory entry
+     */
+    public static int getRecordSize(Tuple t) {
+        int size = 0;
+        TupleDesc desc = t.getTupleDesc();
+        for (int i = 0; i < desc.numFields(); i++) {
+            if (desc.getFieldType(i) == Type.INT_TYPE) {
+                size += Type.INT_TYPE.getLen();
+            }
+            else {
+                size += 2 + stringBytes((StringField)t.getField(i)).length;
+            }
+        }
+        return size;
+    }
+
+    private static byte[] stringBytes(StringField f) {
+        byte[] bytes = f.getValue().getBytes();
+        if (bytes.length > Type.STRING_LEN) {
+            bytes = Arrays.copyOf(bytes, Type.STRING_LEN);
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the number of contiguous free bytes between the slot directory
+     *   and the records
+     */
+    public int getFreeSpace() {
+        return dataStart - HEADER_SIZE - numSlots * SLOT_SIZE;
+    }
+
+    /**
+     * @return true if the specified tuple fits on this page
+     */
+    public boolean canHold(Tuple t) {
+        int needed = getRecordSize(t);
+        if (numEmptySlots == 0) {
+            needed += SLOT_SIZE;
+        }
+        return needed <= getFreeSpace();
+    }
+
+    /**
+     * @return true if no tuple fits on this page any more, not even one
+     *   whose strings are empty
+     */
+    public boolean isFull() {
+        int needed = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            needed += td.getFieldType(i) == Type.INT_TYPE ? Type.INT_TYPE.getLen() : 2;
+        }
+        if (numEmptySlots == 0) {
+            needed += SLOT_SIZE;
+        }
+        return needed > getFreeSpace();
+    }
+
+    /**
+     * Returns the number of empty entries in the slot directory. An insert
+     * can still add a new slot when this is 0, as long as the page has room.
+     */
+    public int getNumEmptySlots() {
+        return this.numEmptySlots;
+    }
+
+    /**
+     * @return the number of tuples stored on this page
+     */
+    public int getNumTuples() {
+        return numSlots - numEmptySlots;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < numSlots && slotOffset(i) != 0;
+    }
+
+    /**
+     * Adds the specified tuple to the page, in the first empty slot or else
+     * in a new slot; the tuple is updated to reflect that it is now stored
+     * on this page.
+     * @throws DbException if the tuple does not fit on the page or tupledesc
+     *         is mismatch.
+     * @param t The tuple to add.
+     */
+    public void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(this.td)) {
+            throw new DbException("Can't insert tuple because its tupledesc does not match the page");
+        }
+        if (!canHold(t)) {
+            throw new DbException("Can't insert tuple because page is full");
+        }
+
+        int slotId = 0;
+        while (slotId < numSlots && isSlotUsed(slotId)) {
+            slotId++;
+        }
+        if (slotId == numSlots) {
+            numSlots++;
+            numEmptySlots++;
+        }
+
+        int len = getRecordSize(t);
+        dataStart -= len;
+        writeRecord(t, dataStart);
+        setSlot(slotId, dataStart, len);
+        numEmptySlots--;
+        writeHeader();
+        t.setRecordId(new RecordId(this.pid, slotId));
+    }
+
+    /**
+     * Delete the specified tuple from the page, moving the records stored
+     * before it up to close the gap. Trailing empty slots are dropped from
+     * the slot directory.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     * @param t The tuple to delete
+     */
+    public void deleteTuple(Tuple t) throws DbException {
+        if (!(t.getRecordId().getPageId().equals(this.getId()))){
+            throw new DbException("This tuple is not present on the page");
+        }
+        int slotId = t.getRecordId().getTupleNumber();
+        if (!isSlotUsed(slotId) || !readTuple(slotId).toString().equals(t.toString())) {
+            throw new DbException("This tuple is not present on the page");
+        }
+
+        int offset = slotOffset(slotId);
+        int len = slotLength(slotId);
+        // records below the deleted one shift up by its length
+        System.arraycopy(data, dataStart, data, dataStart + len, offset - dataStart);
+        Arrays.fill(data, dataStart, dataStart + len, (byte)0);
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i) && slotOffset(i) < offset) {
+                setSlot(i, slotOffset(i) + len, slotLength(i));
+            }
+        }
+        dataStart += len;
+        setSlot(slotId, 0, 0);
+        numEmptySlots++;
+
+        while (numSlots > 0 && !isSlotUsed(numSlots - 1)) {
+            numSlots--;
+            numEmptySlots--;
+            setSlot(numSlots, 0, 0);
+        }
+        writeHeader();
+    }
+
+    /**
+     * Marks this page as dirty/not dirty and record that transaction
+     * that did the dirtying
+     */
+    public void markDirty(boolean dirty, TransactionId tid) {
+        this.dirty = dirty;
+        this.tid = tid;
+    }
+
+    /**
+     * Returns the tid of the transaction that last dirtied this page, or null if the page is not dirty
+     */
+    public TransactionId isDirty() {
+        return this.dirty ? this.tid : null;
+    }
+
+    /**
+     * @return an iterator over all tuples on this page, decoding each record
+     * as it is reached (calling remove on this iterator throws an
+     * UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>(){
+            private int currentIndex = nextUsed(0);
+
+            private int nextUsed(int from){
+                while (from < numSlots && !isSlotUsed(from)){
+                    from++;
+                }
+                return from;
+            }
+
+            public boolean hasNext(){
+                return currentIndex < numSlots;
+            }
+
+            public Tuple next(){
+                if (!hasNext()){
+                    throw new NoSuchElementException();
+                }
+                Tuple t = readTuple(currentIndex);
+                currentIndex = nextUsed(currentIndex + 1);
+                return t;
+            }
+
+            public void remove(){
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Decode the record stored in the specified slot.
+     */
+    private Tuple readTuple(int slotId) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slotId));
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        int offset = slotOffset(slotId);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                t.setField(j, new IntField(buf.getInt(offset)));
+                offset += Type.INT_TYPE.getLen();
+            }
+            else {
+                int len = readShort(offset);
+                t.setField(j, new StringField(new String(data, offset + 2, len), Type.STRING_LEN));
+                offset += 2 + len;
+            }
+        }
+        return t;
+    }
+
+    private void writeRecord(Tuple t, int offset) {
+        ByteBuffer buf = ByteBuffer.wrap(data);
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.INT_TYPE) {
+                buf.putInt(offset, ((IntField)t.getField(j)).getValue());
+                offset += Type.INT_TYPE.getLen();
+            }
+            else {
+                byte[] bytes = stringBytes((StringField)t.getField(j));
+                writeShort(offset, bytes.length);
+                System.arraycopy(bytes, 0, data, offset + 2, bytes.length);
+                offset += 2 + bytes.length;
+            }
+        }
+    }
+
+    private int slotOffset(int slotId) {
+        return readShort(HEADER_SIZE + slotId * SLOT_SIZE);
+    }
+
+    private int slotLength(int slotId) {
+        return readShort(HEADER_SIZE + slotId * SLOT_SIZE + 2);
+    }
+
+    private void setSlot(int slotId, int offset, int len) {
+        writeShort(HEADER_SIZE + slotId * SLOT_SIZE, offset);
+        writeShort(HEADER_SIZE + slotId * SLOT_SIZE + 2, len);
+    }
+
+    private void writeHeader() {
+        writeShort(0, numSlots);
+        // an empty page is stored as all zeroes
+        writeShort(2, dataStart == data.length ? 0 : dataStart);
+    }
+
+    private int readShort(int pos) {
+        return ((data[pos] & 0xff) << 8) | (data[pos + 1] & 0xff);
+    }
+
+    private void writeShort(int pos, int value) {
+        data[pos] = (byte)(value >> 8);
+        data[pos + 1] = (byte)value;
+    }
+}
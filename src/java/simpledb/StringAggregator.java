@@ -18,6 +18,7 @@ public class StringAggregator implements Aggregator {
     private Op operator;
     private List<Tuple> aggFinal;
     private TupleDesc newTD = null;
+    private GroupIndex groups;
     /**
      * Aggregate constructor
      * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
@@ -36,6 +37,7 @@ public class StringAggregator implements Aggregator {
         operator = what;
         
             aggFinal = new ArrayList<Tuple>();
+            groups = new GroupIndex();
         
     }
 
@@ -49,14 +51,13 @@ public class StringAggregator implements Aggregator {
         if (groupFieldNum != NO_GROUPING) {
                 Field matchAgg = tup.getField(groupFieldNum);
                 
-                for (int i = 0; i<aggFinal.size(); i++) {
+                int i = groups.find(matchAgg);
+                if (i >= 0) {
                     Tuple agg = aggFinal.get(i);
-                    if (agg.getField(0).equals(matchAgg)) {
-                        int currAggValue = ((IntField) agg.getField(1)).getValue();
-                        agg.setField(1, new IntField(currAggValue + 1));
-                        aggFinal.set(i, agg);
-                        return;
-                    }
+                    int currAggValue = ((IntField) agg.getField(1)).getValue();
+                    agg.setField(1, new IntField(currAggValue + 1));
+                    aggFinal.set(i, agg);
+                    return;
                 }
                 
                 if (newTD == null) {
@@ -68,6 +69,7 @@ public class StringAggregator implements Aggregator {
                 Tuple newTup = new Tuple(newTD);
                 newTup.setField(0, matchAgg);
                 newTup.setField(1, new IntField(1));
+                groups.add(matchAgg, aggFinal.size());
                 aggFinal.add(newTup);
                 
         }else {
@@ -0,0 +1,72 @@
+package simpledb;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * StringDictionary maps the distinct strings of one DictionaryPage to the
+ * fixed-width codes its records store. A dictionary never changes once
+ * built: adding a value makes a new dictionary in which the existing codes
+ * keep their meaning. Fields decoded from a page keep a reference to the
+ * dictionary they came from, so two CodedStringFields from the same
+ * dictionary can be compared by code alone.
+ *
+ * @see DictionaryPage
+ * @see CodedStringField
+ * @Threadsafe
+ */
+public class StringDictionary {
+
+    /** A dictionary with no values */
+    public static final StringDictionary EMPTY = new StringDictionary(new String[0]);
+
+    private final String[] values;
+
+    /* value to code, built on the first lookup */
+    private volatile HashMap<String, Integer> codes;
+
+    StringDictionary(String[] values) {
+        this.values = values;
+    }
+
+    /**
+     * @return the number of values in this dictionary
+     */
+    public int size() {
+        return this.values.length;
+    }
+
+    /**
+     * @return the value with the specified code
+     */
+    public String getValue(int code) {
+        return this.values[code];
+    }
+
+    /**
+     * @return the code of the specified value, or -1 if it is not in this
+     *   dictionary
+     */
+    public int codeOf(String value) {
+        HashMap<String, Integer> map = this.codes;
+        if (map == null) {
+            map = new HashMap<String, Integer>(this.values.length * 2);
+            for (int i = 0; i < this.values.length; i++) {
+                map.put(this.values[i], i);
+            }
+            this.codes = map;
+        }
+        Integer code = map.get(value);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @return a dictionary holding the values of this one, with the same
+     *   codes, followed by the specified value
+     */
+    StringDictionary with(String value) {
+        String[] grown = Arrays.copyOf(this.values, this.values.length + 1);
+        grown[this.values.length] = value;
+        return new StringDictionary(grown);
+    }
+}
@@ -71,6 +71,7 @@ public class TableStats {
     private int tid;
     private ArrayList histograms;
     private int numTuples = 0;
+    private int numPages = 0;
 
     /**
      * Create a new TableStats object, that keeps track of statistics on each
@@ -85,7 +86,8 @@ public class TableStats {
     public TableStats(int tableid, int ioCostPerPage) {
         this.tid = tableid;
         this.ioCost = ioCostPerPage;
-        HeapFile table = (HeapFile)Database.getCatalog().getDatabaseFile(this.tid);
+        DbFile table = Database.getCatalog().getDatabaseFile(this.tid);
+        this.numPages = table.numPages();
         TupleDesc fields = table.getTupleDesc();
         DbFileIterator firstPass = table.iterator(new TransactionId());
         histograms = new ArrayList();
@@ -160,7 +162,7 @@ public class TableStats {
      * @return The estimated cost of scanning the table.
      */
     public double estimateScanCost() {
-        HeapFile file = (HeapFile)Database.getCatalog().getDatabaseFile(this.tid);
+        DbFile file = Database.getCatalog().getDatabaseFile(this.tid);
         return file.numPages()*(double)this.ioCost;
     }
 
@@ -222,4 +224,12 @@ public class TableStats {
         return this.numTuples;
     }
 
+    /**
+     * return the number of pages of this table when the statistics were
+     * computed
+     * */
+    public int numPages() {
+        return this.numPages;
+    }
+
 }
@@ -94,7 +94,7 @@ public class Tuple implements Serializable {
         String contents = "";
 
         for (int i = 0; i < this.data.length; i++){
-            contents += this.data[i].toString();
+            contents += String.valueOf(this.data[i]);
             if (i < this.data.length - 1){
                 contents += " ";
             }
@@ -0,0 +1,50 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * A page that SlottedHeapFile can store tuples on. Each implementation has
+ * its own record format, but an all-zero page must be a valid empty page.
+ *
+ * @see SlottedPage
+ * @see DictionaryPage
+ */
+public interface TuplePage extends Page {
+
+    /**
+     * @return true if the specified tuple fits on this page
+     */
+    public boolean canHold(Tuple t);
+
+    /**
+     * @return true if no tuple fits on this page any more, not even one
+     *   whose strings are as short as possible
+     */
+    public boolean isFull();
+
+    /**
+     * Adds the specified tuple to the page; the tuple is updated to reflect
+     * that it is now stored on this page.
+     * @throws DbException if the tuple does not fit on the page or tupledesc
+     *         is mismatch.
+     */
+    public void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Delete the specified tuple from the page.
+     * @throws DbException if this tuple is not on this page, or tuple slot is
+     *         already empty.
+     */
+    public void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * @return the number of tuples stored on this page
+     */
+    public int getNumTuples();
+
+    /**
+     * @return an iterator over all tuples on this page (calling remove on
+     *   this iterator throws an UnsupportedOperationException)
+     */
+    public Iterator<Tuple> iterator();
+}
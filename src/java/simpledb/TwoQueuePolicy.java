@@ -0,0 +1,72 @@
+package simpledb;
+
+/**
+ * TwoQueuePolicy implements the full 2Q algorithm of Johnson and Shasha.
+ * Pages read for the first time enter a FIFO queue (A1in) and are evicted
+ * from it without disturbing the main LRU queue (Am). The ids of pages
+ * evicted from A1in are remembered in a ghost queue (A1out); a page that is
+ * read again while its id is still there is considered hot and goes to Am.
+ * A sequential scan therefore only ever cycles through A1in.
+ */
+public class TwoQueuePolicy extends ReplacementPolicy {
+
+    private final PageQueue a1in = new PageQueue();
+    private final PageQueue a1out = new PageQueue();
+    private final PageQueue am = new PageQueue();
+
+    /** target size of A1in */
+    private final int kin;
+    /** maximum number of ids remembered in A1out */
+    private final int kout;
+
+    /**
+     * Creates a 2Q policy for a pool of numPages pages, using the sizes
+     * recommended by the paper: a quarter of the pool for A1in and half the
+     * pool's worth of ids in A1out.
+     */
+    public TwoQueuePolicy(int numPages) {
+        this.kin = Math.max(1, numPages / 4);
+        this.kout = Math.max(1, numPages / 2);
+    }
+
+    @Override
+    protected void accessed(PageId pid) {
+        // hits in A1in are deliberately ignored; they are usually correlated
+        am.moveToLast(pid);
+    }
+
+    @Override
+    protected void added(PageId pid) {
+        if (a1in.contains(pid) || am.contains(pid)) {
+            accessed(pid);
+        }
+        else if (a1out.remove(pid)) {
+            am.addLast(pid);
+        }
+        else {
+            a1in.addLast(pid);
+        }
+    }
+
+    @Override
+    public void pageRemoved(PageId pid) {
+        if (!a1in.remove(pid)) {
+            am.remove(pid);
+        }
+    }
+
+    @Override
+    public PageId evict() {
+        if (a1in.size() > kin || am.isEmpty()) {
+            PageId victim = a1in.removeFirst();
+            if (victim != null) {
+                a1out.addLast(victim);
+                if (a1out.size() > kout) {
+                    a1out.removeFirst();
+                }
+            }
+            return victim;
+        }
+        return am.removeFirst();
+    }
+}
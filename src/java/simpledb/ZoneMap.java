@@ -0,0 +1,322 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * ZoneMap keeps, for every page of a HeapFile, the smallest and largest value
+ * of each INT column on the page, so that a scan with a range predicate can
+ * skip the pages that cannot hold a match without reading them.
+ * <p>
+ * The summaries are persisted in a sidecar file next to the heap file. Each
+ * page has a record at a fixed offset holding its state followed by the
+ * bounds of each INT column; the file starts with the length and
+ * modification time the heap file had when the sidecar was last written, and
+ * the records are only trusted if the heap file still matches them, so a
+ * heap file rewritten by other means (e.g. by HeapFileEncoder) starts over
+ * with every page unknown.
+ * <p>
+ * A page's summary is exact whenever the page is written to disk, which
+ * includes every deleteTuple, and is widened in memory by insertTuple, so it
+ * covers the page as cached in the BufferPool too. Pages whose summary is
+ * unknown are never skipped; a scan records the summary of each clean page
+ * it reads.
+ *
+ * @see HeapFile#iterator(TransactionId, int, List)
+ * @Threadsafe
+ */
+public class ZoneMap {
+
+    private static final int UNKNOWN = 0;
+    private static final int EMPTY = 1;
+    private static final int BOUNDED = 2;
+
+    private static final int HEADER_SIZE = 16;
+
+    private final File sidecar;
+    private final File data;
+    /* the indexes of the table's INT columns */
+    private final int[] columns;
+    private final int recordSize;
+
+    /* state of each page, and the bounds of each INT column of each page */
+    private int[] states = new int[0];
+    private int[] lows = new int[0];
+    private int[] highs = new int[0];
+    private boolean loaded;
+    private FileChannel channel;
+
+    /**
+     * Creates the zone map of a heap file, stored in the specified sidecar
+     * file. The sidecar is read on first use.
+     *
+     * @param sidecar the file the summaries are persisted in
+     * @param data the heap file the summaries describe
+     * @param td the TupleDesc of the heap file
+     */
+    public ZoneMap(File sidecar, File data, TupleDesc td) {
+        this.sidecar = sidecar;
+        this.data = data;
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                n++;
+            }
+        }
+        this.columns = new int[n];
+        n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE) {
+                this.columns[n++] = i;
+            }
+        }
+        this.recordSize = 4 + 8 * this.columns.length;
+    }
+
+    /**
+     * @return the file the summaries are persisted in
+     */
+    public File getFile() {
+        return this.sidecar;
+    }
+
+    /**
+     * Returns false if no tuple of the specified page can satisfy all of the
+     * specified predicates, judging by the page's summary. Predicates on
+     * other than INT columns are not considered.
+     */
+    public synchronized boolean mayMatch(int pageNo, List<Predicate> predicates) {
+        load();
+        if (pageNo >= this.states.length || this.states[pageNo] == UNKNOWN) {
+            return true;
+        }
+        if (this.states[pageNo] == EMPTY) {
+            return false;
+        }
+        for (Predicate p : predicates) {
+            int c = indexOf(p.getField());
+            if (c < 0 || !(p.getOperand() instanceof IntField)) {
+                continue;
+            }
+            int lo = this.lows[pageNo * this.columns.length + c];
+            int hi = this.highs[pageNo * this.columns.length + c];
+            int v = ((IntField)p.getOperand()).getValue();
+            boolean possible;
+            switch (p.getOp()) {
+            case EQUALS:
+            case LIKE:
+                possible = lo <= v && v <= hi;
+                break;
+            case NOT_EQUALS:
+                possible = lo != v || hi != v;
+                break;
+            case GREATER_THAN:
+                possible = hi > v;
+                break;
+            case GREATER_THAN_OR_EQ:
+                possible = hi >= v;
+                break;
+            case LESS_THAN:
+                possible = lo < v;
+                break;
+            case LESS_THAN_OR_EQ:
+                possible = lo <= v;
+                break;
+            default:
+                possible = true;
+            }
+            if (!possible) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Widens the summary of the specified page to cover a tuple inserted on
+     * it. The summary of a page that is unknown stays unknown.
+     */
+    public synchronized void include(int pageNo, Tuple t) {
+        load();
+        if (pageNo >= this.states.length || this.states[pageNo] == UNKNOWN) {
+            return;
+        }
+        if (this.states[pageNo] == EMPTY) {
+            this.states[pageNo] = BOUNDED;
+            for (int c = 0; c < this.columns.length; c++) {
+                this.lows[pageNo * this.columns.length + c] = Integer.MAX_VALUE;
+                this.highs[pageNo * this.columns.length + c] = Integer.MIN_VALUE;
+            }
+        }
+        widen(pageNo, t);
+    }
+
+    /**
+     * Records the exact summaries of pages that have just been written to
+     * disk, and persists them. Pages other than HeapPages become unknown.
+     */
+    public synchronized void pagesWritten(List<Page> pages) throws IOException {
+        load();
+        for (Page p : pages) {
+            summarize(p);
+        }
+        persist(pages);
+    }
+
+    /**
+     * Records the summary of a page read from disk if it is still unknown.
+     * The page must not be dirty, so that it matches its image on disk.
+     */
+    public synchronized void pageRead(HeapPage page) throws IOException {
+        load();
+        int pageNo = page.getId().getPageNumber();
+        if (pageNo < this.states.length && this.states[pageNo] != UNKNOWN) {
+            return;
+        }
+        summarize(page);
+        persist(Arrays.<Page>asList(page));
+    }
+
+    /**
+     * Closes the sidecar file; it is reopened when the map is next written.
+     */
+    public synchronized void close() throws IOException {
+        if (this.channel != null) {
+            this.channel.close();
+            this.channel = null;
+        }
+    }
+
+    /**
+     * @return the position of the specified field among the INT columns, or
+     *   -1 if it is not an INT column
+     */
+    private int indexOf(int field) {
+        for (int c = 0; c < this.columns.length; c++) {
+            if (this.columns[c] == field) {
+                return c;
+            }
+        }
+        return -1;
+    }
+
+    private void widen(int pageNo, Tuple t) {
+        for (int c = 0; c < this.columns.length; c++) {
+            int v = ((IntField)t.getField(this.columns[c])).getValue();
+            int i = pageNo * this.columns.length + c;
+            this.lows[i] = Math.min(this.lows[i], v);
+            this.highs[i] = Math.max(this.highs[i], v);
+        }
+    }
+
+    /**
+     * Computes the summary of a page from its tuples.
+     */
+    private void summarize(Page p) {
+        int pageNo = p.getId().getPageNumber();
+        ensureCapacity(pageNo + 1);
+        if (!(p instanceof HeapPage)) {
+            this.states[pageNo] = UNKNOWN;
+            return;
+        }
+        this.states[pageNo] = EMPTY;
+        Iterator<Tuple> it = ((HeapPage)p).iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (this.states[pageNo] == EMPTY) {
+                include(pageNo, t);
+            }
+            else {
+                widen(pageNo, t);
+            }
+        }
+    }
+
+    private void ensureCapacity(int pages) {
+        if (pages > this.states.length) {
+            int n = Math.max(pages, this.states.length * 2);
+            this.states = Arrays.copyOf(this.states, n);
+            this.lows = Arrays.copyOf(this.lows, n * this.columns.length);
+            this.highs = Arrays.copyOf(this.highs, n * this.columns.length);
+        }
+    }
+
+    private FileChannel getChannel() throws IOException {
+        if (this.channel == null || !this.channel.isOpen()) {
+            this.channel = new RandomAccessFile(this.sidecar, "rw").getChannel();
+        }
+        return this.channel;
+    }
+
+    /**
+     * Reads the summaries from the sidecar file on first use, unless the
+     * heap file has changed since they were written.
+     */
+    private void load() {
+        if (this.loaded) {
+            return;
+        }
+        this.loaded = true;
+        if (!this.sidecar.exists() || this.sidecar.length() < HEADER_SIZE) {
+            return;
+        }
+        try {
+            FileChannel fileChannel = getChannel();
+            ByteBuffer buf = ByteBuffer.allocate((int)fileChannel.size());
+            while (buf.hasRemaining()) {
+                if (fileChannel.read(buf, buf.position()) < 0) {
+                    break;
+                }
+            }
+            buf.flip();
+            if (buf.getLong() != this.data.length() || buf.getLong() != this.data.lastModified()) {
+                // drop the stale records, so that a later header does not vouch for them
+                fileChannel.truncate(0);
+                return;
+            }
+            int pages = buf.remaining() / this.recordSize;
+            ensureCapacity(pages);
+            for (int pageNo = 0; pageNo < pages; pageNo++) {
+                this.states[pageNo] = buf.getInt();
+                for (int c = 0; c < this.columns.length; c++) {
+                    this.lows[pageNo * this.columns.length + c] = buf.getInt();
+                    this.highs[pageNo * this.columns.length + c] = buf.getInt();
+                }
+            }
+        } catch (IOException e) {
+            // start over with every page unknown
+            Arrays.fill(this.states, UNKNOWN);
+        }
+    }
+
+    /**
+     * Writes the records of the specified pages, then the header recording
+     * the heap file as it is now.
+     */
+    private void persist(List<Page> pages) throws IOException {
+        FileChannel fileChannel = getChannel();
+        ByteBuffer buf = ByteBuffer.allocate(this.recordSize);
+        for (Page p : pages) {
+            int pageNo = p.getId().getPageNumber();
+            buf.clear();
+            buf.putInt(this.states[pageNo]);
+            for (int c = 0; c < this.columns.length; c++) {
+                buf.putInt(this.lows[pageNo * this.columns.length + c]);
+                buf.putInt(this.highs[pageNo * this.columns.length + c]);
+            }
+            buf.flip();
+            long offset = HEADER_SIZE + (long)pageNo * this.recordSize;
+            while (buf.hasRemaining()) {
+                fileChannel.write(buf, offset + buf.position());
+            }
+        }
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.putLong(this.data.length()).putLong(this.data.lastModified());
+        header.flip();
+        while (header.hasRemaining()) {
+            fileChannel.write(header, header.position());
+        }
+    }
+}
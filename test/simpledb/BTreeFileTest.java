@@ -0,0 +1,292 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class BTreeFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 2000;
+
+    private static final int VALUES = 50;
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+            new String[] { "id", "value" });
+
+    private File file;
+    private HeapFile hf;
+    private String name;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // small pages give the trees several levels
+        BufferPool.setPageSize(256);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        file = TestUtil.tempTableFile("btree");
+        hf = new HeapFile(file, TD);
+        name = TestUtil.uniqueTableName("btree");
+        Database.getCatalog().addTable(hf, name);
+    }
+
+    @After public void tearDown() {
+        BufferPool.resetPageSize();
+    }
+
+    private BTreeFile createIndex(String field) throws Exception {
+        BTreeFile index = Database.getCatalog().createIndex(name, field);
+        index.getFile().deleteOnExit();
+        return index;
+    }
+
+    /** inserts the ids 0 to ROWS - 1 in random order */
+    private void insertRows() throws Exception {
+        ArrayList<Tuple> rows = new ArrayList<Tuple>();
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(TestUtil.intTuple(TD, i, i % VALUES));
+        }
+        TestUtil.insertShuffled(hf.getId(), rows, 42);
+    }
+
+    private ArrayList<Tuple> scan(BTreeFile index, Predicate.Op op, int key) throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> tuples = TestUtil.drain(new IndexScan(tid, index,
+                new IndexPredicate(op, new IntField(key)), "t"));
+        Database.getBufferPool().transactionComplete(tid);
+        return tuples;
+    }
+
+    /** checks the index holds an entry for exactly the table's tuples, in order */
+    private void assertEntries(BTreeFile index, int expected) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = index.iterator(tid);
+        it.open();
+        Tuple prev = null;
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple e = it.next();
+            if (prev != null) {
+                assertTrue(BTreeFile.compareEntries(prev, e) < 0);
+            }
+            prev = e;
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(expected, count);
+    }
+
+    private BTreePageId rootId(BTreeFile index) throws Exception {
+        TransactionId tid = new TransactionId();
+        BTreeRootPtrPage rootPtr = (BTreeRootPtrPage)Database.getBufferPool().getPage(tid,
+                new BTreePageId(index.getId(), 0, BTreePageId.ROOT_PTR), Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(tid);
+        return rootPtr.getRootId();
+    }
+
+    @Test public void insertsSplitPages() throws Exception {
+        BTreeFile index = createIndex("id");
+        assertNull(rootId(index));
+        insertRows();
+        assertEquals(BTreePageId.INTERNAL, rootId(index).getCategory());
+        assertEntries(index, ROWS);
+
+        // the tree survives being written out and read back
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEntries(index, ROWS);
+        assertEquals(ROWS / 2, scan(index, Predicate.Op.LESS_THAN, ROWS / 2).size());
+    }
+
+    @Test public void batchInsertsMaintainIndex() throws Exception {
+        BTreeFile index = createIndex("id");
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        for (int id = ROWS - 1; id >= 0; id--) {
+            batch.add(TestUtil.intTuple(TD, id, id % VALUES));
+        }
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuples(tid, hf.getId(), batch);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // the leaves split within the batch are found by later entries
+        assertEquals(BTreePageId.INTERNAL, rootId(index).getCategory());
+        assertEntries(index, ROWS);
+        assertEquals(1, scan(index, Predicate.Op.EQUALS, ROWS / 3).size());
+        assertEquals(ROWS / 4, scan(index, Predicate.Op.LESS_THAN, ROWS / 4).size());
+    }
+
+    @Test public void equalityAndRangeScans() throws Exception {
+        BTreeFile ids = createIndex("id");
+        BTreeFile values = createIndex("value");
+        insertRows();
+
+        ArrayList<Tuple> one = scan(ids, Predicate.Op.EQUALS, 77);
+        assertEquals(1, one.size());
+        assertEquals(new IntField(77), one.get(0).getField(0));
+        assertEquals(0, scan(ids, Predicate.Op.EQUALS, ROWS).size());
+
+        assertEquals(100, scan(ids, Predicate.Op.LESS_THAN, 100).size());
+        assertEquals(101, scan(ids, Predicate.Op.LESS_THAN_OR_EQ, 100).size());
+        assertEquals(ROWS - 101, scan(ids, Predicate.Op.GREATER_THAN, 100).size());
+        assertEquals(ROWS - 100, scan(ids, Predicate.Op.GREATER_THAN_OR_EQ, 100).size());
+        assertEquals(ROWS - 1, scan(ids, Predicate.Op.NOT_EQUALS, 100).size());
+
+        // duplicate keys span several leaves
+        ArrayList<Tuple> dups = scan(values, Predicate.Op.EQUALS, 3);
+        assertEquals(ROWS / VALUES, dups.size());
+        for (Tuple t : dups) {
+            assertEquals(new IntField(3), t.getField(1));
+        }
+        ArrayList<Tuple> range = scan(values, Predicate.Op.GREATER_THAN, VALUES - 3);
+        assertEquals(2 * ROWS / VALUES, range.size());
+        // tuples come back in key order
+        assertEquals(new IntField(VALUES - 2), range.get(0).getField(1));
+        assertEquals(new IntField(VALUES - 1), range.get(range.size() - 1).getField(1));
+    }
+
+    @Test public void deletesFreeAndReusePages() throws Exception {
+        BTreeFile index = createIndex("id");
+        insertRows();
+
+        TransactionId tid = new TransactionId();
+        for (Tuple t : TestUtil.drain(new IndexScan(tid, index,
+                new IndexPredicate(Predicate.Op.LESS_THAN, new IntField(ROWS / 2)), "t"))) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEntries(index, ROWS / 2);
+        assertEquals(0, scan(index, Predicate.Op.LESS_THAN, ROWS / 2).size());
+        assertEquals(ROWS / 2, scan(index, Predicate.Op.GREATER_THAN_OR_EQ, ROWS / 2).size());
+
+        // new pages come from the pages the deletes freed
+        Database.getBufferPool().flushAllPages();
+        int pages = index.numPages();
+        tid = new TransactionId();
+        for (int i = 0; i < ROWS / 4; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), TestUtil.intTuple(TD, i, 0));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        assertEquals(pages, index.numPages());
+        assertEntries(index, ROWS / 2 + ROWS / 4);
+
+        // emptying the table empties the tree
+        tid = new TransactionId();
+        for (Tuple t : TestUtil.drain(new SeqScan(tid, hf.getId(), "t"))) {
+            Database.getBufferPool().deleteTuple(tid, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEntries(index, 0);
+    }
+
+    @Test public void createIndexLoadsExistingRows() throws Exception {
+        insertRows();
+        Database.getBufferPool().flushAllPages();
+        BTreeFile index = createIndex("value");
+        assertSame(index, createIndex("value"));
+        assertEquals(1, Database.getCatalog().getIndexes(hf.getId()).size());
+        assertEntries(index, ROWS);
+        assertEquals(ROWS / VALUES, scan(index, Predicate.Op.EQUALS, 9).size());
+
+        // later inserts go to the loaded tree
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), TestUtil.intTuple(TD, ROWS, 9));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS / VALUES + 1, scan(index, Predicate.Op.EQUALS, 9).size());
+
+        // an existing index file is opened as it is
+        Database.getBufferPool().flushAllPages();
+        Database.getCatalog().addTable(hf, name);
+        assertEquals(0, Database.getCatalog().getIndexes(hf.getId()).size());
+        BTreeFile reopened = createIndex("value");
+        assertEntries(reopened, ROWS + 1);
+    }
+
+    @Test public void plannerUsesIndexForSelectiveFilters() throws Exception {
+        createIndex("id");
+        insertRows();
+        Database.getBufferPool().flushAllPages();
+        HashMap<String, TableStats> statsMap = new HashMap<String, TableStats>();
+        statsMap.put(name, new TableStats(hf.getId(), 1));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.id", Predicate.Op.EQUALS, "1234");
+        lp.addProjectField("t.value", null);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, statsMap, false);
+        assertTrue(leaf(plan) instanceof IndexScan);
+        ArrayList<Tuple> result = TestUtil.drain(plan);
+        assertEquals(1, result.size());
+        assertEquals(new IntField(1234 % VALUES), result.get(0).getField(0));
+        // only the page holding the match was read
+        int locked = 0;
+        for (int pageNo = 0; pageNo < hf.numPages(); pageNo++) {
+            if (Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), pageNo))) {
+                locked++;
+            }
+        }
+        assertEquals(1, locked);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // a filter matching most rows still scans the table
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.id", Predicate.Op.GREATER_THAN, "10");
+        lp.addProjectField("t.value", null);
+        tid = new TransactionId();
+        plan = lp.physicalPlan(tid, statsMap, false);
+        assertTrue(leaf(plan) instanceof SeqScan);
+        assertEquals(ROWS - 11, TestUtil.drain(plan).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static OpIterator leaf(OpIterator plan) {
+        while (plan instanceof Operator) {
+            plan = ((Operator)plan).getChildren()[0];
+        }
+        return plan;
+    }
+
+    @Test public void schemaAnnotatesIndexedFields() throws Exception {
+        File dir = file.getParentFile();
+        String table = TestUtil.uniqueTableName("indexed");
+        File schema = new File(dir, table + ".schema");
+        schema.deleteOnExit();
+        new File(dir, table + ".dat").deleteOnExit();
+        new File(dir, table + ".dat.value.btree").deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write(table + " (id int pk, value int index)\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId(table);
+        assertEquals(1, Database.getCatalog().getIndexes(tableId).size());
+        IndexFile index = Database.getCatalog().getIndexes(tableId).get(0);
+        assertEquals(1, index.getKeyField());
+        assertEquals(index.getId(), Database.getCatalog().getTableId(table + "_value_btree"));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BTreeFileTest.class);
+    }
+}
@@ -133,6 +133,67 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    @Test public void flushPagesWritesEveryDirtyPage() throws Exception {
+    	HeapFileDuplicates hfd = new HeapFileDuplicates(empty.getFile(), empty.getTupleDesc(), 10);
+    	Database.getCatalog().addTable(hfd, SystemTestUtil.getUUID());
+    	Database.getBufferPool().insertTuple(tid, hfd.getId(), Utility.getHeapTuple(1, 2));
+    	Database.getBufferPool().flushPages(tid);
+
+    	// every page reached the file, not just every other one
+    	for (int i = hfd.numPages() - 10; i < hfd.numPages(); i++) {
+    		HeapPageId pid = new HeapPageId(hfd.getId(), i);
+    		HeapPage onDisk = (HeapPage)hfd.readPage(pid);
+    		assertEquals("page " + i, 503, onDisk.getNumEmptySlots());
+    		assertNull(Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY).isDirty());
+    	}
+    }
+
+    // class whose page writes fail while failing is set
+    class HeapFileFailingWrites extends HeapFile {
+
+        boolean failing = true;
+
+        public HeapFileFailingWrites(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public void writePage(Page p) throws IOException {
+            if (failing) {
+                throw new IOException("disk full");
+            }
+            super.writePage(p);
+        }
+    }
+
+    /**
+     * A dirty page whose write fails is not evicted, the failure reaches the
+     * caller, and the page can be evicted once writes succeed again.
+     */
+    @Test public void failedEvictionKeepsPage() throws Exception {
+        HeapFileFailingWrites failing = new HeapFileFailingWrites(empty.getFile(), empty.getTupleDesc());
+        Database.getCatalog().addTable(failing, SystemTestUtil.getUUID());
+        HeapPageId p0 = new HeapPageId(failing.getId(), 0);
+        HeapPageId p1 = new HeapPageId(failing.getId(), 1);
+        empty.writePage(new HeapPage(p1, HeapPage.createEmptyPageData()));
+        BufferPool bp = Database.resetBufferPool(1);
+        HeapPage dirty = (HeapPage)bp.getPage(tid, p0, Permissions.READ_WRITE);
+        dirty.insertTuple(Utility.getHeapTuple(1, 2));
+        dirty.markDirty(true, tid);
+
+        try {
+            bp.getPage(tid, p1, Permissions.READ_ONLY);
+            fail("the dirty page could not be written");
+        } catch (DbException expected) {
+        }
+        assertSame(dirty, bp.getPage(tid, p0, Permissions.READ_ONLY));
+
+        failing.failing = false;
+        bp.getPage(tid, p1, Permissions.READ_ONLY);
+        HeapPage onDisk = (HeapPage)failing.readPage(p0);
+        assertEquals(503, onDisk.getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,92 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class BufferRingTest extends SimpleDbTestBase {
+    private static final int POOL = 16;
+    private static final int TABLE_PAGES = 40;
+
+    private HeapFile hot;
+    private HeapFile big;
+    private ArrayList<ArrayList<Integer>> bigTuples;
+    private BufferPool bp;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hot = SystemTestUtil.createRandomHeapFile(1, 992 * 2, null, null);
+        bigTuples = new ArrayList<ArrayList<Integer>>();
+        big = SystemTestUtil.createRandomHeapFile(1, 992 * TABLE_PAGES, null, bigTuples);
+        bp = Database.resetBufferPool(POOL);
+    }
+
+    private boolean cached(HeapFile f, int pageNo) throws Exception {
+        // prefetchPage only reads pages that are not cached yet
+        return !bp.prefetchPage(new HeapPageId(f.getId(), pageNo));
+    }
+
+    @Test public void sizeFor() {
+        assertEquals(0, BufferRing.sizeFor(50, 50));
+        assertEquals(BufferRing.MIN_PAGES, BufferRing.sizeFor(51, 16));
+        assertEquals(12, BufferRing.sizeFor(1000, 100));
+        assertNull(bp.newRing(POOL));
+        assertNotNull(bp.newRing(POOL + 1));
+    }
+
+    @Test public void largeScanKeepsHotPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, new HeapPageId(hot.getId(), 0), Permissions.READ_ONLY);
+        bp.getPage(tid, new HeapPageId(hot.getId(), 1), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+
+        SystemTestUtil.matchTuples(big, bigTuples);
+
+        assertTrue(cached(hot, 0));
+        assertTrue(cached(hot, 1));
+        // the ring was released, so none of the scanned pages are left
+        assertFalse(cached(big, TABLE_PAGES - 1));
+    }
+
+    @Test public void ringPageJoinsMainCacheWhenShared() throws Exception {
+        TransactionId tid = new TransactionId();
+        BufferRing ring = bp.newRing(TABLE_PAGES);
+        PageId pid = new HeapPageId(big.getId(), 0);
+        bp.getPage(tid, pid, Permissions.READ_ONLY, ring);
+        bp.getPage(tid, pid, Permissions.READ_ONLY);
+        bp.releaseRing(ring);
+        bp.transactionComplete(tid);
+
+        assertTrue(cached(big, 0));
+    }
+
+    @Test public void ringRecyclesItsOwnPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        BufferRing ring = bp.newRing(TABLE_PAGES);
+        for (int i = 0; i <= ring.capacity(); i++) {
+            bp.getPage(tid, new HeapPageId(big.getId(), i), Permissions.READ_ONLY, ring);
+        }
+        // the first page was replaced by the last one read
+        assertFalse(cached(big, 0));
+        assertTrue(cached(big, ring.capacity()));
+        bp.releaseRing(ring);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferRingTest.class);
+    }
+}
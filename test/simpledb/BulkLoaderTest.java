@@ -0,0 +1,132 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BulkLoaderTest extends SimpleDbTestBase {
+
+    private static final Type[] TYPES = new Type[] { Type.INT_TYPE, Type.STRING_TYPE };
+
+    private static final TupleDesc TD = new TupleDesc(TYPES, new String[] { "id", "name" });
+
+    private File in;
+    private File out;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        in = File.createTempFile("bulk", ".txt");
+        in.deleteOnExit();
+        out = File.createTempFile("bulk", ".dat");
+        out.deleteOnExit();
+    }
+
+    private void writeInput(String text) throws IOException {
+        FileWriter w = new FileWriter(in);
+        w.write(text);
+        w.close();
+    }
+
+    /** reads back the tuples of the loaded file, in file order */
+    private ArrayList<String> readOutput(File f) throws Exception {
+        HeapFile hf = new HeapFile(f, TD);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        ArrayList<String> rows = new ArrayList<String>();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            rows.add(((IntField)t.getField(0)).getValue() + "," + ((StringField)t.getField(1)).getValue());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    @Test public void parallelLoadKeepsInputOrder() throws Exception {
+        ArrayList<String> expected = new ArrayList<String>();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 1000; i++) {
+            String row = (i * 7 - 3000) + ",name" + i;
+            expected.add(row);
+            text.append(row).append('\n');
+        }
+        writeInput(text.toString());
+
+        // small chunks spread the rows over many threads and partial pages
+        BulkLoader loader = new BulkLoader(TYPES, ',', BufferPool.getPageSize(), 4, 100);
+        assertEquals(1000, loader.load(in, out));
+        assertEquals(expected, readOutput(out));
+        assertEquals(0, out.length() % BufferPool.getPageSize());
+
+        // one chunk gives full pages, as HeapFileEncoder always did
+        File single = File.createTempFile("bulk", ".dat");
+        single.deleteOnExit();
+        new BulkLoader(TYPES, ',', BufferPool.getPageSize(), 1, Integer.MAX_VALUE).load(in, single);
+        assertEquals(expected, readOutput(single));
+        int perPage = (BufferPool.getPageSize() * 8) / (TD.getSize() * 8 + 1);
+        assertEquals((1000 + perPage - 1) / perPage * BufferPool.getPageSize(), single.length());
+    }
+
+    @Test public void irregularLines() throws Exception {
+        writeInput("1, a \r\n\n\r\n2,b\nx3,c\n4,d");
+        BulkLoader loader = new BulkLoader(TYPES, ',', BufferPool.getPageSize(), 2, 4);
+        assertEquals(4, loader.load(in, out));
+        assertEquals(Arrays.asList("1,a", "2,b", "0,c", "4,d"), readOutput(out));
+
+        writeInput("1,a\n2\n");
+        try {
+            loader.load(in, out);
+            fail("a line with a missing field is malformed");
+        } catch (IOException expected) {
+        }
+        writeInput("1,a,b\n");
+        try {
+            loader.load(in, out);
+            fail("a line with an extra field is malformed");
+        } catch (IOException expected) {
+        }
+    }
+
+    @Test public void emptyInputGivesOneEmptyPage() throws Exception {
+        writeInput("");
+        assertEquals(0, new BulkLoader(TYPES, ',', BufferPool.getPageSize()).load(in, out));
+        assertEquals(BufferPool.getPageSize(), out.length());
+        assertEquals(0, readOutput(out).size());
+        byte[] page = Files.readAllBytes(out.toPath());
+        assertArrayEquals(new byte[BufferPool.getPageSize()], page);
+    }
+
+    @Test public void parseInt() {
+        byte[] b = " -2147483648 ,2147483648,+12,1a,".getBytes();
+        assertEquals(Integer.MIN_VALUE, BulkLoader.parseInt(b, 0, 13));
+        assertEquals(Long.MIN_VALUE, BulkLoader.parseInt(b, 14, 24));
+        assertEquals(12, BulkLoader.parseInt(b, 25, 28));
+        assertEquals(Long.MIN_VALUE, BulkLoader.parseInt(b, 29, 31));
+        assertEquals(Long.MIN_VALUE, BulkLoader.parseInt(b, 32, 32));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkLoaderTest.class);
+    }
+}
@@ -1,9 +1,14 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Random;
+import java.util.Set;
 
 import junit.framework.Assert;
 import junit.framework.JUnit4TestAdapter;
@@ -93,6 +98,34 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Unit test for Catalog.tableIdIterator()
+     */
+    @Test public void tableIdIterator() throws Exception {
+        Set<Integer> ids = new HashSet<Integer>();
+        Iterator<Integer> it = Database.getCatalog().tableIdIterator();
+        while (it.hasNext()) {
+            ids.add(it.next());
+        }
+        assertEquals(new HashSet<Integer>(Arrays.asList(id1, id2)), ids);
+    }
+
+    /**
+     * Check that a table replaced under its name is no longer found by id
+     */
+    @Test public void duplicateNameReplacesTable() throws Exception {
+        int id3 = r.nextInt();
+        Database.getCatalog().addTable(new SkeletonFile(id3, Utility.getTupleDesc(2)), name);
+        assertEquals(name, Database.getCatalog().getTableName(id3));
+        assertNull(Database.getCatalog().getTableName(id2));
+        try {
+            Database.getCatalog().getDatabaseFile(id2);
+            Assert.fail("Should not find replaced table");
+        } catch (NoSuchElementException e) {
+            // Expected to get here
+        }
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,156 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ColumnFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+            new String[] { "id", "name", "score" });
+
+    private File file;
+    private ColumnFile cf;
+    private String name;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = TestUtil.tempTableFile("column");
+        for (int i = 0; i < TD.numFields(); i++) {
+            cf = new ColumnFile(file, TD);
+            cf.getColumnFile(i).deleteOnExit();
+        }
+        name = TestUtil.uniqueTableName("col");
+        Database.getCatalog().addTable(cf, name);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("name" + i, Type.STRING_LEN));
+            t.setField(2, new IntField(i % 10));
+            Database.getBufferPool().insertTuple(tid, cf.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+    }
+
+    private ArrayList<Tuple> scan(TransactionId tid, int[] columns) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        DbFileIterator it = cf.iterator(tid, columns);
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        return tuples;
+    }
+
+    @Test public void chainsPerColumn() throws Exception {
+        // 1024 ints or 31 strings fit on a page
+        assertEquals(3, cf.numPages(0));
+        assertEquals(97, cf.numPages(1));
+        assertEquals(3, cf.numPages(2));
+        assertEquals(1, cf.numPages(ColumnPageId.ROWS));
+        assertEquals(104, cf.numPages());
+    }
+
+    @Test public void scanAllColumns() throws Exception {
+        // reopening reads the row count back from the row bitmap
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        cf.close();
+        ColumnFile reopened = new ColumnFile(file, TD);
+        assertEquals(ROWS, reopened.cachedRowCount());
+
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> tuples = scan(tid, null);
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS, tuples.size());
+        for (int i = 0; i < ROWS; i += 97) {
+            assertEquals(i + " name" + i + " " + (i % 10), tuples.get(i).toString());
+        }
+    }
+
+    @Test public void scanOneColumnReadsOnlyItsPages() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> tuples = scan(tid, new int[] { 2 });
+        assertEquals(ROWS, tuples.size());
+        assertEquals(7, ((IntField)tuples.get(17).getField(2)).getValue());
+        assertNull(tuples.get(17).getField(1));
+
+        BufferPool bp = Database.getBufferPool();
+        assertTrue(bp.holdsLock(tid, new ColumnPageId(cf.getId(), 2, 0)));
+        assertTrue(bp.holdsLock(tid, new ColumnPageId(cf.getId(), ColumnPageId.ROWS, 0)));
+        assertFalse(bp.holdsLock(tid, new ColumnPageId(cf.getId(), 0, 0)));
+        assertFalse(bp.holdsLock(tid, new ColumnPageId(cf.getId(), 1, 0)));
+        bp.transactionComplete(tid);
+    }
+
+    @Test public void deleteTuple() throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> tuples = scan(tid, new int[] { 0 });
+        Database.getBufferPool().deleteTuple(tid, tuples.get(5));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        tuples = scan(tid, new int[] { 0 });
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS - 1, tuples.size());
+        assertEquals(6, ((IntField)tuples.get(5).getField(0)).getValue());
+    }
+
+    @Test public void plannerPassesNeededColumns() throws Exception {
+        TableStats stats = new TableStats(cf.getId(), 1);
+        HashMap<String, TableStats> statsMap = new HashMap<String, TableStats>();
+        statsMap.put(name, stats);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(cf.getId(), "t");
+        lp.addProjectField("t.score", "SUM");
+        lp.addAggregate("SUM", "t.score", null);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, statsMap, false);
+        plan.open();
+        assertEquals(ROWS / 10 * 45, ((IntField)plan.next().getField(0)).getValue());
+        assertFalse(plan.hasNext());
+        plan.close();
+        assertFalse(Database.getBufferPool().holdsLock(tid, new ColumnPageId(cf.getId(), 1, 0)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void loadSchema() throws Exception {
+        File schema = File.createTempFile("schema", ".txt");
+        schema.deleteOnExit();
+        String table = TestUtil.uniqueTableName("c");
+        java.io.FileWriter w = new java.io.FileWriter(schema);
+        w.write(table + " (a int, b string) columnar\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        assertTrue(Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(table)) instanceof ColumnFile);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ColumnFileTest.class);
+    }
+}
@@ -0,0 +1,200 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class CompressedHeapFileTest extends SimpleDbTestBase {
+
+    private static final int TUPLES = 5000;
+
+    private File file;
+    private CompressedHeapFile cf;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = TestUtil.tempTableFile("compressed");
+        cf = new CompressedHeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(cf, SystemTestUtil.getUUID());
+    }
+
+    private int insertAll(TransactionId tid) throws Exception {
+        for (int i = 0; i < TUPLES; i++) {
+            Database.getBufferPool().insertTuple(tid, cf.getId(), Utility.getHeapTuple(new int[] { i, i % 7 }));
+        }
+        return TUPLES;
+    }
+
+    private ArrayList<Integer> scan() throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<Integer> values = new ArrayList<Integer>();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            values.add(((IntField)it.next().getField(0)).getValue());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return values;
+    }
+
+    @Test public void roundTrip() throws Exception {
+        TransactionId tid = new TransactionId();
+        insertAll(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+
+        int pages = cf.numPages();
+        assertTrue(pages > 1);
+        // the pages take much less room than they would uncompressed
+        assertTrue(file.length() < (long)pages * BufferPool.getPageSize() / 2);
+
+        // a new file over the same data rebuilds its offsets from disk
+        cf.close();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        CompressedHeapFile reopened = new CompressedHeapFile(file, Utility.getTupleDesc(2));
+        assertEquals(pages, reopened.numPages());
+        ArrayList<Integer> values = scan();
+        assertEquals(TUPLES, values.size());
+        for (int i = 0; i < TUPLES; i++) {
+            assertEquals(i, values.get(i).intValue());
+        }
+    }
+
+    @Test public void pagesGrowPastTheirExtent() throws Exception {
+        // an empty page compresses to a few bytes, so filling it must move it
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, cf.getId(), Utility.getHeapTuple(new int[] { 1, 1 }));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        long small = file.length();
+
+        tid = new TransactionId();
+        insertAll(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        assertTrue(file.length() > small);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        cf.close();
+        assertEquals(TUPLES + 1, scan().size());
+    }
+
+    /** a page of the test table holding the specified number of tuples */
+    private HeapPage page(CompressedHeapFile f, int pageNo, int tuples) throws Exception {
+        HeapPage p = new HeapPage(new HeapPageId(f.getId(), pageNo), HeapPage.createEmptyPageData());
+        for (int i = 0; i < tuples; i++) {
+            p.insertTuple(Utility.getHeapTuple(new int[] { i * 7919, i }));
+        }
+        return p;
+    }
+
+    @Test public void freedExtentsAreReused() throws Exception {
+        cf.writePage(page(cf, 0, 0));
+        cf.writePage(page(cf, 0, 400));
+        long length = file.length();
+
+        // page 1 is as small as page 0 was, so it takes the extent page 0 left
+        cf.writePage(page(cf, 1, 0));
+        assertEquals(length, file.length());
+
+        cf.close();
+        CompressedHeapFile reopened = new CompressedHeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        assertEquals(2, reopened.numPages());
+        assertEquals(504 - 400, ((HeapPage)reopened.readPage(new HeapPageId(reopened.getId(), 0))).getNumEmptySlots());
+        assertEquals(504, ((HeapPage)reopened.readPage(new HeapPageId(reopened.getId(), 1))).getNumEmptySlots());
+    }
+
+    @Test public void failedWriteKeepsOldExtent() throws Exception {
+        class FailingFile extends CompressedHeapFile {
+            boolean failing;
+
+            FailingFile() {
+                super(file, Utility.getTupleDesc(2));
+            }
+
+            FileChannel getChannel() throws IOException {
+                if (failing) {
+                    throw new IOException("disk full");
+                }
+                return super.getChannel();
+            }
+        }
+        FailingFile ff = new FailingFile();
+        Database.getCatalog().addTable(ff, SystemTestUtil.getUUID());
+        ff.writePage(page(ff, 0, 10));
+
+        ff.failing = true;
+        try {
+            ff.writePage(page(ff, 0, 400));
+            fail("the write should fail");
+        } catch (IOException expected) {
+        }
+        ff.failing = false;
+        assertEquals(504 - 10, ((HeapPage)ff.readPage(new HeapPageId(ff.getId(), 0))).getNumEmptySlots());
+        assertEquals(1, ff.numPages());
+    }
+
+    @Test public void deleteTuple() throws Exception {
+        TransactionId tid = new TransactionId();
+        insertAll(tid);
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        DbFileIterator it = cf.iterator(tid);
+        it.open();
+        Tuple victim = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, victim);
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        ArrayList<Integer> values = scan();
+        assertEquals(TUPLES - 1, values.size());
+        assertFalse(values.contains(0));
+    }
+
+    @Test public void loadSchema() throws Exception {
+        File schema = File.createTempFile("schema", ".txt");
+        schema.deleteOnExit();
+        String name = TestUtil.uniqueTableName("c");
+        FileWriter w = new FileWriter(schema);
+        w.write(name + " (a int, b int) compressed(huffman, 1)\n");
+        w.close();
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+
+        DbFile f = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(name));
+        assertTrue(f instanceof CompressedHeapFile);
+        assertEquals(CompressedHeapFile.Algorithm.HUFFMAN, ((CompressedHeapFile)f).getAlgorithm());
+        assertEquals(1, ((CompressedHeapFile)f).getLevel());
+    }
+
+    @Test(expected=IllegalArgumentException.class)
+    public void badLevel() {
+        new CompressedHeapFile(file, Utility.getTupleDesc(2), CompressedHeapFile.Algorithm.DEFLATE, 10);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(CompressedHeapFileTest.class);
+    }
+}
@@ -0,0 +1,210 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class DictionaryPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+            new String[] { "id", "country" });
+
+    private static final String[] COUNTRIES = { "France", "Japan", "Peru", "Kenya" };
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int id, String country) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(country, Type.STRING_LEN));
+        return t;
+    }
+
+    private static ArrayList<String> contents(DictionaryPage page) {
+        ArrayList<String> values = new ArrayList<String>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            values.add(((IntField)t.getField(0)).getValue() + ":" + t.getField(1));
+        }
+        return values;
+    }
+
+    @Test public void emptyPage() throws Exception {
+        DictionaryPage page = new DictionaryPage(pid, DictionaryPage.createEmptyPageData());
+        assertEquals(0, page.getNumTuples());
+        assertEquals(0, page.getDictionary().size());
+        assertFalse(page.iterator().hasNext());
+        assertEquals(BufferPool.getPageSize() - DictionaryPage.HEADER_SIZE, page.getFreeSpace());
+    }
+
+    @Test public void lowCardinalityStringsShareCodes() throws Exception {
+        DictionaryPage page = new DictionaryPage(pid, DictionaryPage.createEmptyPageData());
+        int count = 0;
+        while (page.canHold(tuple(count, COUNTRIES[count % COUNTRIES.length]))) {
+            page.insertTuple(tuple(count, COUNTRIES[count % COUNTRIES.length]));
+            count++;
+        }
+        // a HeapPage holds 30 of these tuples
+        assertTrue(count > 500);
+        assertEquals(COUNTRIES.length, page.getDictionary().size());
+
+        // decoded fields share the dictionary's strings
+        Iterator<Tuple> it = new DictionaryPage(pid, page.getPageData()).iterator();
+        CodedStringField a = (CodedStringField)it.next().getField(1);
+        it.next();
+        it.next();
+        it.next();
+        CodedStringField b = (CodedStringField)it.next().getField(1);
+        assertSame(a.getValue(), b.getValue());
+        assertEquals(a.getCode(), b.getCode());
+        assertEquals(a, b);
+    }
+
+    @Test public void roundTrip() throws Exception {
+        DictionaryPage page = new DictionaryPage(pid, DictionaryPage.createEmptyPageData());
+        page.insertTuple(tuple(1, "Peru"));
+        page.insertTuple(tuple(2, ""));
+        page.insertTuple(tuple(3, "Peru"));
+
+        DictionaryPage copy = new DictionaryPage(pid, page.getPageData());
+        assertEquals(contents(page), contents(copy));
+        assertEquals("[1:Peru, 2:, 3:Peru]", contents(copy).toString());
+        assertEquals(2, copy.getDictionary().size());
+    }
+
+    @Test public void deleteAndReuseEntries() throws Exception {
+        DictionaryPage page = new DictionaryPage(pid, DictionaryPage.createEmptyPageData());
+        Tuple a = tuple(1, "France");
+        Tuple b = tuple(2, "Japan");
+        page.insertTuple(a);
+        page.insertTuple(b);
+
+        // the entry for Japan outlives its last record, keeping codes stable
+        page.deleteTuple(b);
+        assertEquals(2, page.getDictionary().size());
+        Tuple c = tuple(3, "Japan");
+        page.insertTuple(c);
+        assertEquals(1, c.getRecordId().getTupleNumber());
+        assertEquals(2, page.getDictionary().size());
+        assertEquals("[1:France, 3:Japan]", contents(page).toString());
+
+        // an emptied page goes back to all zeroes
+        page.deleteTuple(a);
+        page.deleteTuple(c);
+        assertEquals(0, page.getNumTuples());
+        assertArrayEquals(DictionaryPage.createEmptyPageData(), page.getPageData());
+    }
+
+    @Test public void unusedEntriesAreDroppedForRoom() throws Exception {
+        DictionaryPage page = new DictionaryPage(pid, DictionaryPage.createEmptyPageData());
+        // fill the page with distinct strings, then delete every other tuple
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        int count = 0;
+        while (page.canHold(tuple(count, "value number " + count))) {
+            Tuple t = tuple(count, "value number " + count);
+            page.insertTuple(t);
+            inserted.add(t);
+            count++;
+        }
+        for (int i = 0; i < inserted.size(); i += 2) {
+            page.deleteTuple(inserted.get(i));
+        }
+        assertEquals(count, page.getDictionary().size());
+
+        Tuple t = tuple(-1, "a brand new value that needs room");
+        assertTrue(page.canHold(t));
+        page.insertTuple(t);
+        assertEquals(count / 2 + 1, page.getDictionary().size());
+
+        DictionaryPage copy = new DictionaryPage(pid, page.getPageData());
+        assertEquals(contents(page), contents(copy));
+        assertEquals(count / 2 + 1, copy.getNumTuples());
+    }
+
+    @Test(expected=DbException.class)
+    public void deleteMissing() throws Exception {
+        DictionaryPage page = new DictionaryPage(pid, DictionaryPage.createEmptyPageData());
+        Tuple t = tuple(1, "x");
+        page.insertTuple(t);
+        page.deleteTuple(t);
+        page.deleteTuple(t);
+    }
+
+    @Test public void predicateComparesCodes() throws Exception {
+        DictionaryPage page = new DictionaryPage(pid, DictionaryPage.createEmptyPageData());
+        for (int i = 0; i < 8; i++) {
+            page.insertTuple(tuple(i, COUNTRIES[i % COUNTRIES.length]));
+        }
+        Predicate eq = new Predicate(1, Predicate.Op.EQUALS, new StringField("Peru", Type.STRING_LEN));
+        Predicate ne = new Predicate(1, Predicate.Op.NOT_EQUALS, new StringField("Peru", Type.STRING_LEN));
+        Predicate missing = new Predicate(1, Predicate.Op.EQUALS, new StringField("Chad", Type.STRING_LEN));
+        int matches = 0, others = 0;
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            if (eq.filter(t)) matches++;
+            if (ne.filter(t)) others++;
+            assertFalse(missing.filter(t));
+        }
+        assertEquals(2, matches);
+        assertEquals(6, others);
+    }
+
+    @Test public void fileScanAndGroup() throws Exception {
+        File f = File.createTempFile("dictionary", ".dat");
+        f.deleteOnExit();
+        DictionaryHeapFile df = new DictionaryHeapFile(f, TD);
+        Database.getCatalog().addTable(df, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2000; i++) {
+            Database.getBufferPool().insertTuple(tid, df.getId(), tuple(i, COUNTRIES[i % COUNTRIES.length]));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+
+        // the same tuples take 67 pages as a HeapFile
+        assertTrue(df.numPages() <= 4);
+
+        tid = new TransactionId();
+        Aggregate agg = new Aggregate(new SeqScan(tid, df.getId()), 0, 1, Aggregator.Op.COUNT);
+        agg.open();
+        int groups = 0;
+        while (agg.hasNext()) {
+            Tuple t = agg.next();
+            assertEquals(500, ((IntField)t.getField(1)).getValue());
+            groups++;
+        }
+        agg.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(COUNTRIES.length, groups);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DictionaryPageTest.class);
+    }
+}
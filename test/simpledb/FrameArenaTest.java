@@ -0,0 +1,109 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class FrameArenaTest extends SimpleDbTestBase {
+    private static final int POOL = 4;
+    private static final int TABLE_PAGES = 10;
+
+    private HeapFile hf;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private BufferPool bp;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        hf = SystemTestUtil.createRandomHeapFile(2, 504 * TABLE_PAGES, null, tuples);
+        bp = Database.resetBufferPool(POOL, BufferPool.DEFAULT_POLICY, true);
+    }
+
+    @Test public void allocateAndRelease() {
+        FrameArena arena = new FrameArena(3, 16);
+        int a = arena.allocate();
+        int b = arena.allocate();
+        int c = arena.allocate();
+        assertEquals(-1, arena.allocate());
+        assertEquals(0, arena.getFreeFrames());
+
+        arena.frame(a).put(0, (byte)1);
+        arena.frame(b).put(0, (byte)2);
+        assertEquals(16, arena.frame(c).remaining());
+        assertTrue(arena.frame(c).isDirect());
+        assertEquals(1, arena.frame(a).get(0));
+
+        arena.release(b);
+        assertEquals(b, arena.allocate());
+    }
+
+    @Test public void scanLargerThanPool() throws Exception {
+        SystemTestUtil.matchTuples(hf, tuples);
+        // the scan read through a ring, whose pages left the pool with it
+        assertEquals(POOL, bp.getFreeFrames());
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < TABLE_PAGES; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+        assertEquals(0, bp.getFreeFrames());
+        assertEquals(-1, Database.resetBufferPool(POOL).getFreeFrames());
+    }
+
+    @Test public void evictedPageStaysReadable() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage first = (HeapPage)bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+        // evict the first page and reuse its frame for later ones
+        for (int i = 1; i < TABLE_PAGES; i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        }
+        bp.transactionComplete(tid);
+        // releasing the frame copied the bytes without decoding any tuple
+        assertEquals(-1, first.getFrame());
+        assertNull(first.tuples[0]);
+
+        int count = 0;
+        Iterator<Tuple> it = first.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(tuples.get(count).get(0).intValue(), ((IntField)t.getField(0)).getValue());
+            count++;
+        }
+        assertEquals(504, count);
+    }
+
+    @Test public void insertAndDelete() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage p = (HeapPage)bp.getPage(tid, pid, Permissions.READ_WRITE);
+        Tuple victim = p.iterator().next();
+        bp.deleteTuple(tid, victim);
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(7, 2));
+
+        Tuple reused = p.iterator().next();
+        assertEquals(7, ((IntField)reused.getField(0)).getValue());
+        // the frame still holds the page as it was read
+        Tuple before = p.getBeforeImage().iterator().next();
+        assertEquals(victim.toString(), before.toString());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FrameArenaTest.class);
+    }
+}
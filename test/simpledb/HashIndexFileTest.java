@@ -0,0 +1,251 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class HashIndexFileTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 2000;
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+            new String[] { "id", "value" });
+
+    private File file;
+    private HeapFile hf;
+    private String name;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // small pages make the buckets split often
+        BufferPool.setPageSize(256);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        file = TestUtil.tempTableFile("hash");
+        hf = new HeapFile(file, TD);
+        name = TestUtil.uniqueTableName("hash");
+        Database.getCatalog().addTable(hf, name, "id");
+    }
+
+    @After public void tearDown() {
+        BufferPool.resetPageSize();
+    }
+
+    private HashIndexFile createIndex() throws Exception {
+        HashIndexFile index = Database.getCatalog().createHashIndex(name);
+        index.getFile().deleteOnExit();
+        return index;
+    }
+
+    /** inserts the ids 0 to ROWS - 1 in random order */
+    private void insertRows() throws Exception {
+        ArrayList<Tuple> rows = new ArrayList<Tuple>();
+        for (int i = 0; i < ROWS; i++) {
+            rows.add(TestUtil.intTuple(TD, i, -i));
+        }
+        TestUtil.insertShuffled(hf.getId(), rows, 7);
+    }
+
+    private ArrayList<Tuple> lookup(HashIndexFile index, int key) throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> tuples = TestUtil.drain(new IndexScan(tid, index,
+                new IndexPredicate(Predicate.Op.EQUALS, new IntField(key)), "t"));
+        Database.getBufferPool().transactionComplete(tid);
+        return tuples;
+    }
+
+    private int countEntries(HashIndexFile index) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = index.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            it.next();
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    private int globalDepth(HashIndexFile index) throws Exception {
+        TransactionId tid = new TransactionId();
+        HashDirectoryPage root = (HashDirectoryPage)Database.getBufferPool().getPage(tid,
+                new HashPageId(index.getId(), 0, HashPageId.DIRECTORY), Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(tid);
+        return root.get(0);
+    }
+
+    @Test public void insertsSplitBucketsAndDoubleDirectory() throws Exception {
+        HashIndexFile index = createIndex();
+        assertEquals(0, globalDepth(index));
+        insertRows();
+        int perBucket = HashBucketPage.maxEntries(index.getTupleDesc());
+        assertTrue(1 << globalDepth(index) >= ROWS / perBucket);
+        assertEquals(ROWS, countEntries(index));
+        for (int id = 0; id < ROWS; id += 37) {
+            ArrayList<Tuple> found = lookup(index, id);
+            assertEquals(1, found.size());
+            assertEquals(new IntField(-id), found.get(0).getField(1));
+        }
+        assertEquals(0, lookup(index, ROWS).size());
+
+        // the index survives being written out and read back
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        assertEquals(ROWS, countEntries(index));
+        assertEquals(1, lookup(index, ROWS - 1).size());
+    }
+
+    @Test public void equalKeysOverflow() throws Exception {
+        HashIndexFile index = createIndex();
+        int copies = 3 * HashBucketPage.maxEntries(index.getTupleDesc());
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < copies; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), TestUtil.intTuple(TD, 5, i));
+        }
+        Database.getBufferPool().insertTuple(tid, hf.getId(), TestUtil.intTuple(TD, 6, 0));
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(copies, lookup(index, 5).size());
+        assertEquals(1, lookup(index, 6).size());
+        // keys that hash alike are chained rather than split without end
+        assertTrue(globalDepth(index) < HashIndexFile.maxDepth());
+    }
+
+    @Test public void batchInsertsMaintainIndex() throws Exception {
+        HashIndexFile index = createIndex();
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        for (int id = 0; id < ROWS; id++) {
+            batch.add(TestUtil.intTuple(TD, id, -id));
+        }
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuples(tid, hf.getId(), batch);
+        Database.getBufferPool().transactionComplete(tid);
+
+        // buckets split within the batch are found by later entries
+        assertTrue(globalDepth(index) > 0);
+        assertEquals(ROWS, countEntries(index));
+        assertEquals(1, lookup(index, ROWS / 3).size());
+        assertEquals(0, lookup(index, ROWS).size());
+    }
+
+    @Test public void deletesRemoveEntries() throws Exception {
+        HashIndexFile index = createIndex();
+        insertRows();
+        TransactionId tid = new TransactionId();
+        for (Tuple t : TestUtil.drain(new SeqScan(tid, hf.getId(), "t"))) {
+            if (((IntField)t.getField(0)).getValue() % 2 == 0) {
+                Database.getBufferPool().deleteTuple(tid, t);
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(ROWS / 2, countEntries(index));
+        assertEquals(0, lookup(index, 10).size());
+        assertEquals(1, lookup(index, 11).size());
+    }
+
+    @Test public void createHashIndexLoadsExistingRows() throws Exception {
+        insertRows();
+        Database.getBufferPool().flushAllPages();
+        HashIndexFile index = createIndex();
+        assertSame(index, createIndex());
+        assertEquals(ROWS, countEntries(index));
+        assertEquals(1, lookup(index, 1234).size());
+
+        // the loaded index keeps splitting as rows are added
+        TransactionId tid = new TransactionId();
+        for (int id = ROWS; id < 2 * ROWS; id++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), TestUtil.intTuple(TD, id, -id));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(2 * ROWS, countEntries(index));
+        assertEquals(1, lookup(index, 2 * ROWS - 1).size());
+
+        File noKey = File.createTempFile("nopk", ".dat");
+        noKey.deleteOnExit();
+        Database.getCatalog().addTable(new HeapFile(noKey, TD), "nopk");
+        try {
+            Database.getCatalog().createHashIndex("nopk");
+            fail("a table without a primary key has no hash index");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    private static OpIterator leaf(OpIterator plan) {
+        while (plan instanceof Operator) {
+            plan = ((Operator)plan).getChildren()[0];
+        }
+        return plan;
+    }
+
+    @Test public void plannerUsesIndexForKeyEquality() throws Exception {
+        createIndex();
+        insertRows();
+        Database.getBufferPool().flushAllPages();
+        HashMap<String, TableStats> statsMap = new HashMap<String, TableStats>();
+        statsMap.put(name, new TableStats(hf.getId(), 1));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.id", Predicate.Op.EQUALS, "1500");
+        lp.addProjectField("t.value", null);
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, statsMap, false);
+        assertTrue(leaf(plan) instanceof IndexScan);
+        ArrayList<Tuple> result = TestUtil.drain(plan);
+        assertEquals(1, result.size());
+        assertEquals(new IntField(-1500), result.get(0).getField(0));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // a hash index cannot answer a range
+        lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.id", Predicate.Op.LESS_THAN, "3");
+        lp.addProjectField("t.value", null);
+        tid = new TransactionId();
+        plan = lp.physicalPlan(tid, statsMap, false);
+        assertTrue(leaf(plan) instanceof SeqScan);
+        assertEquals(3, TestUtil.drain(plan).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void schemaAnnotatesHashedKey() throws Exception {
+        File dir = file.getParentFile();
+        String table = TestUtil.uniqueTableName("hashed");
+        File schema = new File(dir, table + ".schema");
+        schema.deleteOnExit();
+        new File(dir, table + ".dat").deleteOnExit();
+        new File(dir, table + ".dat.id.hash").deleteOnExit();
+        FileWriter w = new FileWriter(schema);
+        w.write(table + " (id int hash, value int)\n");
+        w.close();
+
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId(table);
+        assertEquals("id", Database.getCatalog().getPrimaryKey(tableId));
+        assertEquals(1, Database.getCatalog().getIndexes(tableId).size());
+        assertTrue(Database.getCatalog().getIndexes(tableId).get(0) instanceof HashIndexFile);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HashIndexFileTest.class);
+    }
+}
@@ -77,6 +77,70 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() in memory-mapped mode
+     */
+    @Test
+    public void readPageMapped() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+
+        assertTrue(mapped.isMemoryMapped());
+        assertArrayEquals(hf.readPage(pid).getPageData(), page.getPageData());
+        mapped.close();
+    }
+
+    /**
+     * A page read from a mapping copies nothing until it is written back,
+     * and then keeps the mapped bytes as its before image.
+     */
+    @Test
+    public void mappedPageTakesBeforeImageOnWrite() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage page = (HeapPage) mapped.readPage(pid);
+        assertNull(page.oldData);
+
+        byte[] before = page.getPageData();
+        page.deleteTuple(page.iterator().next());
+        mapped.writePage(page);
+        assertArrayEquals(before, page.getBeforeImage().getPageData());
+        assertArrayEquals(page.getPageData(), mapped.readPage(pid).getPageData());
+        mapped.close();
+    }
+
+    /**
+     * A memory-mapped file remaps itself after insertTuple grows the file.
+     */
+    @Test
+    public void readPageMappedAfterGrowth() throws Exception {
+        HeapFile mapped = new HeapFile(hf.getFile(), td, true);
+        Database.getCatalog().addTable(mapped, SystemTestUtil.getUUID());
+        HeapPageId pid = new HeapPageId(hf.getId(), 1);
+        assertNull(mapped.readPage(pid));
+
+        for (int i = 0; i < 485; ++i) {
+            mapped.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, mapped.numPages());
+        assertNotNull(mapped.readPage(pid));
+        mapped.close();
+    }
+
+    /**
+     * Unit test for HeapFile.close(): the file reopens its channel on the
+     * next access.
+     */
+    @Test
+    public void readPageAfterClose() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        hf.readPage(pid);
+        hf.close();
+        HeapPage page = (HeapPage) hf.readPage(pid);
+        assertEquals(484, page.getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
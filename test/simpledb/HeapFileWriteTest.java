@@ -1,5 +1,11 @@
 package simpledb;
 
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -43,6 +49,196 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Inserts skip full pages and reuse slots freed by deleteTuple.
+     */
+    @Test public void insertReusesFreedSlot() throws Exception {
+        Tuple first = Utility.getHeapTuple(0, 2);
+        empty.insertTuple(tid, first);
+        for (int i = 1; i < 504 * 2; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, empty.numPages());
+
+        empty.deleteTuple(tid, first);
+        Tuple t = Utility.getHeapTuple(42, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(2, empty.numPages());
+    }
+
+    /**
+     * A delete stays in the buffer pool until its transaction commits, so
+     * aborting it brings the tuple back.
+     */
+    @Test public void abortUndoesDelete() throws Exception {
+        Tuple t = Utility.getHeapTuple(7, 2);
+        Database.getBufferPool().insertTuple(tid, empty.getId(), t);
+        Database.getBufferPool().flushPages(tid);
+        Database.getBufferPool().transactionComplete(tid);
+
+        TransactionId aborted = new TransactionId();
+        HeapPageId pid = new HeapPageId(empty.getId(), 0);
+        Database.getBufferPool().deleteTuple(aborted, t);
+        assertEquals(503, ((HeapPage)empty.readPage(pid)).getNumEmptySlots());
+        Database.getBufferPool().transactionComplete(aborted, false);
+
+        TransactionId reader = new TransactionId();
+        HeapPage p = (HeapPage)Database.getBufferPool().getPage(reader, pid, Permissions.READ_ONLY);
+        assertEquals(503, p.getNumEmptySlots());
+        Database.getBufferPool().transactionComplete(reader);
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuples(): a batch fills each page before
+     * moving on, and returns each page once.
+     */
+    @Test public void insertTuplesFillsPages() throws Exception {
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 * 2 + 10; ++i) {
+            batch.add(Utility.getHeapTuple(i, 2));
+        }
+        ArrayList<Page> pages = empty.insertTuples(tid, batch);
+        assertEquals(3, empty.numPages());
+        assertEquals(3, pages.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(i, pages.get(i).getId().getPageNumber());
+        }
+        assertEquals(0, ((HeapPage)pages.get(1)).getNumEmptySlots());
+        assertEquals(504 - 10, ((HeapPage)pages.get(2)).getNumEmptySlots());
+        assertEquals(new RecordId(new HeapPageId(empty.getId(), 1), 3), batch.get(504 + 3).getRecordId());
+
+        // a freed slot is taken first, then the last page is topped up
+        empty.deleteTuple(tid, batch.get(7));
+        Tuple[] more = { Utility.getHeapTuple(1, 2), Utility.getHeapTuple(2, 2) };
+        pages = empty.insertTuples(tid, Arrays.asList(more));
+        assertEquals(2, pages.size());
+        assertEquals(new RecordId(new HeapPageId(empty.getId(), 0), 7), more[0].getRecordId());
+        assertEquals(new RecordId(new HeapPageId(empty.getId(), 2), 10), more[1].getRecordId());
+        assertEquals(3, empty.numPages());
+    }
+
+    /**
+     * Pages filled by an aborted transaction are offered to inserts again.
+     */
+    @Test public void abortRestoresFreeSpace() throws Exception {
+        TransactionId aborted = new TransactionId();
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        for (int i = 0; i < 504 * 2 + 10; ++i) {
+            batch.add(Utility.getHeapTuple(i, 2));
+        }
+        Database.getBufferPool().insertTuples(aborted, empty.getId(), batch);
+        assertEquals(3, empty.numPages());
+        Database.getBufferPool().transactionComplete(aborted, false);
+
+        Tuple t = Utility.getHeapTuple(42, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(new RecordId(new HeapPageId(empty.getId(), 0), 0), t.getRecordId());
+        assertEquals(3, empty.numPages());
+    }
+
+    /**
+     * Pages the file grows by outside of inserts are offered to inserts.
+     */
+    @Test public void insertUsesPagesWrittenLater() throws Exception {
+        for (int i = 0; i < 504; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        HeapPage p = new HeapPage(new HeapPageId(empty.getId(), 1), HeapPage.createEmptyPageData());
+        empty.writePages(new ArrayList<Page>(Arrays.asList(p)));
+
+        Tuple t = Utility.getHeapTuple(42, 2);
+        empty.insertTuple(tid, t);
+        assertEquals(1, t.getRecordId().getPageId().getPageNumber());
+        assertEquals(2, empty.numPages());
+    }
+
+    /**
+     * The cached page count follows writes without looking at the file, and
+     * numPages() picks up pages appended to the file by other writers.
+     */
+    @Test public void cachedPageCount() throws Exception {
+        assertEquals(1, empty.cachedNumPages());
+        HeapPage p = new HeapPage(new HeapPageId(empty.getId(), 3), HeapPage.createEmptyPageData());
+        empty.writePage(p);
+        assertEquals(4, empty.cachedNumPages());
+
+        RandomAccessFile raf = new RandomAccessFile(empty.getFile(), "rw");
+        raf.setLength(6L * BufferPool.getPageSize());
+        raf.close();
+        assertEquals(4, empty.cachedNumPages());
+        assertEquals(6, empty.numPages());
+        assertEquals(6, empty.cachedNumPages());
+    }
+
+    /**
+     * Concurrent appends each get a page of their own, and every appended
+     * page is on disk and counted.
+     */
+    @Test public void concurrentAppends() throws Exception {
+        final int threads = 8;
+        final int appends = 25;
+        final Set<Integer> pageNos = new HashSet<Integer>();
+        final ArrayList<Exception> errors = new ArrayList<Exception>();
+        Thread[] appenders = new Thread[threads];
+        for (int i = 0; i < threads; i++) {
+            appenders[i] = new Thread() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < appends; j++) {
+                            int pageNo = empty.appendEmptyPage();
+                            synchronized (pageNos) {
+                                pageNos.add(pageNo);
+                            }
+                        }
+                    } catch (Exception e) {
+                        synchronized (errors) {
+                            errors.add(e);
+                        }
+                    }
+                }
+            };
+            appenders[i].start();
+        }
+        for (Thread t : appenders) {
+            t.join();
+        }
+
+        assertTrue(errors.isEmpty());
+        int total = 1 + threads * appends;
+        assertEquals(threads * appends, pageNos.size());
+        assertFalse(pageNos.contains(0));
+        assertEquals(total, empty.cachedNumPages());
+        assertEquals((long)total * BufferPool.getPageSize(), empty.getFile().length());
+        assertEquals(total, empty.numPages());
+    }
+
+    /**
+     * Unit test for HeapFile.writePages() with pages out of order and gaps
+     * between runs of adjacent pages.
+     */
+    @Test public void writePages() throws Exception {
+        ArrayList<Page> pages = new ArrayList<Page>();
+        for (int pageNo : new int[] { 3, 0, 1, 5, 4 }) {
+            HeapPage p = new HeapPage(new HeapPageId(empty.getId(), pageNo),
+                    HeapPage.createEmptyPageData());
+            for (int i = 0; i <= pageNo; i++) {
+                p.insertTuple(Utility.getHeapTuple(i, 2));
+            }
+            pages.add(p);
+        }
+        empty.writePages(pages);
+
+        assertEquals(6, empty.numPages());
+        for (int pageNo : new int[] { 0, 1, 3, 4, 5 }) {
+            HeapPage p = (HeapPage)empty.readPage(new HeapPageId(empty.getId(), pageNo));
+            assertEquals(504 - (pageNo + 1), p.getNumEmptySlots());
+        }
+        // the gap was left empty
+        HeapPage gap = (HeapPage)empty.readPage(new HeapPageId(empty.getId(), 2));
+        assertEquals(504, gap.getNumEmptySlots());
+    }
+
     /**
      * JUnit suite target
      */
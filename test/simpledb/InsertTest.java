@@ -4,6 +4,7 @@ import org.junit.Before;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -56,6 +57,23 @@ public class InsertTest extends TestUtil.CreateHeapFile {
     assertEquals(1, empty.numPages());
   }
 
+  /**
+   * Unit test for Insert.getNext() with batches smaller than the input
+   */
+  @Test public void getNextInBatches() throws Exception {
+    Insert op = new Insert(tid, scan1, empty.getId(), 3);
+    op.open();
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(7, 1), op.next()));
+    assertFalse(op.hasNext());
+    op.close();
+
+    // the tuples were stored in the order they were read
+    SeqScan stored = new SeqScan(tid, empty.getId(), "");
+    scan1.open();
+    stored.open();
+    TestUtil.compareDbIterators(scan1, stored);
+  }
+
   /**
    * JUnit suite target
    */
@@ -376,6 +376,42 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
                 && (result.get(0).t1Alias == "hobbies" || result.get(0).t2Alias == "hobbies"));
     }
 
+    /**
+     * Equality joins are instantiated as hash joins over scans whose field
+     * names carry the table alias; other joins stay nested-loops joins.
+     */
+    @Test
+    public void instantiateJoinTest() throws ParsingException {
+        TransactionId tid = new TransactionId();
+        SeqScan s1 = new SeqScan(tid, tableId1, "t1");
+        SeqScan s2 = new SeqScan(tid, tableId2, "t2");
+        Assert.assertEquals("t1.c0", s1.getTupleDesc().getFieldName(0));
+        Assert.assertEquals("t2.c3", s2.getTupleDesc().getFieldName(3));
+
+        OpIterator eq = JoinOptimizer.instantiateJoin(new LogicalJoinNode("t1",
+                "t2", "c0", "c3", Predicate.Op.EQUALS), s1, s2);
+        Assert.assertTrue(eq instanceof HashEquiJoin);
+        OpIterator lt = JoinOptimizer.instantiateJoin(new LogicalJoinNode("t1",
+                "t2", "c0", "c3", Predicate.Op.LESS_THAN), s1, s2);
+        Assert.assertTrue(lt instanceof Join);
+    }
+
+    /**
+     * A query without joins has nothing to order.
+     */
+    @Test
+    public void orderNoJoins() throws ParsingException {
+        TransactionId tid = new TransactionId();
+        Parser p = new Parser();
+        JoinOptimizer j = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + tableName1 + " t1;"),
+                new Vector<LogicalJoinNode>());
+        Vector<LogicalJoinNode> result = j.orderJoins(
+                new HashMap<String, TableStats>(),
+                new HashMap<String, Double>(), false);
+        Assert.assertTrue(result.isEmpty());
+    }
+
     /**
      * Test a much-larger join ordering, to confirm that it executes in a
      * reasonable amount of time
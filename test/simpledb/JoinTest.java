@@ -105,6 +105,27 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for HashEquiJoin.rewind() in the middle of the matches of a
+   * key: the join starts over instead of finishing the old matches first
+   */
+  @Test public void hashEquiJoinRewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred,
+        TestUtil.createTupleList(1, new int[] { 1, 1, 2 }),
+        TestUtil.createTupleList(1, new int[] { 1, 2 }));
+    op.open();
+    assertNotNull(op.next());
+    op.rewind();
+
+    int count = 0;
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+      count++;
+    }
+    assertEquals(3, count);
+  }
+
   /**
    * JUnit suite target
    */
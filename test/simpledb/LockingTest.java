@@ -0,0 +1,272 @@
+package simpledb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.TestUtil.LockGrabber;
+import simpledb.TestUtil.SlowHeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class LockingTest extends SimpleDbTestBase {
+    private static final int TIMEOUT = 100;
+
+    private PageId p0, p1;
+    private TransactionId tid1, tid2;
+    private BufferPool bp;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        HeapFile hf = Utility.createEmptyHeapFile(
+                java.io.File.createTempFile("locking", ".dat").getAbsolutePath(), 2);
+        hf.getFile().deleteOnExit();
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        // create two pages to lock
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 505; ++i) {
+            bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, hf.numPages());
+        bp.flushAllPages();
+        bp.transactionComplete(tid);
+
+        p0 = new HeapPageId(hf.getId(), 0);
+        p1 = new HeapPageId(hf.getId(), 1);
+        tid1 = new TransactionId();
+        tid2 = new TransactionId();
+    }
+
+    @After public void tearDown() throws Exception {
+        bp.transactionComplete(tid1);
+        bp.transactionComplete(tid2);
+    }
+
+    /**
+     * Starts a LockGrabber for tid on pid, waits TIMEOUT ms and checks
+     * whether the lock was granted.
+     */
+    private LockGrabber grab(TransactionId tid, PageId pid, Permissions perm,
+            boolean expected) throws Exception {
+        LockGrabber t = new LockGrabber(tid, pid, perm);
+        t.start();
+        Thread.sleep(TIMEOUT);
+        assertEquals(expected, t.acquired());
+        assertNull(t.getError());
+        return t;
+    }
+
+    @Test public void acquireReadLocksOnSamePage() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        grab(tid2, p0, Permissions.READ_ONLY, true);
+        assertTrue(bp.holdsLock(tid1, p0));
+        assertTrue(bp.holdsLock(tid2, p0));
+    }
+
+    @Test public void acquireReadWriteLocksOnSamePage() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        grab(tid2, p0, Permissions.READ_WRITE, false);
+    }
+
+    @Test public void acquireWriteReadLocksOnSamePage() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        grab(tid2, p0, Permissions.READ_ONLY, false);
+    }
+
+    @Test public void acquireWriteLocksOnTwoPages() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        grab(tid2, p1, Permissions.READ_WRITE, true);
+    }
+
+    @Test public void lockCheckedOnCacheHit() throws Exception {
+        // p0 is cached by setUp, so this exercises the hit path
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        grab(tid2, p0, Permissions.READ_WRITE, false);
+    }
+
+    @Test public void releasePageWakesWaiter() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        LockGrabber t = grab(tid2, p0, Permissions.READ_WRITE, false);
+
+        bp.releasePage(tid1, p0);
+        t.join(TIMEOUT * 10);
+        assertTrue(t.acquired());
+        assertFalse(bp.holdsLock(tid1, p0));
+    }
+
+    @Test public void transactionCompleteWakesWaiters() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_WRITE);
+        LockGrabber t1 = grab(tid2, p0, Permissions.READ_ONLY, false);
+        TransactionId tid3 = new TransactionId();
+        LockGrabber t2 = grab(tid3, p0, Permissions.READ_ONLY, false);
+
+        bp.transactionComplete(tid1);
+        t1.join(TIMEOUT * 10);
+        t2.join(TIMEOUT * 10);
+        assertTrue(t1.acquired());
+        assertTrue(t2.acquired());
+        bp.transactionComplete(tid3);
+    }
+
+    @Test public void waitersAreServedInOrder() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        LockGrabber writer = grab(tid2, p0, Permissions.READ_WRITE, false);
+
+        // a reader arriving after a queued writer must not jump the queue
+        TransactionId tid3 = new TransactionId();
+        LockGrabber reader = grab(tid3, p0, Permissions.READ_ONLY, false);
+
+        bp.transactionComplete(tid1);
+        writer.join(TIMEOUT * 10);
+        assertTrue(writer.acquired());
+        assertFalse(reader.acquired());
+
+        bp.transactionComplete(tid2);
+        reader.join(TIMEOUT * 10);
+        assertTrue(reader.acquired());
+        bp.transactionComplete(tid3);
+    }
+
+    @Test public void upgradeLockInPlace() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.upgradeLock(tid1, p0);
+        grab(tid2, p0, Permissions.READ_ONLY, false);
+    }
+
+    @Test public void upgradeLockWaitsForReaders() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p0, Permissions.READ_ONLY);
+
+        Thread upgrader = new Thread() {
+            public void run() {
+                try {
+                    bp.upgradeLock(tid1, p0);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        upgrader.start();
+        Thread.sleep(TIMEOUT);
+        assertTrue(upgrader.isAlive());
+
+        bp.transactionComplete(tid2);
+        upgrader.join(TIMEOUT * 10);
+        assertFalse(upgrader.isAlive());
+        assertTrue(bp.holdsLock(tid1, p0));
+    }
+
+    @Test(expected = DbException.class)
+    public void upgradeLockWithoutLock() throws Exception {
+        bp.upgradeLock(tid1, p0);
+    }
+
+    @Test public void readWriteDeadlockAbortsYoungest() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p1, Permissions.READ_ONLY);
+
+        LockGrabber older = grab(tid1, p1, Permissions.READ_WRITE, false);
+        // closes the cycle; tid2 is younger and is aborted, releasing p1
+        LockGrabber younger = new LockGrabber(tid2, p0, Permissions.READ_WRITE);
+        younger.start();
+        younger.join(TIMEOUT * 10);
+        older.join(TIMEOUT * 10);
+
+        assertTrue(younger.getError() instanceof TransactionAbortedException);
+        assertFalse(younger.acquired());
+        assertTrue(older.acquired());
+        assertNull(older.getError());
+        assertEquals(1, bp.getDeadlockCount());
+    }
+
+    @Test public void upgradeDeadlockAbortsYoungest() throws Exception {
+        bp.getPage(tid1, p0, Permissions.READ_ONLY);
+        bp.getPage(tid2, p0, Permissions.READ_ONLY);
+
+        LockGrabber older = grab(tid1, p0, Permissions.READ_WRITE, false);
+        LockGrabber younger = new LockGrabber(tid2, p0, Permissions.READ_WRITE);
+        younger.start();
+        younger.join(TIMEOUT * 10);
+        older.join(TIMEOUT * 10);
+
+        assertTrue(younger.getError() instanceof TransactionAbortedException);
+        assertTrue(older.acquired());
+        assertEquals(1, bp.getDeadlockCount());
+    }
+
+    /**
+     * Counts the tuples of the test table that a scan by tid sees.
+     */
+    private int scanCount(TransactionId tid) throws Exception {
+        SeqScan scan = new SeqScan(tid, p0.getTableId(), "");
+        scan.open();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        return count;
+    }
+
+    /**
+     * A scan releases only the locks it took itself, so aborting still
+     * undoes an insert the transaction made before scanning.
+     */
+    @Test public void abortAfterScanUndoesInsert() throws Exception {
+        bp.insertTuple(tid1, p0.getTableId(), Utility.getHeapTuple(-1, 2));
+        assertEquals(506, scanCount(tid1));
+        assertFalse(bp.holdsLock(tid1, p0));
+        assertTrue(bp.holdsLock(tid1, p1));
+
+        bp.transactionComplete(tid1, false);
+        assertEquals(505, scanCount(tid2));
+    }
+
+    /**
+     * Aborting drops every page the transaction dirtied, including one it
+     * no longer holds a lock on.
+     */
+    @Test public void abortDropsReleasedDirtyPage() throws Exception {
+        bp.insertTuple(tid1, p0.getTableId(), Utility.getHeapTuple(-1, 2));
+        bp.releasePage(tid1, p1);
+
+        bp.transactionComplete(tid1, false);
+        assertEquals(505, scanCount(tid2));
+    }
+
+    @Test(timeout = TIMEOUT * 50)
+    public void diskReadDoesNotBlockCachedPages() throws Exception {
+        HeapFile hf = (HeapFile)Database.getCatalog().getDatabaseFile(p0.getTableId());
+        SlowHeapFile slow = new SlowHeapFile(hf, 1);
+        Database.getCatalog().addTable(slow, "slow");
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        Page cached = bp.getPage(tid1, p0, Permissions.READ_ONLY);
+
+        LockGrabber reader = new LockGrabber(tid2, p1, Permissions.READ_ONLY);
+        reader.start();
+        slow.reading.await();
+        // page 1 is being read; hits on page 0 must not wait for it
+        assertSame(cached, bp.getPage(tid1, p0, Permissions.READ_ONLY));
+        assertFalse(reader.acquired());
+
+        slow.proceed.countDown();
+        reader.join();
+        assertTrue(reader.acquired());
+        assertNull(reader.getError());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LockingTest.class);
+    }
+}
@@ -0,0 +1,74 @@
+package simpledb;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class LongHashMapTest {
+
+    @Test public void putGetRemove() {
+        LongHashMap<String> map = new LongHashMap<String>();
+        assertNull(map.put(HeapPageId.packKey(1, 0), "a"));
+        assertNull(map.put(HeapPageId.packKey(0, 1), "b"));
+        assertEquals("a", map.put(HeapPageId.packKey(1, 0), "c"));
+        assertEquals(2, map.size());
+
+        assertEquals("c", map.get(HeapPageId.packKey(1, 0)));
+        assertEquals("b", map.get(HeapPageId.packKey(0, 1)));
+        assertNull(map.get(HeapPageId.packKey(1, 1)));
+
+        assertFalse(map.remove(HeapPageId.packKey(0, 1), "x"));
+        assertTrue(map.remove(HeapPageId.packKey(0, 1), "b"));
+        assertEquals("c", map.remove(HeapPageId.packKey(1, 0)));
+        assertEquals(0, map.size());
+        assertFalse(map.values().hasNext());
+    }
+
+    @Test public void negativeKeysAreDistinct() {
+        LongHashMap<String> map = new LongHashMap<String>();
+        map.put(HeapPageId.packKey(-1, 5), "a");
+        map.put(HeapPageId.packKey(5, -1), "b");
+        assertEquals("a", map.get(new HeapPageId(-1, 5).getKey()));
+        assertEquals("b", map.get(new HeapPageId(5, -1).getKey()));
+    }
+
+    /**
+     * Random inserts and removals checked against a HashMap, which exercises
+     * growth and the backward shift on removal.
+     */
+    @Test public void matchesHashMap() {
+        LongHashMap<Long> map = new LongHashMap<Long>(4);
+        Map<Long, Long> expected = new HashMap<Long, Long>();
+        Random rand = new Random(339);
+        for (int i = 0; i < 20000; i++) {
+            long key = HeapPageId.packKey(rand.nextInt(4), rand.nextInt(500));
+            if (rand.nextInt(3) == 0) {
+                assertEquals(expected.remove(key), map.remove(key));
+            } else {
+                assertEquals(expected.put(key, (long)i), map.put(key, (long)i));
+            }
+        }
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Long> e : expected.entrySet()) {
+            assertEquals(e.getValue(), map.get(e.getKey()));
+        }
+        int n = 0;
+        for (Iterator<Long> it = map.values(); it.hasNext(); it.next()) {
+            n++;
+        }
+        assertEquals(expected.size(), n);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(LongHashMapTest.class);
+    }
+}
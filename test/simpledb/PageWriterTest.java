@@ -0,0 +1,117 @@
+package simpledb;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class PageWriterTest extends SimpleDbTestBase {
+    private static final int TIMEOUT = 500;
+
+    private HeapFile hf;
+    private BufferPool bp;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        hf = SystemTestUtil.createRandomHeapFile(2, 0, null, null);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    @After public void tearDown() {
+        bp.stopPageWriter();
+    }
+
+    private HeapPage insert(TransactionId tid) throws Exception {
+        bp.insertTuple(tid, hf.getId(), Utility.getHeapTuple(1, 2));
+        return (HeapPage)bp.getPage(tid, new HeapPageId(hf.getId(), 0), Permissions.READ_ONLY);
+    }
+
+    @Test public void cleansCommittedPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage p = insert(tid);
+        bp.transactionComplete(tid);
+
+        PageWriter writer = bp.startPageWriter(0, 0);
+        Thread.sleep(TIMEOUT);
+
+        assertNull(p.isDirty());
+        assertEquals(1, writer.getPagesWritten());
+        // the tuple reached the file
+        HeapPage onDisk = (HeapPage)hf.readPage(p.getId());
+        assertEquals(onDisk.getNumEmptySlots(), p.getNumEmptySlots());
+    }
+
+    @Test public void skipsLockedPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage p = insert(tid);
+
+        PageWriter writer = bp.startPageWriter(0, 0);
+        Thread.sleep(TIMEOUT);
+
+        assertEquals(tid, p.isDirty());
+        assertEquals(0, writer.getPagesWritten());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * A page stays unwritten until the transaction that dirtied it commits,
+     * even if the transaction gave up its lock on the page.
+     */
+    @Test public void skipsUncommittedPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage p = insert(tid);
+        bp.releasePage(tid, p.getId());
+
+        PageWriter writer = bp.startPageWriter(0, 0);
+        Thread.sleep(TIMEOUT);
+        assertEquals(tid, p.isDirty());
+        assertEquals(0, writer.getPagesWritten());
+
+        bp.transactionComplete(tid, false);
+        assertEquals(504, ((HeapPage)hf.readPage(p.getId())).getNumEmptySlots());
+    }
+
+    @Test public void belowHighWatermarkDoesNothing() throws Exception {
+        TransactionId tid = new TransactionId();
+        HeapPage p = insert(tid);
+        bp.transactionComplete(tid);
+
+        PageWriter writer = bp.startPageWriter(0, 0.5);
+        Thread.sleep(TIMEOUT);
+
+        assertNotNull(p.isDirty());
+        assertEquals(0, writer.getPagesWritten());
+    }
+
+    @Test public void evictionFindsCleanedPage() throws Exception {
+        bp = Database.resetBufferPool(1);
+        TransactionId tid = new TransactionId();
+        insert(tid);
+        bp.transactionComplete(tid);
+        bp.startPageWriter(0, 0);
+        Thread.sleep(TIMEOUT);
+
+        HeapFile other = SystemTestUtil.createRandomHeapFile(1, 10, null, null);
+        tid = new TransactionId();
+        bp.getPage(tid, new HeapPageId(other.getId(), 0), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+
+        assertEquals(1, bp.getStallsAvoided());
+        assertEquals(0, bp.getDirtyEvictions());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageWriterTest.class);
+    }
+}
@@ -0,0 +1,105 @@
+package simpledb;
+
+import simpledb.TestUtil.SlowHeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+    private static final int TIMEOUT = 200;
+
+    private HeapFile hf;
+    private BufferPool bp;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // 10 pages of single-column tuples
+        hf = SystemTestUtil.createRandomHeapFile(1, 992 * 10, null, null);
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    private boolean cached(int pageNo) throws Exception {
+        // prefetchPage only reads pages that are not cached yet
+        return !bp.prefetchPage(new HeapPageId(hf.getId(), pageNo));
+    }
+
+    @Test public void sequentialAccessPrefetches() throws Exception {
+        ReadAhead ra = new ReadAhead(hf);
+        ra.pageAccessed(0);
+        ra.pageAccessed(1);
+        Thread.sleep(TIMEOUT);
+
+        assertTrue(ra.getWindow() >= 1);
+        assertTrue(cached(2));
+        assertFalse(cached(9));
+        ra.close();
+    }
+
+    @Test public void randomAccessDoesNotPrefetch() throws Exception {
+        ReadAhead ra = new ReadAhead(hf);
+        ra.pageAccessed(5);
+        ra.pageAccessed(2);
+        Thread.sleep(TIMEOUT);
+
+        assertFalse(cached(3));
+        assertFalse(cached(6));
+        ra.close();
+    }
+
+    @Test public void windowBoundedByPool() throws Exception {
+        bp = Database.resetBufferPool(4);
+        ReadAhead ra = new ReadAhead(hf);
+        for (int i = 0; i < 10; i++) {
+            ra.pageAccessed(i);
+            assertTrue(ra.getWindow() <= 1);
+        }
+        ra.close();
+    }
+
+    @Test(timeout = TIMEOUT * 25)
+    public void prefetchReadsOutsidePoolMonitor() throws Exception {
+        final SlowHeapFile slow = new SlowHeapFile(hf, 1);
+        Database.getCatalog().addTable(slow, "slow");
+        bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        final PageId p0 = new HeapPageId(hf.getId(), 0);
+        final PageId p1 = new HeapPageId(hf.getId(), 1);
+
+        Thread prefetcher = new Thread() {
+            public void run() {
+                try {
+                    bp.prefetchPage(p1);
+                } catch (DbException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        };
+        prefetcher.start();
+        slow.reading.await();
+        // the pool stays usable while the prefetch waits on the disk
+        TransactionId tid = new TransactionId();
+        bp.getPage(tid, p0, Permissions.READ_ONLY);
+        assertFalse(bp.prefetchPage(p1));
+
+        slow.proceed.countDown();
+        prefetcher.join();
+        // getPage finds the prefetched page instead of reading it again
+        bp.getPage(tid, p1, Permissions.READ_ONLY);
+        assertEquals(1, slow.reads());
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
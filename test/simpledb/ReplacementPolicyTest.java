@@ -0,0 +1,127 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest extends SimpleDbTestBase {
+    private static final int POOL = 8;
+
+    private static PageId page(int pgNo) {
+        return new HeapPageId(1, pgNo);
+    }
+
+    /**
+     * Simulates a pool of POOL pages driven by the specified policy.
+     *
+     * @return the set of pages resident after the accesses
+     */
+    private static Set<PageId> run(ReplacementPolicy policy, Set<PageId> resident, int... pages) {
+        for (int pgNo : pages) {
+            PageId pid = page(pgNo);
+            if (resident.contains(pid)) {
+                policy.pageHit(pid);
+                continue;
+            }
+            if (resident.size() >= POOL) {
+                PageId victim = policy.evict();
+                assertNotNull(victim);
+                assertTrue(resident.remove(victim));
+            }
+            resident.add(pid);
+            policy.pageMissed(pid);
+        }
+        return resident;
+    }
+
+    /** Touches pages 0 and 1 repeatedly, then scans 100 other pages. */
+    private static Set<PageId> hotSetThenScan(ReplacementPolicy policy) {
+        Set<PageId> resident = new HashSet<PageId>();
+        for (int i = 0; i < 3; i++) {
+            run(policy, resident, 0, 1);
+        }
+        for (int pgNo = 100; pgNo < 200; pgNo++) {
+            run(policy, resident, pgNo);
+        }
+        return resident;
+    }
+
+    @Test public void clockGivesSecondChance() {
+        ReplacementPolicy clock = ReplacementPolicy.Kind.CLOCK.create(POOL);
+        Set<PageId> resident = run(clock, new HashSet<PageId>(), 0, 1, 2, 3, 4, 5, 6, 7);
+        // every bit is set, so the hand clears all of them and evicts page 0
+        run(clock, resident, 8);
+        assertFalse(resident.contains(page(0)));
+        // page 1 is referenced again and survives the next eviction
+        run(clock, resident, 1, 9);
+        assertTrue(resident.contains(page(1)));
+        assertFalse(resident.contains(page(2)));
+    }
+
+    @Test public void twoQueueResistsScan() {
+        ReplacementPolicy twoQ = ReplacementPolicy.Kind.TWO_Q.create(POOL);
+        // pages 0 and 1 leave A1in, and are read again while still in A1out
+        Set<PageId> resident = run(twoQ, new HashSet<PageId>(), 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 0, 1);
+        for (int pgNo = 100; pgNo < 200; pgNo++) {
+            run(twoQ, resident, pgNo);
+        }
+        assertTrue(resident.contains(page(0)));
+        assertTrue(resident.contains(page(1)));
+    }
+
+    @Test public void arcResistsScan() {
+        Set<PageId> resident = hotSetThenScan(ReplacementPolicy.Kind.ARC.create(POOL));
+        assertTrue(resident.contains(page(0)));
+        assertTrue(resident.contains(page(1)));
+    }
+
+    @Test public void removedPageIsNotEvicted() {
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            ReplacementPolicy policy = kind.create(POOL);
+            policy.pageMissed(page(0));
+            policy.pageMissed(page(1));
+            policy.pageRemoved(page(0));
+            assertEquals(kind.toString(), page(1), policy.evict());
+            assertNull(kind.toString(), policy.evict());
+        }
+    }
+
+    @Test public void hitRate() {
+        ReplacementPolicy policy = ReplacementPolicy.Kind.CLOCK.create(POOL);
+        assertEquals(0.0, policy.getHitRate(), 0.0);
+        run(policy, new HashSet<PageId>(), 0, 1, 0, 0);
+        assertEquals(2, policy.getHits());
+        assertEquals(2, policy.getMisses());
+        assertEquals(0.5, policy.getHitRate(), 0.0);
+    }
+
+    /**
+     * Scans a table that fits in the pool twice through a BufferPool using
+     * each policy; the second scan only has hits.
+     */
+    @Test public void bufferPoolScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(1, 992 * 4, null, tuples);
+        for (ReplacementPolicy.Kind kind : ReplacementPolicy.Kind.values()) {
+            BufferPool bp = Database.resetBufferPool(POOL, kind);
+            SystemTestUtil.matchTuples(hf, tuples);
+            SystemTestUtil.matchTuples(hf, tuples);
+            assertTrue(kind.toString(), bp.getHitRate() >= 0.5);
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
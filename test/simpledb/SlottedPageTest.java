@@ -0,0 +1,190 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.STRING_TYPE },
+            new String[] { "id", "name" });
+
+    private HeapPageId pid;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void addTable() throws Exception {
+        this.pid = new HeapPageId(-1, 0);
+        Database.getCatalog().addTable(new SkeletonFile(-1, TD), SystemTestUtil.getUUID());
+    }
+
+    private static Tuple tuple(int id, String name) {
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(id));
+        t.setField(1, new StringField(name, Type.STRING_LEN));
+        return t;
+    }
+
+    private static ArrayList<String> contents(SlottedPage page) {
+        ArrayList<String> values = new ArrayList<String>();
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            values.add(((IntField)t.getField(0)).getValue() + ":" + t.getField(1));
+        }
+        return values;
+    }
+
+    @Test public void emptyPage() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        assertEquals(0, page.getNumTuples());
+        assertFalse(page.iterator().hasNext());
+        assertEquals(BufferPool.getPageSize() - SlottedPage.HEADER_SIZE, page.getFreeSpace());
+    }
+
+    @Test public void recordsTakeTheirOwnLength() throws Exception {
+        Tuple t = tuple(1, "short");
+        // 4 byte int, 2 byte length and 5 bytes of string
+        assertEquals(11, SlottedPage.getRecordSize(t));
+
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        int count = 0;
+        while (page.canHold(t)) {
+            page.insertTuple(tuple(count++, "short"));
+        }
+        // a HeapPage holds 30 of these tuples
+        assertTrue(count > 200);
+        assertEquals(count, page.getNumTuples());
+    }
+
+    @Test public void roundTrip() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        page.insertTuple(tuple(1, "a"));
+        page.insertTuple(tuple(2, ""));
+        page.insertTuple(tuple(3, "a much longer string value"));
+
+        SlottedPage copy = new SlottedPage(pid, page.getPageData());
+        assertEquals(contents(page), contents(copy));
+        assertEquals("[1:a, 2:, 3:a much longer string value]", contents(copy).toString());
+    }
+
+    @Test public void deleteCompactsInPlace() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        Tuple a = tuple(1, "aaaa");
+        Tuple b = tuple(2, "bbbbbbbb");
+        Tuple c = tuple(3, "cc");
+        page.insertTuple(a);
+        page.insertTuple(b);
+        page.insertTuple(c);
+        int free = page.getFreeSpace();
+
+        page.deleteTuple(b);
+        assertEquals(free + SlottedPage.getRecordSize(b), page.getFreeSpace());
+        assertEquals("[1:aaaa, 3:cc]", contents(page).toString());
+        // the other tuples keep their slots
+        Iterator<Tuple> it = page.iterator();
+        assertEquals(0, it.next().getRecordId().getTupleNumber());
+        assertEquals(2, it.next().getRecordId().getTupleNumber());
+        assertEquals(1, page.getNumEmptySlots());
+
+        // the empty slot is reused
+        Tuple d = tuple(4, "dd");
+        page.insertTuple(d);
+        assertEquals(1, d.getRecordId().getTupleNumber());
+        assertEquals("[1:aaaa, 4:dd, 3:cc]", contents(page).toString());
+
+        // deleting the last slot shrinks the directory
+        page.deleteTuple(c);
+        page.deleteTuple(d);
+        page.deleteTuple(a);
+        assertEquals(0, page.getNumTuples());
+        assertEquals(0, page.getNumEmptySlots());
+        assertArrayEquals(SlottedPage.createEmptyPageData(), page.getPageData());
+    }
+
+    @Test(expected=DbException.class)
+    public void deleteMissing() throws Exception {
+        SlottedPage page = new SlottedPage(pid, SlottedPage.createEmptyPageData());
+        Tuple t = tuple(1, "x");
+        page.insertTuple(t);
+        page.deleteTuple(t);
+        page.deleteTuple(t);
+    }
+
+    @Test public void fileScanAndDelete() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        SlottedHeapFile sf = new SlottedHeapFile(f, TD);
+        Database.getCatalog().addTable(sf, SystemTestUtil.getUUID());
+
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> inserted = new ArrayList<Tuple>();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = tuple(i, "name" + i);
+            Database.getBufferPool().insertTuple(tid, sf.getId(), t);
+            inserted.add(t);
+        }
+        Database.getBufferPool().deleteTuple(tid, inserted.get(10));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+
+        // the same tuples take 34 pages as a HeapFile
+        assertTrue(sf.numPages() <= 5);
+
+        tid = new TransactionId();
+        DbFileIterator it = sf.iterator(tid);
+        it.open();
+        int count = 0;
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertTrue(((IntField)t.getField(0)).getValue() != 10);
+            count++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(999, count);
+    }
+
+    /**
+     * A page a long tuple does not fit on still takes shorter tuples.
+     */
+    @Test public void shortTupleGoesToPageLongOneSkipped() throws Exception {
+        File f = File.createTempFile("slotted", ".dat");
+        f.deleteOnExit();
+        SlottedHeapFile sf = new SlottedHeapFile(f, TD);
+        Database.getCatalog().addTable(sf, SystemTestUtil.getUUID());
+
+        // 37 records of 110 bytes with their slots leave 22 bytes on page 0
+        String longName = new String(new char[100]).replace('\0', 'x');
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 38; i++) {
+            Database.getBufferPool().insertTuple(tid, sf.getId(), tuple(i, longName));
+        }
+        assertEquals(2, sf.numPages());
+
+        Tuple t = tuple(38, "x");
+        Database.getBufferPool().insertTuple(tid, sf.getId(), t);
+        assertEquals(0, t.getRecordId().getPageId().getPageNumber());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
@@ -1,10 +1,14 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
 
 import static org.junit.Assert.*;
 
+import simpledb.systemtest.SystemTestUtil;
+
 public class TestUtil {
     /**
      * @return an IntField with value n
@@ -190,6 +194,69 @@ public class TestUtil {
         return buf;
     }
 
+    /**
+     * @return a tuple of the specified TupleDesc whose fields are IntFields
+     *   with the specified values
+     */
+    public static Tuple intTuple(TupleDesc td, int... values) {
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < values.length; i++) {
+            t.setField(i, new IntField(values[i]));
+        }
+        return t;
+    }
+
+    /**
+     * Opens the iterator, reads all of its tuples and closes it.
+     *
+     * @return the tuples the iterator returned, in order
+     */
+    public static ArrayList<Tuple> drain(OpIterator it)
+        throws DbException, TransactionAbortedException {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        return tuples;
+    }
+
+    /**
+     * Inserts the tuples into the specified table in an order shuffled with
+     * the specified seed, in one transaction that is then committed.
+     */
+    public static void insertShuffled(int tableId, List<Tuple> tuples, long seed)
+        throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Tuple> shuffled = new ArrayList<Tuple>(tuples);
+        Collections.shuffle(shuffled, new Random(seed));
+        TransactionId tid = new TransactionId();
+        for (Tuple t : shuffled) {
+            Database.getBufferPool().insertTuple(tid, tableId, t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * @return a path in the temporary directory for the file of a new
+     *   table. Nothing exists there yet, and whatever is created there is
+     *   deleted when the JVM exits.
+     */
+    public static File tempTableFile(String prefix) throws IOException {
+        File f = File.createTempFile(prefix, ".dat");
+        f.delete();
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * @return a table name starting with prefix that no other table has,
+     *   usable in queries since it has no dashes
+     */
+    public static String uniqueTableName(String prefix) {
+        return prefix + SystemTestUtil.getUUID().replace("-", "");
+    }
+
     /**
      * Stub DbFile class for unit testing.
      */
@@ -214,6 +281,13 @@ public class TestUtil {
             throw new RuntimeException("not implemented");
         }
 
+        public void writePages(List<Page> pages) throws IOException {
+            throw new RuntimeException("not implemented");
+        }
+
+        public void close() {
+        }
+
         public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
             throw new RuntimeException("not implemented");
@@ -394,4 +468,57 @@ public class TestUtil {
         protected HeapFile empty;
         private final File emptyFile;
     }
+
+    /**
+     * A HeapFile whose reads of one page wait until the test lets them go
+     * on, to observe what other threads can do while a page is being read.
+     */
+    static class SlowHeapFile extends HeapFile {
+        /** counted down when a read of the slow page starts */
+        final CountDownLatch reading = new CountDownLatch(1);
+        /** count down to let reads of the slow page finish */
+        final CountDownLatch proceed = new CountDownLatch(1);
+        private final int slowPage;
+        private int reads;
+
+        /**
+         * @param f the file to read
+         * @param slowPage the number of the page whose reads are held back
+         */
+        SlowHeapFile(HeapFile f, int slowPage) {
+            super(f.getFile(), f.getTupleDesc());
+            this.slowPage = slowPage;
+        }
+
+        /**
+         * @return how many times the slow page was read
+         */
+        synchronized int reads() {
+            return reads;
+        }
+
+        private void stall(PageId pid) {
+            if (pid.getPageNumber() != slowPage)
+                return;
+            synchronized (this) {
+                reads++;
+            }
+            reading.countDown();
+            try {
+                proceed.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        public Page readPage(PageId pid) {
+            stall(pid);
+            return super.readPage(pid);
+        }
+
+        HeapPage readPage(PageId pid, ByteBuffer frameData, int frame) {
+            stall(pid);
+            return super.readPage(pid, frameData, frame);
+        }
+    }
 }
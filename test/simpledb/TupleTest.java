@@ -38,6 +38,16 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(td, tup.getTupleDesc());
     }
 
+    /**
+     * Unit test for Tuple.toString() with a field that was never set
+     */
+    @Test public void toStringWithNullField() {
+        Tuple tup = new Tuple(Utility.getTupleDesc(3));
+        tup.setField(0, new IntField(1));
+        tup.setField(2, new IntField(3));
+        assertEquals("1 null 3", tup.toString().trim());
+    }
+
     /**
      * Unit test for Tuple.getRecordId() and Tuple.setRecordId()
      */
@@ -0,0 +1,181 @@
+package simpledb;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ZoneMapTest extends SimpleDbTestBase {
+
+    private static final int ROWS = 3000;
+
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+            new String[] { "time", "value" });
+
+    private File file;
+    private HeapFile hf;
+    private String name;
+
+    /**
+     * Set up initial resources for each unit test.
+     */
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = TestUtil.tempTableFile("zones");
+        hf = new HeapFile(file, TD);
+        hf.enableZoneMap();
+        hf.getZoneMap().getFile().deleteOnExit();
+        name = TestUtil.uniqueTableName("zones");
+        Database.getCatalog().addTable(hf, name);
+
+        // rows arrive in time order, so each page covers a range of times
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < ROWS; i++) {
+            Database.getBufferPool().insertTuple(tid, hf.getId(), TestUtil.intTuple(TD, i, i % 7));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+    }
+
+    private static List<Predicate> where(int field, Predicate.Op op, int value) {
+        return Arrays.asList(new Predicate(field, op, new IntField(value)));
+    }
+
+    private ArrayList<Tuple> scan(TransactionId tid, List<Predicate> predicates) throws Exception {
+        ArrayList<Tuple> tuples = new ArrayList<Tuple>();
+        DbFileIterator it = hf.iterator(tid, 0, predicates);
+        it.open();
+        while (it.hasNext()) {
+            tuples.add(it.next());
+        }
+        it.close();
+        return tuples;
+    }
+
+    @Test public void rangeScanSkipsPages() throws Exception {
+        int perPage = BufferPool.getPageSize() * 8 / (TD.getSize() * 8 + 1);
+        int last = (ROWS - 1) / perPage;
+        assertEquals(last + 1, hf.numPages());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        ArrayList<Tuple> tuples = scan(tid, where(0, Predicate.Op.GREATER_THAN_OR_EQ, ROWS - 10));
+        // only the last page is read, whole
+        assertEquals(ROWS - last * perPage, tuples.size());
+        for (int pageNo = 0; pageNo < last; pageNo++) {
+            assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), pageNo)));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        // a predicate on a column that does not follow the order skips nothing
+        tid = new TransactionId();
+        assertEquals(ROWS, scan(tid, where(1, Predicate.Op.EQUALS, 3)).size());
+        assertEquals(0, scan(tid, where(1, Predicate.Op.GREATER_THAN, 6)).size());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void summariesPersist() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.close();
+        HeapFile reopened = new HeapFile(file, TD);
+        reopened.enableZoneMap();
+        ZoneMap zones = reopened.getZoneMap();
+        assertFalse(zones.mayMatch(0, where(0, Predicate.Op.LESS_THAN, -5)));
+        assertFalse(zones.mayMatch(0, where(0, Predicate.Op.GREATER_THAN, ROWS)));
+        assertTrue(zones.mayMatch(0, where(0, Predicate.Op.EQUALS, 0)));
+        assertTrue(zones.mayMatch(0, where(0, Predicate.Op.NOT_EQUALS, 0)));
+        reopened.close();
+    }
+
+    @Test public void staleSidecarIsIgnored() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        hf.close();
+        // rewrite the table without going through the HeapFile
+        ArrayList<ArrayList<Integer>> rows = new ArrayList<ArrayList<Integer>>();
+        rows.add(new ArrayList<Integer>(Arrays.asList(-100, 0)));
+        HeapFileEncoder.convert(rows, file, BufferPool.getPageSize(), 2);
+
+        HeapFile reopened = new HeapFile(file, TD);
+        reopened.enableZoneMap();
+        assertTrue(reopened.getZoneMap().mayMatch(0, where(0, Predicate.Op.LESS_THAN, -5)));
+        reopened.close();
+    }
+
+    @Test public void insertWidensSummary() throws Exception {
+        TransactionId tid = new TransactionId();
+        // the insert lands on the first page, where the delete made room
+        Tuple first = scan(tid, where(0, Predicate.Op.EQUALS, 0)).get(0);
+        Database.getBufferPool().deleteTuple(tid, first);
+        Database.getBufferPool().insertTuple(tid, hf.getId(), TestUtil.intTuple(TD, -1, 0));
+        assertEquals(0, first.getRecordId().getPageId().getPageNumber());
+
+        // the inserted tuple is only in the BufferPool, but its page is read
+        List<Predicate> negative = where(0, Predicate.Op.LESS_THAN, 0);
+        int found = 0;
+        for (Tuple t : scan(tid, negative)) {
+            if (negative.get(0).filter(t)) {
+                found++;
+            }
+        }
+        assertEquals(1, found);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void deleteNarrowsSummary() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (Tuple t : scan(tid, where(0, Predicate.Op.LESS_THAN, 100))) {
+            if (((IntField)t.getField(0)).getValue() < 100) {
+                Database.getBufferPool().deleteTuple(tid, t);
+            }
+        }
+        // the summary narrows once the page is written
+        assertTrue(hf.getZoneMap().mayMatch(0, where(0, Predicate.Op.LESS_THAN, 100)));
+        Database.getBufferPool().flushPages(tid);
+        Database.getBufferPool().transactionComplete(tid);
+        assertFalse(hf.getZoneMap().mayMatch(0, where(0, Predicate.Op.LESS_THAN, 100)));
+        assertTrue(hf.getZoneMap().mayMatch(0, where(0, Predicate.Op.EQUALS, 100)));
+    }
+
+    @Test public void plannerPushesFilters() throws Exception {
+        TableStats stats = new TableStats(hf.getId(), 1);
+        HashMap<String, TableStats> statsMap = new HashMap<String, TableStats>();
+        statsMap.put(name, stats);
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(hf.getId(), "t");
+        lp.addFilter("t.time", Predicate.Op.LESS_THAN, "10");
+        lp.addProjectField("t.time", null);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, statsMap, false);
+        plan.open();
+        int count = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            count++;
+        }
+        plan.close();
+        assertEquals(10, count);
+        assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(hf.getId(), 1)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}